@@ -0,0 +1,141 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Base64;
+
+import org.codeforafrica.citizenreporter.starreports.models.Blog;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.MapUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.DESKeySpec;
+
+public class WordPressDBBlogCacheTest extends InstrumentationTestCase {
+    private static final int ITERATIONS = 500;
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+    private int mLocalBlogId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+
+        Blog blog = new Blog("http://test.example.com/xmlrpc.php", "reporter", "s3cret");
+        blog.setHttpuser("httpuser");
+        blog.setHttppassword("httppass");
+        mDb.addBlog(blog);
+        mLocalBlogId = MapUtils.getMapInt(mDb.getAllBlogs().get(0), "id");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testPasswordsAreDecrypted() {
+        Blog blog = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        assertEquals("s3cret", blog.getPassword());
+        assertEquals("httppass", blog.getHttppassword());
+
+        // the cached copy decrypts the same
+        blog = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        assertEquals("s3cret", blog.getPassword());
+        assertEquals("httppass", blog.getHttppassword());
+    }
+
+    public void testCallerChangesDontLeakIntoCache() {
+        Blog blog = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        blog.setBlogName("changed but not saved");
+
+        assertFalse("changed but not saved".equals(mDb.instantiateBlogByLocalId(mLocalBlogId).getBlogName()));
+    }
+
+    public void testSaveBlogInvalidatesCache() {
+        Blog blog = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        blog.setBlogName("Renamed");
+        blog.setPassword("n3w");
+        mDb.saveBlog(blog);
+
+        Blog reloaded = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        assertEquals("Renamed", reloaded.getBlogName());
+        assertEquals("n3w", reloaded.getPassword());
+    }
+
+    public void testDeleteBlogInvalidatesCache() {
+        assertNotNull(mDb.instantiateBlogByLocalId(mLocalBlogId));
+        mDb.deleteBlog(mTargetContext, mLocalBlogId);
+        assertNull(mDb.instantiateBlogByLocalId(mLocalBlogId));
+    }
+
+    public void testVisibilityChangeInvalidatesCache() {
+        assertFalse(mDb.instantiateBlogByLocalId(mLocalBlogId).isHidden());
+        Blog blog = mDb.instantiateBlogByLocalId(mLocalBlogId);
+        blog.setDotcomFlag(true);
+        mDb.saveBlog(blog);
+        mDb.setDotComBlogsVisibility(mLocalBlogId, false);
+        assertTrue(mDb.instantiateBlogByLocalId(mLocalBlogId).isHidden());
+    }
+
+    public void testCallsPerSecond() throws Exception {
+        String encrypted = WordPressDB.encryptPassword("s3cret");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacyDecryptPassword(encrypted);
+        }
+        long legacyDecryptNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            WordPressDB.decryptPassword(encrypted);
+        }
+        long decryptNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDb.invalidateBlogCache();
+            mDb.instantiateBlogByLocalId(mLocalBlogId);
+        }
+        long uncachedNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDb.instantiateBlogByLocalId(mLocalBlogId);
+        }
+        long cachedNs = System.nanoTime() - start;
+
+        AppLog.i(T.TESTS, "decryptPassword calls/s - new cipher per call: " + callsPerSecond(legacyDecryptNs)
+                + ", thread-local cipher: " + callsPerSecond(decryptNs));
+        AppLog.i(T.TESTS, "instantiateBlogByLocalId calls/s - uncached: " + callsPerSecond(uncachedNs)
+                + ", cached: " + callsPerSecond(cachedNs));
+        assertTrue(cachedNs < uncachedNs);
+    }
+
+    private static long callsPerSecond(long elapsedNs) {
+        return ITERATIONS * 1000000000L / Math.max(1, elapsedNs);
+    }
+
+    /*
+     * decryptPassword as it was before the ciphers were kept per thread
+     */
+    private static String legacyDecryptPassword(String encryptedPwd) throws Exception {
+        DESKeySpec keySpec = new DESKeySpec(WordPressDB.PASSWORD_SECRET.getBytes("UTF-8"));
+        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("DES");
+        SecretKey key = keyFactory.generateSecret(keySpec);
+        Cipher cipher = Cipher.getInstance("DES");
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        return new String(cipher.doFinal(Base64.decode(encryptedPwd, Base64.DEFAULT)));
+    }
+}
@@ -0,0 +1,149 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+import org.wordpress.android.util.helpers.MediaFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WordPressDBMediaSyncTest extends InstrumentationTestCase {
+    private static final String BLOG_ID = "1";
+    private static final int PAGE_SIZE = 50;
+    private static final int[] LIBRARY_SIZES = {500, 5000};
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testFullRefreshRemovesMissingMedia() {
+        assertEquals(20, mDb.saveMediaLibraryPage(BLOG_ID, createPage(0, 20, "first"), true));
+        assertEquals(20, mDb.getMediaCountAll(BLOG_ID));
+
+        // the server no longer returns the first five items
+        assertEquals(15, mDb.saveMediaLibraryPage(BLOG_ID, createPage(5, 15, "second"), true));
+        assertEquals(15, mDb.getMediaCountAll(BLOG_ID));
+        Cursor c = mDb.getMediaFile(BLOG_ID, "5");
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("second 5", c.getString(c.getColumnIndex("title")));
+        } finally {
+            c.close();
+        }
+
+        // later pages don't mark anything as deleted
+        assertEquals(10, mDb.saveMediaLibraryPage(BLOG_ID, createPage(20, 10, "third"), false));
+        assertEquals(25, mDb.getMediaCountAll(BLOG_ID));
+    }
+
+    public void testMediaQueuedForDeleteIsKept() {
+        mDb.saveMediaLibraryPage(BLOG_ID, createPage(0, 3, "first"), true);
+        mDb.updateMediaUploadState(BLOG_ID, "1", "delete");
+
+        assertEquals(2, mDb.saveMediaLibraryPage(BLOG_ID, createPage(0, 3, "second"), false));
+        Cursor c = mDb.getMediaFile(BLOG_ID, "1");
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("first 1", c.getString(c.getColumnIndex("title")));
+            assertEquals("delete", c.getString(c.getColumnIndex("uploadState")));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testLocalFileIsMatchedByPath() {
+        MediaFile local = createMediaFile(0, "local");
+        local.setMediaId(null);
+        local.setPostID(7);
+        local.setFilePath("/sdcard/image-0.jpg");
+        mDb.saveMediaFile(local);
+
+        MediaFile uploaded = createMediaFile(42, "uploaded");
+        uploaded.setPostID(7);
+        uploaded.setFilePath("/sdcard/image-0.jpg");
+        mDb.saveMediaFile(uploaded);
+
+        assertEquals(1, SqlUtils.getRowCount(mDb.getDatabase(), "media"));
+    }
+
+    public void testMediaLibrarySyncTimings() {
+        for (int librarySize : LIBRARY_SIZES) {
+            long start = System.currentTimeMillis();
+            for (int offset = 0; offset < librarySize; offset += PAGE_SIZE) {
+                saveOneByOne(createPage(offset, PAGE_SIZE, "title"), offset == 0);
+            }
+            long oneByOneTime = System.currentTimeMillis() - start;
+            assertEquals(librarySize, mDb.getMediaCountAll(BLOG_ID));
+            clearMedia();
+
+            start = System.currentTimeMillis();
+            for (int offset = 0; offset < librarySize; offset += PAGE_SIZE) {
+                mDb.saveMediaLibraryPage(BLOG_ID, createPage(offset, PAGE_SIZE, "title"), offset == 0);
+            }
+            long pageTime = System.currentTimeMillis() - start;
+            assertEquals(librarySize, mDb.getMediaCountAll(BLOG_ID));
+
+            AppLog.i(T.TESTS, "media library of " + librarySize + " items - one by one: " + oneByOneTime
+                    + " ms, one transaction per page: " + pageTime + " ms");
+            clearMedia();
+        }
+    }
+
+    private void clearMedia() {
+        mDb.getDatabase().delete("media", null, null);
+    }
+
+    /*
+     * the previous sync, each file saved in its own implicit transaction
+     */
+    private void saveOneByOne(List<MediaFile> page, boolean isFullRefresh) {
+        if (isFullRefresh) {
+            mDb.setMediaFilesMarkedForDeleted(BLOG_ID);
+        }
+        for (MediaFile mediaFile : page) {
+            mDb.saveMediaFile(mediaFile);
+        }
+        mDb.deleteFilesMarkedForDeleted(BLOG_ID);
+    }
+
+    private static List<MediaFile> createPage(int offset, int count, String title) {
+        List<MediaFile> page = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            page.add(createMediaFile(i, title));
+        }
+        return page;
+    }
+
+    private static MediaFile createMediaFile(int mediaId, String title) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setBlogId(BLOG_ID);
+        mediaFile.setMediaId(Integer.toString(mediaId));
+        mediaFile.setTitle(title + " " + mediaId);
+        mediaFile.setFileName("image-" + mediaId + ".jpg");
+        mediaFile.setFileURL("http://example.files.wordpress.com/image-" + mediaId + ".jpg");
+        mediaFile.setMimeType("image/jpeg");
+        mediaFile.setDateCreatedGMT(mediaId * 1000L);
+        return mediaFile;
+    }
+}
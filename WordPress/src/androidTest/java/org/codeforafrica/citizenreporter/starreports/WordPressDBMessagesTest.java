@@ -0,0 +1,243 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.codeforafrica.citizenreporter.starreports.chat.ChatOutbox;
+import org.codeforafrica.citizenreporter.starreports.chat.Message;
+import org.codeforafrica.citizenreporter.starreports.datasets.ChatOutboxTable;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WordPressDBMessagesTest extends InstrumentationTestCase {
+    private static final int BLOG_ID = 1;
+    private static final long OUTBOX_TIMEOUT_MS = 5000;
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ChatOutbox.setSender(null);
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testRemoteMessagesAreNotDuplicated() {
+        assertEquals(20, mDb.addRemoteMessages(createRemoteMessages(0, 20)));
+        // the next sync overlaps the previous one
+        assertEquals(10, mDb.addRemoteMessages(createRemoteMessages(10, 20)));
+        assertEquals(30, mDb.getMessageCount());
+
+        // local messages have no remote id, they're never treated as duplicates
+        Message local = new Message();
+        local.setMessage("hello");
+        local.setIsMine("1");
+        assertTrue(mDb.addMessage(local) > 0);
+        assertTrue(mDb.addMessage(local) > 0);
+        assertEquals(32, mDb.getMessageCount());
+    }
+
+    public void testLegacyMessagesAreMatchedOnFirstSync() {
+        // saved before the upgrade to db version 45, without remote id or date
+        for (int i = 0; i < 5; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WordPressDB.COLUMN_MESSAGE, "message " + i);
+            values.put(WordPressDB.COLUMN_IS_MINE, "2");
+            mDb.getDatabase().insert(WordPressDB.TABLE_MESSAGES, null, values);
+        }
+
+        // the first sync asks for everything since id 0
+        assertEquals(15, mDb.addRemoteMessages(createRemoteMessages(0, 20)));
+        assertEquals(20, mDb.getMessageCount());
+        assertEquals(0, SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM " + WordPressDB.TABLE_MESSAGES
+                + " WHERE " + WordPressDB.COLUMN_REMOTE_ID + " IS NULL", null));
+    }
+
+    public void testPushedMessagesAreMatchedOnSync() {
+        // received by push before the sync, saved with the current date and no remote id
+        Message pushed = new Message();
+        pushed.setMessage("message 3");
+        pushed.setIsMine("2");
+        assertTrue(mDb.addMessage(pushed) > 0);
+
+        // the user's own message with the same text is left alone
+        Message mine = new Message();
+        mine.setMessage("message 4");
+        mine.setIsMine("1");
+        assertTrue(mDb.addMessage(mine) > 0);
+
+        assertEquals(4, mDb.addRemoteMessages(createRemoteMessages(0, 5)));
+        assertEquals(6, mDb.getMessageCount());
+        assertEquals(1, SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM " + WordPressDB.TABLE_MESSAGES
+                + " WHERE " + WordPressDB.COLUMN_REMOTE_ID + " IS NULL AND " + WordPressDB.COLUMN_IS_MINE + "='1'",
+                null));
+    }
+
+    public void testSinceIdIsKeptPerBlog() {
+        assertEquals(0, mDb.getMessagesSinceId(BLOG_ID));
+        mDb.setMessagesSinceId(BLOG_ID, 42);
+        assertEquals(42, mDb.getMessagesSinceId(BLOG_ID));
+        assertEquals(0, mDb.getMessagesSinceId(BLOG_ID + 1));
+    }
+
+    public void testMessagesArePagedNewestLast() {
+        mDb.addRemoteMessages(createRemoteMessages(0, 120));
+
+        Cursor c = mDb.getMessagesCursor(50);
+        try {
+            assertEquals(50, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals("message 70", c.getString(c.getColumnIndex(WordPressDB.COLUMN_MESSAGE)));
+            assertTrue(c.moveToLast());
+            assertEquals("message 119", c.getString(c.getColumnIndex(WordPressDB.COLUMN_MESSAGE)));
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+    }
+
+    public void testOutboxKeepsOrderAndCoalescesDoubleTaps() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        ChatOutbox.setSender(new ChatOutbox.Sender() {
+            @Override
+            public ChatOutbox.SendResult send(String username, String text) {
+                awaitRelease(release);
+                sent.add(text);
+                return ChatOutbox.SendResult.SENT;
+            }
+        });
+
+        long first = ChatOutbox.send(mTargetContext, "user", "first");
+        long second = ChatOutbox.send(mTargetContext, "user", "second");
+        // double tap while the first message is still being sent
+        assertEquals(second, ChatOutbox.send(mTargetContext, "user", "second"));
+        assertTrue(first != second);
+        assertEquals(2, mDb.getMessageCount());
+
+        release.countDown();
+        waitForEmptyOutbox();
+        assertEquals(Arrays.asList("first", "second"), sent);
+    }
+
+    public void testOutboxGivesUpAndMovesOn() throws Exception {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        ChatOutbox.setSender(new ChatOutbox.Sender() {
+            @Override
+            public ChatOutbox.SendResult send(String username, String text) {
+                if ("rejected".equals(text)) {
+                    return ChatOutbox.SendResult.REJECTED;
+                }
+                sent.add(text);
+                return ChatOutbox.SendResult.SENT;
+            }
+        });
+
+        ChatOutbox.send(mTargetContext, "user", "rejected");
+        ChatOutbox.send(mTargetContext, "user", "next");
+        waitForEmptyOutbox();
+        assertEquals(Arrays.asList("next"), sent);
+        assertEquals(1, ChatOutbox.getFailedCount());
+    }
+
+    public void testOutboxRetriesUntilMaxAttempts() {
+        // no sender runs, the entry is only written
+        mDb.getDatabase().beginTransaction();
+        try {
+            ChatOutboxTable.enqueue(mDb.getDatabase(), 1, "user", "text");
+            mDb.getDatabase().setTransactionSuccessful();
+        } finally {
+            mDb.getDatabase().endTransaction();
+        }
+
+        assertTrue(ChatOutboxTable.markFailed(ChatOutboxTable.peek(), "offline", 3, 60000, 60000));
+        assertTrue(ChatOutboxTable.getNextAttemptDate() > System.currentTimeMillis());
+        assertTrue(ChatOutboxTable.markFailed(ChatOutboxTable.peek(), "offline", 3, 60000, 60000));
+        assertFalse(ChatOutboxTable.markFailed(ChatOutboxTable.peek(), "offline", 3, 60000, 60000));
+
+        assertNull(ChatOutboxTable.peek());
+        assertEquals(0, ChatOutboxTable.getCount());
+        assertEquals(1, ChatOutboxTable.getFailedCount());
+    }
+
+    public void testBatchedInsertTimings() {
+        int count = 2000;
+        List<Message> messages = createRemoteMessages(0, count);
+
+        long start = System.currentTimeMillis();
+        for (Message message : messages) {
+            mDb.addMessage(message);
+        }
+        long oneByOneTime = System.currentTimeMillis() - start;
+        mDb.getDatabase().delete(WordPressDB.TABLE_MESSAGES, null, null);
+
+        start = System.currentTimeMillis();
+        int inserted = mDb.addRemoteMessages(messages);
+        long batchedTime = System.currentTimeMillis() - start;
+
+        // a full re-sync of the same messages
+        start = System.currentTimeMillis();
+        int duplicates = mDb.addRemoteMessages(messages);
+        long resyncTime = System.currentTimeMillis() - start;
+
+        AppLog.i(T.TESTS, count + " messages - one insert per message: " + oneByOneTime + " ms, batched: "
+                + batchedTime + " ms, re-sync of the same messages: " + resyncTime + " ms");
+        assertEquals(count, inserted);
+        assertEquals(0, duplicates);
+    }
+
+    /*
+     * the outbox is sent on a background thread
+     */
+    private static void waitForEmptyOutbox() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + OUTBOX_TIMEOUT_MS;
+        while (ChatOutbox.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, ChatOutbox.getPendingCount());
+    }
+
+    private static void awaitRelease(CountDownLatch latch) {
+        try {
+            latch.await(OUTBOX_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Message> createRemoteMessages(int firstId, int count) {
+        List<Message> messages = new ArrayList<Message>();
+        long baseDate = 1420070400000L;
+        for (int i = firstId; i < firstId + count; i++) {
+            Message message = new Message();
+            message.setMessage("message " + i);
+            message.setIsMine("2");
+            message.setUser("admin");
+            message.setRemoteId(Integer.toString(i));
+            message.setDateCreated(baseDate + i * 1000L);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
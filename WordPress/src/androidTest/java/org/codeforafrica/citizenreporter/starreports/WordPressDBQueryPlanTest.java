@@ -0,0 +1,205 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class WordPressDBQueryPlanTest extends InstrumentationTestCase {
+    private static final int NUM_ROWS = 50000;
+    private static final int NUM_BLOGS = 10;
+
+    // the statements run by the query methods of WordPressDB that filter rows, keyed by method name - the
+    // parameters are left unbound, which doesn't change the plan
+    private static final Map<String, String> QUERIES = new LinkedHashMap<>();
+    static {
+        QUERIES.put("getMediaFilesForBlog", WordPressDB.SQL_MEDIA_FOR_BLOG);
+        QUERIES.put("getMediaFilesForBlog(searchTerm)", WordPressDB.SQL_MEDIA_SEARCH);
+        QUERIES.put("getMediaFile", WordPressDB.SQL_MEDIA_FILE);
+        QUERIES.put("getMediaImagesForBlog", WordPressDB.SQL_MEDIA_IMAGES_FOR_BLOG);
+        QUERIES.put("getMediaUnattachedForBlog", WordPressDB.SQL_MEDIA_UNATTACHED_FOR_BLOG);
+        QUERIES.put("getMediaFiles", WordPressDB.buildMediaFilesQuery(2));
+        QUERIES.put("getMediaFilesForPost", WordPressDB.SQL_MEDIA_FOR_POST);
+        QUERIES.put("getMediaFile(src)", WordPressDB.SQL_MEDIA_FILE_FOR_POST);
+        QUERIES.put("saveMediaFile", WordPressDB.MediaFileStatements.SQL_IS_MARKED_FOR_DELETE);
+        QUERIES.put("saveMediaFile(update)", WordPressDB.MediaFileStatements.SQL_UPDATE_BY_MEDIA_ID);
+        QUERIES.put("saveMediaFile(update by path)", WordPressDB.MediaFileStatements.SQL_UPDATE_BY_FILE_PATH);
+        QUERIES.put("deleteMediaFilesForPost", "DELETE FROM media WHERE " + WordPressDB.WHERE_MEDIA_FOR_POST);
+        QUERIES.put("getMediaUploadQueue", WordPressDB.SQL_MEDIA_UPLOAD_QUEUE);
+        QUERIES.put("getMediaDeleteQueueItems", WordPressDB.SQL_MEDIA_DELETE_QUEUE);
+        for (String table : new String[]{"posts", "assignments", "lessons"}) {
+            QUERIES.put("list " + table, "SELECT * FROM " + table + " WHERE " + WordPressDB.WHERE_POSTS_LIST
+                    + " ORDER BY " + WordPressDB.ORDER_POSTS_LIST);
+            QUERIES.put("loadDrafts " + table, "SELECT * FROM " + table + " WHERE " + WordPressDB.WHERE_DRAFTS);
+            QUERIES.put("loadUploadedPosts " + table, "SELECT * FROM " + table + " WHERE "
+                    + WordPressDB.WHERE_UPLOADED_POSTS);
+        }
+        QUERIES.put("findLocalChanges", "SELECT * FROM posts WHERE " + WordPressDB.WHERE_LOCAL_CHANGES);
+        QUERIES.put("deletePost", "DELETE FROM posts WHERE " + WordPressDB.WHERE_LOCAL_POST);
+        QUERIES.put("getThemesTrending", WordPressDB.SQL_THEMES_TRENDING);
+        QUERIES.put("saveTheme", "UPDATE themes SET name='' WHERE " + WordPressDB.WHERE_THEME_ID);
+        QUERIES.put("getTheme", WordPressDB.SQL_THEME);
+        QUERIES.put("loadCategories", "SELECT * FROM cats WHERE " + WordPressDB.WHERE_CATEGORIES);
+        QUERIES.put("getCategoryId", "SELECT wp_id FROM cats WHERE " + WordPressDB.WHERE_CATEGORY_NAME);
+        QUERIES.put("getPostPayment", WordPressDB.SQL_POST_PAYMENT);
+    }
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testQueriesDontScanTables() {
+        SQLiteDatabase db = mDb.getDatabase();
+        Map<String, String> queries = new LinkedHashMap<>(QUERIES);
+        // built from the columns the table has
+        WordPressDB.SyncedPostStatements statements = new WordPressDB.SyncedPostStatements(db, "posts", false);
+        queries.put("syncPosts(update)", statements.getUpdateSql());
+        statements.close();
+
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            // full-text indexes are virtual tables, their MATCH shows up as a scan
+            String plan = getQueryPlan(db, query.getValue()).replaceAll("SCAN [^;]*VIRTUAL TABLE INDEX", "");
+            assertFalse(query.getKey() + " scans a table: " + plan, plan.contains("SCAN"));
+        }
+    }
+
+    public void testQueryTimings() {
+        SQLiteDatabase db = mDb.getDatabase();
+        seedMedia(db);
+        seedPosts(db);
+
+        long indexedMedia = timeMediaQueries();
+        long indexedPosts = timePostsQueries();
+
+        dropSecondaryIndexes(db);
+        assertTrue(getQueryPlan(db, QUERIES.get("getMediaUploadQueue")).contains("SCAN"));
+
+        long scannedMedia = timeMediaQueries();
+        long scannedPosts = timePostsQueries();
+
+        AppLog.i(T.TESTS, NUM_ROWS + " media - indexed: " + indexedMedia + " ms, without indexes: "
+                + scannedMedia + " ms");
+        AppLog.i(T.TESTS, NUM_ROWS + " posts - indexed: " + indexedPosts + " ms, without indexes: "
+                + scannedPosts + " ms");
+    }
+
+    private long timeMediaQueries() {
+        long start = System.currentTimeMillis();
+        for (int blogId = 1; blogId <= NUM_BLOGS; blogId++) {
+            String blog = Integer.toString(blogId);
+            Cursor c = mDb.getMediaFilesForBlog(blog);
+            c.getCount();
+            c.close();
+            c = mDb.getMediaUploadQueue(blog);
+            c.getCount();
+            c.close();
+            c = mDb.getMediaFile(blog, Integer.toString(blogId * 100));
+            c.getCount();
+            c.close();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private long timePostsQueries() {
+        long start = System.currentTimeMillis();
+        for (int blogId = 1; blogId <= NUM_BLOGS; blogId++) {
+            mDb.getPostsListPosts(blogId, false);
+            mDb.findLocalChanges(blogId, false);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static String getQueryPlan(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = c.getColumnIndex("detail");
+            while (c.moveToNext()) {
+                plan.append(c.getString(detail)).append("; ");
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+        return plan.toString();
+    }
+
+    private static void dropSecondaryIndexes(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name LIKE 'idx_%'"
+                + " AND tbl_name IN ('media', 'posts')", null);
+        try {
+            while (c.moveToNext()) {
+                db.execSQL("DROP INDEX " + c.getString(0));
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+    }
+
+    private static void seedMedia(SQLiteDatabase db) {
+        SQLiteStatement stmt = db.compileStatement("INSERT INTO media (postID, filePath, title, mediaId, blogId,"
+                + " date_created_gmt, uploadState) VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_ROWS; i++) {
+                stmt.bindLong(1, i % 20 == 0 ? 0 : i / 20);
+                stmt.bindString(2, "/sdcard/image-" + i + ".jpg");
+                stmt.bindString(3, "Image " + i);
+                stmt.bindString(4, Integer.toString(i));
+                stmt.bindString(5, Integer.toString(1 + (i % NUM_BLOGS)));
+                stmt.bindLong(6, i * 1000L);
+                stmt.bindString(7, i % 100 == 0 ? "queued" : "uploaded");
+                stmt.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmt);
+        }
+    }
+
+    private static void seedPosts(SQLiteDatabase db) {
+        SQLiteStatement stmt = db.compileStatement("INSERT INTO posts (blogID, postid, title, date_created_gmt,"
+                + " localDraft, isPage, isLocalChange) VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_ROWS; i++) {
+                stmt.bindString(1, Integer.toString(1 + (i % NUM_BLOGS)));
+                stmt.bindString(2, Integer.toString(i));
+                stmt.bindString(3, "Post " + i);
+                stmt.bindLong(4, i * 1000L);
+                stmt.bindLong(5, i % 50 == 0 ? 1 : 0);
+                stmt.bindLong(6, i % 10 == 0 ? 1 : 0);
+                stmt.bindLong(7, i % 200 == 0 ? 1 : 0);
+                stmt.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmt);
+        }
+    }
+}
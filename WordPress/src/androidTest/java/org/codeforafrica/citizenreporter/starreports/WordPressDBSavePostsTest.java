@@ -0,0 +1,125 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WordPressDBSavePostsTest extends InstrumentationTestCase {
+    private static final int BLOG_ID = 1;
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testCustomFieldsAreCopiedToColumns() {
+        mDb.savePosts(createPosts(1, "who"), BLOG_ID, false, false, true, false);
+
+        SQLiteDatabase db = mDb.getDatabase();
+        assertEquals("who", SqlUtils.stringForQuery(db, "SELECT qwho FROM posts WHERE postid='0'", null));
+        assertEquals("42", SqlUtils.stringForQuery(db, "SELECT assignment_id FROM posts WHERE postid='0'", null));
+        // the questionnaire "null" string isn't copied, the column keeps its default value
+        assertEquals("", SqlUtils.stringForQuery(db, "SELECT qwhere FROM posts WHERE postid='0'", null));
+    }
+
+    public void testAssignmentFields() {
+        mDb.savePosts(createPosts(1, "who"), BLOG_ID, false, true, true, false);
+
+        SQLiteDatabase db = mDb.getDatabase();
+        assertEquals("Nairobi", SqlUtils.stringForQuery(db, "SELECT location FROM assignments WHERE postid='0'", null));
+        assertEquals("100", SqlUtils.stringForQuery(db, "SELECT bounty FROM assignments WHERE postid='0'", null));
+    }
+
+    public void testUpdateKeepsFieldsMissingFromServer() {
+        mDb.savePosts(createPosts(3, "who"), BLOG_ID, false, false, true, false);
+        // the second sync doesn't include the qwho answer
+        mDb.savePosts(createPosts(3, "null"), BLOG_ID, false, false, true, false);
+
+        SQLiteDatabase db = mDb.getDatabase();
+        assertEquals(3, SqlUtils.intForQuery(db, "SELECT COUNT(*) FROM posts", null));
+        assertEquals("who", SqlUtils.stringForQuery(db, "SELECT qwho FROM posts WHERE postid='1'", null));
+    }
+
+    public void testLocalChangesAreNotOverwritten() {
+        mDb.savePosts(createPosts(1, "who"), BLOG_ID, false, false, true, false);
+        SQLiteDatabase db = mDb.getDatabase();
+        db.execSQL("UPDATE posts SET title='local title', isLocalChange=1");
+
+        mDb.savePosts(createPosts(1, "who"), BLOG_ID, false, false, false, false);
+        assertEquals(1, SqlUtils.intForQuery(db, "SELECT COUNT(*) FROM posts WHERE title='local title'", null));
+    }
+
+    public void testSavePostsTimings() {
+        for (int count : new int[]{100, 1000, 5000}) {
+            List<Object> posts = createPosts(count, "who");
+
+            long start = System.currentTimeMillis();
+            mDb.savePosts(posts, BLOG_ID, false, false, true, false);
+            long insertTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            mDb.savePosts(posts, BLOG_ID, false, false, true, false);
+            long updateTime = System.currentTimeMillis() - start;
+
+            AppLog.i(T.TESTS, "savePosts " + count + " posts - insert: " + insertTime + " ms, update: "
+                    + updateTime + " ms");
+            assertEquals(count, SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM posts", null));
+            mDb.getDatabase().delete("posts", null, null);
+        }
+    }
+
+    private static List<Object> createPosts(int count, String qwho) {
+        List<Object> posts = new ArrayList<Object>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> post = new HashMap<String, Object>();
+            post.put("postid", Integer.toString(i));
+            post.put("title", "Post " + i);
+            post.put("description", "Lorem ipsum dolor sit amet " + i);
+            post.put("dateCreated", new Date());
+            post.put("post_status", "publish");
+            post.put("categories", new Object[]{"News", "Politics"});
+            post.put("custom_fields", new Object[]{
+                    customField("qwho", qwho),
+                    customField("qwhere", "null"),
+                    customField("assignment_id", "42"),
+                    customField("assignment_address", "Nairobi"),
+                    customField("assignment_bounty", "100"),
+                    customField("geo_latitude", "-1.28"),
+                    customField("geo_longitude", "36.82")});
+            posts.add(post);
+        }
+        return posts;
+    }
+
+    private static Map<String, Object> customField(String key, String value) {
+        Map<String, Object> field = new HashMap<String, Object>();
+        field.put("key", key);
+        field.put("value", value);
+        return field;
+    }
+}
@@ -0,0 +1,305 @@
+package org.codeforafrica.citizenreporter.starreports;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+import org.xmlrpc.android.XMLRPCClient;
+import org.xmlrpc.android.XMLRPCStructHandler;
+
+import java.io.ByteArrayInputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class WordPressDBSyncPostsTest extends InstrumentationTestCase {
+    private static final int BLOG_ID = 1;
+    private static final int PAGE_SIZE = 10;
+    private static final long NEWEST_DATE = 1420070400000L;
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testRefreshKeepsOlderItems() {
+        mDb.syncPosts(createPosts(0, 30, true), BLOG_ID, false, true, true, false, false);
+
+        // the newest item was deleted on the server, the refresh returns the first page
+        WordPressDB.PostsSyncResult result = mDb.syncPosts(createPosts(1, PAGE_SIZE, true), BLOG_ID, false, true,
+                true, false, false);
+
+        assertEquals(1, result.deletedCount);
+        assertEquals(29, countAssignments());
+        assertEquals(0, SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM assignments WHERE postid='0'",
+                null));
+    }
+
+    public void testCompleteResponseDeletesMissingItems() {
+        mDb.syncPosts(createPosts(0, 30, true), BLOG_ID, false, true, true, false, false);
+        WordPressDB.PostsSyncResult result = mDb.syncPosts(createPosts(0, 20, true), BLOG_ID, false, true, true,
+                false, true);
+
+        assertEquals(10, result.deletedCount);
+        assertEquals(20, countAssignments());
+    }
+
+    public void testUnchangedItemsAreNotSaved() {
+        List<Map<?, ?>> posts = createPosts(0, 20, true);
+        mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+
+        WordPressDB.PostsSyncResult result = mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+        assertEquals(0, result.savedCount);
+        assertEquals(20, result.unchangedCount);
+
+        // one item was edited on the server
+        Map<Object, Object> edited = new HashMap<Object, Object>(posts.get(5));
+        edited.put("title", "edited");
+        edited.put("date_modified_gmt", new Date(NEWEST_DATE + 60000));
+        posts.set(5, edited);
+        result = mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+        assertEquals(1, result.savedCount);
+        assertEquals(1, SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM assignments WHERE title='edited'",
+                null));
+    }
+
+    public void testEditsOnLaterPagesAreSaved() {
+        List<Map<?, ?>> posts = createPosts(0, 2 * PAGE_SIZE, true);
+        mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+
+        // an item of the second page is edited, then one of the first page
+        Map<Object, Object> olderEdit = new HashMap<Object, Object>(posts.get(15));
+        olderEdit.put("title", "edited");
+        olderEdit.put("date_modified_gmt", new Date(NEWEST_DATE + 60000));
+        posts.set(15, olderEdit);
+        Map<Object, Object> newerEdit = new HashMap<Object, Object>(posts.get(0));
+        newerEdit.put("date_modified_gmt", new Date(NEWEST_DATE + 120000));
+        posts.set(0, newerEdit);
+
+        // a refresh of the first page, then the second page is loaded
+        WordPressDB.PostsSyncResult result = mDb.syncPosts(posts.subList(0, PAGE_SIZE), BLOG_ID, false, true, true,
+                false, false);
+        assertEquals(1, result.savedCount);
+        result = mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+        assertEquals(1, result.savedCount);
+        assertEquals(1, SqlUtils.intForQuery(mDb.getDatabase(),
+                "SELECT COUNT(*) FROM assignments WHERE postid='15' AND title='edited'", null));
+    }
+
+    public void testItemsAreSavedWithoutModifiedDates() {
+        List<Map<?, ?>> posts = createPosts(0, 20, false);
+        mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+        WordPressDB.PostsSyncResult result = mDb.syncPosts(posts, BLOG_ID, false, true, true, false, false);
+
+        assertEquals(20, result.savedCount);
+        assertEquals(20, countAssignments());
+    }
+
+    public void testPageOneVsPageTenTimings() throws Exception {
+        for (int page : new int[]{1, 10}) {
+            int count = page * PAGE_SIZE;
+            byte[] response = createResponse(count, "").getBytes("UTF-8");
+
+            long start = System.currentTimeMillis();
+            Object[] result = (Object[]) XMLRPCClient.parseXMLRPCResponse(new ByteArrayInputStream(response), null);
+            long parseTime = System.currentTimeMillis() - start;
+            assertEquals(count, result.length);
+
+            List<Map<?, ?>> posts = new ArrayList<Map<?, ?>>();
+            for (Object post : result) {
+                posts.add((Map<?, ?>) post);
+            }
+
+            // what a refresh used to do
+            start = System.currentTimeMillis();
+            mDb.deleteUploadedAssignments(BLOG_ID);
+            mDb.savePosts(posts, BLOG_ID, false, true, true, false);
+            long fullSaveTime = System.currentTimeMillis() - start;
+            mDb.getDatabase().delete("assignments", null, null);
+
+            // the previous pages were synced before
+            mDb.syncPosts(posts.subList(0, count - PAGE_SIZE), BLOG_ID, false, true, true, false, false);
+            start = System.currentTimeMillis();
+            WordPressDB.PostsSyncResult syncResult = mDb.syncPosts(posts, BLOG_ID, false, true, false, false, false);
+            long syncTime = System.currentTimeMillis() - start;
+            assertEquals(PAGE_SIZE, syncResult.savedCount);
+
+            AppLog.i(T.TESTS, "page " + page + " (" + count + " items) - " + response.length + " bytes, parse: "
+                    + parseTime + " ms, delete+save: " + fullSaveTime + " ms, incremental sync: " + syncTime
+                    + " ms (" + syncResult.savedCount + " saved)");
+            assertEquals(count, countAssignments());
+            mDb.getDatabase().delete("assignments", null, null);
+        }
+    }
+
+    public void testStreamingParseMatchesTreeParse() throws Exception {
+        byte[] response = createResponse(25, "").getBytes("UTF-8");
+        final List<Map<?, ?>> streamed = new ArrayList<Map<?, ?>>();
+        int count = XMLRPCClient.parseXMLRPCResponse(new ByteArrayInputStream(response), null,
+                new XMLRPCStructHandler() {
+                    @Override
+                    public void onStruct(Map<?, ?> struct) {
+                        streamed.add(struct);
+                    }
+                });
+        Object[] result = (Object[]) XMLRPCClient.parseXMLRPCResponse(new ByteArrayInputStream(response), null);
+
+        assertEquals(result.length, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(result[i], streamed.get(i));
+        }
+    }
+
+    public void testStreamingSyncBenchmark() throws Exception {
+        // 100 items with large bodies, as returned by metaWeblog.getRecentPosts
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("&lt;p&gt;Lorem ipsum dolor sit amet, consectetur adipiscing elit.&lt;/p&gt;");
+        }
+        byte[] response = createResponse(100, body.toString()).getBytes("UTF-8");
+
+        // peak heap in use above the baseline while the response is parsed and saved: the tree parse holds every
+        // item until the save is done, the streaming parse only the item being read and the current batch. The
+        // samples include garbage that wasn't collected yet, so the numbers are only meaningful next to each other
+        HeapSampler heap = new HeapSampler();
+        long start = System.currentTimeMillis();
+        Object[] result = (Object[]) XMLRPCClient.parseXMLRPCResponse(new ByteArrayInputStream(response), null);
+        heap.sample();
+        List<Map<?, ?>> posts = new ArrayList<Map<?, ?>>();
+        for (Object post : result) {
+            posts.add((Map<?, ?>) post);
+        }
+        WordPressDB.PostsSyncResult treeResult = mDb.syncPosts(posts, BLOG_ID, false, true, true, false, true);
+        heap.sample();
+        long treeTime = System.currentTimeMillis() - start;
+        long treePeak = heap.getPeak();
+        posts = null;
+        result = null;
+
+        mDb.getDatabase().delete("assignments", null, null);
+
+        final HeapSampler streamHeap = new HeapSampler();
+        start = System.currentTimeMillis();
+        final WordPressDB.PostsSync sync = mDb.beginPostsSync(BLOG_ID, false, true, true, false);
+        int count = XMLRPCClient.parseXMLRPCResponse(new ByteArrayInputStream(response), null,
+                new XMLRPCStructHandler() {
+                    @Override
+                    public void onStruct(Map<?, ?> struct) {
+                        streamHeap.sample();
+                        sync.onStruct(struct);
+                    }
+                });
+        WordPressDB.PostsSyncResult streamResult = sync.finish(true);
+        streamHeap.sample();
+        long streamTime = System.currentTimeMillis() - start;
+        long streamPeak = streamHeap.getPeak();
+
+        AppLog.i(T.TESTS, count + " items, " + response.length + " bytes - parse then save: " + treeTime + " ms, "
+                + treePeak + " bytes peak heap; streaming: " + streamTime + " ms, " + streamPeak
+                + " bytes peak heap");
+        assertEquals(100, count);
+        assertEquals(treeResult.savedCount, streamResult.savedCount);
+        assertEquals(100, countAssignments());
+    }
+
+    /*
+     * largest heap use seen above the heap in use when it was created, sampled with Runtime since the
+     * allocation counters in Debug are deprecated
+     */
+    private static class HeapSampler {
+        private final Runtime mRuntime = Runtime.getRuntime();
+        private final long mBaseline;
+        private long mPeak;
+
+        HeapSampler() {
+            mRuntime.gc();
+            mBaseline = getUsedMemory();
+        }
+
+        void sample() {
+            mPeak = Math.max(mPeak, getUsedMemory() - mBaseline);
+        }
+
+        long getPeak() {
+            return mPeak;
+        }
+
+        private long getUsedMemory() {
+            return mRuntime.totalMemory() - mRuntime.freeMemory();
+        }
+    }
+
+    private int countAssignments() {
+        return SqlUtils.intForQuery(mDb.getDatabase(), "SELECT COUNT(*) FROM assignments", null);
+    }
+
+    /*
+     * newest first, as returned by the server
+     */
+    private static List<Map<?, ?>> createPosts(int firstIndex, int count, boolean withModifiedDates) {
+        List<Map<?, ?>> posts = new ArrayList<Map<?, ?>>();
+        for (int i = firstIndex; i < firstIndex + count; i++) {
+            Map<String, Object> post = new HashMap<String, Object>();
+            Date date = new Date(NEWEST_DATE - i * 60000L);
+            post.put("postid", Integer.toString(i));
+            post.put("title", "Assignment " + i);
+            post.put("description", "Lorem ipsum dolor sit amet " + i);
+            post.put("dateCreated", date);
+            post.put("date_created_gmt", date);
+            if (withModifiedDates) {
+                post.put("date_modified_gmt", date);
+            }
+            post.put("post_status", "publish");
+            posts.add(post);
+        }
+        return posts;
+    }
+
+    private static String createResponse(int count, String body) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params>"
+                + "<param><value><array><data>");
+        for (int i = 0; i < count; i++) {
+            String date = dateFormat.format(new Date(NEWEST_DATE - i * 60000L));
+            sb.append("<value><struct>");
+            appendMember(sb, "postid", "string", Integer.toString(i));
+            appendMember(sb, "title", "string", "Assignment " + i);
+            appendMember(sb, "description", "string", "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i
+                    + body);
+            appendMember(sb, "dateCreated", "dateTime.iso8601", date);
+            appendMember(sb, "date_created_gmt", "dateTime.iso8601", date);
+            appendMember(sb, "date_modified_gmt", "dateTime.iso8601", date);
+            appendMember(sb, "post_status", "string", "publish");
+            sb.append("</struct></value>");
+        }
+        sb.append("</data></array></value></param></params></methodResponse>");
+        return sb.toString();
+    }
+
+    private static void appendMember(StringBuilder sb, String name, String type, String value) {
+        sb.append("<member><name>").append(name).append("</name><value><").append(type).append(">")
+                .append(value).append("</").append(type).append("></value></member>");
+    }
+}
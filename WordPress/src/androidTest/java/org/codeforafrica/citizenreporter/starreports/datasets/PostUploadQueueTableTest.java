@@ -0,0 +1,127 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.WordPressDB;
+import org.codeforafrica.citizenreporter.starreports.datasets.PostUploadQueueTable.QueuedUpload;
+import org.codeforafrica.citizenreporter.starreports.models.PostUploadQueueStats;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PostUploadQueueTableTest extends InstrumentationTestCase {
+    private static final int BLOG_ID = 1;
+
+    private Context mTargetContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        WordPress.wpDB = new WordPressDB(mTargetContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testHigherPriorityFirst() {
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_LOW);
+        PostUploadQueueTable.enqueue(2, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        PostUploadQueueTable.enqueue(3, BLOG_ID, PostUploadQueueTable.PRIORITY_HIGH);
+        PostUploadQueueTable.enqueue(4, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+
+        List<Long> running = new ArrayList<Long>();
+        long[] expectedOrder = {3, 2, 4, 1};
+        for (long expectedPostId : expectedOrder) {
+            QueuedUpload upload = PostUploadQueueTable.dequeueNext(running);
+            assertNotNull(upload);
+            assertEquals(expectedPostId, upload.postId);
+            running.add(upload.postId);
+        }
+        assertNull(PostUploadQueueTable.dequeueNext(running));
+    }
+
+    public void testFailedUploadIsRetriedWithBackoff() {
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        QueuedUpload upload = PostUploadQueueTable.dequeueNext(null);
+
+        long before = System.currentTimeMillis();
+        assertTrue(PostUploadQueueTable.markFailed(upload, "timeout", 2, 60000));
+        // not runnable until the backoff delay is over
+        assertNull(PostUploadQueueTable.dequeueNext(null));
+        assertTrue(PostUploadQueueTable.getNextAttemptDate() >= before + 60000);
+
+        // second failure with maxAttempts=2 gives up
+        QueuedUpload retried = new QueuedUpload(upload.postId, upload.blogId, upload.priority, 1, upload.generation);
+        assertFalse(PostUploadQueueTable.markFailed(retried, "timeout", 2, 60000));
+        assertEquals(1, PostUploadQueueTable.getStats().numFailed);
+        assertFalse(PostUploadQueueTable.hasPendingUploads());
+    }
+
+    public void testRetriesGoBehindNewPublishes() {
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_HIGH);
+        QueuedUpload upload = PostUploadQueueTable.dequeueNext(null);
+        assertTrue(PostUploadQueueTable.markFailed(upload, "timeout", 5, 0));
+
+        PostUploadQueueTable.enqueue(2, BLOG_ID, PostUploadQueueTable.PRIORITY_HIGH);
+        List<Long> running = new ArrayList<Long>();
+        QueuedUpload next = PostUploadQueueTable.dequeueNext(running);
+        assertEquals(2, next.postId);
+        running.add(next.postId);
+
+        QueuedUpload retry = PostUploadQueueTable.dequeueNext(running);
+        assertEquals(1, retry.postId);
+        assertEquals(PostUploadQueueTable.PRIORITY_NORMAL, retry.priority);
+    }
+
+    public void testInFlightUploadsSurviveRestart() {
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        assertNotNull(PostUploadQueueTable.dequeueNext(null));
+        assertEquals(1, PostUploadQueueTable.getStats().numInFlight);
+
+        // the process is killed, a new database connection is opened when the app restarts
+        WordPress.wpDB = new WordPressDB(mTargetContext);
+        assertEquals(1, PostUploadQueueTable.requeueAllInFlight());
+
+        QueuedUpload upload = PostUploadQueueTable.dequeueNext(null);
+        assertNotNull(upload);
+        assertEquals(1, upload.postId);
+    }
+
+    public void testRequeuedWhileUploadingKeepsNewEntry() {
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        QueuedUpload oldUpload = PostUploadQueueTable.dequeueNext(null);
+
+        // the post is edited and queued again while the old version is still uploading
+        PostUploadQueueTable.enqueue(1, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        PostUploadQueueTable.markDone(oldUpload);
+
+        PostUploadQueueStats stats = PostUploadQueueTable.getStats();
+        assertEquals(1, stats.numQueued);
+        assertEquals(0, stats.numDone);
+    }
+
+    public void testStats() {
+        for (int i = 1; i <= 10; i++) {
+            PostUploadQueueTable.enqueue(i, BLOG_ID, PostUploadQueueTable.PRIORITY_NORMAL);
+        }
+        PostUploadQueueTable.markDone(PostUploadQueueTable.dequeueNext(null));
+        PostUploadQueueTable.dequeueNext(null);
+
+        PostUploadQueueStats stats = PostUploadQueueTable.getStats();
+        AppLog.i(AppLog.T.TESTS, "post upload queue: " + stats);
+        assertEquals(8, stats.getDepth());
+        assertEquals(1, stats.numInFlight);
+        assertEquals(1, stats.numDone);
+        assertEquals(0, stats.numFailed);
+    }
+}
@@ -0,0 +1,105 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.test.InstrumentationTestCase;
+
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPostList;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.actions.ReaderActions.UpdateResult;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+public class ReaderPostTableTest extends InstrumentationTestCase {
+    private static final long BLOG_ID = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ReaderDatabase.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ReaderDatabase.reset();
+        super.tearDown();
+    }
+
+    public void testUnchanged() {
+        ReaderPostTable.addOrUpdatePosts(null, createPosts(BLOG_ID, 20));
+        assertEquals(UpdateResult.UNCHANGED, ReaderPostTable.comparePosts(createPosts(BLOG_ID, 20)));
+    }
+
+    public void testChanged() {
+        ReaderPostTable.addOrUpdatePosts(null, createPosts(BLOG_ID, 20));
+        ReaderPostList posts = createPosts(BLOG_ID, 20);
+        posts.get(12).numLikes++;
+        assertEquals(UpdateResult.CHANGED, ReaderPostTable.comparePosts(posts));
+    }
+
+    public void testHasNew() {
+        ReaderPostTable.addOrUpdatePosts(null, createPosts(BLOG_ID, 20));
+        ReaderPostList posts = createPosts(BLOG_ID, 21);
+        posts.get(3).isLikedByCurrentUser = true;
+        assertEquals(UpdateResult.HAS_NEW, ReaderPostTable.comparePosts(posts));
+    }
+
+    public void testSamePostIdInAnotherBlogIsNew() {
+        ReaderPostTable.addOrUpdatePosts(null, createPosts(BLOG_ID, 20));
+        assertEquals(UpdateResult.HAS_NEW, ReaderPostTable.comparePosts(createPosts(BLOG_ID + 1, 20)));
+    }
+
+    public void testMatchesPerPostQueries() {
+        ReaderPostTable.addOrUpdatePosts(null, createPosts(BLOG_ID, 600));
+        for (int count : new int[]{20, 100, 500}) {
+            ReaderPostList posts = createPosts(BLOG_ID, count);
+            posts.get(count / 2).numReplies++;
+
+            long start = System.nanoTime();
+            UpdateResult perPostResult = comparePostsOneByOne(posts);
+            long perPostMs = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            UpdateResult bulkResult = ReaderPostTable.comparePosts(posts);
+            long bulkMs = (System.nanoTime() - start) / 1000000;
+
+            int bulkQueries = (count + ReaderPostTable.COMPARE_POSTS_CHUNK_SIZE - 1)
+                    / ReaderPostTable.COMPARE_POSTS_CHUNK_SIZE;
+            AppLog.i(T.TESTS, "comparePosts " + count + " posts - one query per post: " + count + " queries, "
+                    + perPostMs + " ms, bulk: " + bulkQueries + " queries, " + bulkMs + " ms");
+            assertEquals(perPostResult, bulkResult);
+            assertEquals(UpdateResult.CHANGED, bulkResult);
+        }
+    }
+
+    /*
+     * comparePosts as it was before it read the posts in bulk
+     */
+    private static UpdateResult comparePostsOneByOne(ReaderPostList posts) {
+        boolean hasChanges = false;
+        for (ReaderPost post: posts) {
+            ReaderPost existingPost = ReaderPostTable.getPost(post.blogId, post.postId, true);
+            if (existingPost == null) {
+                return UpdateResult.HAS_NEW;
+            } else if (!hasChanges && !post.isSamePost(existingPost)) {
+                hasChanges = true;
+            }
+        }
+        return (hasChanges ? UpdateResult.CHANGED : UpdateResult.UNCHANGED);
+    }
+
+    private static ReaderPostList createPosts(long blogId, int count) {
+        ReaderPostList posts = new ReaderPostList();
+        for (int i = 1; i <= count; i++) {
+            ReaderPost post = new ReaderPost();
+            post.blogId = blogId;
+            post.postId = i;
+            post.setPseudoId(blogId + "-" + i);
+            post.setTitle("Post " + i);
+            post.numLikes = i % 7;
+            post.numReplies = i % 3;
+            post.isCommentsOpen = true;
+            post.isLikesEnabled = true;
+            posts.add(post);
+        }
+        return posts;
+    }
+}
@@ -0,0 +1,210 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.WordPressDB;
+import org.codeforafrica.citizenreporter.starreports.models.PostsListPost;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchIndexTableTest extends InstrumentationTestCase {
+    private static final String BLOG_ID = "1";
+    private static final int[] TABLE_SIZES = {10000, 100000};
+    private static final String[] WORDS = {"flood", "election", "market", "school", "road", "water", "clinic",
+            "protest", "harvest", "budget"};
+
+    private Context mTargetContext;
+    private WordPressDB mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        mDb = new WordPressDB(mTargetContext);
+        WordPress.wpDB = mDb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testMatchQuery() {
+        assertNull(SearchIndexTable.getMatchQuery(null));
+        assertNull(SearchIndexTable.getMatchQuery("  \" - "));
+        assertEquals("\"floo*\"", SearchIndexTable.getMatchQuery("floo"));
+        assertEquals("\"road\" \"NOT\" \"clos*\"", SearchIndexTable.getMatchQuery(" road NOT \"clos"));
+    }
+
+    public void testIndexFollowsTable() {
+        SQLiteDatabase db = mDb.getDatabase();
+        long id = insertPost(db, BLOG_ID, "Flood warning", "The river is rising");
+        assertEquals(1, SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "river", 0, 10).size());
+
+        ContentValues values = new ContentValues();
+        values.put("description", "The road is closed");
+        db.update("posts", values, "id=?", new String[]{Long.toString(id)});
+        assertTrue(SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "river", 0, 10).isEmpty());
+        assertEquals(1, SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "road clo", 0, 10).size());
+
+        // changes to columns that aren't indexed leave the index alone
+        values = new ContentValues();
+        values.put("isLocalChange", 1);
+        db.update("posts", values, "id=?", new String[]{Long.toString(id)});
+        assertEquals(1, SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "road", 0, 10).size());
+
+        db.delete("posts", "id=?", new String[]{Long.toString(id)});
+        assertTrue(SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "flood", 0, 10).isEmpty());
+    }
+
+    public void testSearchPostsRanksTitlesFirst() {
+        SQLiteDatabase db = mDb.getDatabase();
+        long inDescription = insertPost(db, BLOG_ID, "Weather report", "A flood hit the market");
+        long inTitle = insertPost(db, BLOG_ID, "Flood in the market", "Traders lost their stock");
+        insertPost(db, "2", "Flood elsewhere", "Another blog");
+
+        List<PostsListPost> posts = mDb.searchPosts(1, "flood", false, 0, 10);
+        assertEquals(2, posts.size());
+        assertEquals(inTitle, posts.get(0).getPostId());
+        assertEquals(inDescription, posts.get(1).getPostId());
+
+        posts = mDb.searchPosts(1, "flood", false, 1, 10);
+        assertEquals(1, posts.size());
+        assertEquals(inDescription, posts.get(0).getPostId());
+    }
+
+    public void testSearchPagesFollowTheRanking() {
+        SQLiteDatabase db = mDb.getDatabase();
+        long once = insertPost(db, BLOG_ID, "Report", "Flood on the road");
+        long threeTimes = insertPost(db, BLOG_ID, "Report", "Flood, more flooding and the flood barrier");
+        long twice = insertPost(db, BLOG_ID, "Report", "Flood and flood");
+        long sameAsOnce = insertPost(db, BLOG_ID, "Report", "The flood");
+
+        List<Long> firstPage = SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "flood", 0, 2);
+        assertEquals(Arrays.asList(threeTimes, twice), firstPage);
+
+        // the same rank puts newer rows first
+        List<Long> secondPage = SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "flood", 2, 2);
+        assertEquals(Arrays.asList(sameAsOnce, once), secondPage);
+
+        assertTrue(SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "flood", 4, 2).isEmpty());
+    }
+
+    public void testSearchRanksWholeWords() {
+        SQLiteDatabase db = mDb.getDatabase();
+        long wholeWords = insertPost(db, BLOG_ID, "Report", "The cat and the other cat met a dog");
+        // "cat" appears four times in the text, but only once as a word
+        long partOfWords = insertPost(db, BLOG_ID, "Report", "The cat from the category catalogue saw a catapult dog");
+
+        List<Long> ids = SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, "cat dog", 0, 10);
+        assertEquals(Arrays.asList(wholeWords, partOfWords), ids);
+    }
+
+    public void testMediaSearchMatchesTitlePrefix() {
+        SQLiteDatabase db = mDb.getDatabase();
+        insertMedia(db, 1, "Harvest festival", "school children");
+        insertMedia(db, 2, "School opening", "harvest season");
+
+        Cursor c = mDb.getMediaFilesForBlog(BLOG_ID, "harv");
+        try {
+            assertEquals(1, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals("1", c.getString(c.getColumnIndex("mediaId")));
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+
+        // characters that are operators in a full-text query are ignored
+        c = mDb.getMediaFilesForBlog(BLOG_ID, "-school* \"");
+        try {
+            assertEquals(1, c.getCount());
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+    }
+
+    public void testSearchTimings() {
+        SQLiteDatabase db = mDb.getDatabase();
+        int numRows = 0;
+        for (int tableSize : TABLE_SIZES) {
+            seedPosts(db, numRows, tableSize);
+            numRows = tableSize;
+
+            long start = System.currentTimeMillis();
+            int numMatches = 0;
+            for (String word : WORDS) {
+                numMatches += SearchIndexTable.search(SearchIndexTable.Index.POSTS, BLOG_ID, word, 0, 20).size();
+            }
+            long ftsTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            int numLikeMatches = 0;
+            for (String word : WORDS) {
+                Cursor c = db.rawQuery("SELECT id FROM posts WHERE blogID=? AND (title LIKE ? OR description LIKE ?)"
+                        + " ORDER BY date_created_gmt DESC LIMIT 20",
+                        new String[]{BLOG_ID, "%" + word + "%", "%" + word + "%"});
+                numLikeMatches += c.getCount();
+                SqlUtils.closeCursor(c);
+            }
+            long likeTime = System.currentTimeMillis() - start;
+            assertEquals(numLikeMatches, numMatches);
+
+            AppLog.i(T.TESTS, "search of " + tableSize + " posts - full-text index: " + ftsTime
+                    + " ms, LIKE: " + likeTime + " ms");
+        }
+    }
+
+    private static void seedPosts(SQLiteDatabase db, int from, int to) {
+        SQLiteStatement stmt = db.compileStatement("INSERT INTO posts (blogID, postid, title, description,"
+                + " date_created_gmt) VALUES (?1, ?2, ?3, ?4, ?5)");
+        db.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                stmt.bindString(1, BLOG_ID);
+                stmt.bindString(2, Integer.toString(i));
+                stmt.bindString(3, "Report " + i + " on the " + WORDS[i % WORDS.length]);
+                stmt.bindString(4, "Filed about the " + WORDS[(i / WORDS.length) % WORDS.length] + " today");
+                stmt.bindLong(5, i * 1000L);
+                stmt.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmt);
+        }
+    }
+
+    private static long insertPost(SQLiteDatabase db, String blogId, String title, String description) {
+        ContentValues values = new ContentValues();
+        values.put("blogID", blogId);
+        values.put("title", title);
+        values.put("description", description);
+        values.put("isPage", 0);
+        values.put("localDraft", 1);
+        return db.insert("posts", null, values);
+    }
+
+    private static void insertMedia(SQLiteDatabase db, int mediaId, String title, String caption) {
+        ContentValues values = new ContentValues();
+        values.put("blogId", BLOG_ID);
+        values.put("mediaId", Integer.toString(mediaId));
+        values.put("title", title);
+        values.put("caption", caption);
+        values.put("uploadState", "uploaded");
+        db.insert("media", null, values);
+    }
+}
@@ -0,0 +1,123 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.WordPressDB;
+import org.codeforafrica.citizenreporter.starreports.models.Suggestion;
+import org.codeforafrica.citizenreporter.starreports.models.Tag;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SuggestionTableTest extends InstrumentationTestCase {
+    private static final int SITE_ID = 1;
+    private static final int NUM_SUGGESTIONS = 5000;
+
+    private Context mTargetContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        WordPress.wpDB = new WordPressDB(mTargetContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testInsertSuggestionsForSiteReplacesChangedRows() {
+        assertEquals(3, SuggestionTable.insertSuggestionsForSite(SITE_ID, createSuggestions(3, "User")));
+        SuggestionTable.insertSuggestionsForSite(SITE_ID + 1,
+                Arrays.asList(new Suggestion(SITE_ID + 1, "other", "Other", "", "mention")));
+
+        // the same list writes nothing
+        assertEquals(0, SuggestionTable.insertSuggestionsForSite(SITE_ID, createSuggestions(3, "User")));
+
+        // one changed user, one removed
+        List<Suggestion> suggestions = createSuggestions(2, "User");
+        suggestions.set(1, new Suggestion(SITE_ID, "user1", "Renamed", "", "mention"));
+        assertEquals(2, SuggestionTable.insertSuggestionsForSite(SITE_ID, suggestions));
+
+        List<Suggestion> stored = SuggestionTable.getSuggestionsForSite(SITE_ID);
+        assertEquals(2, stored.size());
+        assertEquals("User 0", stored.get(0).getDisplayName());
+        assertEquals("Renamed", stored.get(1).getDisplayName());
+
+        // other sites are left alone
+        assertEquals(1, SuggestionTable.getSuggestionsForSite(SITE_ID + 1).size());
+
+        assertEquals(2, SuggestionTable.insertSuggestionsForSite(SITE_ID, null));
+        assertTrue(SuggestionTable.getSuggestionsForSite(SITE_ID).isEmpty());
+    }
+
+    public void testInsertTagsForSite() {
+        List<Tag> tags = Arrays.asList(new Tag(SITE_ID, "news"), new Tag(SITE_ID, "sports"),
+                new Tag(SITE_ID, "news"));
+        assertEquals(2, SuggestionTable.insertTagsForSite(SITE_ID, tags));
+
+        tags = Arrays.asList(new Tag(SITE_ID, "news"), new Tag(SITE_ID, "politics"));
+        assertEquals(2, SuggestionTable.insertTagsForSite(SITE_ID, tags));
+
+        List<Tag> stored = SuggestionTable.getTagsForSite(SITE_ID);
+        assertEquals(2, stored.size());
+        assertEquals("news", stored.get(0).getTag());
+        assertEquals("politics", stored.get(1).getTag());
+    }
+
+    public void testRefreshTimings() {
+        List<Suggestion> suggestions = createSuggestions(NUM_SUGGESTIONS, "User");
+
+        long start = System.currentTimeMillis();
+        refreshOneByOne(suggestions);
+        long oneByOneTime = System.currentTimeMillis() - start;
+        assertEquals(NUM_SUGGESTIONS, SuggestionTable.getSuggestionsForSite(SITE_ID).size());
+        SuggestionTable.deleteSuggestionsForSite(SITE_ID);
+
+        start = System.currentTimeMillis();
+        SuggestionTable.insertSuggestionsForSite(SITE_ID, suggestions);
+        long transactionTime = System.currentTimeMillis() - start;
+        assertEquals(NUM_SUGGESTIONS, SuggestionTable.getSuggestionsForSite(SITE_ID).size());
+
+        // a refresh where a tenth of the users changed
+        List<Suggestion> changed = createSuggestions(NUM_SUGGESTIONS, "User");
+        for (int i = 0; i < NUM_SUGGESTIONS; i += 10) {
+            changed.set(i, new Suggestion(SITE_ID, "user" + i, "Changed " + i, "", "mention"));
+        }
+        start = System.currentTimeMillis();
+        assertEquals(NUM_SUGGESTIONS / 10, SuggestionTable.insertSuggestionsForSite(SITE_ID, changed));
+        long diffTime = System.currentTimeMillis() - start;
+
+        AppLog.i(T.TESTS, "refresh of " + NUM_SUGGESTIONS + " suggestions - one by one: " + oneByOneTime
+                + " ms, single transaction: " + transactionTime + " ms, with 10% changed: " + diffTime + " ms");
+    }
+
+    /*
+     * the previous refresh, each suggestion inserted in its own implicit transaction
+     */
+    private static void refreshOneByOne(List<Suggestion> suggestions) {
+        SuggestionTable.deleteSuggestionsForSite(SITE_ID);
+        for (Suggestion suggestion : suggestions) {
+            SuggestionTable.addSuggestion(suggestion);
+        }
+    }
+
+    private static List<Suggestion> createSuggestions(int count, String displayName) {
+        List<Suggestion> suggestions = new ArrayList<Suggestion>(count);
+        for (int i = 0; i < count; i++) {
+            suggestions.add(new Suggestion(SITE_ID, "user" + i, displayName + " " + i,
+                    "http://gravatar.com/avatar/" + i, "mention"));
+        }
+        return suggestions;
+    }
+}
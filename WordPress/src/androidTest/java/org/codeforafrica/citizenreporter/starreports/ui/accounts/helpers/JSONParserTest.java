@@ -0,0 +1,146 @@
+package org.codeforafrica.citizenreporter.starreports.ui.accounts.helpers;
+
+import android.test.InstrumentationTestCase;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONObject;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.xmlrpc.android.XMLRPCConnectionPool;
+import org.xmlrpc.android.XMLRPCStubServer;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class JSONParserTest extends InstrumentationTestCase {
+    private static final int CALL_COUNT = 20;
+    private static final int THREAD_COUNT = 4;
+
+    private XMLRPCStubServer mServer;
+    private String mEndpoint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        XMLRPCConnectionPool.reset();
+        JSONParser.resetStats();
+        mServer = new XMLRPCStubServer(new XMLRPCStubServer.Responder() {
+            @Override
+            public String respond(String requestBody) {
+                return respondWithUsername(requestBody);
+            }
+        });
+        mServer.start();
+        mEndpoint = URI.create(mServer.getUrl()).getPath();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        XMLRPCConnectionPool.reset();
+        super.tearDown();
+    }
+
+    public void testResponseIsParsed() throws Exception {
+        JSONObject json = new JSONParser().getJSONFromUrl(mServer.getUrl(), params("réporter"));
+        assertNotNull(json);
+        assertEquals("OK", json.getString("result"));
+        assertEquals("réporter", json.getString("username"));
+        assertEquals(3, json.getInt("count"));
+        assertEquals(12345678901L, json.getLong("big"));
+        assertEquals(1.5, json.getDouble("ratio"));
+        assertTrue(json.getBoolean("active"));
+        assertTrue(json.isNull("avatar"));
+        assertEquals(2, json.getJSONArray("tags").length());
+        assertEquals("b", json.getJSONArray("tags").getJSONObject(1).getString("name"));
+    }
+
+    public void testInvalidResponseReturnsNull() {
+        assertNull(new JSONParser().getJSONFromUrl(mServer.getUrl(), params("invalid")));
+        assertNull(new JSONParser().getJSONFromUrl(mServer.getUrl(), params("array")));
+
+        JSONParser.EndpointStats stats = JSONParser.getStats(mEndpoint);
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(2, stats.getErrorCount());
+    }
+
+    /*
+     * the parser used to keep each response in static fields, so concurrent calls could return each
+     * other's response
+     */
+    public void testConcurrentCallsGetTheirOwnResponse() throws Exception {
+        final JSONParser parser = new JSONParser();
+        final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int threadNumber = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < CALL_COUNT; i++) {
+                        String username = "user" + threadNumber + "_" + i;
+                        JSONObject json = parser.getJSONFromUrl(mServer.getUrl(), params(username));
+                        if (json == null || !username.equals(json.optString("username"))) {
+                            mismatches.add(username);
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        assertTrue("mismatched responses: " + mismatches, mismatches.isEmpty());
+        assertEquals(THREAD_COUNT * CALL_COUNT, JSONParser.getStats(mEndpoint).getRequestCount());
+        // the pooled connections are kept alive between calls
+        assertTrue(mServer.getConnectionCount() <= XMLRPCConnectionPool.MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    public void testPooledConnectionTimings() {
+        mServer.setLatencyMs(20);
+        JSONParser parser = new JSONParser();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < CALL_COUNT; i++) {
+            parser.getJSONFromUrl(mServer.getUrl(), params("user" + i));
+        }
+        long pooledTime = System.currentTimeMillis() - start;
+        int pooledConnections = mServer.getConnectionCount();
+
+        JSONParser.EndpointStats stats = JSONParser.getStats(mEndpoint);
+        AppLog.i(T.TESTS, CALL_COUNT + " API calls - " + pooledConnections + " connections, " + pooledTime
+                + " ms, " + stats);
+        assertEquals(1, pooledConnections);
+        assertEquals(CALL_COUNT, stats.getRequestCount());
+        assertEquals(0, stats.getErrorCount());
+        assertTrue(stats.getMaxLatencyMs() >= stats.getAverageLatencyMs());
+    }
+
+    private static List<NameValuePair> params(String username) {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("username", username));
+        return params;
+    }
+
+    private static String respondWithUsername(String requestBody) {
+        String username = "";
+        try {
+            username = URLDecoder.decode(requestBody.substring(requestBody.indexOf('=') + 1), "UTF-8");
+        } catch (Exception e) {
+            // nop
+        }
+        if ("invalid".equals(username)) {
+            return "<html><body>Internal Server Error</body></html>";
+        }
+        if ("array".equals(username)) {
+            return "[\"OK\"]";
+        }
+        return "{\"result\":\"OK\",\"username\":\"" + username + "\",\"count\":3,\"big\":12345678901,"
+                + "\"ratio\":1.5,\"active\":true,\"avatar\":null,"
+                + "\"tags\":[{\"name\":\"a\"},{\"name\":\"b\"}]}";
+    }
+}
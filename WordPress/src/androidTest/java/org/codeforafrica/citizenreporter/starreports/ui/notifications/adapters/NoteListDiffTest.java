@@ -0,0 +1,129 @@
+package org.codeforafrica.citizenreporter.starreports.ui.notifications.adapters;
+
+import android.test.InstrumentationTestCase;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class NoteListDiffTest extends InstrumentationTestCase {
+    private static final int NUM_NOTES = 1000;
+
+    public void testNewNotesAreInsertedAtTheTop() {
+        RecordingCallback callback = dispatch(Arrays.asList("c", "b", "a"), Arrays.asList("e", "d", "c", "b", "a"));
+        assertEquals(Arrays.asList("inserted 0 2"), callback.events);
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), callback.list);
+    }
+
+    public void testRemovalsAreReportedAsRanges() {
+        RecordingCallback callback = dispatch(Arrays.asList("e", "d", "c", "b", "a"), Arrays.asList("e", "a"));
+        assertEquals(Arrays.asList("removed 1 3"), callback.events);
+        assertEquals(Arrays.asList("e", "a"), callback.list);
+    }
+
+    public void testChangedAndMovedNotes() {
+        RecordingCallback callback = new RecordingCallback();
+        callback.changedIds.add("b");
+        dispatch(Arrays.asList("c", "b", "a"), Arrays.asList("a", "c", "b"), callback);
+        assertEquals(Arrays.asList("moved 2 0", "changed 2"), callback.events);
+        assertEquals(Arrays.asList("a", "c", "b"), callback.list);
+    }
+
+    public void testUnchangedListNotifiesNothing() {
+        List<String> noteIds = createNoteIds(0, NUM_NOTES);
+        assertTrue(dispatch(noteIds, new ArrayList<>(noteIds)).events.isEmpty());
+    }
+
+    public void testDiffTimings() {
+        List<String> oldIds = createNoteIds(0, NUM_NOTES);
+
+        // a sync that brings in ten new notes and drops the ten oldest ones
+        List<String> newIds = createNoteIds(NUM_NOTES, 10);
+        newIds.addAll(oldIds.subList(0, NUM_NOTES - 10));
+
+        long start = System.nanoTime();
+        RecordingCallback callback = dispatch(oldIds, newIds);
+        long diffTime = System.nanoTime() - start;
+        assertEquals(newIds, callback.list);
+        assertEquals(Arrays.asList("removed 990 10", "inserted 0 10"), callback.events);
+
+        // a full reshuffle is still applied correctly
+        Collections.shuffle(newIds);
+        start = System.nanoTime();
+        callback = dispatch(oldIds, newIds);
+        long shuffleTime = System.nanoTime() - start;
+        assertEquals(newIds, callback.list);
+
+        AppLog.i(T.TESTS, "diff of " + NUM_NOTES + " notes - sync: " + diffTime / 1000 + " us, shuffled: "
+                + shuffleTime / 1000 + " us");
+    }
+
+    private static RecordingCallback dispatch(List<String> oldIds, List<String> newIds) {
+        return dispatch(oldIds, newIds, new RecordingCallback());
+    }
+
+    private static RecordingCallback dispatch(List<String> oldIds, List<String> newIds, RecordingCallback callback) {
+        callback.start(oldIds, newIds);
+        NoteListDiff.dispatch(oldIds, newIds, callback);
+        return callback;
+    }
+
+    private static List<String> createNoteIds(int first, int count) {
+        List<String> noteIds = new ArrayList<>(count);
+        for (int i = first + count - 1; i >= first; i--) {
+            noteIds.add(Integer.toString(i));
+        }
+        return noteIds;
+    }
+
+    /*
+     * applies the reported changes to a copy of the old list, as a RecyclerView would
+     */
+    private static class RecordingCallback implements NoteListDiff.Callback {
+        private final List<String> events = new ArrayList<>();
+        private final List<String> changedIds = new ArrayList<>();
+        private List<String> oldIds;
+        private List<String> newIds;
+        private List<String> list;
+
+        void start(List<String> oldIds, List<String> newIds) {
+            this.oldIds = oldIds;
+            this.newIds = newIds;
+            list = new ArrayList<>(oldIds);
+            events.clear();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            assertEquals(oldIds.get(oldPosition), newIds.get(newPosition));
+            return !changedIds.contains(newIds.get(newPosition));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("removed " + position + " " + count);
+            list.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("inserted " + position + " " + count);
+            list.addAll(position, newIds.subList(position, position + count));
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("moved " + fromPosition + " " + toPosition);
+            list.add(toPosition, list.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position) {
+            events.add("changed " + position);
+        }
+    }
+}
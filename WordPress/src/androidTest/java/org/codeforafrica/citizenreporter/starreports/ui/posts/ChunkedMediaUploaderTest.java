@@ -0,0 +1,178 @@
+package org.codeforafrica.citizenreporter.starreports.ui.posts;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.WordPressDB;
+import org.wordpress.android.TestUtils;
+import org.wordpress.android.util.AppLog;
+import org.xmlrpc.android.ChunkedUploadEndpoint;
+import org.xmlrpc.android.XMLRPCException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ChunkedMediaUploaderTest extends InstrumentationTestCase {
+    private static final int BLOG_ID = 1;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 1024 * 1024 + 123;
+
+    private Context mTargetContext;
+    private File mFile;
+    private byte[] mFileContent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTargetContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), "test_");
+        TestUtils.dropDB(mTargetContext);
+        WordPress.wpDB = new WordPressDB(mTargetContext);
+
+        mFileContent = new byte[FILE_SIZE];
+        new Random(FILE_SIZE).nextBytes(mFileContent);
+        mFile = new File(mTargetContext.getCacheDir(), "chunked-upload-test.bin");
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(mFileContent);
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        TestUtils.dropDB(mTargetContext);
+        super.tearDown();
+    }
+
+    public void testUploadInChunks() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint();
+        ChunkedMediaUploader uploader = new ChunkedMediaUploader(endpoint, BLOG_ID);
+        uploader.setChunkSize(CHUNK_SIZE);
+
+        Object result = uploader.upload(mFile, "test.bin", "application/octet-stream");
+
+        assertNotNull(result);
+        assertEquals(FILE_SIZE, uploader.getBytesSent());
+        assertEquals((FILE_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE, endpoint.mChunkCount);
+        assertTrue(Arrays.equals(mFileContent, endpoint.getUploadedContent()));
+    }
+
+    public void testResumeAfterConnectionDropped() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint();
+        // the connection drops in the middle of a chunk, after ~60% of the file
+        endpoint.mFailAfterBytes = (FILE_SIZE * 6L) / 10;
+
+        ChunkedMediaUploader firstUploader = new ChunkedMediaUploader(endpoint, BLOG_ID);
+        firstUploader.setChunkSize(CHUNK_SIZE);
+        try {
+            firstUploader.upload(mFile, "test.bin", "application/octet-stream");
+            fail("the upload should have been interrupted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // a new uploader, as after an app restart, picks up the persisted checkpoint
+        endpoint.mFailAfterBytes = -1;
+        ChunkedMediaUploader secondUploader = new ChunkedMediaUploader(endpoint, BLOG_ID);
+        secondUploader.setChunkSize(CHUNK_SIZE);
+        Object result = secondUploader.upload(mFile, "test.bin", "application/octet-stream");
+
+        long totalSent = firstUploader.getBytesSent() + secondUploader.getBytesSent();
+        long resent = totalSent - FILE_SIZE;
+        AppLog.i(AppLog.T.TESTS, "chunked upload of " + FILE_SIZE + " bytes interrupted at "
+                + (FILE_SIZE * 6L) / 10 + ", bytes re-sent: " + resent + " (monolithic upload: "
+                + firstUploader.getBytesSent() + ")");
+
+        assertNotNull(result);
+        assertEquals(1, endpoint.mBeginCount);
+        assertTrue("at most the interrupted chunk is sent again", resent <= CHUNK_SIZE);
+        assertTrue(Arrays.equals(mFileContent, endpoint.getUploadedContent()));
+    }
+
+    public void testRestartWhenServerForgotUpload() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint();
+        endpoint.mFailAfterBytes = FILE_SIZE / 2;
+        ChunkedMediaUploader uploader = new ChunkedMediaUploader(endpoint, BLOG_ID);
+        uploader.setChunkSize(CHUNK_SIZE);
+        try {
+            uploader.upload(mFile, "test.bin", "application/octet-stream");
+            fail("the upload should have been interrupted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // server side session expired
+        endpoint.mUploads.clear();
+        endpoint.mFailAfterBytes = -1;
+        uploader = new ChunkedMediaUploader(endpoint, BLOG_ID);
+        uploader.setChunkSize(CHUNK_SIZE);
+        uploader.upload(mFile, "test.bin", "application/octet-stream");
+
+        assertEquals(2, endpoint.mBeginCount);
+        assertEquals(FILE_SIZE, uploader.getBytesSent());
+        assertTrue(Arrays.equals(mFileContent, endpoint.getUploadedContent()));
+    }
+
+    /**
+     * In memory server side of the chunked upload protocol
+     */
+    private static class StubEndpoint implements ChunkedUploadEndpoint {
+        private final Map<String, ByteArrayOutputStream> mUploads = new HashMap<String, ByteArrayOutputStream>();
+        private ByteArrayOutputStream mFinishedUpload;
+        private long mFailAfterBytes = -1;
+        private long mReceivedBytes;
+        private int mBeginCount;
+        private int mChunkCount;
+
+        @Override
+        public String beginUpload(String fileName, String mimeType, long fileSize) {
+            mBeginCount++;
+            String uploadId = "upload-" + mBeginCount;
+            mUploads.put(uploadId, new ByteArrayOutputStream());
+            return uploadId;
+        }
+
+        @Override
+        public long getUploadedOffset(String uploadId) {
+            ByteArrayOutputStream upload = mUploads.get(uploadId);
+            return upload == null ? -1 : upload.size();
+        }
+
+        @Override
+        public long uploadChunk(String uploadId, long offset, byte[] chunk) throws XMLRPCException, IOException {
+            ByteArrayOutputStream upload = mUploads.get(uploadId);
+            if (upload == null || offset != upload.size()) {
+                throw new XMLRPCException("Bad offset");
+            }
+            mReceivedBytes += chunk.length;
+            if (mFailAfterBytes >= 0 && mReceivedBytes > mFailAfterBytes) {
+                // the partial chunk is lost, as the server never got the complete request
+                mReceivedBytes = mFailAfterBytes;
+                throw new IOException("Connection reset by peer");
+            }
+            upload.write(chunk);
+            mChunkCount++;
+            return upload.size();
+        }
+
+        @Override
+        public Object finishUpload(String uploadId) {
+            mFinishedUpload = mUploads.remove(uploadId);
+            Map<String, Object> result = new HashMap<String, Object>();
+            result.put("id", uploadId);
+            result.put("url", "http://test.com/wp-content/uploads/test.bin");
+            return result;
+        }
+
+        byte[] getUploadedContent() {
+            return mFinishedUpload == null ? null : mFinishedUpload.toByteArray();
+        }
+    }
+}
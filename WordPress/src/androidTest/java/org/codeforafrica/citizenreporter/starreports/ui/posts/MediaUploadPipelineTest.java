@@ -0,0 +1,141 @@
+package org.codeforafrica.citizenreporter.starreports.ui.posts;
+
+import junit.framework.TestCase;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MediaUploadPipelineTest extends TestCase {
+    // simulated time spent resizing an image, then sending it
+    private static final long PREPARE_TIME_MS = 40;
+    private static final long UPLOAD_TIME_MS = 150;
+
+    public void testResultsKeepItemOrder() throws Exception {
+        List<Integer> items = createItems(12);
+        MediaUploadPipeline<Integer> pipeline = new MediaUploadPipeline<Integer>(4);
+        List<MediaUploadPipeline.ItemResult> results = pipeline.uploadAll(items, new FakeUploader(true));
+
+        assertEquals(items.size(), results.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals("<img src=\"" + i + "\">", results.get(i).getOutput());
+        }
+        assertNull(MediaUploadPipeline.getFirstError(results));
+    }
+
+    public void testFailedItemsReturnTheirError() throws Exception {
+        List<Integer> items = createItems(5);
+        MediaUploadPipeline<Integer> pipeline = new MediaUploadPipeline<Integer>(2);
+        List<MediaUploadPipeline.ItemResult> results = pipeline.uploadAll(items,
+                new MediaUploadPipeline.ItemUploader<Integer>() {
+                    @Override
+                    public MediaUploadPipeline.ItemResult upload(Integer item,
+                            MediaUploadPipeline.ItemProgressListener progressListener) {
+                        if (item == 2) {
+                            throw new RuntimeException("upload failed");
+                        }
+                        if (item == 1) {
+                            // the first failure finishes last, it's still the one reported
+                            try {
+                                Thread.sleep(PREPARE_TIME_MS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return item % 2 == 0 ? MediaUploadPipeline.ItemResult.success("ok")
+                                : MediaUploadPipeline.ItemResult.failure("error " + item);
+                    }
+                });
+
+        assertEquals("ok", results.get(0).getOutput());
+        assertEquals("error 1", results.get(1).getErrorMessage());
+        assertEquals("upload failed", results.get(2).getErrorMessage());
+        assertEquals("error 3", results.get(3).getErrorMessage());
+        assertEquals("ok", results.get(4).getOutput());
+        assertEquals("error 1", MediaUploadPipeline.getFirstError(results));
+    }
+
+    public void testProgressReachesHundred() throws Exception {
+        final float[] lastProgress = {0};
+        final int[] lastStarted = {0};
+        final boolean[] decreased = {false};
+        MediaUploadPipeline<Integer> pipeline = new MediaUploadPipeline<Integer>(3);
+        pipeline.setOnProgressListener(new MediaUploadPipeline.OnProgressListener() {
+            @Override
+            public void onProgress(int startedItems, int totalItems, float percent) {
+                // called on the worker threads, check the result once the pipeline is done
+                decreased[0] |= percent < lastProgress[0];
+                lastProgress[0] = percent;
+                lastStarted[0] = startedItems;
+            }
+        });
+        pipeline.uploadAll(createItems(7), new FakeUploader(false));
+
+        assertFalse("progress should never go backwards", decreased[0]);
+        assertEquals(100f, lastProgress[0], 0.01f);
+        assertEquals(7, lastStarted[0]);
+    }
+
+    public void testSpeedupOverSerialUploads() throws Exception {
+        for (int count : new int[]{1, 4, 12}) {
+            List<Integer> items = createItems(count);
+
+            long start = System.currentTimeMillis();
+            new MediaUploadPipeline<Integer>(1).uploadAll(items, new FakeUploader(true));
+            long serialTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            new MediaUploadPipeline<Integer>(MediaUploadPipeline.DEFAULT_MAX_CONCURRENT_UPLOADS).uploadAll(items,
+                    new FakeUploader(true));
+            long parallelTime = System.currentTimeMillis() - start;
+
+            AppLog.i(T.TESTS, count + " media items - serial: " + serialTime + " ms, "
+                    + MediaUploadPipeline.DEFAULT_MAX_CONCURRENT_UPLOADS + " concurrent uploads: " + parallelTime
+                    + " ms");
+            if (count >= MediaUploadPipeline.DEFAULT_MAX_CONCURRENT_UPLOADS) {
+                assertTrue(parallelTime < serialTime);
+            }
+        }
+    }
+
+    private static List<Integer> createItems(int count) {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static class FakeUploader implements MediaUploadPipeline.ItemUploader<Integer> {
+        private final boolean mSimulateDelays;
+
+        FakeUploader(boolean simulateDelays) {
+            mSimulateDelays = simulateDelays;
+        }
+
+        @Override
+        public MediaUploadPipeline.ItemResult upload(Integer item,
+                                                     MediaUploadPipeline.ItemProgressListener progressListener) {
+            progressListener.onItemStarted();
+            sleep(PREPARE_TIME_MS);
+            for (int percent = 25; percent <= 100; percent += 25) {
+                sleep(UPLOAD_TIME_MS / 4);
+                progressListener.onItemProgress(percent);
+            }
+            return MediaUploadPipeline.ItemResult.success("<img src=\"" + item + "\">");
+        }
+
+        private void sleep(long ms) {
+            if (!mSimulateDelays) {
+                return;
+            }
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderDatabase;
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderPostTable;
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.List;
+
+public class ReaderPostPrefetcherTest extends InstrumentationTestCase {
+    private static final long BLOG_ID = 1000;
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        ReaderDatabase.reset();
+        ReaderRenderedHtmlCache.clearMemory();
+        ReaderPostPrefetcher.resetCounters();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ReaderDatabase.reset();
+        ReaderRenderedHtmlCache.clearMemory();
+        ReaderPostPrefetcher.resetCounters();
+        super.tearDown();
+    }
+
+    public void testFirstImagesOfRenderedPost() {
+        ReaderPost post = new ReaderPost();
+        post.blogId = BLOG_ID;
+        post.postId = 1;
+        post.setPseudoId(BLOG_ID + "-1");
+        post.setTitle("Post 1");
+        post.setText("<p>intro</p>"
+                + "<img src=\"http://example.files.wordpress.com/a.jpg?w=1024&#038;h=768\" />"
+                + "<img src=\"/relative.jpg\" />"
+                + "<img src=\"http://example.files.wordpress.com/b.jpg\" />"
+                + "<img src=\"http://example.files.wordpress.com/c.jpg\" />");
+        ReaderPostTable.addOrUpdatePost(post);
+
+        String html = ReaderPostRenderer.prerender(mContext, ReaderPostTable.getPost(BLOG_ID, 1, false));
+        List<String> urls = ReaderPostPrefetcher.getFirstImageUrls(html, 2);
+        assertEquals(2, urls.size());
+        assertTrue(urls.get(0).startsWith("http://example.files.wordpress.com/a.jpg"));
+        assertFalse(urls.get(0).contains("&#038;"));
+        assertTrue(urls.get(1).startsWith("http://example.files.wordpress.com/b.jpg"));
+
+        // prerendering cached the html the detail fragment will show
+        ReaderRenderedHtmlCache.resetCounters();
+        ReaderPostRenderer.prerender(mContext, ReaderPostTable.getPost(BLOG_ID, 1, false));
+        assertEquals(1, ReaderRenderedHtmlCache.getMemoryHitCount());
+    }
+
+    public void testMimeTypeOfPrefetchedImage() {
+        assertEquals("image/*", ReaderPostPrefetcher.getMimeType(null));
+        assertEquals("image/*", ReaderPostPrefetcher.getMimeType(" ; charset=UTF-8"));
+        assertEquals("image/jpeg", ReaderPostPrefetcher.getMimeType("image/jpeg"));
+        assertEquals("image/png", ReaderPostPrefetcher.getMimeType("image/png ; charset=binary"));
+    }
+
+    public void testTimeToFirstPaint() throws InterruptedException {
+        // post already painted offscreen before the swipe
+        ReaderPostPrefetcher.onPostPainted(BLOG_ID, 1);
+        ReaderPostPrefetcher.onPostSelected(BLOG_ID, 1);
+        assertEquals(0, ReaderPostPrefetcher.getAverageTimeToFirstPaintMs());
+
+        // post painted after the swipe
+        ReaderPostPrefetcher.onPostSelected(BLOG_ID, 2);
+        Thread.sleep(100);
+        ReaderPostPrefetcher.onPostPainted(BLOG_ID, 2);
+        long average = ReaderPostPrefetcher.getAverageTimeToFirstPaintMs();
+        AppLog.i(T.TESTS, "average time to first paint over 2 swipes: " + average + " ms");
+        assertTrue(average >= 50);
+
+        // painting a post that isn't selected doesn't count as a swipe
+        ReaderPostPrefetcher.onPostPainted(BLOG_ID, 3);
+        assertEquals(average, ReaderPostPrefetcher.getAverageTimeToFirstPaintMs());
+    }
+}
@@ -0,0 +1,137 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderDatabase;
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderPostTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderRenderedHtmlTable;
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+public class ReaderRenderedHtmlCacheTest extends InstrumentationTestCase {
+    private static final long BLOG_ID = 1000;
+    private static final int IMAGE_COUNT = 50;
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        ReaderDatabase.reset();
+        ReaderRenderedHtmlCache.clearMemory();
+        ReaderRenderedHtmlCache.resetCounters();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ReaderDatabase.reset();
+        ReaderRenderedHtmlCache.clearMemory();
+        super.tearDown();
+    }
+
+    public void testRenderedHtmlIsCached() {
+        ReaderPost post = createPost(1, "first version");
+        ReaderPostTable.addOrUpdatePost(post);
+        post = ReaderPostTable.getPost(BLOG_ID, 1, false);
+
+        ReaderPostRenderer.prerender(mContext, post);
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+        assertEquals(1, ReaderRenderedHtmlTable.getNumRenderedPosts());
+
+        ReaderPostRenderer.prerender(mContext, post);
+        assertEquals(1, ReaderRenderedHtmlCache.getMemoryHitCount());
+
+        // rendered again after the app restarts
+        ReaderRenderedHtmlCache.clearMemory();
+        ReaderPostRenderer.prerender(mContext, post);
+        assertEquals(1, ReaderRenderedHtmlCache.getDiskHitCount());
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+    }
+
+    public void testChangedPostIsInvalidated() {
+        ReaderPostTable.addOrUpdatePost(createPost(1, "first version"));
+        ReaderPostTable.addOrUpdatePost(createPost(2, "other post"));
+        ReaderPostRenderer.prerender(mContext, ReaderPostTable.getPost(BLOG_ID, 1, false));
+        ReaderPostRenderer.prerender(mContext, ReaderPostTable.getPost(BLOG_ID, 2, false));
+        assertEquals(2, ReaderRenderedHtmlTable.getNumRenderedPosts());
+
+        // updating a post with the same content keeps its html
+        ReaderPostTable.addOrUpdatePost(createPost(2, "other post"));
+        assertEquals(2, ReaderRenderedHtmlTable.getNumRenderedPosts());
+
+        ReaderPostTable.addOrUpdatePost(createPost(1, "second version"));
+        assertEquals(1, ReaderRenderedHtmlTable.getNumRenderedPosts());
+
+        ReaderRenderedHtmlCache.resetCounters();
+        ReaderPostRenderer.prerender(mContext, ReaderPostTable.getPost(BLOG_ID, 1, false));
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+    }
+
+    public void testHtmlFromOlderRendererIsNotUsed() {
+        ReaderPostTable.addOrUpdatePost(createPost(1, "first version"));
+        ReaderPost post = ReaderPostTable.getPost(BLOG_ID, 1, false);
+        ReaderPostRenderer.prerender(mContext, post);
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+
+        // html stored by the previous renderer, with the same content and settings
+        long contentHash = ReaderRenderedHtmlTable.getContentHash(post);
+        ReaderDatabase.getWritableDb().execSQL("UPDATE tbl_rendered_html SET renderer_version="
+                + (ReaderPostRenderer.RENDERER_VERSION - 1));
+        ReaderRenderedHtmlCache.clearMemory();
+        ReaderRenderedHtmlCache.resetCounters();
+
+        ReaderPostRenderer.prerender(mContext, post);
+        assertEquals(0, ReaderRenderedHtmlCache.getDiskHitCount());
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+        assertEquals(2, ReaderRenderedHtmlTable.getNumRenderedPosts());
+        assertNull(ReaderRenderedHtmlTable.getHtml(BLOG_ID, 1, contentHash, ReaderPostRenderer.RENDERER_VERSION + 1,
+                0, false));
+    }
+
+    public void testCachedRenderTimings() {
+        ReaderPostTable.addOrUpdatePost(createPost(1, createContent(IMAGE_COUNT)));
+        ReaderPost post = ReaderPostTable.getPost(BLOG_ID, 1, false);
+
+        long start = System.currentTimeMillis();
+        ReaderPostRenderer.prerender(mContext, post);
+        long renderTime = System.currentTimeMillis() - start;
+
+        ReaderRenderedHtmlCache.clearMemory();
+        start = System.currentTimeMillis();
+        ReaderPostRenderer.prerender(mContext, post);
+        long diskTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        ReaderPostRenderer.prerender(mContext, post);
+        long memoryTime = System.currentTimeMillis() - start;
+
+        AppLog.i(T.TESTS, "post with " + IMAGE_COUNT + " images - rendered: " + renderTime + " ms, from disk: "
+                + diskTime + " ms, from memory: " + memoryTime + " ms");
+        assertEquals(1, ReaderRenderedHtmlCache.getMissCount());
+        assertEquals(1, ReaderRenderedHtmlCache.getDiskHitCount());
+        assertEquals(1, ReaderRenderedHtmlCache.getMemoryHitCount());
+    }
+
+    private static ReaderPost createPost(long postId, String text) {
+        ReaderPost post = new ReaderPost();
+        post.blogId = BLOG_ID;
+        post.postId = postId;
+        post.setPseudoId(BLOG_ID + "-" + postId);
+        post.setTitle("Post " + postId);
+        post.setText(text);
+        return post;
+    }
+
+    private static String createContent(int imageCount) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < imageCount; i++) {
+            content.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>")
+                    .append("<img src=\"http://example.files.wordpress.com/2015/05/image-").append(i)
+                    .append(".jpg?w=1024&h=768\" width=\"1024\" height=\"768\" />");
+        }
+        return content.toString();
+    }
+}
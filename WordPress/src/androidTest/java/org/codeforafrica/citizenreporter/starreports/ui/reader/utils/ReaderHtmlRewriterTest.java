@@ -0,0 +1,122 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader.utils;
+
+import android.test.InstrumentationTestCase;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+public class ReaderHtmlRewriterTest extends InstrumentationTestCase {
+    private static final int[] IMAGE_COUNTS = {1, 50, 300};
+    private static final int ITERATIONS = 5;
+
+    private static final ReaderHtmlRewriter.TagRewriter REWRITER = new ReaderHtmlRewriter.TagRewriter() {
+        @Override
+        public String rewriteImageTag(String tag, String src) {
+            return makeImageTag(src);
+        }
+        @Override
+        public String rewriteIframeTag(String tag, String src) {
+            return makeIframeTag(src);
+        }
+    };
+
+    private static String makeImageTag(String src) {
+        return "<img class='size-full' src='" + src + "?w=600' width='300' height='200' />";
+    }
+
+    private static String makeIframeTag(String src) {
+        return "<iframe src='" + src + "' frameborder='0' width='300' height='169' />";
+    }
+
+    public void testTagsAreRewritten() {
+        String content = "<p>before</p><img src=\"http://example.com/a.jpg\" alt=\"a > b\"><p>between</p>"
+                + "<IFRAME width=\"640\" src='http://example.com/embed'></IFRAME><p>after</p>";
+        String expected = "<p>before</p>" + makeImageTag("http://example.com/a.jpg") + "<p>between</p>"
+                + makeIframeTag("http://example.com/embed") + "</IFRAME><p>after</p>";
+        assertEquals(expected, ReaderHtmlRewriter.rewrite(content, REWRITER));
+    }
+
+    public void testOtherTagsAreKept() {
+        String content = "<p>text</p><imgx src='a.jpg'><img alt='no src'><a href='x'>link</a><img src='b.jpg'";
+        assertSame(content, ReaderHtmlRewriter.rewrite(content, REWRITER));
+        assertNull(ReaderHtmlRewriter.rewrite(null, REWRITER));
+    }
+
+    public void testUnquotedApostropheDoesNotSwallowContent() {
+        String content = "<img alt=don't src='a.jpg'><p>it's</p><img src='b.jpg'>";
+        String expected = makeImageTag("a.jpg") + "<p>it's</p>" + makeImageTag("b.jpg");
+        assertEquals(expected, ReaderHtmlRewriter.rewrite(content, REWRITER));
+    }
+
+    public void testRewriteTimings() {
+        for (int imageCount : IMAGE_COUNTS) {
+            String content = createContent(imageCount);
+
+            String expected = null;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                expected = rewriteWithScanners(content);
+            }
+            long scannerTime = (System.currentTimeMillis() - start) / ITERATIONS;
+
+            String actual = null;
+            start = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                actual = ReaderHtmlRewriter.rewrite(content, REWRITER);
+            }
+            long singlePassTime = (System.currentTimeMillis() - start) / ITERATIONS;
+
+            AppLog.i(T.TESTS, imageCount + " images, " + content.length() + " chars - scanners + replace: "
+                    + scannerTime + " ms, single pass: " + singlePassTime + " ms");
+            assertEquals(expected, actual);
+        }
+    }
+
+    /*
+     * the previous approach, each tag found by the scanners is searched for again in the builder and
+     * replaced in place
+     */
+    private static String rewriteWithScanners(String content) {
+        final StringBuilder builder = new StringBuilder(content);
+        new ReaderImageScanner(builder.toString(), false).beginScan(new ReaderHtmlUtils.HtmlScannerListener() {
+            @Override
+            public void onTagFound(String tag, String src, int start, int end) {
+                int pos = builder.indexOf(tag);
+                builder.replace(pos, pos + tag.length(), makeImageTag(src));
+            }
+            @Override
+            public void onScanCompleted() {
+                // nop
+            }
+        });
+        new ReaderIframeScanner(builder.toString()).beginScan(new ReaderHtmlUtils.HtmlScannerListener() {
+            @Override
+            public void onTagFound(String tag, String src, int start, int end) {
+                int pos = builder.indexOf(tag);
+                builder.replace(pos, pos + tag.length(), makeIframeTag(src));
+            }
+            @Override
+            public void onScanCompleted() {
+                // nop
+            }
+        });
+        return builder.toString();
+    }
+
+    private static String createContent(int imageCount) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < imageCount; i++) {
+            content.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor ")
+                    .append("incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud ")
+                    .append("exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat.</p>")
+                    .append("<img class=\"aligncenter size-large wp-image-").append(i).append("\" ")
+                    .append("src=\"http://example.files.wordpress.com/2015/05/image-").append(i).append(".jpg\" ")
+                    .append("alt=\"image ").append(i).append("\" width=\"1024\" height=\"768\" />");
+            if (i % 10 == 0) {
+                content.append("<iframe width=\"560\" height=\"315\" src=\"http://www.youtube.com/embed/video")
+                        .append(i).append("\"></iframe>");
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package org.codeforafrica.citizenreporter.starreports.ui.stats.datasets;
+
+import junit.framework.TestCase;
+
+import org.codeforafrica.citizenreporter.starreports.ui.stats.StatsTimeframe;
+import org.codeforafrica.citizenreporter.starreports.ui.stats.service.StatsService.StatsEndpointsEnum;
+
+public class StatsModelCacheTest extends TestCase {
+    private static final String DATE = "2015-06-01";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StatsModelCache.clear();
+        StatsModelCache.resetCounters();
+    }
+
+    public void testHitAndMiss() {
+        StatsModelCache.Key key = createKey(1, StatsEndpointsEnum.TOP_POSTS);
+        assertNull(StatsModelCache.get(key));
+
+        StatsModelCache.put(key, "model", System.currentTimeMillis());
+        assertEquals("model", StatsModelCache.get(createKey(1, StatsEndpointsEnum.TOP_POSTS)));
+        assertNull(StatsModelCache.get(createKey(1, StatsEndpointsEnum.REFERRERS)));
+
+        assertEquals(1, StatsModelCache.getHitCount());
+        assertEquals(2, StatsModelCache.getMissCount());
+    }
+
+    public void testExpiredModelsAreNotReturned() {
+        StatsModelCache.Key key = createKey(1, StatsEndpointsEnum.VISITS);
+        long expiredTimestamp = System.currentTimeMillis() - (StatsTable.CACHE_TTL_MINUTES + 1) * 60 * 1000;
+        StatsModelCache.put(key, "model", expiredTimestamp);
+        assertNull(StatsModelCache.get(key));
+    }
+
+    public void testRemoveBlog() {
+        StatsModelCache.put(createKey(1, StatsEndpointsEnum.VISITS), "blog 1", System.currentTimeMillis());
+        StatsModelCache.put(createKey(2, StatsEndpointsEnum.VISITS), "blog 2", System.currentTimeMillis());
+
+        StatsModelCache.removeBlog(1);
+
+        assertNull(StatsModelCache.get(createKey(1, StatsEndpointsEnum.VISITS)));
+        assertEquals("blog 2", StatsModelCache.get(createKey(2, StatsEndpointsEnum.VISITS)));
+    }
+
+    private static StatsModelCache.Key createKey(int localBlogId, StatsEndpointsEnum section) {
+        return new StatsModelCache.Key(localBlogId, section, StatsTimeframe.DAY, DATE, -1, 10);
+    }
+}
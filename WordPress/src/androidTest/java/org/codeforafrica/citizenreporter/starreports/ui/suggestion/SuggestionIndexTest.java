@@ -0,0 +1,134 @@
+package org.codeforafrica.citizenreporter.starreports.ui.suggestion;
+
+import android.test.InstrumentationTestCase;
+
+import org.codeforafrica.citizenreporter.starreports.models.Suggestion;
+import org.codeforafrica.citizenreporter.starreports.models.Tag;
+import org.codeforafrica.citizenreporter.starreports.ui.suggestion.util.SuggestionIndex;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class SuggestionIndexTest extends InstrumentationTestCase {
+    private static final long SITE_ID = 1;
+    private static final int[] SIZES = {1000, 10000, 50000};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    // what a user types while entering a mention, one key press at a time
+    private static final String[] KEY_PRESSES = {"j", "jo", "joh", "john", "s", "sm", "smi", "smit", "smith"};
+    private static final String[] FIRST_NAMES = {"John", "Mary", "Amina", "Kofi", "Wanjiru", "Thabo", "Ngozi", "Sipho"};
+    private static final String[] LAST_NAMES = {"Smith", "Okafor", "Mensah", "Kamau", "Dlamini", "Otieno", "Banda"};
+
+    public void testFindMatchesNamesAndWords() {
+        List<Suggestion> suggestions = Arrays.asList(
+                new Suggestion(SITE_ID, "zed", "Bob Smith", "", ""),
+                new Suggestion(SITE_ID, "bobby", "Robert", "", ""),
+                new Suggestion(SITE_ID, "bo", "Bo Diddley", "", ""),
+                new Suggestion(SITE_ID, "al", "Bobcat Fan", "", ""),
+                new Suggestion(SITE_ID, "ann", "Ann Bob", "", ""),
+                new Suggestion(SITE_ID, "carl", "Jobob", "", ""));
+        SuggestionIndex<Suggestion> index = SuggestionIndex.forSuggestions(suggestions);
+
+        // exact match, then user logins, display names and words after a space
+        List<Suggestion> results = index.find("Bo");
+        assertEquals(5, results.size());
+        assertEquals("bo", results.get(0).getUserLogin());
+        assertEquals("bobby", results.get(1).getUserLogin());
+        assertEquals("zed", results.get(2).getUserLogin());
+        assertEquals("al", results.get(3).getUserLogin());
+        assertEquals("ann", results.get(4).getUserLogin());
+
+        assertEquals(1, index.find("bob s").size());
+        assertTrue(index.find("x").isEmpty());
+        assertEquals(suggestions.size(), index.find("").size());
+    }
+
+    public void testFindTags() {
+        List<Tag> tags = Arrays.asList(new Tag(SITE_ID, "Local News"), new Tag(SITE_ID, "news"),
+                new Tag(SITE_ID, "newspapers"), new Tag(SITE_ID, "renewal"));
+        List<Tag> results = SuggestionIndex.forTags(tags).find("NEWS");
+        assertEquals(3, results.size());
+        assertEquals("news", results.get(0).getTag());
+        assertEquals("newspapers", results.get(1).getTag());
+        assertEquals("Local News", results.get(2).getTag());
+    }
+
+    public void testFindMatchesListScan() {
+        List<Suggestion> suggestions = createSuggestions(2000);
+        SuggestionIndex<Suggestion> index = SuggestionIndex.forSuggestions(suggestions);
+        for (String keyPress : KEY_PRESSES) {
+            List<Suggestion> expected = scan(suggestions, keyPress);
+            List<Suggestion> results = index.find(keyPress);
+            assertEquals(expected.size(), results.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(results));
+        }
+    }
+
+    public void testFilterTimings() {
+        for (int size : SIZES) {
+            List<Suggestion> suggestions = createSuggestions(size);
+
+            long start = System.nanoTime();
+            SuggestionIndex<Suggestion> index = SuggestionIndex.forSuggestions(suggestions);
+            long buildTime = System.nanoTime() - start;
+
+            long scanTime = 0;
+            long indexTime = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                start = System.nanoTime();
+                for (String keyPress : KEY_PRESSES) {
+                    scan(suggestions, keyPress);
+                }
+                long roundScanTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (String keyPress : KEY_PRESSES) {
+                    index.find(keyPress);
+                }
+                long roundIndexTime = System.nanoTime() - start;
+
+                if (round >= WARMUP_ROUNDS) {
+                    scanTime += roundScanTime;
+                    indexTime += roundIndexTime;
+                }
+            }
+
+            int numKeyPresses = MEASURED_ROUNDS * KEY_PRESSES.length;
+            AppLog.i(T.TESTS, size + " suggestions - index built in " + buildTime / 1000000 + " ms, per key press:"
+                    + " scan " + scanTime / numKeyPresses / 1000 + " us, index " + indexTime / numKeyPresses / 1000
+                    + " us");
+        }
+    }
+
+    /*
+     * the filtering the suggestion adapter did before using the index
+     */
+    private static List<Suggestion> scan(List<Suggestion> suggestions, CharSequence constraint) {
+        List<Suggestion> results = new ArrayList<Suggestion>();
+        for (Suggestion suggestion : suggestions) {
+            String lowerCaseConstraint = constraint.toString().toLowerCase();
+            if (suggestion.getUserLogin().toLowerCase().startsWith(lowerCaseConstraint)
+                    || suggestion.getDisplayName().toLowerCase().startsWith(lowerCaseConstraint)
+                    || suggestion.getDisplayName().toLowerCase().contains(" " + lowerCaseConstraint))
+                results.add(suggestion);
+        }
+        return results;
+    }
+
+    private static List<Suggestion> createSuggestions(int count) {
+        Random random = new Random(count);
+        List<Suggestion> suggestions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            suggestions.add(new Suggestion(SITE_ID, firstName.toLowerCase() + i, firstName + " " + lastName,
+                    "", "mention"));
+        }
+        return suggestions;
+    }
+}
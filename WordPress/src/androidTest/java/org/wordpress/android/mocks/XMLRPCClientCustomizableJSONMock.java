@@ -9,11 +9,13 @@ import org.wordpress.android.util.AppLog.T;
 import org.xmlrpc.android.LoggedInputStream;
 import org.xmlrpc.android.XMLRPCCallback;
 import org.xmlrpc.android.XMLRPCException;
+import org.xmlrpc.android.XMLRPCStructHandler;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Map;
 
 public class XMLRPCClientCustomizableJSONMock extends XMLRPCClientCustomizableMockAbstract {
     private LoggedInputStream mLoggedInputStream;
@@ -74,6 +76,20 @@ public class XMLRPCClientCustomizableJSONMock extends XMLRPCClientCustomizableMo
         return null;
     }
 
+    public int callStreaming(String method, Object[] params, XMLRPCStructHandler handler) throws XMLRPCException {
+        Object retValue = call(method, params);
+        if (!(retValue instanceof Object[])) {
+            return 0;
+        }
+        Object[] elements = (Object[]) retValue;
+        for (Object element : elements) {
+            if (element instanceof Map) {
+                handler.onStruct((Map<?, ?>) element);
+            }
+        }
+        return elements.length;
+    }
+
     public long callAsync(XMLRPCCallback listener, String methodName, Object[] params) {
         return 0;
     }
@@ -8,6 +8,7 @@ import org.xmlrpc.android.XMLRPCCallback;
 import org.xmlrpc.android.XMLRPCClient;
 import org.xmlrpc.android.XMLRPCException;
 import org.xmlrpc.android.XMLRPCFault;
+import org.xmlrpc.android.XMLRPCStructHandler;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -66,6 +67,23 @@ public class XMLRPCClientCustomizableXMLMock extends XMLRPCClientCustomizableMoc
         return retValue;
     }
 
+    public int callStreaming(String method, Object[] params, XMLRPCStructHandler handler)
+            throws XMLRPCException, IOException, XmlPullParserException {
+        if ("login-failure".equals(mPrefix)) {
+            throw new XMLRPCFault("code 403", 403);
+        }
+        for (String prefix : new String[]{mPrefix, "default"}) {
+            String filename = prefix + "-" + method + ".xml";
+            try {
+                mLoggedInputStream = new LoggedInputStream(mContext.getAssets().open(filename));
+                return XMLRPCClient.parseXMLRPCResponse(mLoggedInputStream, null, handler);
+            } catch (FileNotFoundException e) {
+                AppLog.e(T.TESTS, "file not found: " + filename);
+            }
+        }
+        return 0;
+    }
+
     public Object call(String method) throws XMLRPCException {
         return null;
     }
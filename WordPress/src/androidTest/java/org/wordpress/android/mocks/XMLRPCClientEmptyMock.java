@@ -3,6 +3,7 @@ package org.wordpress.android.mocks;
 import org.xmlrpc.android.XMLRPCCallback;
 import org.xmlrpc.android.XMLRPCClientInterface;
 import org.xmlrpc.android.XMLRPCException;
+import org.xmlrpc.android.XMLRPCStructHandler;
 
 import java.io.File;
 import java.net.URI;
@@ -29,6 +30,10 @@ public class XMLRPCClientEmptyMock implements XMLRPCClientInterface {
         return null;
     }
 
+    public int callStreaming(String method, Object[] params, XMLRPCStructHandler handler) throws XMLRPCException {
+        return 0;
+    }
+
     public long callAsync(XMLRPCCallback listener, String methodName, Object[] params) {
         return 0;
     }
@@ -0,0 +1,91 @@
+package org.xmlrpc.android;
+
+import android.test.InstrumentationTestCase;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+public class XMLRPCConnectionPoolTest extends InstrumentationTestCase {
+    private static final int CALL_COUNT = 20;
+
+    private XMLRPCStubServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        XMLRPCConnectionPool.reset();
+        XMLRPCConnectionPool.resetCounters();
+        mServer = new XMLRPCStubServer(new XMLRPCStubServer.Responder() {
+            @Override
+            public String respond(String requestBody) {
+                return XMLRPCStubServer.methodResponse("<value><string>pong</string></value>");
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        XMLRPCConnectionPool.reset();
+        super.tearDown();
+    }
+
+    public void testConnectionIsReusedBetweenClients() throws Exception {
+        for (int i = 0; i < CALL_COUNT; i++) {
+            // a new XMLRPCClient per call, like the tasks do
+            assertEquals("pong", newClient(null, null).call("demo.ping"));
+        }
+
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(1, XMLRPCConnectionPool.getHandshakeCount());
+        assertEquals(CALL_COUNT, XMLRPCConnectionPool.getRequestCount());
+        assertEquals((CALL_COUNT - 1) / (float) CALL_COUNT, XMLRPCConnectionPool.getReuseRatio(), 0.001f);
+    }
+
+    public void testCredentialsAreNotShared() throws Exception {
+        newClient(null, null).call("demo.ping");
+        newClient("user", "secret").call("demo.ping");
+        newClient("user", "secret").call("demo.ping");
+
+        assertEquals(2, XMLRPCConnectionPool.getHandshakeCount());
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        newClient(null, null).call("demo.ping");
+        XMLRPCConnectionPool.evictIdleConnections(0);
+        newClient(null, null).call("demo.ping");
+
+        assertEquals(2, XMLRPCConnectionPool.getHandshakeCount());
+    }
+
+    public void testPooledVsUnpooledLatency() throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < CALL_COUNT; i++) {
+            newClient(null, null).call("demo.ping");
+        }
+        long pooledTime = System.currentTimeMillis() - start;
+        int pooledConnections = mServer.getConnectionCount();
+
+        // what each call used to do, a new connection per call
+        start = System.currentTimeMillis();
+        for (int i = 0; i < CALL_COUNT; i++) {
+            XMLRPCConnectionPool.reset();
+            newClient(null, null).call("demo.ping");
+        }
+        long unpooledTime = System.currentTimeMillis() - start;
+
+        AppLog.i(T.TESTS, CALL_COUNT + " calls - pooled: " + pooledTime + " ms, " + pooledConnections
+                + " connections; new connection per call: " + unpooledTime + " ms, "
+                + (mServer.getConnectionCount() - pooledConnections) + " connections; reuse ratio: "
+                + XMLRPCConnectionPool.getReuseRatio() + ", average latency: "
+                + XMLRPCConnectionPool.getAverageLatencyMs() + " ms");
+        assertEquals(1, pooledConnections);
+        assertEquals(CALL_COUNT + 1, mServer.getConnectionCount());
+    }
+
+    private XMLRPCClient newClient(String httpUser, String httpPassword) {
+        return new XMLRPCClient(mServer.getUrl(), httpUser, httpPassword);
+    }
+}
@@ -0,0 +1,196 @@
+package org.xmlrpc.android;
+
+import android.test.InstrumentationTestCase;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class XMLRPCMulticallTest extends InstrumentationTestCase {
+    // the calls sent by RefreshBlogContentTask
+    private static final String[] REFRESH_METHODS = {"wp.getOptions", "wp.getPostFormats", "wp.getProfile",
+            "wp.getComments"};
+    private static final long LATENCY_MS = 200;
+
+    private static final Pattern METHOD_NAME = Pattern.compile("<methodName>([^<]*)</methodName>");
+    private static final Pattern MULTICALL_METHOD_NAME =
+            Pattern.compile("<name>methodName</name><value><string>([^<]*)</string>");
+
+    private XMLRPCStubServer mServer;
+    // fault returned for system.multicall, 0 if it's supported
+    private volatile int mMulticallFault;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        XMLRPCMulticall.resetUnsupportedEndpoints();
+        mMulticallFault = 0;
+        mServer = new XMLRPCStubServer(new XMLRPCStubServer.Responder() {
+            @Override
+            public String respond(String requestBody) {
+                return StubResponder.respond(requestBody, mMulticallFault);
+            }
+        });
+        mServer.setLatencyMs(LATENCY_MS);
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        XMLRPCMulticall.resetUnsupportedEndpoints();
+        super.tearDown();
+    }
+
+    public void testResultsAndFaultsAreDemultiplexed() {
+        List<String> events = new ArrayList<String>();
+        XMLRPCMulticall multicall = new XMLRPCMulticall(newClient(), mServer.getUrl());
+        multicall.add("wp.getOptions", null, new RecordingCallback(events));
+        multicall.add("demo.fail", null, new RecordingCallback(events));
+        multicall.add("wp.getProfile", null, new RecordingCallback(events));
+        multicall.execute();
+
+        assertEquals(1, multicall.getRoundTripCount());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(3, events.size());
+        assertEquals("0:wp.getOptions", events.get(0));
+        assertEquals("1:fault 401", events.get(1));
+        assertEquals("2:wp.getProfile", events.get(2));
+    }
+
+    public void testFallbackWhenMulticallIsNotSupported() {
+        mMulticallFault = XMLRPCFault.CODE_METHOD_NOT_FOUND;
+        List<String> events = new ArrayList<String>();
+        XMLRPCMulticall multicall = new XMLRPCMulticall(newClient(), mServer.getUrl());
+        multicall.add("wp.getOptions", null, new RecordingCallback(events));
+        multicall.add("demo.fail", null, new RecordingCallback(events));
+        multicall.execute();
+
+        // the refused multicall, then one request per call
+        assertEquals(3, multicall.getRoundTripCount());
+        assertEquals("0:wp.getOptions", events.get(0));
+        assertEquals("1:fault 401", events.get(1));
+        assertFalse(XMLRPCMulticall.isSupported(mServer.getUrl()));
+
+        // the endpoint isn't asked again
+        multicall = new XMLRPCMulticall(newClient(), mServer.getUrl());
+        multicall.add("wp.getOptions", null, new RecordingCallback(events));
+        multicall.add("wp.getProfile", null, new RecordingCallback(events));
+        multicall.execute();
+        assertEquals(2, multicall.getRoundTripCount());
+    }
+
+    public void testOtherFaultsDontDisableMulticall() {
+        mMulticallFault = 403;
+        List<String> events = new ArrayList<String>();
+        XMLRPCMulticall multicall = new XMLRPCMulticall(newClient(), mServer.getUrl());
+        multicall.add("wp.getOptions", null, new RecordingCallback(events));
+        multicall.add("wp.getProfile", null, new RecordingCallback(events));
+        multicall.execute();
+
+        // every call gets the fault, nothing is retried one by one
+        assertEquals(1, multicall.getRoundTripCount());
+        assertEquals(2, events.size());
+        assertEquals("0:fault 403", events.get(0));
+        assertEquals("1:fault 403", events.get(1));
+        assertTrue(XMLRPCMulticall.isSupported(mServer.getUrl()));
+    }
+
+    public void testRefreshRoundTrips() {
+        long start = System.currentTimeMillis();
+        for (String method : REFRESH_METHODS) {
+            try {
+                newClient().call(method, null);
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+        }
+        long separateTime = System.currentTimeMillis() - start;
+        int separateRoundTrips = mServer.getRequestCount();
+
+        List<String> events = new ArrayList<String>();
+        XMLRPCMulticall multicall = new XMLRPCMulticall(newClient(), mServer.getUrl());
+        for (String method : REFRESH_METHODS) {
+            multicall.add(method, null, new RecordingCallback(events));
+        }
+        start = System.currentTimeMillis();
+        multicall.execute();
+        long multicallTime = System.currentTimeMillis() - start;
+
+        AppLog.i(T.TESTS, REFRESH_METHODS.length + " refresh calls, " + LATENCY_MS + " ms latency - separate: "
+                + separateRoundTrips + " round trips, " + separateTime + " ms; multicall: "
+                + multicall.getRoundTripCount() + " round trips, " + multicallTime + " ms");
+        assertEquals(REFRESH_METHODS.length, events.size());
+        assertEquals(1, multicall.getRoundTripCount());
+        assertTrue(multicallTime < separateTime);
+    }
+
+    private XMLRPCClient newClient() {
+        return new XMLRPCClient(mServer.getUrl(), null, null);
+    }
+
+    private static class RecordingCallback implements XMLRPCCallback {
+        private final List<String> mEvents;
+
+        RecordingCallback(List<String> events) {
+            mEvents = events;
+        }
+
+        @Override
+        public void onSuccess(long id, Object result) {
+            mEvents.add(id + ":" + result);
+        }
+
+        @Override
+        public void onFailure(long id, Exception error) {
+            if (error instanceof XMLRPCFault) {
+                mEvents.add(id + ":fault " + ((XMLRPCFault) error).getFaultCode());
+            } else {
+                mEvents.add(id + ":" + error.getMessage());
+            }
+        }
+    }
+
+    /*
+     * each method returns its own name, demo.fail returns a fault
+     */
+    private static class StubResponder {
+        static String respond(String requestBody, int multicallFault) {
+            Matcher matcher = METHOD_NAME.matcher(requestBody);
+            String method = matcher.find() ? matcher.group(1) : "";
+            if (!XMLRPCMulticall.METHOD_MULTICALL.equals(method)) {
+                if ("demo.fail".equals(method)) {
+                    return XMLRPCStubServer.faultResponse(401, "Incorrect username or password.");
+                }
+                return XMLRPCStubServer.methodResponse("<value><string>" + method + "</string></value>");
+            }
+            if (multicallFault == XMLRPCFault.CODE_METHOD_NOT_FOUND) {
+                return XMLRPCStubServer.faultResponse(multicallFault,
+                        "server error. requested method system.multicall does not exist.");
+            } else if (multicallFault != 0) {
+                return XMLRPCStubServer.faultResponse(multicallFault, "Sorry, you are not allowed to do that.");
+            }
+            StringBuilder results = new StringBuilder("<value><array><data>");
+            Matcher callMatcher = MULTICALL_METHOD_NAME.matcher(requestBody);
+            while (callMatcher.find()) {
+                String callMethod = callMatcher.group(1);
+                if ("demo.fail".equals(callMethod)) {
+                    results.append("<value><struct>")
+                            .append("<member><name>faultCode</name><value><int>401</int></value></member>")
+                            .append("<member><name>faultString</name><value><string>Incorrect username or "
+                                    + "password.</string></value></member>")
+                            .append("</struct></value>");
+                } else {
+                    results.append("<value><array><data><value><string>").append(callMethod)
+                            .append("</string></value></data></array></value>");
+                }
+            }
+            results.append("</data></array></value>");
+            return XMLRPCStubServer.methodResponse(results.toString());
+        }
+    }
+}
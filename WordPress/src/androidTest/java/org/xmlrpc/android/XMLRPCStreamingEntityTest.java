@@ -0,0 +1,179 @@
+package org.xmlrpc.android;
+
+import android.test.InstrumentationTestCase;
+
+import org.apache.http.HttpEntity;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.helpers.MediaFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class XMLRPCStreamingEntityTest extends InstrumentationTestCase {
+    private static final int BENCHMARK_FILE_SIZE = 16 * 1024 * 1024;
+
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = getInstrumentation().getTargetContext().getCacheDir();
+    }
+
+    public void testStreamedBodyMatchesTempFileBody() throws Exception {
+        // odd size, not a multiple of the encoding chunk size
+        File mediaFile = createRandomFile("stream-match", 100001);
+        File tempFile = File.createTempFile("wp-", ".xml", mCacheDir);
+
+        byte[] tempFileBody = writeBody(newClient(false), mediaFile, tempFile);
+        byte[] streamedBody = writeBody(newClient(true), mediaFile, tempFile);
+
+        // the temp file path wraps base64 lines, the streamed path doesn't
+        assertEquals(stripWhitespace(new String(tempFileBody, "UTF-8")),
+                stripWhitespace(new String(streamedBody, "UTF-8")));
+        mediaFile.delete();
+        tempFile.delete();
+    }
+
+    public void testContentLengthIsExact() throws Exception {
+        for (int size : new int[]{0, 1, 2, 3, 3599, 3600, 3601, 250000}) {
+            File mediaFile = createRandomFile("stream-length", size);
+            XMLRPCClient client = newClient(true);
+            client.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), null);
+            HttpEntity entity = client.getPreparedEntity();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertEquals("size " + size, entity.getContentLength(), out.size());
+            mediaFile.delete();
+        }
+    }
+
+    public void testContentTypeMatchesTempFileBody() throws Exception {
+        File mediaFile = createRandomFile("stream-type", 10);
+        XMLRPCClient client = newClient(true);
+        assertTrue(client.isStreamUploads());
+        client.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), null);
+        assertEquals("text/xml; charset=\"UTF-8\"", client.getPreparedEntity().getContentType().getValue());
+        mediaFile.delete();
+    }
+
+    public void testContentMatchesWrittenBody() throws Exception {
+        for (int size : new int[]{0, 1, 3600, 100001}) {
+            File mediaFile = createRandomFile("stream-content", size);
+            XMLRPCClient client = newClient(true);
+            client.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), null);
+            HttpEntity entity = client.getPreparedEntity();
+
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            entity.writeTo(written);
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            InputStream content = entity.getContent();
+            byte[] buffer = new byte[1000];
+            int length;
+            while ((length = content.read(buffer)) != -1) {
+                read.write(buffer, 0, length);
+            }
+            content.close();
+
+            assertTrue("size " + size, Arrays.equals(written.toByteArray(), read.toByteArray()));
+            mediaFile.delete();
+        }
+    }
+
+    public void testUploadedBytesAreReported() throws Exception {
+        File mediaFile = createRandomFile("stream-progress", 50000);
+        XMLRPCClient client = newClient(true);
+        final long[] uploadedBytes = {0};
+        client.setOnBytesUploadedListener(new XMLRPCClient.OnBytesUploadedListener() {
+            @Override
+            public void onBytesUploaded(long bytes, long totalBytes) {
+                uploadedBytes[0] = bytes;
+            }
+        });
+        client.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), null);
+        HttpEntity entity = client.getPreparedEntity();
+        entity.writeTo(new NullOutputStream());
+        assertEquals(entity.getContentLength(), uploadedBytes[0]);
+        mediaFile.delete();
+    }
+
+    public void testBenchmarkStreamedVsTempFile() throws Exception {
+        File mediaFile = createRandomFile("stream-benchmark", BENCHMARK_FILE_SIZE);
+        File tempFile = File.createTempFile("wp-", ".xml", mCacheDir);
+
+        long start = System.currentTimeMillis();
+        XMLRPCClient tempFileClient = newClient(false);
+        tempFileClient.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), tempFile);
+        tempFileClient.getPreparedEntity().writeTo(new NullOutputStream());
+        long tempFileTime = System.currentTimeMillis() - start;
+        long tempFileDiskBytes = tempFile.length();
+        tempFile.delete();
+
+        start = System.currentTimeMillis();
+        XMLRPCClient streamingClient = newClient(true);
+        streamingClient.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), tempFile);
+        streamingClient.getPreparedEntity().writeTo(new NullOutputStream());
+        long streamingTime = System.currentTimeMillis() - start;
+        long streamingDiskBytes = tempFile.exists() ? tempFile.length() : 0;
+
+        AppLog.i(T.TESTS, "wp.uploadFile body for " + BENCHMARK_FILE_SIZE + " bytes of media - temp file: "
+                + tempFileTime + " ms, " + tempFileDiskBytes + " bytes written to disk / streaming: "
+                + streamingTime + " ms, " + streamingDiskBytes + " bytes written to disk");
+        assertEquals(0, streamingDiskBytes);
+        mediaFile.delete();
+    }
+
+    private XMLRPCClient newClient(boolean streamUploads) {
+        XMLRPCClient client = new XMLRPCClient("http://test.com/xmlrpc.php", "", "");
+        client.setStreamUploads(streamUploads);
+        return client;
+    }
+
+    private byte[] writeBody(XMLRPCClient client, File mediaFile, File tempFile) throws Exception {
+        client.preparePostMethod("wp.uploadFile", uploadParams(mediaFile), tempFile);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.getPreparedEntity().writeTo(out);
+        return out.toByteArray();
+    }
+
+    private Object[] uploadParams(File file) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFilePath(file.getPath());
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("name", file.getName());
+        data.put("type", "video/mp4");
+        data.put("bits", mediaFile);
+        data.put("overwrite", true);
+        return new Object[]{1, "username", "password", data};
+    }
+
+    private File createRandomFile(String name, int size) throws IOException {
+        File file = new File(mCacheDir, name + ".bin");
+        byte[] buffer = new byte[8192];
+        Random random = new Random(size);
+        OutputStream out = new FileOutputStream(file);
+        int remaining = size;
+        while (remaining > 0) {
+            random.nextBytes(buffer);
+            int length = Math.min(buffer.length, remaining);
+            out.write(buffer, 0, length);
+            remaining -= length;
+        }
+        out.close();
+        return file;
+    }
+
+    private static String stripWhitespace(String s) {
+        return s.replaceAll("\\s", "");
+    }
+}
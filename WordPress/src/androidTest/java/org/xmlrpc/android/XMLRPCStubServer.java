@@ -0,0 +1,159 @@
+package org.xmlrpc.android;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local HTTP/1.1 server for the XML-RPC tests, keeps the connections alive and answers each request
+ * with the document returned by its Responder
+ */
+public class XMLRPCStubServer extends Thread {
+    public interface Responder {
+        public String respond(String requestBody);
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Responder mResponder;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile long mLatencyMs;
+
+    public XMLRPCStubServer(Responder responder) throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mResponder = responder;
+    }
+
+    public static String methodResponse(String value) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param>" + value
+                + "</param></params></methodResponse>";
+    }
+
+    public static String faultResponse(int faultCode, String faultString) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><fault><value><struct>"
+                + "<member><name>faultCode</name><value><int>" + faultCode + "</int></value></member>"
+                + "<member><name>faultString</name><value><string>" + faultString + "</string></value></member>"
+                + "</struct></value></fault></methodResponse>";
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/xmlrpc.php";
+    }
+
+    /*
+     * delay added before each response, to simulate a slow network
+     */
+    public void setLatencyMs(long latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                new Thread() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String request;
+            while ((request = readRequest(in)) != null) {
+                mRequestCount.incrementAndGet();
+                if (mLatencyMs > 0) {
+                    Thread.sleep(mLatencyMs);
+                }
+                byte[] body = mResponder.respond(request).getBytes("UTF-8");
+                String headers = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/xml\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: keep-alive\r\n\r\n";
+                out.write(headers.getBytes("UTF-8"));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client closed the connection
+        } catch (InterruptedException e) {
+            // nop
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nop
+            }
+        }
+    }
+
+    /*
+     * reads a request, returns its body or null at the end of the stream
+     */
+    private static String readRequest(InputStream in) throws IOException {
+        int contentLength = 0;
+        String line;
+        boolean isFirstLine = true;
+        while ((line = readLine(in)) != null) {
+            if (line.length() == 0) {
+                if (isFirstLine) {
+                    continue;
+                }
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                for (int i = 0; i < contentLength; i++) {
+                    int c = in.read();
+                    if (c == -1) {
+                        return null;
+                    }
+                    body.write(c);
+                }
+                return body.toString("UTF-8");
+            }
+            isFirstLine = false;
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        return null;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString("UTF-8").trim();
+            }
+            line.write(c);
+        }
+        return line.size() > 0 ? line.toString("UTF-8") : null;
+    }
+}
@@ -57,6 +57,7 @@ import org.wordpress.android.analytics.AnalyticsTracker;
 import org.wordpress.android.analytics.AnalyticsTracker.Stat;
 import org.wordpress.android.analytics.AnalyticsTrackerMixpanel;
 import org.wordpress.android.analytics.AnalyticsTrackerNosara;
+import org.codeforafrica.citizenreporter.starreports.chat.ChatOutbox;
 import org.codeforafrica.citizenreporter.starreports.datasets.ReaderDatabase;
 import org.codeforafrica.citizenreporter.starreports.datasets.SuggestionTable;
 import org.codeforafrica.citizenreporter.starreports.models.AssignmentsListPost;
@@ -553,6 +554,9 @@ public class WordPress extends Application {
 
         // we want to reset the suggestion table in every launch so we can get a fresh list
         SuggestionTable.reset(wpDB.getDatabase());
+
+        // send the chat messages that were still waiting when the app was last closed
+        ChatOutbox.start(this);
     }
 
     // Configure Simperium and start buckets if we are signed in to WP.com
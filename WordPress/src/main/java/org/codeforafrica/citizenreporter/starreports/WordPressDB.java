@@ -7,16 +7,23 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.Base64;
+import android.util.SparseArray;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.json.JSONArray;
 import org.codeforafrica.citizenreporter.starreports.BuildConfig;
 import org.codeforafrica.citizenreporter.starreports.datasets.AccountTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.ChatOutboxTable;
 import org.codeforafrica.citizenreporter.starreports.datasets.CommentTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.SearchIndexTable;
 import org.codeforafrica.citizenreporter.starreports.datasets.SuggestionTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.PostUploadQueueTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.SyncStateTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.UploadCheckpointTable;
 import org.codeforafrica.citizenreporter.starreports.models.Account;
 import org.codeforafrica.citizenreporter.starreports.models.AssignmentsListPost;
 import org.codeforafrica.citizenreporter.starreports.models.Blog;
@@ -35,6 +42,7 @@ import org.wordpress.android.util.MapUtils;
 import org.wordpress.android.util.SqlUtils;
 import org.wordpress.android.util.StringUtils;
 import org.codeforafrica.citizenreporter.starreports.wallet.Payment;
+import org.xmlrpc.android.XMLRPCStructHandler;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -42,11 +50,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
@@ -91,7 +100,7 @@ public class WordPressDB {
     private static final String COLUMN_NAME_THUMB               = "thumb";
     private static final String COLUMN_NAME_AVATAR               = "avatar";
 
-    private static final int DATABASE_VERSION = 45;
+    private static final int DATABASE_VERSION = 50;
 
     private static final String CREATE_TABLE_BLOGS = "create table if not exists accounts (id integer primary key autoincrement, "
             + "url text, blogName text, username text, password text, imagePlacement text, centerThumbnail boolean, fullSizeImage boolean, maxImageWidth text, maxImageWidthId integer);";
@@ -164,6 +173,8 @@ public class WordPressDB {
     public static final String COLUMN_USER = "user";
     public static final String COLUMN_TYPE = "type";
     public static final String COLUMN_IS_MINE = "is_mine";
+    public static final String COLUMN_REMOTE_ID = "remote_id";
+    public static final String COLUMN_DATE_CREATED = "date_created";
 
 
     private static final String CREATE_MESSAGES_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_MESSAGES + " ("
@@ -172,6 +183,93 @@ public class WordPressDB {
             + COLUMN_USER + " TEXT,"
             + COLUMN_IS_MINE + " TEXT"
             + "); ";
+
+    // the remote id is the de-duplication key of the messages received from the server, local messages have none
+    private static final String ADD_MESSAGE_REMOTE_ID = "alter table " + TABLE_MESSAGES + " add " + COLUMN_REMOTE_ID
+            + " text;";
+    private static final String ADD_MESSAGE_DATE_CREATED = "alter table " + TABLE_MESSAGES + " add "
+            + COLUMN_DATE_CREATED + " integer default 0;";
+    private static final String CREATE_MESSAGES_REMOTE_ID_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS "
+            + "idx_messages_remote_id ON " + TABLE_MESSAGES + " (" + COLUMN_REMOTE_ID + ");";
+    private static final String CREATE_MESSAGES_DATE_INDEX = "CREATE INDEX IF NOT EXISTS idx_messages_date_created ON "
+            + TABLE_MESSAGES + " (" + COLUMN_DATE_CREATED + ", " + COLUMN_ID + ");";
+    private static final String MESSAGES_SYNC_LIST_TYPE = "messages";
+    // server messages can be saved without a remote id - the ones saved before the upgrade and the ones
+    // received by push. A sync returning such a message gives its remote id to the oldest server message
+    // with the same text and no remote id instead of saving it again
+    private static final String CLAIM_UNSYNCED_MESSAGE = "UPDATE " + TABLE_MESSAGES + " SET " + COLUMN_REMOTE_ID
+            + "=?1, " + COLUMN_DATE_CREATED + "=?2 WHERE " + COLUMN_ID + "=(SELECT " + COLUMN_ID + " FROM "
+            + TABLE_MESSAGES + " WHERE " + COLUMN_REMOTE_ID + " IS NULL AND " + COLUMN_IS_MINE + "='2' AND "
+            + COLUMN_MESSAGE + " IS ?3 ORDER BY " + COLUMN_ID + " LIMIT 1)";
+
+    // secondary indexes for the lookups done by blog, post and media id - the posts indexes end with the
+    // columns the lists are sorted by so the rows are read in order rather than sorted
+    private static final String[] CREATE_SECONDARY_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS idx_media_blog_upload_state ON " + MEDIA_TABLE + " (blogId, uploadState);",
+            "CREATE INDEX IF NOT EXISTS idx_media_media_id ON " + MEDIA_TABLE + " (mediaId, blogId);",
+            "CREATE INDEX IF NOT EXISTS idx_media_post_file ON " + MEDIA_TABLE + " (postID, filePath);",
+            "CREATE INDEX IF NOT EXISTS idx_posts_list ON " + POSTS_TABLE
+                    + " (blogID, isPage, localDraft, date_created_gmt);",
+            "CREATE INDEX IF NOT EXISTS idx_posts_post_id ON " + POSTS_TABLE + " (blogID, postid);",
+            "CREATE INDEX IF NOT EXISTS idx_assignments_list ON " + ASSIGNMENTS_TABLE
+                    + " (blogID, isPage, localDraft, date_created_gmt);",
+            "CREATE INDEX IF NOT EXISTS idx_assignments_post_id ON " + ASSIGNMENTS_TABLE + " (blogID, postid);",
+            "CREATE INDEX IF NOT EXISTS idx_lessons_list ON " + LESSONS_TABLE
+                    + " (blogID, isPage, localDraft, date_created_gmt);",
+            "CREATE INDEX IF NOT EXISTS idx_themes_blog_theme ON " + THEMES_TABLE + " (blogId, themeId);",
+            "CREATE INDEX IF NOT EXISTS idx_themes_theme_id ON " + THEMES_TABLE + " (themeId);",
+            "CREATE INDEX IF NOT EXISTS idx_cats_blog_name ON " + CATEGORIES_TABLE + " (blog_id, category_name);",
+            "CREATE INDEX IF NOT EXISTS idx_payments_post ON " + TABLE_PAYMENTS + " (" + COLUMN_PAYMENT_POST + ");"
+    };
+    // the lookups that filter rows, WordPressDBQueryPlanTest runs the same statements to check that none of
+    // them scans a table
+    private static final String MEDIA_LIBRARY_STATES =
+            "(uploadState IS NULL OR uploadState IN ('uploaded', 'queued', 'failed', 'uploading'))";
+    private static final String MEDIA_LIBRARY_ORDER =
+            " ORDER BY (uploadState='uploading') DESC, date_created_gmt DESC";
+    static final String SQL_MEDIA_FOR_BLOG = "SELECT id as _id, * FROM " + MEDIA_TABLE
+            + " WHERE blogId=? AND mediaId <> '' AND " + MEDIA_LIBRARY_STATES + MEDIA_LIBRARY_ORDER;
+    static final String SQL_MEDIA_SEARCH = "SELECT id as _id, * FROM " + MEDIA_TABLE
+            + " WHERE blogId=? AND mediaId <> '' AND id IN (SELECT docid FROM "
+            + SearchIndexTable.Index.MEDIA.getFtsTable() + " WHERE " + COLUMN_NAME_TITLE + " MATCH ?)"
+            + " AND (uploadState IS NULL OR uploadState ='uploaded')" + MEDIA_LIBRARY_ORDER;
+    static final String SQL_MEDIA_IMAGES_FOR_BLOG = "SELECT id as _id, * FROM " + MEDIA_TABLE
+            + " WHERE blogId=? AND mediaId <> '' AND " + MEDIA_LIBRARY_STATES + " AND mimeType LIKE ?"
+            + MEDIA_LIBRARY_ORDER;
+    static final String SQL_MEDIA_UNATTACHED_FOR_BLOG = "SELECT id as _id, * FROM " + MEDIA_TABLE
+            + " WHERE blogId=? AND mediaId <> '' AND " + MEDIA_LIBRARY_STATES + " AND postId=0" + MEDIA_LIBRARY_ORDER;
+    static final String SQL_MEDIA_FILE = "SELECT * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId=?";
+    static final String SQL_MEDIA_FOR_POST = "SELECT * FROM " + MEDIA_TABLE + " WHERE postID=?";
+    static final String SQL_MEDIA_FILE_FOR_POST = "SELECT * FROM " + MEDIA_TABLE + " WHERE postID=? AND filePath=?";
+    static final String SQL_MEDIA_UPLOAD_QUEUE = "SELECT * FROM " + MEDIA_TABLE + " WHERE uploadState=? AND blogId=?";
+    static final String SQL_MEDIA_DELETE_QUEUE = "SELECT blogId, mediaId FROM " + MEDIA_TABLE
+            + " WHERE uploadState=? AND blogId=?";
+    static final String WHERE_MEDIA_FOR_POST = "blogId=? AND postID=?";
+    static final String WHERE_POSTS_LIST = "blogID=? AND isPage=? AND NOT (localDraft=1 AND uploaded=1)";
+    static final String ORDER_POSTS_LIST = "localDraft DESC, date_created_gmt DESC";
+    static final String WHERE_DRAFTS = "blogID=? AND localDraft=1 AND uploaded=0 AND isPage=?";
+    static final String WHERE_UPLOADED_POSTS = "blogID=? AND localDraft != 1 AND isPage=?";
+    static final String WHERE_LOCAL_CHANGES = "isLocalChange=? AND blogID=? AND isPage=?";
+    static final String WHERE_LOCAL_POST = "blogID=? AND id=?";
+    static final String SQL_THEMES_TRENDING = "SELECT _id, themeId, name, screenshotURL, isCurrent, isPremium FROM "
+            + THEMES_TABLE + " WHERE blogId=? ORDER BY trendingRank ASC";
+    static final String SQL_THEME = "SELECT name, description, screenshotURL, previewURL, isCurrent, isPremium,"
+            + " features FROM " + THEMES_TABLE + " WHERE blogId=? AND themeId=?";
+    static final String WHERE_THEME_ID = "themeId=?";
+    static final String WHERE_CATEGORIES = "blog_id=?";
+    static final String WHERE_CATEGORY_NAME = "category_name=? AND blog_id=?";
+    static final String SQL_POST_PAYMENT = "SELECT * FROM " + TABLE_PAYMENTS + " WHERE " + COLUMN_PAYMENT_POST
+            + "=? ORDER BY " + COLUMN_PAYMENT_ID + " DESC";
+
+    static String buildMediaFilesQuery(int numMediaIds) {
+        StringBuilder sql = new StringBuilder("SELECT id as _id, * FROM " + MEDIA_TABLE
+                + " WHERE blogId=? AND mediaId IN (");
+        for (int i = 0; i < numMediaIds; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
     // for capturing blogID
     private static final String ADD_BLOGID = "alter table accounts add blogId integer;";
     private static final String UPDATE_BLOGID = "update accounts set blogId = 1;";
@@ -265,11 +363,31 @@ public class WordPressDB {
     private static final String ADD_POST_REMOTE_MEDIAPATHS = "alter table posts add remote_mediapaths text default '';";
     private static final String ADD_POST_OWN_PRICE = "alter table posts add own_price text default '';";
 
+    // server modification date of the synced items, a sync skips the items whose date didn't change
+    private static final String[] ADD_DATE_MODIFIED_GMT = {
+            "alter table posts add date_modified_gmt integer default 0;",
+            "alter table assignments add date_modified_gmt integer default 0;",
+            "alter table lessons add date_modified_gmt integer default 0;"};
+
     private SQLiteDatabase db;
 
     protected static final String PASSWORD_SECRET = BuildConfig.DB_SECRET;
     private Context context;
 
+    // decrypted blogs by local id, instantiateBlogByLocalId returns copies so callers can't alter them
+    private final SparseArray<Blog> mBlogCache = new SparseArray<Blog>();
+    // bumped on every invalidation so a blog read before a write isn't cached after it - writes invalidate
+    // once they're done, invalidating first would let a read racing the write cache the old row again
+    private int mBlogCacheGeneration;
+
+    // compiled on first use and kept for the life of the database, guarded by the db monitor
+    private MediaFileStatements mMediaFileStatements;
+
+    // DES ciphers are expensive to set up, each thread keeps initialized ones around
+    private static SecretKey sPasswordKey;
+    private static final ThreadLocal<Cipher> sEncryptCipher = new ThreadLocal<Cipher>();
+    private static final ThreadLocal<Cipher> sDecryptCipher = new ThreadLocal<Cipher>();
+
     public WordPressDB(Context ctx) {
         this.context = ctx;
         db = ctx.openOrCreateDatabase(DATABASE_NAME, 0, null);
@@ -283,6 +401,12 @@ public class WordPressDB {
         db.execSQL(CREATE_TABLE_THEMES);
         CommentTable.createTables(db);
         SuggestionTable.createTables(db);
+        UploadCheckpointTable.createTables(db);
+        UploadCheckpointTable.purge(db);
+        PostUploadQueueTable.createTables(db);
+        PostUploadQueueTable.purge(db);
+        SyncStateTable.createTables(db);
+        ChatOutboxTable.createTables(db);
 
         // Update tables for new installs and app updates
         int currentVersion = db.getVersion();
@@ -429,6 +553,30 @@ public class WordPressDB {
                 currentVersion++;
             case 44:
                 db.execSQL(ADD_POST_WHEN_DATE);
+                currentVersion++;
+            case 45:
+                db.execSQL(ADD_MESSAGE_REMOTE_ID);
+                db.execSQL(ADD_MESSAGE_DATE_CREATED);
+                db.execSQL(CREATE_MESSAGES_REMOTE_ID_INDEX);
+                db.execSQL(CREATE_MESSAGES_DATE_INDEX);
+                currentVersion++;
+            case 46:
+                for (String createIndex : CREATE_SECONDARY_INDEXES) {
+                    db.execSQL(createIndex);
+                }
+                currentVersion++;
+            case 47:
+                SearchIndexTable.createTables(db);
+                currentVersion++;
+            case 48:
+                for (String addDateModified : ADD_DATE_MODIFIED_GMT) {
+                    db.execSQL(addDateModified);
+                }
+                // the per-list high-water marks used before are replaced by the dates above
+                db.delete("sync_state", "list_type != ?", new String[]{MESSAGES_SYNC_LIST_TYPE});
+                currentVersion++;
+            case 49:
+                ChatOutboxTable.addFailedColumn(db);
         }
         db.setVersion(DATABASE_VERSION);
     }
@@ -498,7 +646,11 @@ public class WordPressDB {
         }
         values.put("isAdmin", blog.isAdmin());
         values.put("isHidden", blog.isHidden());
-        return db.insert(BLOGS_TABLE, null, values) > -1;
+        try {
+            return db.insert(BLOGS_TABLE, null, values) > -1;
+        } finally {
+            invalidateBlogCache();
+        }
     }
     public void addPayment(Payment payment) {
 
@@ -513,16 +665,111 @@ public class WordPressDB {
         db.insert(TABLE_PAYMENTS, null, values);
 
     }
-    public void addMessage(Message message) {
+    /*
+     * returns the id of the new row, or -1 if a message with the same remote id was already saved
+     */
+    public long addMessage(Message message) {
 
         ContentValues values = new ContentValues();
 
         values.put(COLUMN_MESSAGE, message.getMessage());
         values.put(COLUMN_USER, message.getUser());
         values.put(COLUMN_IS_MINE, message.getIsMine());
+        values.put(COLUMN_REMOTE_ID, message.getRemoteId());
+        values.put(COLUMN_DATE_CREATED, message.getDateCreated() > 0 ? message.getDateCreated()
+                : System.currentTimeMillis());
+
+        return db.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+    }
+
+    /*
+     * saves the messages received from the server in a single transaction, messages that were already
+     * saved are skipped - returns the number of new messages
+     */
+    public int addRemoteMessages(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        int numInserted = 0;
+        SQLiteStatement stmt = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_MESSAGES + " ("
+                + COLUMN_MESSAGE + ", " + COLUMN_USER + ", " + COLUMN_IS_MINE + ", " + COLUMN_REMOTE_ID + ", "
+                + COLUMN_DATE_CREATED + ") VALUES (?1, ?2, ?3, ?4, ?5)");
+        SQLiteStatement claimStmt = hasUnsyncedMessages() ? db.compileStatement(CLAIM_UNSYNCED_MESSAGE) : null;
+        db.beginTransaction();
+        try {
+            long now = System.currentTimeMillis();
+            for (Message message : messages) {
+                long dateCreated = message.getDateCreated() > 0 ? message.getDateCreated() : now;
+                if (claimStmt != null && message.getRemoteId() != null && "2".equals(message.getIsMine())) {
+                    claimStmt.clearBindings();
+                    claimStmt.bindString(1, message.getRemoteId());
+                    claimStmt.bindLong(2, dateCreated);
+                    bindStringOrNull(claimStmt, 3, message.getMessage());
+                    if (claimStmt.executeUpdateDelete() > 0) {
+                        continue;
+                    }
+                }
+                stmt.clearBindings();
+                bindStringOrNull(stmt, 1, message.getMessage());
+                bindStringOrNull(stmt, 2, message.getUser());
+                bindStringOrNull(stmt, 3, message.getIsMine());
+                bindStringOrNull(stmt, 4, message.getRemoteId());
+                stmt.bindLong(5, dateCreated);
+                if (stmt.executeInsert() != -1) {
+                    numInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmt);
+            SqlUtils.closeStatement(claimStmt);
+        }
+        return numInserted;
+    }
+
+    /*
+     * server messages saved before remote ids were stored (db version 45) or received by push have no remote id
+     */
+    private boolean hasUnsyncedMessages() {
+        return SqlUtils.boolForQuery(db, "SELECT EXISTS (SELECT 1 FROM " + TABLE_MESSAGES + " WHERE "
+                + COLUMN_REMOTE_ID + " IS NULL AND " + COLUMN_IS_MINE + "='2')", null);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement stmt, int index, String value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindString(index, value);
+        }
+    }
 
-        db.insert(TABLE_MESSAGES, null, values);
+    /*
+     * returns the most recent messages, oldest first - the chat shows the last page and loads older
+     * pages by asking for a higher limit
+     */
+    public Cursor getMessagesCursor(int limit) {
+        String columns = COLUMN_ID + ", " + COLUMN_MESSAGE + ", " + COLUMN_USER + ", " + COLUMN_IS_MINE + ", "
+                + COLUMN_DATE_CREATED;
+        return db.rawQuery("SELECT * FROM (SELECT " + columns + " FROM " + TABLE_MESSAGES
+                + " ORDER BY " + COLUMN_DATE_CREATED + " DESC, " + COLUMN_ID + " DESC LIMIT " + limit + ")"
+                + " ORDER BY " + COLUMN_DATE_CREATED + " ASC, " + COLUMN_ID + " ASC", null);
+    }
 
+    public int getMessageCount() {
+        return SqlUtils.intForQuery(db, "SELECT COUNT(*) FROM " + TABLE_MESSAGES, null);
+    }
+
+    /*
+     * highest numeric remote id received from the server, sent as the since-id of the next sync
+     */
+    public long getMessagesSinceId(int localBlogId) {
+        return SyncStateTable.getHighWaterMark(localBlogId, MESSAGES_SYNC_LIST_TYPE);
+    }
+
+    public void setMessagesSinceId(int localBlogId, long sinceId) {
+        SyncStateTable.setHighWaterMark(localBlogId, MESSAGES_SYNC_LIST_TYPE, sinceId);
     }
     public List<Message> getMessages() {
         List<Message> messagesList = new ArrayList<Message>();
@@ -575,9 +822,7 @@ public class WordPressDB {
     }
     public Payment getPostPayment(String post_id) {
         // Select All Query
-        String selectQuery = "SELECT * FROM " + TABLE_PAYMENTS + " WHERE " + COLUMN_PAYMENT_POST + " ='" + post_id + "' ORDER BY " + COLUMN_PAYMENT_ID +" DESC";
-
-        Cursor cursor = db.rawQuery(selectQuery, null);
+        Cursor cursor = db.rawQuery(SQL_POST_PAYMENT, new String[] {post_id});
 
         // looping through all rows and adding to list
         if (cursor.moveToFirst()) {
@@ -711,13 +956,21 @@ public class WordPressDB {
     public int setAllDotComBlogsVisibility(boolean visible) {
         ContentValues values = new ContentValues();
         values.put("isHidden", !visible);
-        return db.update(BLOGS_TABLE, values, "dotcomFlag=1", null);
+        try {
+            return db.update(BLOGS_TABLE, values, "dotcomFlag=1", null);
+        } finally {
+            invalidateBlogCache();
+        }
     }
 
     public int setDotComBlogsVisibility(int id, boolean visible) {
         ContentValues values = new ContentValues();
         values.put("isHidden", !visible);
-        return db.update(BLOGS_TABLE, values, "dotcomFlag=1 AND id=" + id, null);
+        try {
+            return db.update(BLOGS_TABLE, values, "dotcomFlag=1 AND id=" + id, null);
+        } finally {
+            invalidateBlogCache(id);
+        }
     }
 
     public boolean isDotComBlogVisible(int blogId) {
@@ -773,8 +1026,12 @@ public class WordPressDB {
         } else {
             values.putNull("wpVersion");
         }
-        boolean returnValue = db.update(BLOGS_TABLE, values, "id=" + blog.getLocalTableBlogId(),
-                null) > 0;
+        boolean returnValue;
+        try {
+            returnValue = db.update(BLOGS_TABLE, values, "id=" + blog.getLocalTableBlogId(), null) > 0;
+        } finally {
+            invalidateBlogCache(blog.getLocalTableBlogId());
+        }
         if (blog.isDotcomFlag()) {
             returnValue = updateWPComCredentials(blog.getUsername(), blog.getPassword());
         }
@@ -787,12 +1044,22 @@ public class WordPressDB {
         ContentValues userPass = new ContentValues();
         userPass.put("username", username);
         userPass.put("password", encryptPassword(password));
-        return db.update(BLOGS_TABLE, userPass, "username=\""
-                + username + "\" AND dotcomFlag=1", null) > 0;
+        try {
+            return db.update(BLOGS_TABLE, userPass, "username=\""
+                    + username + "\" AND dotcomFlag=1", null) > 0;
+        } finally {
+            // may change any wp.com blog
+            invalidateBlogCache();
+        }
     }
 
     public boolean deleteBlog(Context ctx, int id) {
-        int rowsAffected = db.delete(BLOGS_TABLE, "id=?", new String[]{Integer.toString(id)});
+        int rowsAffected;
+        try {
+            rowsAffected = db.delete(BLOGS_TABLE, "id=?", new String[]{Integer.toString(id)});
+        } finally {
+            invalidateBlogCache(id);
+        }
         deleteQuickPressShortcutsForLocalTableBlogId(ctx, id);
         deleteAllPostsForLocalTableBlogId(id);
         return (rowsAffected > 0);
@@ -807,7 +1074,12 @@ public class WordPressDB {
         }
 
         // Delete blogs
-        int rowsAffected = db.delete(BLOGS_TABLE, "dotcomFlag=1", null);
+        int rowsAffected;
+        try {
+            rowsAffected = db.delete(BLOGS_TABLE, "dotcomFlag=1", null);
+        } finally {
+            invalidateBlogCache();
+        }
         return (rowsAffected > 0);
     }
 
@@ -816,11 +1088,13 @@ public class WordPressDB {
      */
     public void dangerouslyDeleteAllContent() {
         db.delete(BLOGS_TABLE, null, null);
+        invalidateBlogCache();
         db.delete(POSTS_TABLE, null, null);
         db.delete(ASSIGNMENTS_TABLE, null, null);
         db.delete(MEDIA_TABLE, null, null);
         db.delete(CATEGORIES_TABLE, null, null);
         db.delete(CommentTable.COMMENTS_TABLE, null, null);
+        SyncStateTable.reset(db);
     }
 
     public boolean hasDotOrgBlogForUsernameAndUrl(String username, String url) {
@@ -844,6 +1118,54 @@ public class WordPressDB {
      * @return a new Blog instance or null if the localId was not found
      */
     public Blog instantiateBlogByLocalId(int localId) {
+        int generation;
+        synchronized (mBlogCache) {
+            Blog cachedBlog = mBlogCache.get(localId);
+            if (cachedBlog != null) {
+                return copyBlog(cachedBlog);
+            }
+            generation = mBlogCacheGeneration;
+        }
+
+        Blog blog = loadBlogByLocalId(localId);
+        if (blog != null) {
+            synchronized (mBlogCache) {
+                if (generation == mBlogCacheGeneration) {
+                    mBlogCache.put(localId, copyBlog(blog));
+                }
+            }
+        }
+        return blog;
+    }
+
+    /*
+     * drops the cached copy of a blog, must be called after every write to its row of the blogs table
+     */
+    private void invalidateBlogCache(int localId) {
+        synchronized (mBlogCache) {
+            mBlogCache.remove(localId);
+            mBlogCacheGeneration++;
+        }
+    }
+
+    public void invalidateBlogCache() {
+        synchronized (mBlogCache) {
+            mBlogCache.clear();
+            mBlogCacheGeneration++;
+        }
+    }
+
+    private static Blog copyBlog(Blog blog) {
+        return new Blog(blog.getLocalTableBlogId(), blog.getUrl(), blog.getHomeURL(), blog.getBlogName(),
+                blog.getUsername(), blog.getPassword(), blog.getImagePlacement(), blog.isFeaturedImageCapable(),
+                blog.isFullSizeImage(), blog.isScaledImage(), blog.getScaledImageWidth(), blog.getMaxImageWidth(),
+                blog.getMaxImageWidthId(), blog.getRemoteBlogId(), blog.getDotcom_username(),
+                blog.getDotcom_password(), blog.getApi_key(), blog.getApi_blogid(), blog.isDotcomFlag(),
+                blog.getWpVersion(), blog.getHttpuser(), blog.getHttppassword(), blog.getPostFormats(),
+                blog.getBlogOptions(), blog.isAdmin(), blog.isHidden());
+    }
+
+    private Blog loadBlogByLocalId(int localId) {
         String[] fields =
                 new String[]{"url", "blogName", "username", "password", "httpuser", "httppassword", "imagePlacement",
                              "centerThumbnail", "fullSizeImage", "maxImageWidth", "maxImageWidthId",
@@ -1036,21 +1358,18 @@ public class WordPressDB {
         if (loadPages)
             c = db.query(POSTS_TABLE, new String[] { "id", "title",
                     "post_status", "uploaded", "date_created_gmt",
-                    "post_status" }, "blogID=" + blogID
-                    + " AND localDraft=1 AND uploaded=0 AND isPage=1", null,
+                    "post_status" }, WHERE_DRAFTS, new String[] {String.valueOf(blogID), "1"},
                     null, null, null);
         else
             if(loadAssignments)
                 c = db.query(ASSIGNMENTS_TABLE, new String[] { "id", "title",
                                 "post_status", "uploaded", "date_created_gmt",
-                                "post_status" }, "blogID=" + blogID
-                                + " AND localDraft=1 AND uploaded=0 AND isPage=0", null,
+                                "post_status" }, WHERE_DRAFTS, new String[] {String.valueOf(blogID), "0"},
                         null, null, null);
             else
                 c = db.query(POSTS_TABLE, new String[] { "id", "title",
                         "post_status", "uploaded", "date_created_gmt",
-                        "post_status" }, "blogID=" + blogID
-                        + " AND localDraft=1 AND uploaded=0 AND isPage=0", null,
+                        "post_status" }, WHERE_DRAFTS, new String[] {String.valueOf(blogID), "0"},
                         null, null, null);
 
         int numRows = c.getCount();
@@ -1080,7 +1399,7 @@ public class WordPressDB {
 
     public boolean deletePost(Post post) {
         int result = db.delete(POSTS_TABLE,
-                "blogID=? AND id=?",
+                WHERE_LOCAL_POST,
                 new String[]{String.valueOf(post.getLocalTableBlogId()), String.valueOf(post.getLocalTablePostId())});
 
         return (result == 1);
@@ -1088,7 +1407,7 @@ public class WordPressDB {
 
     public boolean deleteAssignment(Post post) {
         int result = db.delete(ASSIGNMENTS_TABLE,
-                "blogID=? AND id=?",
+                WHERE_LOCAL_POST,
                 new String[]{String.valueOf(post.getLocalTableBlogId()), String.valueOf(post.getLocalTablePostId())});
 
         return (result == 1);
@@ -1098,6 +1417,7 @@ public class WordPressDB {
     private void deleteAllPostsForLocalTableBlogId(int localBlogId) {
         db.delete(POSTS_TABLE, "blogID=?", new String[]{String.valueOf(localBlogId)});
         db.delete(ASSIGNMENTS_TABLE, "blogID=?", new String[]{String.valueOf(localBlogId)});
+        SyncStateTable.deleteForBlog(localBlogId);
     }
 
     public Object[] arrayListToArray(Object array) {
@@ -1107,6 +1427,243 @@ public class WordPressDB {
         return (Object[]) array;
     }
 
+    // columns of the posts, assignments and lessons tables filled from a synced post, in binding order
+    private static final String[] SYNCED_POST_COLUMNS = {
+            "title", "dateCreated", "date_created_gmt", "date_modified_gmt", "description", "link", "permaLink", "author", "thumb",
+            "avatar", "categories", "custom_fields", "longitude", "latitude", "assignment_id", "qwho", "qwhere",
+            "qwhat", "qwhy", "qwhen", "qwhen_date", "qhow", "remote_mediapaths", "location", "coordinates",
+            "deadline", "bounty", "media_types", "mt_excerpt", "mt_text_more", "mt_allow_comments",
+            "mt_allow_pings", "wp_slug", "wp_password", "wp_author_id", "wp_author_display_name", "post_status",
+            "userid", "isPage", "wp_page_parent_id", "wp_page_parent_title", "mt_keywords", "wp_post_format"};
+    private static final Map<String, Integer> SYNCED_POST_COLUMN_INDEX = new HashMap<String, Integer>();
+
+    /*
+     * custom fields copied to their own column when a post is synced
+     */
+    private static class CustomFieldColumn {
+        final int columnIndex;
+        // the server sends the string "null" for unanswered questionnaire fields
+        final boolean skipNullString;
+        final boolean assignmentOnly;
+
+        CustomFieldColumn(String column, boolean skipNullString, boolean assignmentOnly) {
+            this.columnIndex = SYNCED_POST_COLUMN_INDEX.get(column);
+            this.skipNullString = skipNullString;
+            this.assignmentOnly = assignmentOnly;
+        }
+    }
+    private static final Map<String, CustomFieldColumn> CUSTOM_FIELD_COLUMNS = new HashMap<String, CustomFieldColumn>();
+
+    static {
+        for (int i = 0; i < SYNCED_POST_COLUMNS.length; i++) {
+            SYNCED_POST_COLUMN_INDEX.put(SYNCED_POST_COLUMNS[i], i);
+        }
+
+        CUSTOM_FIELD_COLUMNS.put("geo_longitude", new CustomFieldColumn("longitude", false, false));
+        CUSTOM_FIELD_COLUMNS.put("geo_latitude", new CustomFieldColumn("latitude", false, false));
+        CUSTOM_FIELD_COLUMNS.put("assignment_id", new CustomFieldColumn("assignment_id", false, false));
+
+        // questionnaire questions
+        for (String key : new String[]{"qwho", "qwhere", "qwhat", "qwhy", "qwhen", "qwhen_date", "qhow",
+                "remote_mediapaths"}) {
+            CUSTOM_FIELD_COLUMNS.put(key, new CustomFieldColumn(key, true, false));
+        }
+
+        // assignments custom fields
+        CUSTOM_FIELD_COLUMNS.put("assignment_address", new CustomFieldColumn("location", false, true));
+        CUSTOM_FIELD_COLUMNS.put("assignment_location", new CustomFieldColumn("coordinates", false, true));
+        CUSTOM_FIELD_COLUMNS.put("assignment_date", new CustomFieldColumn("deadline", false, true));
+        CUSTOM_FIELD_COLUMNS.put("assignment_bounty", new CustomFieldColumn("bounty", false, true));
+        CUSTOM_FIELD_COLUMNS.put("assignment_type", new CustomFieldColumn("media_types", false, true));
+    }
+
+    private static void putSyncedValue(Object[] row, String column, Object value) {
+        row[SYNCED_POST_COLUMN_INDEX.get(column)] = value;
+    }
+
+    /*
+     * compiled update and insert statements for one of the posts tables, only binding the synced columns
+     * that the table has. A column left null keeps its current value on update and gets its default value
+     * on insert, same as a column missing from ContentValues.
+     */
+    static class SyncedPostStatements {
+        private final String mUpdateSql;
+        private final SQLiteStatement mUpdate;
+        private final SQLiteStatement mInsert;
+        private final List<Integer> mColumnIndexes = new ArrayList<Integer>();
+        private final int mKeyParam;
+
+        SyncedPostStatements(SQLiteDatabase db, String table, boolean shouldOverwrite) {
+            Map<String, String> columnDefaults = new HashMap<String, String>();
+            Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                int nameIndex = c.getColumnIndex("name");
+                int defaultIndex = c.getColumnIndex("dflt_value");
+                while (c.moveToNext()) {
+                    columnDefaults.put(c.getString(nameIndex), c.getString(defaultIndex));
+                }
+            } finally {
+                SqlUtils.closeCursor(c);
+            }
+
+            StringBuilder update = new StringBuilder("UPDATE " + table + " SET ");
+            StringBuilder insertColumns = new StringBuilder("blogID, postid");
+            StringBuilder insertValues = new StringBuilder();
+            int param = 0;
+            for (int i = 0; i < SYNCED_POST_COLUMNS.length; i++) {
+                String column = SYNCED_POST_COLUMNS[i];
+                if (!columnDefaults.containsKey(column)) {
+                    continue;
+                }
+                mColumnIndexes.add(i);
+                param++;
+                String defaultValue = columnDefaults.get(column);
+                if (param > 1) {
+                    update.append(", ");
+                }
+                update.append(column).append("=COALESCE(?").append(param).append(", ").append(column).append(")");
+                insertColumns.append(", ").append(column);
+                insertValues.append(", COALESCE(?").append(param).append(", ")
+                        .append(defaultValue != null ? defaultValue : "NULL").append(")");
+            }
+            mKeyParam = param + 1;
+
+            // the key is bound after the synced columns
+            update.append(" WHERE blogID=?").append(mKeyParam).append(" AND postID=?").append(mKeyParam + 1)
+                    .append(" AND isPage=?").append(mKeyParam + 2);
+            if (!shouldOverwrite) {
+                update.append(" AND NOT isLocalChange=1");
+            }
+            mUpdateSql = update.toString();
+            mUpdate = db.compileStatement(mUpdateSql);
+            mInsert = db.compileStatement("INSERT INTO " + table + " (" + insertColumns + ") VALUES (?" + mKeyParam
+                    + ", ?" + (mKeyParam + 1) + insertValues + ")");
+        }
+
+        String getUpdateSql() {
+            return mUpdateSql;
+        }
+
+        void upsert(int localBlogId, String postId, boolean isPage, Object[] row) {
+            bind(localBlogId, postId, isPage, row, mUpdate);
+            if (mUpdate.executeUpdateDelete() == 0) {
+                bind(localBlogId, postId, isPage, row, mInsert);
+                mInsert.executeInsert();
+            }
+        }
+
+        private void bind(int localBlogId, String postId, boolean isPage, Object[] row, SQLiteStatement stmt) {
+            stmt.clearBindings();
+            for (int param = 1; param <= mColumnIndexes.size(); param++) {
+                Object value = row[mColumnIndexes.get(param - 1)];
+                if (value == null) {
+                    stmt.bindNull(param);
+                } else if (value instanceof Number) {
+                    stmt.bindLong(param, ((Number) value).longValue());
+                } else if (value instanceof Boolean) {
+                    stmt.bindLong(param, SqlUtils.boolToSql((Boolean) value));
+                } else {
+                    stmt.bindString(param, value.toString());
+                }
+            }
+            stmt.bindLong(mKeyParam, localBlogId);
+            stmt.bindString(mKeyParam + 1, postId);
+            if (stmt == mUpdate) {
+                stmt.bindLong(mKeyParam + 2, SqlUtils.boolToSql(isPage));
+            }
+        }
+
+        void close() {
+            SqlUtils.closeStatement(mUpdate);
+            SqlUtils.closeStatement(mInsert);
+        }
+    }
+
+    /*
+     * copies the fields of a post returned by the server to the values bound by SyncedPostStatements
+     */
+    private static void fillSyncedPostValues(Map<?, ?> postMap, Object[] values, boolean isPage,
+                                             boolean isAssignment) {
+        Arrays.fill(values, null);
+        putSyncedValue(values, "title", MapUtils.getMapStr(postMap, "title"));
+        Date dateCreated = MapUtils.getMapDate(postMap, "dateCreated");
+        if (dateCreated == null) {
+            dateCreated = new Date();
+        }
+        putSyncedValue(values, "dateCreated", dateCreated.getTime());
+        putSyncedValue(values, "date_created_gmt", getDateCreatedGmt(postMap, dateCreated));
+        Date dateModified = MapUtils.getMapDate(postMap, "date_modified_gmt");
+        if (dateModified != null) {
+            putSyncedValue(values, "date_modified_gmt", dateModified.getTime());
+        }
+
+        putSyncedValue(values, "description", MapUtils.getMapStr(postMap, "description"));
+        putSyncedValue(values, "link", MapUtils.getMapStr(postMap, "link"));
+        putSyncedValue(values, "permaLink", MapUtils.getMapStr(postMap, "permaLink"));
+
+        if(isAssignment){
+            putSyncedValue(values, "author", MapUtils.getMapStr(postMap, "wp_author_display_name"));
+            putSyncedValue(values, "thumb", MapUtils.getMapStr(postMap, "wp_post_thumbnail"));
+            putSyncedValue(values, "avatar", MapUtils.getMapStr(postMap, "user_thumbnail"));
+        }
+
+        Object[] postCategories = (Object[]) postMap.get("categories");
+        JSONArray jsonCategoriesArray = new JSONArray();
+        if (postCategories != null) {
+            for (Object postCategory : postCategories) {
+                jsonCategoriesArray.put(postCategory.toString());
+            }
+        }
+        putSyncedValue(values, "categories", jsonCategoriesArray.toString());
+
+        Object[] custom_fields = (Object[]) postMap.get("custom_fields");
+        JSONArray jsonCustomFieldsArray = new JSONArray();
+        if (custom_fields != null) {
+            for (Object custom_field : custom_fields) {
+                jsonCustomFieldsArray.put(custom_field.toString());
+                // Copy geolocation, assignment and questionnaire fields to their own columns
+                if (!(custom_field instanceof Map))
+                    continue;
+                Map<?, ?> customField = (Map<?, ?>) custom_field;
+                Object key = customField.get("key");
+                Object value = customField.get("value");
+                if (key == null || value == null) {
+                    continue;
+                }
+                CustomFieldColumn column = CUSTOM_FIELD_COLUMNS.get(key.toString());
+                if (column == null || (column.assignmentOnly && !isAssignment)) {
+                    continue;
+                }
+                String valueStr = value.toString();
+                if (column.skipNullString && valueStr.equals("null")) {
+                    continue;
+                }
+                values[column.columnIndex] = valueStr;
+            }
+        }
+        putSyncedValue(values, "custom_fields", jsonCustomFieldsArray.toString());
+
+        putSyncedValue(values, "mt_excerpt", MapUtils.getMapStr(postMap, (isPage) ? "excerpt" : "mt_excerpt"));
+        putSyncedValue(values, "mt_text_more", MapUtils.getMapStr(postMap, (isPage) ? "text_more" : "mt_text_more"));
+        putSyncedValue(values, "mt_allow_comments", MapUtils.getMapInt(postMap, "mt_allow_comments", 0));
+        putSyncedValue(values, "mt_allow_pings", MapUtils.getMapInt(postMap, "mt_allow_pings", 0));
+        putSyncedValue(values, "wp_slug", MapUtils.getMapStr(postMap, "wp_slug"));
+        putSyncedValue(values, "wp_password", MapUtils.getMapStr(postMap, "wp_password"));
+        putSyncedValue(values, "wp_author_id", MapUtils.getMapStr(postMap, "wp_author_id"));
+        putSyncedValue(values, "wp_author_display_name", MapUtils.getMapStr(postMap, "wp_author_display_name"));
+        putSyncedValue(values, "post_status", MapUtils.getMapStr(postMap, (isPage) ? "page_status" : "post_status"));
+        putSyncedValue(values, "userid", MapUtils.getMapStr(postMap, "userid"));
+
+        if (isPage) {
+            putSyncedValue(values, "isPage", true);
+            putSyncedValue(values, "wp_page_parent_id", MapUtils.getMapStr(postMap, "wp_page_parent_id"));
+            putSyncedValue(values, "wp_page_parent_title", MapUtils.getMapStr(postMap, "wp_page_parent_title"));
+        } else {
+            putSyncedValue(values, "mt_keywords", MapUtils.getMapStr(postMap, "mt_keywords"));
+            putSyncedValue(values, "wp_post_format", MapUtils.getMapStr(postMap, "wp_post_format"));
+        }
+    }
+
     /**
      * Saves a list of posts to the db
      * @param postsList: list of post objects
@@ -1115,11 +1672,13 @@ public class WordPressDB {
      */
     public void savePosts(List<?> postsList, int localBlogId, boolean isPage, boolean isAssignment, boolean shouldOverwrite, boolean isLesson) {
         if (postsList != null && postsList.size() != 0) {
+            String table = isAssignment ? ASSIGNMENTS_TABLE : (isLesson ? LESSONS_TABLE : POSTS_TABLE);
+            SyncedPostStatements statements = new SyncedPostStatements(db, table, shouldOverwrite);
+            Object[] values = new Object[SYNCED_POST_COLUMNS.length];
+
             db.beginTransaction();
             try {
                 for (Object post : postsList) {
-                    ContentValues values = new ContentValues();
-
                     // Sanity checks
                     if (!(post instanceof Map)) {
                         continue;
@@ -1131,155 +1690,14 @@ public class WordPressDB {
                         continue;
                     }
 
-                    values.put("blogID", localBlogId);
-                    values.put("postid", postID);
-                    values.put("title", MapUtils.getMapStr(postMap, "title"));
-                    Date dateCreated = MapUtils.getMapDate(postMap, "dateCreated");
-                    if (dateCreated != null) {
-                        values.put("dateCreated", dateCreated.getTime());
-                    } else {
-                        Date now = new Date();
-                        values.put("dateCreated", now.getTime());
-                    }
-
-                    Date dateCreatedGmt = MapUtils.getMapDate(postMap, "date_created_gmt");
-                    if (dateCreatedGmt != null) {
-                        values.put("date_created_gmt", dateCreatedGmt.getTime());
-                    } else {
-                        dateCreatedGmt = new Date((Long) values.get("dateCreated"));
-                        values.put("date_created_gmt", dateCreatedGmt.getTime() + (dateCreatedGmt.getTimezoneOffset() * 60000));
-                    }
-
-                    values.put("description", MapUtils.getMapStr(postMap, "description"));
-                    values.put("link", MapUtils.getMapStr(postMap, "link"));
-                    values.put("permaLink", MapUtils.getMapStr(postMap, "permaLink"));
-
-                    if(isAssignment){
-                        values.put("author", MapUtils.getMapStr(postMap, "wp_author_display_name"));
-                        values.put("thumb", MapUtils.getMapStr(postMap, "wp_post_thumbnail"));
-                        values.put("avatar", MapUtils.getMapStr(postMap, "user_thumbnail"));
-                    }
-
-                    Object[] postCategories = (Object[]) postMap.get("categories");
-                    JSONArray jsonCategoriesArray = new JSONArray();
-                    if (postCategories != null) {
-                        for (Object postCategory : postCategories) {
-                            jsonCategoriesArray.put(postCategory.toString());
-                        }
-                    }
-                    values.put("categories", jsonCategoriesArray.toString());
-
-                    Object[] custom_fields = (Object[]) postMap.get("custom_fields");
-                    JSONArray jsonCustomFieldsArray = new JSONArray();
-                    if (custom_fields != null) {
-                        for (Object custom_field : custom_fields) {
-                            jsonCustomFieldsArray.put(custom_field.toString());
-                            // Update geo_long and geo_lat from custom fields
-                            if (!(custom_field instanceof Map))
-                                continue;
-                            Map<?, ?> customField = (Map<?, ?>) custom_field;
-                            if (customField.get("key") != null && customField.get("value") != null) {
-                                if (customField.get("key").equals("geo_longitude"))
-                                    values.put("longitude", customField.get("value").toString());
-                                if (customField.get("key").equals("geo_latitude"))
-                                    values.put("latitude", customField.get("value").toString());
-
-                                //assignment id
-                                if (customField.get("key").equals("assignment_id"))
-                                    values.put("assignment_id", customField.get("value").toString());
-
-                                //questionnare questions
-                                    //watch out for null string values
-                                    if(!customField.get("value").toString().equals("null")) {
-                                        if (customField.get("key").equals("qwho"))
-                                            values.put("qwho", customField.get("value").toString());
-                                        if (customField.get("key").equals("qwhere"))
-                                            values.put("qwhere", customField.get("value").toString());
-                                        if (customField.get("key").equals("qwhat"))
-                                            values.put("qwhat", customField.get("value").toString());
-                                        if (customField.get("key").equals("qwhy"))
-                                            values.put("qwhy", customField.get("value").toString());
-                                        if (customField.get("key").equals("qwhen"))
-                                            values.put("qwhen", customField.get("value").toString());
-                                        if (customField.get("key").equals("qwhen_date"))
-                                            values.put("qwhen_date", customField.get("value").toString());
-                                        if (customField.get("key").equals("qhow"))
-                                            values.put("qhow", customField.get("value").toString());
-                                        if (customField.get("key").equals("remote_mediapaths"))
-                                            values.put("remote_mediapaths", customField.get("value").toString());
-                                    }
-
-                                //assignments custom fields
-                                if(isAssignment){
-                                    if (customField.get("key").equals("assignment_address"))
-                                        values.put("location", customField.get("value").toString());
-
-                                    if (customField.get("key").equals("assignment_location"))
-                                        values.put("coordinates", customField.get("value").toString());
-
-                                    if (customField.get("key").equals("assignment_date"))
-                                        values.put("deadline", customField.get("value").toString());
-
-                                    if (customField.get("key").equals("assignment_bounty"))
-                                        values.put("bounty", customField.get("value").toString());
-
-                                    if (customField.get("key").equals("assignment_type"))
-                                        values.put("media_types", customField.get("value").toString());
-                                }
-
-                            }
-                        }
-                    }
-                    values.put("custom_fields", jsonCustomFieldsArray.toString());
-
-                    values.put("mt_excerpt", MapUtils.getMapStr(postMap, (isPage) ? "excerpt" : "mt_excerpt"));
-                    values.put("mt_text_more", MapUtils.getMapStr(postMap, (isPage) ? "text_more" : "mt_text_more"));
-                    values.put("mt_allow_comments", MapUtils.getMapInt(postMap, "mt_allow_comments", 0));
-                    values.put("mt_allow_pings", MapUtils.getMapInt(postMap, "mt_allow_pings", 0));
-                    values.put("wp_slug", MapUtils.getMapStr(postMap, "wp_slug"));
-                    values.put("wp_password", MapUtils.getMapStr(postMap, "wp_password"));
-                    values.put("wp_author_id", MapUtils.getMapStr(postMap, "wp_author_id"));
-                    values.put("wp_author_display_name", MapUtils.getMapStr(postMap, "wp_author_display_name"));
-                    values.put("post_status", MapUtils.getMapStr(postMap, (isPage) ? "page_status" : "post_status"));
-                    values.put("userid", MapUtils.getMapStr(postMap, "userid"));
-
-                    if (isPage) {
-                        values.put("isPage", true);
-                        values.put("wp_page_parent_id", MapUtils.getMapStr(postMap, "wp_page_parent_id"));
-                        values.put("wp_page_parent_title", MapUtils.getMapStr(postMap, "wp_page_parent_title"));
-                    } else {
-                        values.put("mt_keywords", MapUtils.getMapStr(postMap, "mt_keywords"));
-                        values.put("wp_post_format", MapUtils.getMapStr(postMap, "wp_post_format"));
-                    }
-
-                    String whereClause = "blogID=? AND postID=? AND isPage=?";
-                    if (!shouldOverwrite) {
-                        whereClause += " AND NOT isLocalChange=1";
-                    }
-
-                    int result;
-                    if(isAssignment){
-
-                        result = db.update(ASSIGNMENTS_TABLE, values, whereClause,
-                                new String[]{String.valueOf(localBlogId), postID, String.valueOf(SqlUtils.boolToSql(isPage))});
-                        if (result == 0)
-                            db.insert(ASSIGNMENTS_TABLE, null, values);
-                    }else if(isLesson){
-                        result = db.update(LESSONS_TABLE, values, whereClause,
-                                new String[]{String.valueOf(localBlogId), postID, String.valueOf(SqlUtils.boolToSql(isPage))});
-                        if (result == 0)
-                            db.insert(LESSONS_TABLE, null, values);
-                    }else{
-                        result = db.update(POSTS_TABLE, values, whereClause,
-                                new String[]{String.valueOf(localBlogId), postID, String.valueOf(SqlUtils.boolToSql(isPage))});
-                        if (result == 0)
-                            db.insert(POSTS_TABLE, null, values);
-                    }
+                    fillSyncedPostValues(postMap, values, isPage, isAssignment);
+                    statements.upsert(localBlogId, postID, isPage, values);
                 }
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
+                statements.close();
             }
         }
     }
@@ -1290,8 +1708,8 @@ public class WordPressDB {
         c = db.query(POSTS_TABLE,
                 new String[] { "id", "blogID", "title",
                         "date_created_gmt", "post_status", "isUploading", "localDraft", "isLocalChange" },
-                "blogID=? AND isPage=? AND NOT (localDraft=1 AND uploaded=1)",
-                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, "localDraft DESC, date_created_gmt DESC");
+                WHERE_POSTS_LIST,
+                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, ORDER_POSTS_LIST);
         int numRows = c.getCount();
         c.moveToFirst();
 
@@ -1317,14 +1735,57 @@ public class WordPressDB {
         return posts;
     }
 
+    /**
+     * Searches the titles, content and questionnaire answers of the blog's posts, or the titles, content
+     * and locations of its assignments - best matches first, see SearchIndexTable.search()
+     */
+    public List<PostsListPost> searchPosts(int blogId, String text, boolean isAssignment, int offset, int limit) {
+        SearchIndexTable.Index index = isAssignment ? SearchIndexTable.Index.ASSIGNMENTS : SearchIndexTable.Index.POSTS;
+        List<Long> ids = SearchIndexTable.search(index, Integer.toString(blogId), text, offset, limit);
+        if (ids.isEmpty()) {
+            return new ArrayList<PostsListPost>();
+        }
+
+        PostsListPost[] ranked = new PostsListPost[ids.size()];
+        Cursor c = db.query(isAssignment ? ASSIGNMENTS_TABLE : POSTS_TABLE,
+                new String[] { "id", "blogID", "title",
+                        "date_created_gmt", "post_status", "isUploading", "localDraft", "isLocalChange" },
+                "id IN (" + TextUtils.join(",", ids) + ")", null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                PostsListPost post = new PostsListPost(
+                        c.getInt(0),
+                        c.getInt(1),
+                        StringUtils.unescapeHTML(c.getString(2)),
+                        c.getLong(3),
+                        c.getString(4),
+                        SqlUtils.sqlToBool(c.getInt(6)),
+                        SqlUtils.sqlToBool(c.getInt(7)),
+                        SqlUtils.sqlToBool(c.getInt(5))
+                );
+                ranked[ids.indexOf(c.getLong(0))] = post;
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+
+        List<PostsListPost> posts = new ArrayList<PostsListPost>(ranked.length);
+        for (PostsListPost post : ranked) {
+            if (post != null) {
+                posts.add(post);
+            }
+        }
+        return posts;
+    }
+
     public List<PostsListPost> getLessons(int blogId, boolean loadPages) {
         List<PostsListPost> posts = new ArrayList<PostsListPost>();
         Cursor c;
         c = db.query(LESSONS_TABLE,
                 new String[] { "id", "blogID", "title",
                         "date_created_gmt", "post_status", "isUploading", "localDraft", "isLocalChange" },
-                "blogID=? AND isPage=? AND NOT (localDraft=1 AND uploaded=1)",
-                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, "localDraft DESC, date_created_gmt DESC");
+                WHERE_POSTS_LIST,
+                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, ORDER_POSTS_LIST);
         int numRows = c.getCount();
         c.moveToFirst();
 
@@ -1357,8 +1818,8 @@ public class WordPressDB {
         c = db.query(ASSIGNMENTS_TABLE,
                 new String[] { "id", "blogID", "postid", "title", "description", "location", "bounty", "deadline", "media_types", "coordinates", "author", "thumb", "avatar",
                         "date_created_gmt", "post_status", "isUploading", "localDraft", "isLocalChange" },
-                "blogID=? AND isPage=? AND NOT (localDraft=1 AND uploaded=1)",
-                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, "localDraft DESC, date_created_gmt DESC");
+                WHERE_POSTS_LIST,
+                new String[] {String.valueOf(blogId), (loadPages) ? "1" : "0"}, null, null, ORDER_POSTS_LIST);
         int numRows = c.getCount();
         c.moveToFirst();
 
@@ -1644,21 +2105,21 @@ public class WordPressDB {
             c = db.query(POSTS_TABLE,
                     new String[] { "id", "blogID", "postid", "title",
                             "date_created_gmt", "dateCreated", "post_status" },
-                    "blogID=" + blogID + " AND localDraft != 1 AND isPage=1",
-                    null, null, null, null);
+                    WHERE_UPLOADED_POSTS, new String[] {String.valueOf(blogID), "1"},
+                    null, null, null);
         else
             if(loadAssignments)
                 c = db.query(ASSIGNMENTS_TABLE,
                         new String[] { "id", "blogID", "postid", "title",
                                 "date_created_gmt", "dateCreated", "post_status" },
-                        "blogID=" + blogID + " AND localDraft != 1 AND isPage=0",
-                        null, null, null, null);
+                        WHERE_UPLOADED_POSTS, new String[] {String.valueOf(blogID), "0"},
+                        null, null, null);
             else
                 c = db.query(POSTS_TABLE,
                         new String[] { "id", "blogID", "postid", "title",
                                 "date_created_gmt", "dateCreated", "post_status" },
-                        "blogID=" + blogID + " AND localDraft != 1 AND isPage=0",
-                        null, null, null, null);
+                        WHERE_UPLOADED_POSTS, new String[] {String.valueOf(blogID), "0"},
+                        null, null, null);
 
         int numRows = c.getCount();
         c.moveToFirst();
@@ -1708,6 +2169,248 @@ public class WordPressDB {
 
     }
 
+    public static class PostsSyncResult {
+        public int savedCount;
+        public int unchangedCount;
+        public int deletedCount;
+    }
+
+    /**
+     * Incremental replacement for deleteUploadedPosts + savePosts. Only the items that are new or were modified
+     * since the last sync are saved, and only the uploaded items the server stopped returning are deleted, so
+     * the older items loaded by previous syncs are kept.
+     * @param postsList the complete server response, the items it covers are the ones created since the oldest one
+     * @param isComplete true if the server returned all of its items, so any uploaded item missing from postsList
+     *                   is gone
+     */
+    public PostsSyncResult syncPosts(List<Map<?, ?>> postsList, int localBlogId, boolean isPage, boolean isAssignment,
+                                     boolean shouldOverwrite, boolean isLesson, boolean isComplete) {
+        PostsSync sync = beginPostsSync(localBlogId, isPage, isAssignment, shouldOverwrite, isLesson);
+        try {
+            for (Map<?, ?> postMap : postsList) {
+                sync.onStruct(postMap);
+            }
+        } catch (RuntimeException e) {
+            sync.abort();
+            throw e;
+        }
+        return sync.finish(isComplete);
+    }
+
+    /**
+     * Starts a sync where the items are saved one at a time as they're received, so the server response doesn't
+     * need to be kept in memory - pass it to XMLRPCClientInterface.callStreaming(), then call finish(), or abort()
+     * if the call failed. Same rules as syncPosts().
+     */
+    public PostsSync beginPostsSync(int localBlogId, boolean isPage, boolean isAssignment, boolean shouldOverwrite,
+                                    boolean isLesson) {
+        return new PostsSync(localBlogId, isPage, isAssignment, shouldOverwrite, isLesson);
+    }
+
+    public class PostsSync implements XMLRPCStructHandler {
+        // items are buffered and written in batches, each batch is committed before the next item is read so the
+        // db isn't locked while waiting for the network
+        private static final int BATCH_SIZE = 25;
+
+        private final int mLocalBlogId;
+        private final boolean mIsPage;
+        private final boolean mIsAssignment;
+        private final String mTable;
+        private final String mListType;
+        private final String mIdKey;
+        private final SyncedPostStatements mStatements;
+        private final List<String> mBatchIds = new ArrayList<String>(BATCH_SIZE);
+        private final List<Object[]> mBatchValues = new ArrayList<Object[]>(BATCH_SIZE);
+        // remote id -> stored modification date of the uploaded items
+        private final Map<String, Long> mLocalModifiedDates;
+        private final Set<String> mRemoteIds = new HashSet<String>();
+        private final PostsSyncResult mResult = new PostsSyncResult();
+
+        private long mOldestCreated = Long.MAX_VALUE;
+        private boolean mIsFinished;
+
+        private PostsSync(int localBlogId, boolean isPage, boolean isAssignment, boolean shouldOverwrite,
+                          boolean isLesson) {
+            mLocalBlogId = localBlogId;
+            mIsPage = isPage;
+            mIsAssignment = isAssignment;
+            mTable = isAssignment ? ASSIGNMENTS_TABLE : (isLesson ? LESSONS_TABLE : POSTS_TABLE);
+            mListType = isPage ? mTable + "_pages" : mTable;
+            mIdKey = isPage ? "page_id" : "postid";
+            mLocalModifiedDates = getUploadedPostModifiedDates(mTable, localBlogId, isPage);
+            mStatements = new SyncedPostStatements(db, mTable, shouldOverwrite);
+        }
+
+        @Override
+        public void onStruct(Map<?, ?> postMap) {
+            String postId = MapUtils.getMapStr(postMap, mIdKey);
+            if (TextUtils.isEmpty(postId)) {
+                return;
+            }
+            mRemoteIds.add(postId);
+            mOldestCreated = Math.min(mOldestCreated, getDateCreatedGmt(postMap, null));
+
+            // the server may not send modification dates, in which case the item is saved again
+            Date dateModified = MapUtils.getMapDate(postMap, "date_modified_gmt");
+            Long storedModified = mLocalModifiedDates.get(postId);
+            if (dateModified != null && storedModified != null && storedModified == dateModified.getTime()) {
+                mResult.unchangedCount++;
+                return;
+            }
+
+            Object[] values = new Object[SYNCED_POST_COLUMNS.length];
+            fillSyncedPostValues(postMap, values, mIsPage, mIsAssignment);
+            mBatchIds.add(postId);
+            mBatchValues.add(values);
+            if (mBatchIds.size() == BATCH_SIZE) {
+                writeBatch();
+            }
+        }
+
+        /*
+         * saves the buffered items in a single transaction, which ends before this returns
+         */
+        private void writeBatch() {
+            if (mBatchIds.isEmpty()) {
+                return;
+            }
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < mBatchIds.size(); i++) {
+                    mStatements.upsert(mLocalBlogId, mBatchIds.get(i), mIsPage, mBatchValues.get(i));
+                }
+                db.setTransactionSuccessful();
+                mResult.savedCount += mBatchIds.size();
+            } finally {
+                db.endTransaction();
+                mBatchIds.clear();
+                mBatchValues.clear();
+            }
+        }
+
+        /**
+         * Deletes the items the server no longer returns
+         * @param isComplete true if the server returned all of its items
+         */
+        public PostsSyncResult finish(boolean isComplete) {
+            if (mIsFinished) {
+                return mResult;
+            }
+            mIsFinished = true;
+            try {
+                writeBatch();
+                // an empty response only means something if the server has no items at all
+                Set<String> goneIds = new HashSet<String>();
+                if (isComplete || !mRemoteIds.isEmpty()) {
+                    long windowStart = isComplete ? 0 : mOldestCreated;
+                    goneIds = getUploadedPostIds(mTable, mLocalBlogId, mIsPage, windowStart);
+                    goneIds.removeAll(mRemoteIds);
+                }
+
+                db.beginTransaction();
+                try {
+                    mResult.deletedCount = deleteUploadedPostsById(mTable, mLocalBlogId, mIsPage, goneIds);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                mStatements.close();
+            }
+
+            AppLog.d(T.POSTS, "synced " + mListType + " - saved: " + mResult.savedCount + ", unchanged: "
+                    + mResult.unchangedCount + ", deleted: " + mResult.deletedCount);
+            return mResult;
+        }
+
+        /**
+         * Keeps the items saved so far, but doesn't delete anything since the response wasn't read completely
+         */
+        public void abort() {
+            if (mIsFinished) {
+                return;
+            }
+            mIsFinished = true;
+            try {
+                writeBatch();
+            } finally {
+                mStatements.close();
+            }
+        }
+    }
+
+    /*
+     * GMT creation date of a synced post as stored in date_created_gmt
+     */
+    private static long getDateCreatedGmt(Map<?, ?> postMap, Date dateCreated) {
+        Date dateCreatedGmt = MapUtils.getMapDate(postMap, "date_created_gmt");
+        if (dateCreatedGmt != null) {
+            return dateCreatedGmt.getTime();
+        }
+        if (dateCreated == null) {
+            dateCreated = MapUtils.getMapDate(postMap, "dateCreated");
+            if (dateCreated == null) {
+                dateCreated = new Date();
+            }
+        }
+        return dateCreated.getTime() + (dateCreated.getTimezoneOffset() * 60000);
+    }
+
+    /*
+     * remote ids of the uploaded posts created on or after sinceDateGmt
+     */
+    private Set<String> getUploadedPostIds(String table, int localBlogId, boolean isPage, long sinceDateGmt) {
+        Set<String> postIds = new HashSet<String>();
+        Cursor c = db.rawQuery("SELECT postid FROM " + table + " WHERE blogID=? AND localDraft != 1 AND isPage=?"
+                + " AND date_created_gmt >= ?", new String[]{Integer.toString(localBlogId),
+                Integer.toString(SqlUtils.boolToSql(isPage)), Long.toString(sinceDateGmt)});
+        try {
+            while (c.moveToNext()) {
+                postIds.add(c.getString(0));
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+        return postIds;
+    }
+
+    /*
+     * stored modification dates of the uploaded posts by remote id, 0 if the post was saved without one
+     */
+    private Map<String, Long> getUploadedPostModifiedDates(String table, int localBlogId, boolean isPage) {
+        Map<String, Long> modifiedDates = new HashMap<String, Long>();
+        Cursor c = db.rawQuery("SELECT postid, date_modified_gmt FROM " + table + " WHERE " + WHERE_UPLOADED_POSTS,
+                new String[]{Integer.toString(localBlogId), Integer.toString(SqlUtils.boolToSql(isPage))});
+        try {
+            while (c.moveToNext()) {
+                modifiedDates.put(c.getString(0), c.getLong(1));
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+        return modifiedDates;
+    }
+
+    private int deleteUploadedPostsById(String table, int localBlogId, boolean isPage, Set<String> postIds) {
+        if (postIds.isEmpty()) {
+            return 0;
+        }
+        int numDeleted = 0;
+        SQLiteStatement stmt = db.compileStatement("DELETE FROM " + table
+                + " WHERE blogID=?1 AND postid=?2 AND isPage=?3 AND localDraft != 1");
+        try {
+            stmt.bindLong(1, localBlogId);
+            stmt.bindLong(3, SqlUtils.boolToSql(isPage));
+            for (String postId : postIds) {
+                stmt.bindString(2, postId);
+                numDeleted += stmt.executeUpdateDelete();
+            }
+        } finally {
+            SqlUtils.closeStatement(stmt);
+        }
+        return numDeleted;
+    }
+
 
     public Post getPostForLocalTablePostId(long localTablePostId, boolean isAssignment) {
 
@@ -1806,7 +2509,7 @@ public class WordPressDB {
 
     public List<String> loadCategories(int id) {
         Cursor c = db.query(CATEGORIES_TABLE, new String[] { "id", "wp_id",
-                "category_name" }, "blog_id=" + id, null, null, null, null);
+                "category_name" }, WHERE_CATEGORIES, new String[] {String.valueOf(id)}, null, null, null);
         int numRows = c.getCount();
         c.moveToFirst();
         List<String> returnVector = new Vector<String>();
@@ -1824,7 +2527,7 @@ public class WordPressDB {
 
     public int getCategoryId(int id, String category) {
         Cursor c = db.query(CATEGORIES_TABLE, new String[] { "wp_id" },
-                "category_name=? AND blog_id=?", new String[] {category, String.valueOf(id)},
+                WHERE_CATEGORY_NAME, new String[] {category, String.valueOf(id)},
                 null, null, null);
         if (c.getCount() == 0)
             return 0;
@@ -1930,36 +2633,47 @@ public class WordPressDB {
         }
     }
 
-    public static String encryptPassword(String clearText) {
-        try {
+    private static synchronized SecretKey getPasswordKey() throws Exception {
+        if (sPasswordKey == null) {
             DESKeySpec keySpec = new DESKeySpec(
                     PASSWORD_SECRET.getBytes("UTF-8"));
             SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("DES");
-            SecretKey key = keyFactory.generateSecret(keySpec);
+            sPasswordKey = keyFactory.generateSecret(keySpec);
+        }
+        return sPasswordKey;
+    }
 
-            Cipher cipher = Cipher.getInstance("DES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+    private static Cipher getPasswordCipher(ThreadLocal<Cipher> threadCipher, int mode) throws Exception {
+        Cipher cipher = threadCipher.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("DES");
+            cipher.init(mode, getPasswordKey());
+            threadCipher.set(cipher);
+        }
+        return cipher;
+    }
+
+    public static String encryptPassword(String clearText) {
+        try {
+            Cipher cipher = getPasswordCipher(sEncryptCipher, Cipher.ENCRYPT_MODE);
             String encrypedPwd = Base64.encodeToString(cipher.doFinal(clearText
                     .getBytes("UTF-8")), Base64.DEFAULT);
             return encrypedPwd;
         } catch (Exception e) {
+            // don't reuse a cipher left in an unknown state
+            sEncryptCipher.remove();
         }
         return clearText;
     }
 
     public static String decryptPassword(String encryptedPwd) {
         try {
-            DESKeySpec keySpec = new DESKeySpec(
-                    PASSWORD_SECRET.getBytes("UTF-8"));
-            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("DES");
-            SecretKey key = keyFactory.generateSecret(keySpec);
-
             byte[] encryptedWithoutB64 = Base64.decode(encryptedPwd, Base64.DEFAULT);
-            Cipher cipher = Cipher.getInstance("DES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
+            Cipher cipher = getPasswordCipher(sDecryptCipher, Cipher.DECRYPT_MODE);
             byte[] plainTextPwdBytes = cipher.doFinal(encryptedWithoutB64);
             return new String(plainTextPwdBytes);
         } catch (Exception e) {
+            sDecryptCipher.remove();
         }
         return encryptedPwd;
     }
@@ -2011,55 +2725,161 @@ public class WordPressDB {
     }
 
     public void saveMediaFile(MediaFile mf) {
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_NAME_POST_ID, mf.getPostID());
-        values.put(COLUMN_NAME_FILE_PATH, mf.getFilePath());
-        values.put(COLUMN_NAME_FILE_NAME, mf.getFileName());
-        values.put(COLUMN_NAME_TITLE, mf.getTitle());
-        values.put(COLUMN_NAME_DESCRIPTION, mf.getDescription());
-        values.put(COLUMN_NAME_CAPTION, mf.getCaption());
-        values.put(COLUMN_NAME_HORIZONTAL_ALIGNMENT, mf.getHorizontalAlignment());
-        values.put(COLUMN_NAME_WIDTH, mf.getWidth());
-        values.put(COLUMN_NAME_HEIGHT, mf.getHeight());
-        values.put(COLUMN_NAME_MIME_TYPE, mf.getMimeType());
-        values.put(COLUMN_NAME_FEATURED, mf.isFeatured());
-        values.put(COLUMN_NAME_IS_VIDEO, mf.isVideo());
-        values.put(COLUMN_NAME_IS_FEATURED_IN_POST, mf.isFeaturedInPost());
-        values.put(COLUMN_NAME_FILE_URL, mf.getFileURL());
-        values.put(COLUMN_NAME_THUMBNAIL_URL, mf.getThumbnailURL());
-        values.put(COLUMN_NAME_MEDIA_ID, mf.getMediaId());
-        values.put(COLUMN_NAME_BLOG_ID, mf.getBlogId());
-        values.put(COLUMN_NAME_DATE_CREATED_GMT, mf.getDateCreatedGMT());
-        values.put(COLUMN_NAME_VIDEO_PRESS_SHORTCODE, mf.getVideoPressShortCode());
-        if (mf.getUploadState() != null)
-            values.put(COLUMN_NAME_UPLOAD_STATE, mf.getUploadState());
-        else
-            values.putNull(COLUMN_NAME_UPLOAD_STATE);
+        synchronized (this) {
+            getMediaFileStatements().save(mf);
+        }
+    }
 
+    /**
+     * Saves a page of the media library returned by the server in a single transaction, same rules as
+     * saveMediaFile(). When isFullRefresh is true the blog's media is marked as deleted before the page
+     * is saved, and the media the page didn't include is then removed.
+     * @return the number of media files saved
+     */
+    public int saveMediaLibraryPage(String blogId, List<MediaFile> mediaFiles, boolean isFullRefresh) {
+        int numSaved = 0;
         synchronized (this) {
-            int result = 0;
-            boolean isMarkedForDelete = false;
-            if (mf.getMediaId() != null) {
-                Cursor cursor = db.rawQuery("SELECT uploadState FROM " + MEDIA_TABLE + " WHERE mediaId=?",
-                        new String[]{StringUtils.notNullStr(mf.getMediaId())});
-                if (cursor != null && cursor.moveToFirst()) {
-                    isMarkedForDelete = "delete".equals(cursor.getString(0));
-                    cursor.close();
+            MediaFileStatements statements = getMediaFileStatements();
+            db.beginTransaction();
+            try {
+                if (isFullRefresh) {
+                    setMediaFilesMarkedForDeleted(blogId);
                 }
+                for (MediaFile mf : mediaFiles) {
+                    if (statements.save(mf)) {
+                        numSaved++;
+                    }
+                }
+                deleteFilesMarkedForDeleted(blogId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return numSaved;
+    }
+
+    /*
+     * must be called while holding the db monitor
+     */
+    private MediaFileStatements getMediaFileStatements() {
+        if (mMediaFileStatements == null) {
+            mMediaFileStatements = new MediaFileStatements(db);
+        }
+        return mMediaFileStatements;
+    }
+
+    /*
+     * compiled statements for saving media files - a file is matched by its blog and media id,
+     * then by its post and local path, and inserted if neither matches. Files queued for deletion
+     * on the server are left alone. WordPressDB compiles them once and reuses them for every save.
+     */
+    static class MediaFileStatements {
+        private static final String[] COLUMNS = {
+                COLUMN_NAME_POST_ID, COLUMN_NAME_FILE_PATH, COLUMN_NAME_FILE_NAME, COLUMN_NAME_TITLE,
+                COLUMN_NAME_DESCRIPTION, COLUMN_NAME_CAPTION, COLUMN_NAME_HORIZONTAL_ALIGNMENT, COLUMN_NAME_WIDTH,
+                COLUMN_NAME_HEIGHT, COLUMN_NAME_MIME_TYPE, COLUMN_NAME_FEATURED, COLUMN_NAME_IS_VIDEO,
+                COLUMN_NAME_IS_FEATURED_IN_POST, COLUMN_NAME_FILE_URL, COLUMN_NAME_THUMBNAIL_URL,
+                COLUMN_NAME_MEDIA_ID, COLUMN_NAME_BLOG_ID, COLUMN_NAME_DATE_CREATED_GMT,
+                COLUMN_NAME_VIDEO_PRESS_SHORTCODE, COLUMN_NAME_UPLOAD_STATE};
+        // the key of the updates is bound after the columns
+        private static final int KEY_PARAM = COLUMNS.length + 1;
+
+        static final String SQL_IS_MARKED_FOR_DELETE = "SELECT COALESCE((SELECT uploadState FROM " + MEDIA_TABLE
+                + " WHERE mediaId=?1 LIMIT 1)='delete', 0)";
+        static final String SQL_UPDATE_BY_MEDIA_ID = "UPDATE " + MEDIA_TABLE + " SET " + getSetClause()
+                + " WHERE blogId=?" + KEY_PARAM + " AND mediaId=?" + (KEY_PARAM + 1);
+        static final String SQL_UPDATE_BY_FILE_PATH = "UPDATE " + MEDIA_TABLE + " SET " + getSetClause()
+                + " WHERE postID=?" + KEY_PARAM + " AND filePath=?" + (KEY_PARAM + 1);
+        private static final String SQL_INSERT = "INSERT INTO " + MEDIA_TABLE + " (" + TextUtils.join(", ", COLUMNS)
+                + ") VALUES (" + getInsertValues() + ")";
+
+        private final SQLiteStatement mIsMarkedForDelete;
+        private final SQLiteStatement mUpdateByMediaId;
+        private final SQLiteStatement mUpdateByFilePath;
+        private final SQLiteStatement mInsert;
+
+        MediaFileStatements(SQLiteDatabase db) {
+            mIsMarkedForDelete = db.compileStatement(SQL_IS_MARKED_FOR_DELETE);
+            mUpdateByMediaId = db.compileStatement(SQL_UPDATE_BY_MEDIA_ID);
+            mUpdateByFilePath = db.compileStatement(SQL_UPDATE_BY_FILE_PATH);
+            mInsert = db.compileStatement(SQL_INSERT);
+        }
+
+        private static String getSetClause() {
+            StringBuilder set = new StringBuilder();
+            for (int i = 0; i < COLUMNS.length; i++) {
+                set.append(i > 0 ? ", " : "").append(COLUMNS[i]).append("=?").append(i + 1);
+            }
+            return set.toString();
+        }
+
+        private static String getInsertValues() {
+            StringBuilder insertValues = new StringBuilder();
+            for (int i = 0; i < COLUMNS.length; i++) {
+                insertValues.append(i > 0 ? ", " : "").append("?").append(i + 1);
+            }
+            return insertValues.toString();
+        }
 
-                if (!isMarkedForDelete)
-                    result = db.update(MEDIA_TABLE, values, "blogId=? AND mediaId=?",
-                            new String[]{StringUtils.notNullStr(mf.getBlogId()), StringUtils.notNullStr(mf.getMediaId())});
+        /*
+         * returns false if the file wasn't saved because it's queued for deletion
+         */
+        boolean save(MediaFile mf) {
+            if (mf.getMediaId() != null) {
+                mIsMarkedForDelete.bindString(1, mf.getMediaId());
+                if (mIsMarkedForDelete.simpleQueryForLong() != 0) {
+                    return false;
+                }
+                bind(mUpdateByMediaId, mf);
+                mUpdateByMediaId.bindString(KEY_PARAM, StringUtils.notNullStr(mf.getBlogId()));
+                mUpdateByMediaId.bindString(KEY_PARAM + 1, mf.getMediaId());
+                if (mUpdateByMediaId.executeUpdateDelete() > 0) {
+                    return true;
+                }
             }
 
-            if (result == 0 && !isMarkedForDelete) {
-                result = db.update(MEDIA_TABLE, values, "postID=? AND filePath=?",
-                        new String[]{String.valueOf(mf.getPostID()), StringUtils.notNullStr(mf.getFilePath())});
-                if (result == 0)
-                    db.insert(MEDIA_TABLE, null, values);
+            bind(mUpdateByFilePath, mf);
+            mUpdateByFilePath.bindLong(KEY_PARAM, mf.getPostID());
+            mUpdateByFilePath.bindString(KEY_PARAM + 1, StringUtils.notNullStr(mf.getFilePath()));
+            if (mUpdateByFilePath.executeUpdateDelete() == 0) {
+                bind(mInsert, mf);
+                mInsert.executeInsert();
             }
+            return true;
         }
 
+        private static void bind(SQLiteStatement stmt, MediaFile mf) {
+            stmt.clearBindings();
+            stmt.bindLong(1, mf.getPostID());
+            bindString(stmt, 2, mf.getFilePath());
+            bindString(stmt, 3, mf.getFileName());
+            bindString(stmt, 4, mf.getTitle());
+            bindString(stmt, 5, mf.getDescription());
+            bindString(stmt, 6, mf.getCaption());
+            stmt.bindLong(7, mf.getHorizontalAlignment());
+            stmt.bindLong(8, mf.getWidth());
+            stmt.bindLong(9, mf.getHeight());
+            bindString(stmt, 10, mf.getMimeType());
+            stmt.bindLong(11, SqlUtils.boolToSql(mf.isFeatured()));
+            stmt.bindLong(12, SqlUtils.boolToSql(mf.isVideo()));
+            stmt.bindLong(13, SqlUtils.boolToSql(mf.isFeaturedInPost()));
+            bindString(stmt, 14, mf.getFileURL());
+            bindString(stmt, 15, mf.getThumbnailURL());
+            bindString(stmt, 16, mf.getMediaId());
+            bindString(stmt, 17, mf.getBlogId());
+            stmt.bindLong(18, mf.getDateCreatedGMT());
+            bindString(stmt, 19, mf.getVideoPressShortCode());
+            bindString(stmt, 20, mf.getUploadState());
+        }
+
+        private static void bindString(SQLiteStatement stmt, int index, String value) {
+            if (value == null) {
+                stmt.bindNull(index);
+            } else {
+                stmt.bindString(index, value);
+            }
+        }
     }
 
     /** For a given blogId, get the first media files **/
@@ -2071,22 +2891,23 @@ public class WordPressDB {
 
     /** For a given blogId, get all the media files **/
     public Cursor getMediaFilesForBlog(String blogId) {
-        return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId <> '' AND "
-                + "(uploadState IS NULL OR uploadState IN ('uploaded', 'queued', 'failed', 'uploading')) ORDER BY (uploadState=?) DESC, date_created_gmt DESC", new String[] { blogId, "uploading" });
+        return db.rawQuery(SQL_MEDIA_FOR_BLOG, new String[] { blogId });
     }
 
     /** For a given blogId, get all the media files with searchTerm **/
     public Cursor getMediaFilesForBlog(String blogId, String searchTerm) {
         // Currently on WordPress.com, the media search engine only searches the title.
         // We'll match this.
-
-        String term = searchTerm.toLowerCase(Locale.getDefault());
-        return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId <> '' AND title LIKE ? AND (uploadState IS NULL OR uploadState ='uploaded') ORDER BY (uploadState=?) DESC, date_created_gmt DESC", new String[] { blogId, "%" + term + "%", "uploading" });
+        String matchQuery = SearchIndexTable.getMatchQuery(searchTerm);
+        if (matchQuery == null) {
+            return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId <> '' AND (uploadState IS NULL OR uploadState ='uploaded') ORDER BY (uploadState=?) DESC, date_created_gmt DESC", new String[] { blogId, "uploading" });
+        }
+        return db.rawQuery(SQL_MEDIA_SEARCH, new String[] { blogId, matchQuery });
     }
 
     /** For a given blogId, get the media file with the given media_id **/
     public Cursor getMediaFile(String blogId, String mediaId) {
-        return db.rawQuery("SELECT * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId=?", new String[] { blogId, mediaId });
+        return db.rawQuery(SQL_MEDIA_FILE, new String[] { blogId, mediaId });
     }
 
     public int getMediaCountAll(String blogId) {
@@ -2098,8 +2919,7 @@ public class WordPressDB {
 
 
     public Cursor getMediaImagesForBlog(String blogId) {
-        return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId <> '' AND "
-                + "(uploadState IS NULL OR uploadState IN ('uploaded', 'queued', 'failed', 'uploading')) AND mimeType LIKE ? ORDER BY (uploadState=?) DESC, date_created_gmt DESC", new String[] { blogId, "image%", "uploading" });
+        return db.rawQuery(SQL_MEDIA_IMAGES_FOR_BLOG, new String[] { blogId, "image%" });
     }
 
     /** Ids in the filteredIds will not be selected **/
@@ -2123,8 +2943,7 @@ public class WordPressDB {
     }
 
     public Cursor getMediaUnattachedForBlog(String blogId) {
-        return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId <> '' AND " +
-                "(uploadState IS NULL OR uploadState IN ('uploaded', 'queued', 'failed', 'uploading')) AND postId=0 ORDER BY (uploadState=?) DESC, date_created_gmt DESC", new String[]{blogId, "uploading"});
+        return db.rawQuery(SQL_MEDIA_UNATTACHED_FOR_BLOG, new String[]{blogId});
     }
 
     public int getMediaCountUnattached(String blogId) {
@@ -2139,19 +2958,17 @@ public class WordPressDB {
         if (mediaIds == null || mediaIds.size() == 0)
             return null;
 
-        String mediaIdsStr = "(";
-        for (String mediaId : mediaIds) {
-            mediaIdsStr += "'" + mediaId + "',";
+        String[] args = new String[mediaIds.size() + 1];
+        args[0] = blogId;
+        for (int i = 0; i < mediaIds.size(); i++) {
+            args[i + 1] = mediaIds.get(i);
         }
-        mediaIdsStr = mediaIdsStr.subSequence(0, mediaIdsStr.length() - 1) + ")";
-
-        return db.rawQuery("SELECT id as _id, * FROM " + MEDIA_TABLE + " WHERE blogId=? AND mediaId IN " + mediaIdsStr, new String[] { blogId });
+        return db.rawQuery(buildMediaFilesQuery(mediaIds.size()), args);
     }
     public ArrayList<MediaFile> getMediaFilesForPost(Post post) {
         ArrayList<MediaFile> mediaFiles = new ArrayList<MediaFile>();
 
-        Cursor c = db.query(MEDIA_TABLE, null, "postID=?",
-                new String[]{String.valueOf(post.getLocalTablePostId())}, null, null, null);
+        Cursor c = db.rawQuery(SQL_MEDIA_FOR_POST, new String[]{String.valueOf(post.getLocalTablePostId())});
 
         try {
             if (c.moveToFirst()) {
@@ -2186,8 +3003,7 @@ public class WordPressDB {
         return mediaFiles;
     }
     public MediaFile getMediaFile(String src, Post post) {
-        Cursor c = db.query(MEDIA_TABLE, null, "postID=? AND filePath=?",
-                new String[]{String.valueOf(post.getLocalTablePostId()), src}, null, null, null);
+        Cursor c = db.rawQuery(SQL_MEDIA_FILE_FOR_POST, new String[]{String.valueOf(post.getLocalTablePostId()), src});
 
         try {
             if (c.moveToFirst()) {
@@ -2224,12 +3040,13 @@ public class WordPressDB {
     }
 
     public void deleteMediaFilesForPost(Post post) {
-        db.delete(MEDIA_TABLE, "blogId='" + post.getLocalTableBlogId() + "' AND postID=" + post.getLocalTablePostId(), null);
+        db.delete(MEDIA_TABLE, WHERE_MEDIA_FOR_POST, new String[]{String.valueOf(post.getLocalTableBlogId()),
+                String.valueOf(post.getLocalTablePostId())});
     }
 
     /** Get the queued media files for upload for a given blogId **/
     public Cursor getMediaUploadQueue(String blogId) {
-        return db.rawQuery("SELECT * FROM " + MEDIA_TABLE + " WHERE uploadState=? AND blogId=?", new String[] {"queued", blogId});
+        return db.rawQuery(SQL_MEDIA_UPLOAD_QUEUE, new String[] {"queued", blogId});
     }
 
     /** Update a media file to a new upload state **/
@@ -2333,12 +3150,11 @@ public class WordPressDB {
 
     /** Get all media files scheduled for delete for a given blogId **/
     public Cursor getMediaDeleteQueueItems(String blogId) {
-        return db.rawQuery("SELECT blogId, mediaId FROM " + MEDIA_TABLE + " WHERE uploadState=? AND blogId=?",
-                new String[]{"delete", blogId});
+        return db.rawQuery(SQL_MEDIA_DELETE_QUEUE, new String[]{"delete", blogId});
     }
 
     public boolean hasMediaDeleteQueueItems(int blogId) {
-        return SqlUtils.boolForQuery(db, "SELECT 1 FROM " + MEDIA_TABLE + " WHERE uploadState=? AND blogId=?",
+        return SqlUtils.boolForQuery(db, "SELECT EXISTS (" + SQL_MEDIA_DELETE_QUEUE + ")",
                 new String[]{"delete", Integer.toString(blogId)});
     }
 
@@ -2359,7 +3175,7 @@ public class WordPressDB {
 
     public boolean findLocalAssignmentChanges(int blogId, boolean isPage) {
         Cursor c = db.query(ASSIGNMENTS_TABLE, null,
-                "isLocalChange=? AND blogID=? AND isPage=?", new String[]{"1", String.valueOf(blogId), (isPage) ? "1" : "0"}, null, null, null);
+                WHERE_LOCAL_CHANGES, new String[]{"1", String.valueOf(blogId), (isPage) ? "1" : "0"}, null, null, null);
         int numRows = c.getCount();
         c.close();
         if (numRows > 0) {
@@ -2371,7 +3187,7 @@ public class WordPressDB {
 
     public boolean findLocalChanges(int blogId, boolean isPage) {
         Cursor c = db.query(POSTS_TABLE, null,
-                "isLocalChange=? AND blogID=? AND isPage=?", new String[]{"1", String.valueOf(blogId), (isPage) ? "1" : "0"}, null, null, null);
+                WHERE_LOCAL_CHANGES, new String[]{"1", String.valueOf(blogId), (isPage) ? "1" : "0"}, null, null, null);
         int numRows = c.getCount();
         c.close();
         if (numRows > 0) {
@@ -2402,7 +3218,7 @@ public class WordPressDB {
             int result = db.update(
                     THEMES_TABLE,
                     values,
-                    "themeId=?",
+                    WHERE_THEME_ID,
                     new String[]{ theme.getThemeId() });
             if (result == 0)
                 returnValue = db.insert(THEMES_TABLE, null, values) > 0;
@@ -2416,7 +3232,7 @@ public class WordPressDB {
     }
 
     public Cursor getThemesTrending(String blogId) {
-        return db.rawQuery("SELECT _id, themeId, name, screenshotURL, isCurrent, isPremium FROM " + THEMES_TABLE + " WHERE blogId=? ORDER BY trendingRank ASC", new String[] { blogId });
+        return db.rawQuery(SQL_THEMES_TRENDING, new String[] { blogId });
     }
 
     public Cursor getThemesPopularity(String blogId) {
@@ -2464,7 +3280,7 @@ public class WordPressDB {
     }
 
     public Theme getTheme(String blogId, String themeId) {
-        Cursor cursor = db.rawQuery("SELECT name, description, screenshotURL, previewURL, isCurrent, isPremium, features FROM " + THEMES_TABLE + " WHERE blogId=? AND themeId=?", new String[]{blogId, themeId});
+        Cursor cursor = db.rawQuery(SQL_THEME, new String[]{blogId, themeId});
         if (cursor.moveToFirst()) {
             String name = cursor.getString(0);
             String description = cursor.getString(1);
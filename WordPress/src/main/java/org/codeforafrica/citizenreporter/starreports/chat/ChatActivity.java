@@ -2,6 +2,7 @@ package org.codeforafrica.citizenreporter.starreports.chat;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 
@@ -13,7 +14,8 @@ import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AbsListView;
+import android.widget.CursorAdapter;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -24,17 +26,23 @@ import android.widget.TextView;
 import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.WordPress;
 import org.codeforafrica.citizenreporter.starreports.WordPressDB;
+import org.codeforafrica.citizenreporter.starreports.models.Blog;
+import org.xmlrpc.android.ApiHelper;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Vector;
 
 import it.gmariotti.cardslib.library.internal.Card;
 import it.gmariotti.cardslib.library.internal.CardGridArrayAdapter;
 public class ChatActivity extends ActionBarActivity {
+    // messages are loaded from the DB a page at a time, older pages are loaded when scrolling to the top
+    private static final int PAGE_SIZE = 50;
+    private static final int FETCH_COUNT = 30;
+
     ListView gridView;
     private ArrayList<Card> cards;
     CardGridArrayAdapter mCardArrayAdapter;
-    List<Message> messagesList;
 
     private GifAnimationDrawable little;
 
@@ -48,10 +56,12 @@ public class ChatActivity extends ActionBarActivity {
 
     private EditText chatText;
     private ImageView buttonSend;
-    private ChatArrayAdapter adClass;
+    private ChatCursorAdapter adClass;
     private String friend_id;
     private WordPressDB db;
     LinearLayout emptyView;
+    private int mLimit = PAGE_SIZE;
+    private ApiHelper.FetchMessagesTask mFetchMessagesTask;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -70,14 +80,21 @@ public class ChatActivity extends ActionBarActivity {
 
         db = WordPress.wpDB;
 
-        messagesList = db.getMessages();
-        if(messagesList.size()>0){
-            emptyView.setVisibility(View.GONE);
-            gridView.setVisibility(View.VISIBLE);
-        }
-
-        adClass = new ChatArrayAdapter(this, messagesList);
+        adClass = new ChatCursorAdapter(this);
         gridView.setAdapter(adClass);
+        gridView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem == 0 && totalItemCount >= mLimit && visibleItemCount > 0) {
+                    loadOlderMessages();
+                }
+            }
+        });
+        loadMessages();
 
         chatText.setOnKeyListener(new View.OnKeyListener() {
             public boolean onKey(View v, int keyCode, KeyEvent event) {
@@ -99,19 +116,94 @@ public class ChatActivity extends ActionBarActivity {
         });
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        fetchMessages();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mFetchMessagesTask != null) {
+            mFetchMessagesTask.cancel(true);
+            mFetchMessagesTask = null;
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        adClass.changeCursor(null);
+        super.onDestroy();
+    }
+
+    /*
+     * shows the last mLimit messages
+     */
+    private void loadMessages() {
+        adClass.changeCursor(db.getMessagesCursor(mLimit));
+        if (adClass.getCount() > 0) {
+            emptyView.setVisibility(View.GONE);
+            gridView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    private void loadOlderMessages() {
+        int oldCount = adClass.getCount();
+        if (oldCount >= db.getMessageCount()) {
+            return;
+        }
+        mLimit += PAGE_SIZE;
+        loadMessages();
+        // keep the message that was at the top in place
+        gridView.setSelection(adClass.getCount() - oldCount);
+    }
+
+    /*
+     * fetches the messages received since the last sync
+     */
+    private void fetchMessages() {
+        Blog blog = WordPress.getCurrentBlog();
+        if (blog == null || mFetchMessagesTask != null) {
+            return;
+        }
+        List<Object> apiArgs = new Vector<Object>();
+        apiArgs.add(blog);
+        apiArgs.add(false);
+        apiArgs.add(FETCH_COUNT);
+        apiArgs.add(false);
+        mFetchMessagesTask = new ApiHelper.FetchMessagesTask(new ApiHelper.FetchMessagesTask.Callback() {
+            @Override
+            public void onSuccess(int messageCount) {
+                mFetchMessagesTask = null;
+                if (messageCount > 0 && !isFinishing()) {
+                    loadMessages();
+                    gridView.setSelection(adClass.getCount() - 1);
+                }
+            }
+
+            @Override
+            public void onFailure(ApiHelper.ErrorType errorType, String errorMessage, Throwable throwable) {
+                mFetchMessagesTask = null;
+            }
+        });
+        mFetchMessagesTask.execute(apiArgs);
+    }
+
     public boolean sendChatMessage(String message_text){
 
         message_text = message_text.trim();
+        Blog blog = WordPress.getCurrentBlog();
+        if (message_text.length() == 0 || blog == null) {
+            return false;
+        }
 
-        Message message = new Message();
-        message.setMessage(message_text);
-        message.setIsMine("1");
-
-        db.addMessage(message);
+        // saved right away and sent in the background, retried until the server gets it
+        ChatOutbox.send(this, blog.getUsername(), message_text);
 
-        new SendMessage(this, message.getMessage()).execute();
         chatText.setText("");
-        adClass.add(message);
+        loadMessages();
+        gridView.setSelection(adClass.getCount() - 1);
         return true;
     }
 
@@ -124,42 +216,31 @@ public class ChatActivity extends ActionBarActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    public class ChatArrayAdapter  extends ArrayAdapter<Message> {
-        Context context;
-        private List<Message> TextValue;
+    public class ChatCursorAdapter extends CursorAdapter {
 
-        public ChatArrayAdapter(Context context, List<Message> TextValue) {
-            super(context, R.layout.drawer_list_footer_row, TextValue);
-            this.context = context;
-            this.TextValue= TextValue;
+        public ChatCursorAdapter(Context context) {
+            super(context, null, false);
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            // TODO Auto-generated method stub
-
-            LayoutInflater inflater = (LayoutInflater) context
-                    .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-
-
-            ViewHolder holder;
-            if(convertView == null)
-            {
-                holder = new ViewHolder();
-                convertView = inflater.inflate(R.layout.messages_row, parent, false);
-                holder.message = (TextView) convertView.findViewById(R.id.message_text);
-                convertView.setTag(holder);
-            }
-            else
-                holder = (ViewHolder) convertView.getTag();
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            View view = LayoutInflater.from(context).inflate(R.layout.messages_row, parent, false);
+            ViewHolder holder = new ViewHolder();
+            holder.message = (TextView) view.findViewById(R.id.message_text);
+            view.setTag(holder);
+            return view;
+        }
 
-            holder.message.setText(messagesList.get(position).getMessage());
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            holder.message.setText(cursor.getString(cursor.getColumnIndex(WordPressDB.COLUMN_MESSAGE)));
 
             LayoutParams lp = (LayoutParams) holder.message.getLayoutParams();
             //check if it is a status message then remove background, and change text color.
 
             //Check whether message is mine to show green background and align to right
-            if(messagesList.get(position).getIsMine().equals("1"))
+            if("1".equals(cursor.getString(cursor.getColumnIndex(WordPressDB.COLUMN_IS_MINE))))
             {
                 holder.message.setBackgroundResource(R.drawable.bubble_a);
                 lp.gravity = Gravity.RIGHT;
@@ -172,22 +253,12 @@ public class ChatActivity extends ActionBarActivity {
             }
 
             holder.message.setLayoutParams(lp);
-            //holder.message.setTextColor(getResources().getColor(R.color.counter_text_color));
-
-            return convertView;
-
         }
+
         private class ViewHolder
         {
             TextView message;
         }
-
-        @Override
-        public long getItemId(int position) {
-            //Unimplemented, because we aren't using Sqlite.
-            return position;
-        }
-
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,208 @@
+package org.codeforafrica.citizenreporter.starreports.chat;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.ConnectivityManager;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.datasets.ChatOutboxTable;
+import org.codeforafrica.citizenreporter.starreports.datasets.ChatOutboxTable.OutboxEntry;
+import org.codeforafrica.citizenreporter.starreports.ui.accounts.helpers.APIFunctions;
+import org.json.JSONObject;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.NetworkUtils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the chat messages written by the user. Messages are saved with their outbox entry before anything is
+ * sent, so they aren't lost when the network is down or the app is killed, and they're sent one at a time, in
+ * the order they were written, retrying with a backoff. A message the server rejects, or that still isn't sent
+ * after MAX_ATTEMPTS, is marked as failed so it doesn't hold back the messages written after it.
+ */
+public class ChatOutbox {
+    private static final long BASE_BACKOFF_MS = 15 * 1000;
+    private static final long MAX_BACKOFF_MS = 30 * 60 * 1000;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final ScheduledExecutorService sExecutor = Executors.newSingleThreadScheduledExecutor();
+    // set while a flush is waiting to run, requests made in the meantime are handled by that flush
+    private static final AtomicBoolean sIsFlushPending = new AtomicBoolean();
+    private static ScheduledFuture<?> sRetry;
+    private static final AtomicBoolean sIsStarted = new AtomicBoolean();
+
+    public enum SendResult {
+        SENT,
+        FAILED,     // the request didn't go through, the message is sent again later
+        REJECTED    // the server answered with an error, sending it again won't help
+    }
+
+    public interface Sender {
+        public SendResult send(String username, String text);
+    }
+
+    private static final Sender DEFAULT_SENDER = new Sender() {
+        @Override
+        public SendResult send(String username, String text) {
+            JSONObject json = new APIFunctions().sendMessage(username, text);
+            if (json == null) {
+                return SendResult.FAILED;
+            }
+            return "OK".equals(json.optString("result")) ? SendResult.SENT : SendResult.REJECTED;
+        }
+    };
+
+    private static volatile Sender sSender = DEFAULT_SENDER;
+
+    /*
+     * replaces the sender used to deliver the messages, pass null to restore the default one - used by tests
+     */
+    public static void setSender(Sender sender) {
+        sSender = sender != null ? sender : DEFAULT_SENDER;
+    }
+
+    /*
+     * saves the message and its outbox entry in one transaction and starts sending it, returns the local
+     * id of the message - sending the same text twice within a few seconds (a double tap) is coalesced into
+     * the first message
+     */
+    public static long send(Context context, String username, String text) {
+        long messageId = ChatOutboxTable.getCoalescableMessageId(username, text);
+        if (messageId > 0) {
+            AppLog.d(T.API, "chat message coalesced with message " + messageId);
+            return messageId;
+        }
+
+        Message message = new Message();
+        message.setMessage(text);
+        message.setIsMine("1");
+
+        SQLiteDatabase db = WordPress.wpDB.getDatabase();
+        db.beginTransaction();
+        try {
+            messageId = WordPress.wpDB.addMessage(message);
+            ChatOutboxTable.enqueue(db, messageId, username, text);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        flush(context);
+        return messageId;
+    }
+
+    /*
+     * sends the messages left in the outbox by a previous run of the app and listens for connectivity changes
+     * for as long as the app is running, so messages written while offline are sent when the network comes
+     * back even if the chat isn't open - called once when the app starts
+     */
+    public static void start(Context context) {
+        if (!sIsStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (NetworkUtils.isNetworkAvailable(context)) {
+                    flush(context);
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        flush(appContext);
+    }
+
+    /*
+     * sends the queued messages on a background thread, does nothing while offline - call it again when
+     * the network comes back
+     */
+    public static void flush(final Context context) {
+        if (!sIsFlushPending.compareAndSet(false, true)) {
+            return;
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sIsFlushPending.set(false);
+                drain(context.getApplicationContext());
+            }
+        });
+    }
+
+    private static void drain(final Context context) {
+        if (!NetworkUtils.isNetworkAvailable(context)) {
+            return;
+        }
+        int numSent = 0;
+        OutboxEntry entry;
+        while ((entry = ChatOutboxTable.peek()) != null) {
+            if (entry.attempts > 0 && ChatOutboxTable.getNextAttemptDate() > System.currentTimeMillis()) {
+                break;
+            }
+            SendResult result;
+            String error = null;
+            try {
+                result = sSender.send(entry.username, entry.text);
+            } catch (RuntimeException e) {
+                result = SendResult.FAILED;
+                error = e.getMessage();
+            }
+            if (result == SendResult.SENT) {
+                ChatOutboxTable.remove(entry.messageId);
+                numSent++;
+                continue;
+            }
+
+            // a rejected message gets no retries
+            int maxAttempts = result == SendResult.REJECTED ? 1 : MAX_ATTEMPTS;
+            if (error == null) {
+                error = result.name();
+            }
+            if (ChatOutboxTable.markFailed(entry, error, maxAttempts, BASE_BACKOFF_MS, MAX_BACKOFF_MS)) {
+                AppLog.w(T.API, "chat message " + entry.messageId + " not sent, attempt " + (entry.attempts + 1));
+                break;
+            }
+            // the next message is sent right away
+            AppLog.w(T.API, "chat message " + entry.messageId + " failed after " + (entry.attempts + 1)
+                    + " attempts - " + error);
+        }
+        if (numSent > 0) {
+            AppLog.d(T.API, numSent + " chat messages sent");
+        }
+        scheduleRetry(context);
+    }
+
+    private static synchronized void scheduleRetry(final Context context) {
+        if (sRetry != null) {
+            sRetry.cancel(false);
+            sRetry = null;
+        }
+        long nextAttemptDate = ChatOutboxTable.getNextAttemptDate();
+        if (nextAttemptDate == 0) {
+            return;
+        }
+        long delay = Math.max(0, nextAttemptDate - System.currentTimeMillis());
+        sRetry = sExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(context);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public static int getPendingCount() {
+        return ChatOutboxTable.getCount();
+    }
+
+    public static int getFailedCount() {
+        return ChatOutboxTable.getFailedCount();
+    }
+}
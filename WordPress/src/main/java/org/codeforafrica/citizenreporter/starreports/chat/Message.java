@@ -10,15 +10,21 @@ public class Message {
     private String message;
     private String user;
     private String is_mine;
+    private String remote_id;
+    private long date_created;
 
     public void setId(String _id){this.id=_id;}
     public void setIsMine(String _is_mine){this.is_mine=_is_mine;}
     public void setMessage(String _message){this.message=_message;}
     public void setUser(String _user){this.user=_user;}
+    public void setRemoteId(String _remote_id){this.remote_id=_remote_id;}
+    public void setDateCreated(long _date_created){this.date_created=_date_created;}
 
     public String getId(){return this.id;}
     public String getMessage(){return this.message;}
     public String getIsMine(){return this.is_mine;}
     public String getUser(){return this.user;}
+    public String getRemoteId(){return this.remote_id;}
+    public long getDateCreated(){return this.date_created;}
 
 }
@@ -0,0 +1,172 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.SqlUtils;
+
+/**
+ * durable queue of the chat messages waiting to be sent, survives the app being killed - each entry points
+ * to its row in the messages table, which is shown in the chat as soon as it's written. Entries that gave up
+ * are kept with failed=1 and are skipped by the queue
+ */
+public class ChatOutboxTable {
+    private static final String OUTBOX_TABLE = "chat_outbox";
+
+    // sending the same text again this soon after is treated as a double tap
+    private static final long COALESCE_WINDOW_MS = 5 * 1000;
+
+    public static class OutboxEntry {
+        public final long messageId;
+        public final String username;
+        public final String text;
+        public final int attempts;
+
+        OutboxEntry(long messageId, String username, String text, int attempts) {
+            this.messageId = messageId;
+            this.username = username;
+            this.text = text;
+            this.attempts = attempts;
+        }
+    }
+
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + OUTBOX_TABLE + " ("
+                + "    message_id           INTEGER DEFAULT 0,"
+                + "    username             TEXT,"
+                + "    message_text         TEXT,"
+                + "    attempts             INTEGER DEFAULT 0,"
+                + "    next_attempt_date    INTEGER DEFAULT 0,"
+                + "    date_queued          INTEGER DEFAULT 0,"
+                + "    last_error           TEXT,"
+                + "    failed               INTEGER DEFAULT 0,"
+                + "    PRIMARY KEY (message_id)"
+                + " );");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_chat_outbox_date_queued ON " + OUTBOX_TABLE
+                + " (date_queued)");
+    }
+
+    /*
+     * adds the failed column to a table created before it existed
+     */
+    public static void addFailedColumn(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("PRAGMA table_info(" + OUTBOX_TABLE + ")", null);
+        try {
+            while (c.moveToNext()) {
+                if ("failed".equals(c.getString(c.getColumnIndex("name")))) {
+                    return;
+                }
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+        db.execSQL("ALTER TABLE " + OUTBOX_TABLE + " ADD failed INTEGER DEFAULT 0");
+    }
+
+    private static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + OUTBOX_TABLE);
+    }
+
+    public static void reset(SQLiteDatabase db) {
+        AppLog.i(AppLog.T.DB, "resetting chat outbox table");
+        dropTables(db);
+        createTables(db);
+    }
+
+    private static SQLiteDatabase getReadableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+    private static SQLiteDatabase getWritableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+
+    /*
+     * returns the message id of the entry still waiting to be sent with the same text, if it was queued
+     * in the last few seconds, or 0 if there isn't one
+     */
+    public static long getCoalescableMessageId(String username, String text) {
+        return SqlUtils.longForQuery(getReadableDb(), "SELECT message_id FROM " + OUTBOX_TABLE
+                + " WHERE username=? AND message_text=? AND attempts=0 AND date_queued > ?"
+                + " ORDER BY date_queued DESC LIMIT 1",
+                new String[]{username, text, Long.toString(System.currentTimeMillis() - COALESCE_WINDOW_MS)});
+    }
+
+    public static void enqueue(SQLiteDatabase db, long messageId, String username, String text) {
+        ContentValues values = new ContentValues();
+        values.put("message_id",        messageId);
+        values.put("username",          username);
+        values.put("message_text",      text);
+        values.put("attempts",          0);
+        values.put("next_attempt_date", 0);
+        values.put("date_queued",       System.currentTimeMillis());
+        db.insertWithOnConflict(OUTBOX_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /*
+     * returns the oldest entry that hasn't failed, or null if the queue is empty - messages are sent in the
+     * order they were written, so a message waiting for a retry holds back the ones queued after it
+     */
+    public static OutboxEntry peek() {
+        Cursor c = getReadableDb().query(OUTBOX_TABLE, null, "failed=0", null, null, null, "date_queued ASC", "1");
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            return new OutboxEntry(
+                    c.getLong(c.getColumnIndex("message_id")),
+                    c.getString(c.getColumnIndex("username")),
+                    c.getString(c.getColumnIndex("message_text")),
+                    c.getInt(c.getColumnIndex("attempts")));
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+    }
+
+    /*
+     * returns the time the oldest entry can be sent, 0 if the queue is empty
+     */
+    public static long getNextAttemptDate() {
+        return SqlUtils.longForQuery(getReadableDb(), "SELECT next_attempt_date FROM " + OUTBOX_TABLE
+                + " WHERE failed=0 ORDER BY date_queued ASC LIMIT 1", null);
+    }
+
+    /*
+     * schedules a retry with exponential backoff capped at maxBackoffMs, or gives up after maxAttempts
+     * returns true if the message will be retried
+     */
+    public static boolean markFailed(OutboxEntry entry, String error, int maxAttempts, long baseBackoffMs,
+                                     long maxBackoffMs) {
+        int attempts = entry.attempts + 1;
+        boolean willRetry = attempts < maxAttempts;
+
+        ContentValues values = new ContentValues();
+        values.put("attempts", attempts);
+        values.put("last_error", error);
+        if (willRetry) {
+            long backoff = Math.min(baseBackoffMs << Math.min(attempts - 1, 16), maxBackoffMs);
+            values.put("next_attempt_date", System.currentTimeMillis() + backoff);
+        } else {
+            values.put("failed", 1);
+        }
+        getWritableDb().update(OUTBOX_TABLE, values, "message_id=?", new String[]{Long.toString(entry.messageId)});
+        return willRetry;
+    }
+
+    public static void remove(long messageId) {
+        getWritableDb().delete(OUTBOX_TABLE, "message_id=?", new String[]{Long.toString(messageId)});
+    }
+
+    /*
+     * number of messages still waiting to be sent
+     */
+    public static int getCount() {
+        return SqlUtils.intForQuery(getReadableDb(), "SELECT COUNT(*) FROM " + OUTBOX_TABLE + " WHERE failed=0", null);
+    }
+
+    public static int getFailedCount() {
+        return SqlUtils.intForQuery(getReadableDb(), "SELECT COUNT(*) FROM " + OUTBOX_TABLE + " WHERE failed=1", null);
+    }
+}
@@ -0,0 +1,271 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.models.PostUploadQueueStats;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.Collection;
+
+/**
+ * durable queue of posts waiting to be uploaded by PostUploadService, survives the app being killed
+ */
+public class PostUploadQueueTable {
+    private static final String QUEUE_TABLE = "post_upload_queue";
+
+    public static final String STATE_QUEUED = "queued";
+    public static final String STATE_IN_FLIGHT = "in_flight";
+    public static final String STATE_FAILED = "failed";
+    public static final String STATE_DONE = "done";
+
+    // higher priorities are uploaded first, uploads with the same priority are uploaded in queue order
+    public static final int PRIORITY_LOW = 0;       // lesson submissions
+    public static final int PRIORITY_NORMAL = 50;   // stories, assignment responses
+    public static final int PRIORITY_HIGH = 100;    // breaking news
+
+    private static final long MAX_DONE_AGE_MS = 24L * 60 * 60 * 1000;
+
+    public static class QueuedUpload {
+        public final long postId;
+        public final int blogId;
+        public final int priority;
+        public final int attempts;
+        public final int generation;
+
+        QueuedUpload(long postId, int blogId, int priority, int attempts, int generation) {
+            this.postId = postId;
+            this.blogId = blogId;
+            this.priority = priority;
+            this.attempts = attempts;
+            this.generation = generation;
+        }
+    }
+
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + QUEUE_TABLE + " ("
+                + "    post_id              INTEGER DEFAULT 0,"
+                + "    blog_id              INTEGER DEFAULT 0,"
+                + "    priority             INTEGER DEFAULT 0,"
+                + "    state                TEXT,"
+                + "    attempts             INTEGER DEFAULT 0,"
+                + "    generation           INTEGER DEFAULT 0,"
+                + "    next_attempt_date    INTEGER DEFAULT 0,"
+                + "    date_queued          INTEGER DEFAULT 0,"
+                + "    date_started         INTEGER DEFAULT 0,"
+                + "    date_finished        INTEGER DEFAULT 0,"
+                + "    last_error           TEXT,"
+                + "    PRIMARY KEY (post_id)"
+                + " );");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_post_upload_queue_state ON " + QUEUE_TABLE
+                + " (state, priority, date_queued)");
+    }
+
+    private static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + QUEUE_TABLE);
+    }
+
+    public static void reset(SQLiteDatabase db) {
+        AppLog.i(AppLog.T.POSTS, "resetting post upload queue table");
+        dropTables(db);
+        createTables(db);
+    }
+
+    private static SQLiteDatabase getReadableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+    private static SQLiteDatabase getWritableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+
+    /*
+     * adds the post to the queue, or puts it back at the end of the queue if it's already there - the
+     * generation is bumped so an upload of an older version of the post that's still in flight won't
+     * mark the new one as done
+     */
+    public static void enqueue(long postId, int blogId, int priority) {
+        SQLiteDatabase db = getWritableDb();
+        db.beginTransaction();
+        try {
+            String[] args = {Long.toString(postId)};
+            int generation = SqlUtils.intForQuery(db,
+                    "SELECT generation FROM " + QUEUE_TABLE + " WHERE post_id=?", args);
+
+            ContentValues values = new ContentValues();
+            values.put("post_id",           postId);
+            values.put("blog_id",           blogId);
+            values.put("priority",          priority);
+            values.put("state",             STATE_QUEUED);
+            values.put("attempts",          0);
+            values.put("generation",        generation + 1);
+            values.put("next_attempt_date", 0);
+            values.put("date_queued",       System.currentTimeMillis());
+            db.insertWithOnConflict(QUEUE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /*
+     * returns the highest priority upload that can be sent now and marks it as in flight, or null if
+     * there's nothing to send - excludedPostIds are posts currently being uploaded by a worker
+     */
+    public static QueuedUpload dequeueNext(Collection<Long> excludedPostIds) {
+        SQLiteDatabase db = getWritableDb();
+        long now = System.currentTimeMillis();
+
+        String where = "state=? AND next_attempt_date <= ?";
+        if (excludedPostIds != null && !excludedPostIds.isEmpty()) {
+            where += " AND post_id NOT IN (" + android.text.TextUtils.join(",", excludedPostIds) + ")";
+        }
+        String[] args = {STATE_QUEUED, Long.toString(now)};
+
+        db.beginTransaction();
+        try {
+            Cursor c = db.query(QUEUE_TABLE, null, where, args, null, null,
+                    "priority DESC, date_queued ASC", "1");
+            QueuedUpload upload;
+            try {
+                if (!c.moveToFirst()) {
+                    return null;
+                }
+                upload = new QueuedUpload(
+                        c.getLong(c.getColumnIndex("post_id")),
+                        c.getInt(c.getColumnIndex("blog_id")),
+                        c.getInt(c.getColumnIndex("priority")),
+                        c.getInt(c.getColumnIndex("attempts")),
+                        c.getInt(c.getColumnIndex("generation")));
+            } finally {
+                SqlUtils.closeCursor(c);
+            }
+
+            ContentValues values = new ContentValues();
+            values.put("state", STATE_IN_FLIGHT);
+            values.put("date_started", now);
+            db.update(QUEUE_TABLE, values, "post_id=?", new String[]{Long.toString(upload.postId)});
+
+            db.setTransactionSuccessful();
+            return upload;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public static void markDone(QueuedUpload upload) {
+        ContentValues values = new ContentValues();
+        values.put("state", STATE_DONE);
+        values.put("date_finished", System.currentTimeMillis());
+        values.putNull("last_error");
+        updateIfSameGeneration(upload, values);
+    }
+
+    /*
+     * schedules a retry with exponential backoff, or gives up after maxAttempts - retries run in the
+     * background so they're demoted to normal priority, behind posts the user is publishing right now
+     * returns true if the upload will be retried
+     */
+    public static boolean markFailed(QueuedUpload upload, String error, int maxAttempts, long baseBackoffMs) {
+        int attempts = upload.attempts + 1;
+        boolean willRetry = attempts < maxAttempts;
+
+        ContentValues values = new ContentValues();
+        values.put("attempts", attempts);
+        values.put("last_error", error);
+        values.put("date_finished", System.currentTimeMillis());
+        if (willRetry) {
+            long backoff = baseBackoffMs << Math.min(attempts - 1, 16);
+            values.put("state", STATE_QUEUED);
+            values.put("priority", Math.min(upload.priority, PRIORITY_NORMAL));
+            values.put("next_attempt_date", System.currentTimeMillis() + backoff);
+        } else {
+            values.put("state", STATE_FAILED);
+        }
+        updateIfSameGeneration(upload, values);
+        return willRetry;
+    }
+
+    /*
+     * puts an interrupted upload back in the queue without counting it as a failed attempt
+     */
+    public static void requeue(QueuedUpload upload) {
+        ContentValues values = new ContentValues();
+        values.put("state", STATE_QUEUED);
+        updateIfSameGeneration(upload, values);
+    }
+
+    /*
+     * uploads left in flight when the process was killed are queued again
+     */
+    public static int requeueAllInFlight() {
+        ContentValues values = new ContentValues();
+        values.put("state", STATE_QUEUED);
+        return getWritableDb().update(QUEUE_TABLE, values, "state=?", new String[]{STATE_IN_FLIGHT});
+    }
+
+    private static void updateIfSameGeneration(QueuedUpload upload, ContentValues values) {
+        // if the post was queued again while it was uploading, leave the new entry alone
+        getWritableDb().update(QUEUE_TABLE, values, "post_id=? AND generation=?",
+                new String[]{Long.toString(upload.postId), Integer.toString(upload.generation)});
+    }
+
+    public static void remove(long postId) {
+        getWritableDb().delete(QUEUE_TABLE, "post_id=?", new String[]{Long.toString(postId)});
+    }
+
+    public static boolean hasPendingUploads() {
+        return SqlUtils.boolForQuery(getReadableDb(), "SELECT 1 FROM " + QUEUE_TABLE + " WHERE state=? LIMIT 1",
+                new String[]{STATE_QUEUED});
+    }
+
+    /*
+     * returns the earliest time a queued upload can be retried, 0 if there's none waiting
+     */
+    public static long getNextAttemptDate() {
+        return SqlUtils.longForQuery(getReadableDb(), "SELECT MIN(next_attempt_date) FROM " + QUEUE_TABLE
+                + " WHERE state=?", new String[]{STATE_QUEUED});
+    }
+
+    public static PostUploadQueueStats getStats() {
+        PostUploadQueueStats stats = new PostUploadQueueStats();
+        SQLiteDatabase db = getReadableDb();
+
+        Cursor c = db.rawQuery("SELECT state, COUNT(*) FROM " + QUEUE_TABLE + " GROUP BY state", null);
+        try {
+            while (c.moveToNext()) {
+                String state = c.getString(0);
+                int count = c.getInt(1);
+                if (STATE_QUEUED.equals(state)) {
+                    stats.numQueued = count;
+                } else if (STATE_IN_FLIGHT.equals(state)) {
+                    stats.numInFlight = count;
+                } else if (STATE_FAILED.equals(state)) {
+                    stats.numFailed = count;
+                } else if (STATE_DONE.equals(state)) {
+                    stats.numDone = count;
+                }
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+
+        long now = System.currentTimeMillis();
+        long oldestQueued = SqlUtils.longForQuery(db, "SELECT MIN(date_queued) FROM " + QUEUE_TABLE
+                + " WHERE state=?", new String[]{STATE_QUEUED});
+        stats.oldestWaitMs = oldestQueued > 0 ? now - oldestQueued : 0;
+        stats.averageWaitMs = SqlUtils.longForQuery(db, "SELECT AVG(date_started - date_queued) FROM "
+                + QUEUE_TABLE + " WHERE date_started >= date_queued AND date_started > ?",
+                new String[]{Long.toString(now - MAX_DONE_AGE_MS)});
+        return stats;
+    }
+
+    public static int purge(SQLiteDatabase db) {
+        long minDate = System.currentTimeMillis() - MAX_DONE_AGE_MS;
+        return db.delete(QUEUE_TABLE, "state=? AND date_finished < ?",
+                new String[]{STATE_DONE, Long.toString(minDate)});
+    }
+}
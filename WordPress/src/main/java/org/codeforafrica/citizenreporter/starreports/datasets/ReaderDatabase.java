@@ -19,7 +19,7 @@ import java.io.OutputStream;
  */
 public class ReaderDatabase extends SQLiteOpenHelper {
     protected static final String DB_NAME = "wpreader.db";
-    private static final int DB_VERSION = 100;
+    private static final int DB_VERSION = 102;
 
     /*
      * version history
@@ -52,6 +52,8 @@ public class ReaderDatabase extends SQLiteOpenHelper {
      *   98 - added feed_id to tbl_posts
      *   99 - added feed_url to tbl_blog_info
      *  100 - changed primary key on tbl_blog_info
+     *  101 - added tbl_rendered_html (ReaderRenderedHtmlTable)
+     *  102 - added renderer_version to tbl_rendered_html
      */
 
     /*
@@ -127,6 +129,7 @@ public class ReaderDatabase extends SQLiteOpenHelper {
         ReaderUserTable.createTables(db);
         ReaderThumbnailTable.createTables(db);
         ReaderBlogTable.createTables(db);
+        ReaderRenderedHtmlTable.createTables(db);
     }
 
     private void dropAllTables(SQLiteDatabase db) {
@@ -137,6 +140,7 @@ public class ReaderDatabase extends SQLiteOpenHelper {
         ReaderUserTable.dropTables(db);
         ReaderThumbnailTable.dropTables(db);
         ReaderBlogTable.dropTables(db);
+        ReaderRenderedHtmlTable.dropTables(db);
     }
 
     /*
@@ -183,6 +187,12 @@ public class ReaderDatabase extends SQLiteOpenHelper {
                 if (numThumbsPurged > 0) {
                     AppLog.i(T.READER, String.format("%d thumbnails purged", numThumbsPurged));
                 }
+
+                // purge rendered html of deleted posts
+                int numRenderedPurged = ReaderRenderedHtmlTable.purge(db);
+                if (numRenderedPurged > 0) {
+                    AppLog.i(T.READER, String.format("%d rendered posts purged", numRenderedPurged));
+                }
             }
             db.setTransactionSuccessful();
         } finally {
@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 
 import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.WordPress;
@@ -20,6 +21,13 @@ import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.CrashlyticsUtils;
 import org.wordpress.android.util.SqlUtils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * tbl_posts contains all reader posts
  * tbl_post_tags stores the association between posts and tags (posts can exist in more than one tag)
@@ -270,27 +278,77 @@ public class ReaderPostTable {
                 args);
     }
 
+    // max number of post ids in a single comparePosts query
+    static final int COMPARE_POSTS_CHUNK_SIZE = 250;
+
     /*
-     * returns whether any of the passed posts are new or changed - used after posts are retrieved
+     * returns whether any of the passed posts are new or changed - used after posts are retrieved.
+     * the existing posts are read in chunks of post ids, and only the columns ReaderPost.isSamePost
+     * compares are retrieved
      */
     public static ReaderActions.UpdateResult comparePosts(ReaderPostList posts) {
         if (posts == null || posts.size() == 0) {
             return ReaderActions.UpdateResult.UNCHANGED;
         }
 
-        boolean hasChanges = false;
+        Map<String, ReaderPost> incomingPosts = new HashMap<String, ReaderPost>(posts.size());
         for (ReaderPost post: posts) {
-            ReaderPost existingPost = getPost(post.blogId, post.postId, true);
-            if (existingPost == null) {
-                return ReaderActions.UpdateResult.HAS_NEW;
-            } else if (!hasChanges && !post.isSamePost(existingPost)) {
-                hasChanges = true;
+            incomingPosts.put(getPostKey(post.blogId, post.postId), post);
+        }
+
+        // post ids aren't unique across blogs, so rows are matched on blog_id + post_id below
+        Set<Long> postIds = new HashSet<Long>();
+        for (ReaderPost post: posts) {
+            postIds.add(post.postId);
+        }
+        List<Long> postIdList = new ArrayList<Long>(postIds);
+
+        boolean hasChanges = false;
+        Set<String> existingKeys = new HashSet<String>(incomingPosts.size());
+        SQLiteDatabase db = ReaderDatabase.getReadableDb();
+        for (int start = 0; start < postIdList.size(); start += COMPARE_POSTS_CHUNK_SIZE) {
+            List<Long> chunk = postIdList.subList(start, Math.min(start + COMPARE_POSTS_CHUNK_SIZE, postIdList.size()));
+            String sql = "SELECT blog_id, post_id, num_likes, num_replies, is_followed, is_liked,"
+                    + " is_comments_open, is_likes_enabled, is_reblogged"
+                    + " FROM tbl_posts WHERE post_id IN (" + TextUtils.join(",", chunk) + ")";
+            Cursor c = db.rawQuery(sql, null);
+            try {
+                while (c.moveToNext()) {
+                    String key = getPostKey(c.getLong(0), c.getLong(1));
+                    ReaderPost incomingPost = incomingPosts.get(key);
+                    if (incomingPost == null || !existingKeys.add(key)) {
+                        // post from another blog with the same id, or a duplicate row
+                        continue;
+                    }
+                    if (!hasChanges) {
+                        ReaderPost existingPost = new ReaderPost();
+                        existingPost.blogId = c.getLong(0);
+                        existingPost.postId = c.getLong(1);
+                        existingPost.numLikes = c.getInt(2);
+                        existingPost.numReplies = c.getInt(3);
+                        existingPost.isFollowedByCurrentUser = SqlUtils.sqlToBool(c.getInt(4));
+                        existingPost.isLikedByCurrentUser = SqlUtils.sqlToBool(c.getInt(5));
+                        existingPost.isCommentsOpen = SqlUtils.sqlToBool(c.getInt(6));
+                        existingPost.isLikesEnabled = SqlUtils.sqlToBool(c.getInt(7));
+                        existingPost.isRebloggedByCurrentUser = SqlUtils.sqlToBool(c.getInt(8));
+                        hasChanges = !incomingPost.isSamePost(existingPost);
+                    }
+                }
+            } finally {
+                SqlUtils.closeCursor(c);
             }
         }
 
+        if (existingKeys.size() < incomingPosts.size()) {
+            return ReaderActions.UpdateResult.HAS_NEW;
+        }
         return (hasChanges ? ReaderActions.UpdateResult.CHANGED : ReaderActions.UpdateResult.UNCHANGED);
     }
 
+    private static String getPostKey(long blogId, long postId) {
+        return blogId + ":" + postId;
+    }
+
     /*
      * returns the #comments known to exist for this post (ie: #comments the server says this post has), which
      * may differ from ReaderCommentTable.getNumCommentsForPost (which returns # local comments for this post)
@@ -510,11 +568,15 @@ public class ReaderPostTable {
                 + ") VALUES (?1,?2,?3,?4,?5,?6,?7,?8,?9,?10,?11,?12,?13,?14,?15,?16,?17,?18,?19,?20,?21,?22,?23,?24,?25,?26,?27,?28,?29,?30,?31,?32,?33)");
         SQLiteStatement stmtTags = db.compileStatement(
                 "INSERT OR REPLACE INTO tbl_post_tags (post_id, blog_id, feed_id, pseudo_id, tag_name, tag_type) VALUES (?1,?2,?3,?4,?5,?6)");
+        // html rendered from a previous version of a post is no longer valid
+        SQLiteStatement stmtRendered = db.compileStatement(
+                "DELETE FROM tbl_rendered_html WHERE blog_id=?1 AND post_id=?2 AND content_hash<>?3");
 
         db.beginTransaction();
         try {
             // first insert into tbl_posts
             for (ReaderPost post: posts) {
+                String text = maxText(post);
                 stmtPosts.bindLong  (1,  post.postId);
                 stmtPosts.bindLong  (2,  post.blogId);
                 stmtPosts.bindLong  (3,  post.feedId);
@@ -522,7 +584,7 @@ public class ReaderPostTable {
                 stmtPosts.bindString(5,  post.getAuthorName());
                 stmtPosts.bindLong  (6,  post.authorId);
                 stmtPosts.bindString(7,  post.getTitle());
-                stmtPosts.bindString(8,  maxText(post));
+                stmtPosts.bindString(8,  text);
                 stmtPosts.bindString(9,  post.getExcerpt());
                 stmtPosts.bindString(10, post.getUrl());
                 stmtPosts.bindString(11, post.getShortUrl());
@@ -549,6 +611,12 @@ public class ReaderPostTable {
                 stmtPosts.bindLong  (32, SqlUtils.boolToSql(post.isSharingEnabled));
                 stmtPosts.bindString(33, post.getAttachmentsJson());
                 stmtPosts.execute();
+
+                stmtRendered.bindLong(1, post.blogId);
+                stmtRendered.bindLong(2, post.postId);
+                stmtRendered.bindLong(3, ReaderRenderedHtmlTable.getContentHash(
+                        text, post.getAttachmentsJson(), post.getFeaturedImage(), post.isPrivate));
+                stmtRendered.execute();
             }
 
             // now add to tbl_post_tags if a tag was passed
@@ -572,6 +640,7 @@ public class ReaderPostTable {
             db.endTransaction();
             SqlUtils.closeStatement(stmtPosts);
             SqlUtils.closeStatement(stmtTags);
+            SqlUtils.closeStatement(stmtRendered);
         }
     }
 
@@ -0,0 +1,132 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
+import org.wordpress.android.util.SqlUtils;
+
+/**
+ * tbl_rendered_html stores the HTML generated by ReaderPostRenderer so posts that were already
+ * opened (or pre-rendered) don't have to be rendered again - rows are keyed by the post, a hash
+ * of the content the HTML was generated from, the version of the renderer, the display width and
+ * whether JavaScript was enabled, since each of these changes the HTML
+ */
+public class ReaderRenderedHtmlTable {
+    // max number of rendered posts to keep
+    private static final int MAX_ROWS = 200;
+
+    protected static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE tbl_rendered_html ("
+                + " blog_id         INTEGER DEFAULT 0,"
+                + " post_id         INTEGER DEFAULT 0,"
+                + " content_hash    INTEGER DEFAULT 0,"
+                + " renderer_version INTEGER DEFAULT 0,"
+                + " display_width   INTEGER DEFAULT 0,"
+                + " is_js_enabled   INTEGER DEFAULT 0,"
+                + " html            TEXT,"
+                + " date_rendered   INTEGER DEFAULT 0,"
+                + " PRIMARY KEY (blog_id, post_id, content_hash, renderer_version, display_width, is_js_enabled)"
+                + ")");
+    }
+
+    protected static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS tbl_rendered_html");
+    }
+
+    /*
+     * purge rendered html of posts that no longer exist, and all but the most recently rendered posts
+     */
+    protected static int purge(SQLiteDatabase db) {
+        int numDeleted = db.delete("tbl_rendered_html",
+                "NOT EXISTS (SELECT 1 FROM tbl_posts WHERE tbl_posts.blog_id=tbl_rendered_html.blog_id"
+                + " AND tbl_posts.post_id=tbl_rendered_html.post_id)", null);
+        numDeleted += db.delete("tbl_rendered_html",
+                "rowid NOT IN (SELECT rowid FROM tbl_rendered_html ORDER BY date_rendered DESC LIMIT "
+                + MAX_ROWS + ")", null);
+        return numDeleted;
+    }
+
+    /*
+     * returns a hash of the parts of the post the rendered html depends on - text is passed
+     * separately since ReaderPostTable may store a truncated version of it
+     */
+    public static long getContentHash(String text,
+                                      String attachmentsJson,
+                                      String featuredImage,
+                                      boolean isPrivate) {
+        int hash = 17;
+        hash = 31 * hash + (attachmentsJson != null ? attachmentsJson.hashCode() : 0);
+        hash = 31 * hash + (featuredImage != null ? featuredImage.hashCode() : 0);
+        hash = 31 * hash + (isPrivate ? 1 : 0);
+        int textHash = (text != null ? text.hashCode() : 0);
+        int textLength = (text != null ? text.length() : 0);
+        // text hash and length in the upper half make collisions between versions of a post unlikely
+        return ((long) (31 * textHash + textLength) << 32) | (hash & 0xffffffffL);
+    }
+
+    public static long getContentHash(ReaderPost post) {
+        if (post == null) {
+            return 0;
+        }
+        return getContentHash(post.getText(), post.getAttachmentsJson(), post.getFeaturedImage(), post.isPrivate);
+    }
+
+    /*
+     * returns null if the post hasn't been rendered with these settings
+     */
+    public static String getHtml(long blogId,
+                                 long postId,
+                                 long contentHash,
+                                 int rendererVersion,
+                                 int displayWidth,
+                                 boolean isJsEnabled) {
+        String[] args = {Long.toString(blogId),
+                         Long.toString(postId),
+                         Long.toString(contentHash),
+                         Integer.toString(rendererVersion),
+                         Integer.toString(displayWidth),
+                         Integer.toString(SqlUtils.boolToSql(isJsEnabled))};
+        String html = SqlUtils.stringForQuery(ReaderDatabase.getReadableDb(),
+                "SELECT html FROM tbl_rendered_html WHERE blog_id=? AND post_id=? AND content_hash=?"
+                + " AND renderer_version=? AND display_width=? AND is_js_enabled=?",
+                args);
+        // stringForQuery() returns an empty string when there's no row, rendered html is never empty
+        return TextUtils.isEmpty(html) ? null : html;
+    }
+
+    public static void setHtml(long blogId,
+                               long postId,
+                               long contentHash,
+                               int rendererVersion,
+                               int displayWidth,
+                               boolean isJsEnabled,
+                               String html) {
+        if (html == null) {
+            return;
+        }
+        SQLiteStatement stmt = ReaderDatabase.getWritableDb().compileStatement(
+                "INSERT OR REPLACE INTO tbl_rendered_html"
+                + " (blog_id, post_id, content_hash, renderer_version, display_width, is_js_enabled, html,"
+                + " date_rendered) VALUES (?1,?2,?3,?4,?5,?6,?7,?8)");
+        try {
+            stmt.bindLong  (1, blogId);
+            stmt.bindLong  (2, postId);
+            stmt.bindLong  (3, contentHash);
+            stmt.bindLong  (4, rendererVersion);
+            stmt.bindLong  (5, displayWidth);
+            stmt.bindLong  (6, SqlUtils.boolToSql(isJsEnabled));
+            stmt.bindString(7, html);
+            stmt.bindLong  (8, System.currentTimeMillis());
+            stmt.execute();
+        } finally {
+            SqlUtils.closeStatement(stmt);
+        }
+    }
+
+    public static int getNumRenderedPosts() {
+        return SqlUtils.intForQuery(ReaderDatabase.getReadableDb(),
+                "SELECT COUNT(*) FROM tbl_rendered_html", null);
+    }
+}
@@ -0,0 +1,202 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.wordpress.android.util.SqlUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FTS4 full-text indexes of the searchable text of media, posts and assignments. The indexes use the
+ * tables they index as their content, so the text isn't stored twice, and triggers keep them in sync
+ * with every insert, delete and change to an indexed column - updates that don't change the indexed
+ * text (upload state, sync flags...) don't touch the index.
+ */
+public class SearchIndexTable {
+    private static final String MATCHINFO_COLUMN = "match_info";
+
+    public enum Index {
+        MEDIA("media", "blogId",
+                new String[]{"title", "caption"},
+                new double[]{2.0, 1.0}),
+        POSTS("posts", "blogID",
+                new String[]{"title", "description", "qwho", "qwhat", "qwhen", "qwhere", "qwhy", "qhow"},
+                new double[]{4.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0}),
+        ASSIGNMENTS("assignments", "blogID",
+                new String[]{"title", "description", "location"},
+                new double[]{4.0, 1.0, 1.0});
+
+        private final String mTable;
+        private final String mFtsTable;
+        private final String mBlogColumn;
+        private final String[] mColumns;
+        // how much a match in each column counts when ranking results
+        private final double[] mWeights;
+
+        Index(String table, String blogColumn, String[] columns, double[] weights) {
+            mTable = table;
+            mFtsTable = table + "_fts";
+            mBlogColumn = blogColumn;
+            mColumns = columns;
+            mWeights = weights;
+        }
+
+        public String getFtsTable() {
+            return mFtsTable;
+        }
+    }
+
+    public static void createTables(SQLiteDatabase db) {
+        for (Index index : Index.values()) {
+            createIndex(db, index);
+        }
+    }
+
+    private static void createIndex(SQLiteDatabase db, Index index) {
+        String columns = TextUtils.join(", ", index.mColumns);
+        StringBuilder newValues = new StringBuilder("new.id");
+        StringBuilder textChanged = new StringBuilder();
+        for (String column : index.mColumns) {
+            newValues.append(", new.").append(column);
+            if (textChanged.length() > 0) {
+                textChanged.append(" OR ");
+            }
+            textChanged.append("old.").append(column).append(" IS NOT new.").append(column);
+        }
+        String fts = index.mFtsTable;
+        String table = index.mTable;
+
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + fts + " USING fts4(content=\"" + table + "\", "
+                + columns + ")");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + fts + "_bu BEFORE UPDATE OF " + columns + " ON " + table
+                + " WHEN " + textChanged + " BEGIN DELETE FROM " + fts + " WHERE docid=old.id; END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + fts + "_au AFTER UPDATE OF " + columns + " ON " + table
+                + " WHEN " + textChanged + " BEGIN INSERT INTO " + fts + " (docid, " + columns + ") VALUES ("
+                + newValues + "); END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + fts + "_bd BEFORE DELETE ON " + table
+                + " BEGIN DELETE FROM " + fts + " WHERE docid=old.id; END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + fts + "_ai AFTER INSERT ON " + table
+                + " BEGIN INSERT INTO " + fts + " (docid, " + columns + ") VALUES (" + newValues + "); END;");
+
+        // index the rows the table already has
+        db.execSQL("INSERT INTO " + fts + " (" + fts + ") VALUES ('rebuild')");
+    }
+
+    private static SQLiteDatabase getReadableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+
+    /*
+     * returns the FTS query matching the rows that contain every word of the passed text, the last
+     * word as a prefix since the user may still be typing it - null if the text has no words
+     */
+    public static String getMatchQuery(String text) {
+        List<String> words = getWords(text);
+        if (words.isEmpty()) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String word : words) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            // quoted so words like AND/OR/NOT aren't taken as operators
+            query.append('"').append(word).append('"');
+        }
+        return query.insert(query.length() - 1, '*').toString();
+    }
+
+    private static List<String> getWords(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        // the index splits text on whitespace and ascii punctuation, so those can't be part of a word
+        for (String word : text.split("[\\s\\p{Punct}]+")) {
+            if (word.length() > 0) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /*
+     * returns the local ids of the rows of the passed blog matching the passed text, best matches
+     * first - a row ranks higher the more often the words appear in it as whole words (or as the start
+     * of a word for the last one), weighted by the column they appear in. The ranking, offset and limit
+     * are applied by the query, so only the requested page of ids is read.
+     */
+    public static List<Long> search(Index index, String blogId, String text, int offset, int limit) {
+        String matchQuery = getMatchQuery(text);
+        if (matchQuery == null || blogId == null || offset < 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // CROSS JOIN keeps the full-text match as the outer loop, newer rows first when the ranks are the same
+        String fts = index.mFtsTable;
+        String rank = getRankExpression(index, getWords(text).size());
+        Cursor c = getReadableDb().rawQuery("SELECT docid FROM (SELECT " + fts + ".docid AS docid,"
+                + " hex(matchinfo(" + fts + ", 'x')) AS " + MATCHINFO_COLUMN + " FROM " + fts
+                + " CROSS JOIN " + index.mTable + " ON " + index.mTable + ".id=" + fts + ".docid"
+                + " WHERE " + fts + " MATCH ? AND " + index.mTable + "." + index.mBlogColumn + "=?)"
+                + " ORDER BY " + rank + " DESC, docid DESC LIMIT " + limit + " OFFSET " + offset,
+                new String[]{matchQuery, blogId});
+        List<Long> ids = new ArrayList<>(Math.min(limit, c.getCount()));
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+        return ids;
+    }
+
+    /*
+     * returns the expression ranking a row, the weighted number of times each word of the query appears
+     * in each indexed column. The counts are the hits matchinfo() reports for the row, so they follow the
+     * tokenizer - "cat" doesn't count inside "category". SQLite can't read the matchinfo blob, so the query
+     * selects it as hex and this decodes the low two bytes of each count - more than 65535 hits of a word
+     * in a single column don't happen in practice.
+     */
+    private static String getRankExpression(Index index, int numPhrases) {
+        int numColumns = index.mColumns.length;
+        StringBuilder rank = new StringBuilder();
+        for (int phrase = 0; phrase < numPhrases; phrase++) {
+            for (int column = 0; column < numColumns; column++) {
+                if (rank.length() > 0) {
+                    rank.append(" + ");
+                }
+                // 'x' holds three 32-bit counts per phrase and column, the first is the hits in this row
+                int offset = 3 * (phrase * numColumns + column) * 4;
+                rank.append(index.mWeights[column]).append(" * (").append(getByteExpression(offset))
+                        .append(" + 256 * ").append(getByteExpression(offset + 1)).append(")");
+            }
+        }
+        return "(" + rank + ")";
+    }
+
+    /*
+     * returns the expression reading the byte at the passed offset of the hex encoded matchinfo, the
+     * counts are in native byte order, which is little-endian on every device Android runs on
+     */
+    private static String getByteExpression(int offset) {
+        int pos = offset * 2 + 1;
+        return "(16 * " + getHexDigitExpression(pos) + " + " + getHexDigitExpression(pos + 1) + ")";
+    }
+
+    /*
+     * returns the expression reading the hex digit at the passed position of the hex encoded matchinfo -
+     * instr() isn't available before SQLite 3.7.15 (API 21), so the digit is read from its own character
+     * code: '0'-'9' are 0x30-0x39 and 'A'-'F' are 0x41-0x46
+     */
+    private static String getHexDigitExpression(int pos) {
+        String digit = "substr(" + MATCHINFO_COLUMN + ", " + pos + ", 1)";
+        return "(CAST(substr(hex(" + digit + "), 2, 1) AS INTEGER) + 9 * (" + digit + " > '9'))";
+    }
+}
@@ -3,6 +3,7 @@ package org.codeforafrica.citizenreporter.starreports.datasets;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import org.codeforafrica.citizenreporter.starreports.WordPress;
 import org.codeforafrica.citizenreporter.starreports.models.Suggestion;
@@ -11,7 +12,11 @@ import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.SqlUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SuggestionTable {
     private static final String SUGGESTIONS_TABLE = "suggestions";
@@ -51,16 +56,67 @@ public class SuggestionTable {
         return WordPress.wpDB.getDatabase();
     }
 
-    public static void insertSuggestionsForSite(final int siteId, final List<Suggestion> suggestions) {
-        // we want to delete the current suggestions, so that removed users will not show up as a suggestion
-        deleteSuggestionsForSite(siteId);
+    /*
+     * replaces the suggestions for the passed site with the passed ones in a single transaction, so
+     * readers never see a partial list - only suggestions that are new or changed are written, and
+     * those no longer in the list are deleted so removed users will not show up as a suggestion.
+     * returns the number of rows written or deleted
+     */
+    public static int insertSuggestionsForSite(final int siteId, final List<Suggestion> suggestions) {
+        SQLiteDatabase db = getWritableDb();
+        db.beginTransaction();
+        SQLiteStatement stmtInsert = db.compileStatement("INSERT OR REPLACE INTO " + SUGGESTIONS_TABLE
+                + " (site_id, user_login, display_name, image_url, taxonomy) VALUES (?1,?2,?3,?4,?5)");
+        SQLiteStatement stmtDelete = db.compileStatement("DELETE FROM " + SUGGESTIONS_TABLE
+                + " WHERE site_id=?1 AND user_login=?2");
+        try {
+            Map<String, Suggestion> existing = new HashMap<String, Suggestion>();
+            for (Suggestion suggestion : getSuggestionsForSite(siteId)) {
+                existing.put(suggestion.getUserLogin(), suggestion);
+            }
+
+            int numChanges = 0;
+            if (suggestions != null) {
+                for (Suggestion suggestion : suggestions) {
+                    if (suggestion == null) {
+                        continue;
+                    }
+                    Suggestion current = existing.remove(suggestion.getUserLogin());
+                    if (current != null && isSameSuggestion(current, suggestion)) {
+                        continue;
+                    }
+                    stmtInsert.bindLong  (1, siteId);
+                    stmtInsert.bindString(2, suggestion.getUserLogin());
+                    stmtInsert.bindString(3, suggestion.getDisplayName());
+                    stmtInsert.bindString(4, suggestion.getImageUrl());
+                    stmtInsert.bindString(5, suggestion.getTaxonomy());
+                    stmtInsert.execute();
+                    numChanges++;
+                }
+            }
 
-        if (suggestions != null) {
-            for (Suggestion suggestion : suggestions) {
-                addSuggestion(suggestion);
+            for (String userLogin : existing.keySet()) {
+                stmtDelete.bindLong  (1, siteId);
+                stmtDelete.bindString(2, userLogin);
+                stmtDelete.execute();
+                numChanges++;
             }
+
+            db.setTransactionSuccessful();
+            return numChanges;
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmtInsert);
+            SqlUtils.closeStatement(stmtDelete);
         }
     }
+
+    private static boolean isSameSuggestion(Suggestion suggestion1, Suggestion suggestion2) {
+        return suggestion1.getDisplayName().equals(suggestion2.getDisplayName())
+                && suggestion1.getImageUrl().equals(suggestion2.getImageUrl())
+                && suggestion1.getTaxonomy().equals(suggestion2.getTaxonomy());
+    }
+
     public static void addSuggestion(final Suggestion suggestion) {
         if (suggestion == null)
             return;
@@ -115,14 +171,52 @@ public class SuggestionTable {
                 taxonomy);
     }
 
-    public static void insertTagsForSite(final int siteId, final List<Tag> tags) {
-        // we want to delete the current tags, so that removed tags will not show up
-        deleteTagsForSite(siteId);
+    /*
+     * replaces the tags for the passed site with the passed ones in a single transaction, inserting
+     * the new tags and deleting those no longer in the list so removed tags will not show up.
+     * returns the number of rows written or deleted
+     */
+    public static int insertTagsForSite(final int siteId, final List<Tag> tags) {
+        SQLiteDatabase db = getWritableDb();
+        db.beginTransaction();
+        SQLiteStatement stmtInsert = db.compileStatement("INSERT OR REPLACE INTO " + TAXONOMY_TABLE
+                + " (site_id, tag) VALUES (?1,?2)");
+        SQLiteStatement stmtDelete = db.compileStatement("DELETE FROM " + TAXONOMY_TABLE
+                + " WHERE site_id=?1 AND tag=?2");
+        try {
+            Set<String> existing = new HashSet<String>();
+            for (Tag tag : getTagsForSite(siteId)) {
+                existing.add(tag.getTag());
+            }
 
-        if (tags != null) {
-            for (Tag tag : tags) {
-                addTag(tag);
+            int numChanges = 0;
+            Set<String> seen = new HashSet<String>();
+            if (tags != null) {
+                for (Tag tag : tags) {
+                    // skip duplicates and tags that are already stored
+                    if (tag == null || !seen.add(tag.getTag()) || existing.remove(tag.getTag())) {
+                        continue;
+                    }
+                    stmtInsert.bindLong  (1, siteId);
+                    stmtInsert.bindString(2, tag.getTag());
+                    stmtInsert.execute();
+                    numChanges++;
+                }
             }
+
+            for (String tag : existing) {
+                stmtDelete.bindLong  (1, siteId);
+                stmtDelete.bindString(2, tag);
+                stmtDelete.execute();
+                numChanges++;
+            }
+
+            db.setTransactionSuccessful();
+            return numChanges;
+        } finally {
+            db.endTransaction();
+            SqlUtils.closeStatement(stmtInsert);
+            SqlUtils.closeStatement(stmtDelete);
         }
     }
 
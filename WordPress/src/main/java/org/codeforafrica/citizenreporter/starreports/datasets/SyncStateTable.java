@@ -0,0 +1,72 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.SqlUtils;
+
+/**
+ * per-blog sync state of incrementally synced lists - the high-water mark is the most recent value seen
+ * in a sync (e.g. the newest message id), the next sync only asks the server for what came after it
+ */
+public class SyncStateTable {
+    private static final String SYNC_STATE_TABLE = "sync_state";
+
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + SYNC_STATE_TABLE + " ("
+                + "    blog_id              INTEGER DEFAULT 0,"
+                + "    list_type            TEXT,"
+                + "    high_water_mark      INTEGER DEFAULT 0,"
+                + "    date_synced          INTEGER DEFAULT 0,"
+                + "    PRIMARY KEY (blog_id, list_type)"
+                + " );");
+    }
+
+    private static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + SYNC_STATE_TABLE);
+    }
+
+    public static void reset(SQLiteDatabase db) {
+        AppLog.i(AppLog.T.POSTS, "resetting sync state table");
+        dropTables(db);
+        createTables(db);
+    }
+
+    private static SQLiteDatabase getReadableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+    private static SQLiteDatabase getWritableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+
+    /*
+     * returns the most recent modification date (GMT millis) seen when syncing this list, 0 if it was never synced
+     */
+    public static long getHighWaterMark(int localBlogId, String listType) {
+        return SqlUtils.longForQuery(getReadableDb(), "SELECT high_water_mark FROM " + SYNC_STATE_TABLE
+                + " WHERE blog_id=? AND list_type=?", new String[]{Integer.toString(localBlogId), listType});
+    }
+
+    public static void setHighWaterMark(int localBlogId, String listType, long highWaterMark) {
+        ContentValues values = new ContentValues();
+        values.put("blog_id",         localBlogId);
+        values.put("list_type",       listType);
+        values.put("high_water_mark", highWaterMark);
+        values.put("date_synced",     System.currentTimeMillis());
+        getWritableDb().insertWithOnConflict(SYNC_STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /*
+     * forget the sync state of this list, the next sync saves every item again
+     */
+    public static void clearHighWaterMark(int localBlogId, String listType) {
+        getWritableDb().delete(SYNC_STATE_TABLE, "blog_id=? AND list_type=?",
+                new String[]{Integer.toString(localBlogId), listType});
+    }
+
+    public static void deleteForBlog(int localBlogId) {
+        getWritableDb().delete(SYNC_STATE_TABLE, "blog_id=?", new String[]{Integer.toString(localBlogId)});
+    }
+}
@@ -0,0 +1,120 @@
+package org.codeforafrica.citizenreporter.starreports.datasets;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.models.UploadCheckpoint;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.SqlUtils;
+
+/**
+ * stores the progress of chunked media uploads so an interrupted upload can resume from the
+ * last offset acknowledged by the server, even after the app has been restarted
+ */
+public class UploadCheckpointTable {
+    private static final String CHECKPOINTS_TABLE = "upload_checkpoints";
+
+    // checkpoints older than this are abandoned uploads, servers will have discarded the partial file
+    private static final long MAX_CHECKPOINT_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + CHECKPOINTS_TABLE + " ("
+                + "    blog_id              INTEGER DEFAULT 0,"
+                + "    file_path            TEXT,"
+                + "    file_size            INTEGER DEFAULT 0,"
+                + "    file_modified        INTEGER DEFAULT 0,"
+                + "    upload_id            TEXT,"
+                + "    acked_offset         INTEGER DEFAULT 0,"
+                + "    chunk_size           INTEGER DEFAULT 0,"
+                + "    date_updated         INTEGER DEFAULT 0,"
+                + "    PRIMARY KEY (blog_id, file_path, file_size, file_modified)"
+                + " );");
+    }
+
+    private static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + CHECKPOINTS_TABLE);
+    }
+
+    public static void reset(SQLiteDatabase db) {
+        AppLog.i(AppLog.T.POSTS, "resetting upload checkpoint table");
+        dropTables(db);
+        createTables(db);
+    }
+
+    private static SQLiteDatabase getReadableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+    private static SQLiteDatabase getWritableDb() {
+        return WordPress.wpDB.getDatabase();
+    }
+
+    /*
+     * returns the checkpoint for this exact version of the file, or null if there isn't one - a
+     * file that changed since the checkpoint was saved won't match and is uploaded from scratch
+     */
+    public static UploadCheckpoint getCheckpoint(int blogId, String filePath, long fileSize, long fileModified) {
+        String[] args = {Integer.toString(blogId),
+                         filePath,
+                         Long.toString(fileSize),
+                         Long.toString(fileModified)};
+        Cursor c = getReadableDb().rawQuery("SELECT * FROM " + CHECKPOINTS_TABLE
+                + " WHERE blog_id=? AND file_path=? AND file_size=? AND file_modified=?", args);
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            return getCheckpointFromCursor(c);
+        } finally {
+            SqlUtils.closeCursor(c);
+        }
+    }
+
+    public static void saveCheckpoint(UploadCheckpoint checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("blog_id",       checkpoint.getBlogId());
+        values.put("file_path",     checkpoint.getFilePath());
+        values.put("file_size",     checkpoint.getFileSize());
+        values.put("file_modified", checkpoint.getFileModified());
+        values.put("upload_id",     checkpoint.getUploadId());
+        values.put("acked_offset",  checkpoint.getAckedOffset());
+        values.put("chunk_size",    checkpoint.getChunkSize());
+        values.put("date_updated",  System.currentTimeMillis());
+
+        getWritableDb().insertWithOnConflict(CHECKPOINTS_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public static void deleteCheckpoint(UploadCheckpoint checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+        String[] args = {Integer.toString(checkpoint.getBlogId()),
+                         checkpoint.getFilePath(),
+                         Long.toString(checkpoint.getFileSize()),
+                         Long.toString(checkpoint.getFileModified())};
+        getWritableDb().delete(CHECKPOINTS_TABLE,
+                "blog_id=? AND file_path=? AND file_size=? AND file_modified=?", args);
+    }
+
+    public static int purge(SQLiteDatabase db) {
+        long minDate = System.currentTimeMillis() - MAX_CHECKPOINT_AGE_MS;
+        return db.delete(CHECKPOINTS_TABLE, "date_updated < ?", new String[]{Long.toString(minDate)});
+    }
+
+    private static UploadCheckpoint getCheckpointFromCursor(Cursor c) {
+        UploadCheckpoint checkpoint = new UploadCheckpoint(
+                c.getInt(c.getColumnIndex("blog_id")),
+                c.getString(c.getColumnIndex("file_path")),
+                c.getLong(c.getColumnIndex("file_size")),
+                c.getLong(c.getColumnIndex("file_modified")));
+        checkpoint.setUploadId(c.getString(c.getColumnIndex("upload_id")));
+        checkpoint.setAckedOffset(c.getLong(c.getColumnIndex("acked_offset")));
+        checkpoint.setChunkSize(c.getInt(c.getColumnIndex("chunk_size")));
+        return checkpoint;
+    }
+}
@@ -15,6 +15,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 public class Blog {
+    // kept in blogOptions next to the options fetched with wp.getOptions, set when the blog rejects the
+    // wp.*ChunkedUpload methods
+    public static final String OPTION_CHUNKED_UPLOADS_UNSUPPORTED = "chunked_uploads_unsupported";
+
     private int localTableBlogId;
     private String url;
     private String homeURL;
@@ -437,6 +441,33 @@ public class Blog {
         return false;
     }
 
+    public boolean isChunkedUploadCapable() {
+        JSONObject jsonOptions = getBlogOptionsJSONObject();
+        return jsonOptions == null || !jsonOptions.has(OPTION_CHUNKED_UPLOADS_UNSUPPORTED);
+    }
+
+    public boolean bsetChunkedUploadCapable(boolean isCapable) {
+        if (isChunkedUploadCapable() == isCapable) {
+            return false;
+        }
+        JSONObject jsonOptions = getBlogOptionsJSONObject();
+        if (jsonOptions == null) {
+            jsonOptions = new JSONObject();
+        }
+        try {
+            if (isCapable) {
+                jsonOptions.remove(OPTION_CHUNKED_UPLOADS_UNSUPPORTED);
+            } else {
+                jsonOptions.put(OPTION_CHUNKED_UPLOADS_UNSUPPORTED, new JSONObject().put("value", "1"));
+            }
+        } catch (JSONException e) {
+            AppLog.e(T.UTILS, "Cannot save " + OPTION_CHUNKED_UPLOADS_UNSUPPORTED + " in options", e);
+            return false;
+        }
+        blogOptions = jsonOptions.toString();
+        return true;
+    }
+
     public boolean isPhotonCapable() {
         return ((isDotcomFlag() && !isPrivate()) || (isJetpackPowered() && !hasValidHTTPAuthCredentials()));
     }
@@ -0,0 +1,35 @@
+package org.codeforafrica.citizenreporter.starreports.models;
+
+/**
+ * Snapshot of the post upload queue, used for instrumentation
+ */
+public class PostUploadQueueStats {
+    public int numQueued;
+    public int numInFlight;
+    // uploads that failed too many times and won't be retried
+    public int numFailed;
+    public int numDone;
+
+    // time the oldest pending upload has been waiting, 0 if nothing is pending
+    public long oldestWaitMs;
+    // average time between queuing and starting for uploads started in the last day
+    public long averageWaitMs;
+
+    /*
+     * number of uploads waiting to be sent, including uploads waiting to be retried
+     */
+    public int getDepth() {
+        return numQueued;
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth()
+                + " queued=" + numQueued
+                + " inFlight=" + numInFlight
+                + " failed=" + numFailed
+                + " done=" + numDone
+                + " oldestWaitMs=" + oldestWaitMs
+                + " averageWaitMs=" + averageWaitMs;
+    }
+}
@@ -0,0 +1,62 @@
+package org.codeforafrica.citizenreporter.starreports.models;
+
+/**
+ * Progress of a chunked media upload, see UploadCheckpointTable
+ */
+public class UploadCheckpoint {
+    private final int blogId;
+    private final String filePath;
+    private final long fileSize;
+    private final long fileModified;
+
+    private String uploadId;
+    private long ackedOffset;
+    private int chunkSize;
+
+    public UploadCheckpoint(int blogId, String filePath, long fileSize, long fileModified) {
+        this.blogId = blogId;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+    }
+
+    public int getBlogId() {
+        return blogId;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getFileModified() {
+        return fileModified;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public long getAckedOffset() {
+        return ackedOffset;
+    }
+
+    public void setAckedOffset(long ackedOffset) {
+        this.ackedOffset = ackedOffset;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+}
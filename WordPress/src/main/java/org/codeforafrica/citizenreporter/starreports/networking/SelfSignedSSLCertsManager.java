@@ -13,6 +13,7 @@ import org.codeforafrica.citizenreporter.starreports.ui.ActivityLauncher;
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.AppLog.T;
 import org.wordpress.android.util.GenericCallback;
+import org.xmlrpc.android.XMLRPCConnectionPool;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -96,8 +97,9 @@ public class SelfSignedSSLCertsManager {
             mLocalKeyStore.setCertificateEntry(alias, cert);
         }
         saveTrustStore();
-        // reset the Volley queue Otherwise new certs are not used
+        // reset the Volley queue and the XML-RPC clients Otherwise new certs are not used
         WordPress.setupVolleyQueue();
+        XMLRPCConnectionPool.reset();
     }
 
     public void addCertificate(X509Certificate cert) throws IOException, GeneralSecurityException {
@@ -108,6 +110,7 @@ public class SelfSignedSSLCertsManager {
         String alias = hashName(cert.getSubjectX500Principal());
         mLocalKeyStore.setCertificateEntry(alias, cert);
         saveTrustStore();
+        XMLRPCConnectionPool.reset();
     }
 
     public KeyStore getLocalKeyStore() {
@@ -175,6 +178,7 @@ public class SelfSignedSSLCertsManager {
         } catch (IOException e) {
             AppLog.e(T.API, "Cannot create/initialize local Keystore", e);
         }
+        XMLRPCConnectionPool.reset();
     }
 
     private static String hashName(X500Principal principal) {
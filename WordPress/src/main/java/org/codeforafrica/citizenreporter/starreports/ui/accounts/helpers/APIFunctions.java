@@ -9,11 +9,10 @@ import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONObject;
 import org.codeforafrica.citizenreporter.starreports.BuildConfig;
 
-import android.util.Log;
-
 public class APIFunctions {
 
-    private JSONParser jsonParser;
+    // the parser has no state, all the instances share it
+    private static final JSONParser jsonParser = new JSONParser();
     private static final String registerURL = BuildConfig.API_URL + "/register/";
     private static final String updateURL = BuildConfig.API_URL + "/editprofile/";
     private static final String userURL = BuildConfig.API_URL + "/user/";
@@ -24,7 +23,6 @@ public class APIFunctions {
 
     // constructor
     public APIFunctions(){
-        jsonParser = new JSONParser();
     }
 
     public JSONObject newUser(String username, String full_name, String password, String email, String operatorName, String deviceId, String serialNumber, String location, String address, String phone_number, boolean newUser){
@@ -71,8 +69,6 @@ public class APIFunctions {
 
         }
 
-        Log.d("update", updateURL + " params: " + params.toString());
-
         JSONObject json = jsonParser.getJSONFromUrl(updateURL, params);
         // return json
         return json;
@@ -130,7 +126,6 @@ public class APIFunctions {
         List<NameValuePair> params = new ArrayList<NameValuePair>();
         params.add(new BasicNameValuePair("username", username));
         params.add(new BasicNameValuePair("message_string", message));
-        Log.d("message", username + message + sendMessageUrl + ": params");
         JSONObject json = jsonParser.getJSONFromUrl(sendMessageUrl, params);
         // return json
         return json;
@@ -1,84 +1,246 @@
 package org.codeforafrica.citizenreporter.starreports.ui.accounts.helpers;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.util.List;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.xmlrpc.android.XMLRPCConnectionPool;
 
-import android.util.Log;
-
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posts a form to the CitizenReporter API and returns the JSON object it answers with. The parser has no state,
+ * so it can be shared and called from several threads at once. Requests go through the clients of
+ * XMLRPCConnectionPool, so they reuse the kept-alive connections to the API host, and responses are parsed
+ * straight from the stream instead of being copied into a String first.
+ */
 public class JSONParser {
+    // errors are logged with at most this many characters of the server's message
+    private static final int MAX_LOGGED_CHARS = 256;
 
-    static InputStream is = null;
-    static JSONObject jObj = null;
-    static JSONArray jArr = null;
-    static String json = "";
+    // endpoint path -> latency stats
+    private static final Map<String, EndpointStats> sStats = new HashMap<String, EndpointStats>();
 
-    // constructor
     public JSONParser() {
-
     }
 
+    /*
+     * returns null if the request fails or the response isn't a JSON object
+     */
     public JSONObject getJSONFromUrl(String url, List<NameValuePair> params) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            AppLog.e(T.API, "invalid API url " + url, e);
+            return null;
+        }
+        String endpoint = uri.getPath();
 
-        // Making HTTP request
+        long start = System.currentTimeMillis();
+        HttpEntity entity = null;
+        JSONObject result = null;
+        int statusCode = 0;
         try {
-            // defaultHttpClient
-            DefaultHttpClient httpClient = new DefaultHttpClient();
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setEntity(new UrlEncodedFormEntity(params));
+            HttpPost httpPost = new HttpPost(uri);
+            httpPost.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
+            HttpResponse response = XMLRPCConnectionPool.getClient(uri, null, false).execute(httpPost);
+            statusCode = response.getStatusLine().getStatusCode();
+            entity = response.getEntity();
+            if (entity != null) {
+                result = parseObject(entity);
+            }
+        } catch (IOException e) {
+            AppLog.e(T.API, endpoint + " failed: " + truncate(e.getMessage()));
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader when the response isn't JSON
+            AppLog.e(T.API, endpoint + " returned invalid JSON: " + truncate(e.getMessage()));
+        } finally {
+            if (entity != null) {
+                try {
+                    // releases the connection back to the pool
+                    entity.consumeContent();
+                } catch (IOException e) {
+                    // nop
+                }
+            }
+        }
 
+        long latencyMs = System.currentTimeMillis() - start;
+        EndpointStats stats = recordLatency(endpoint, latencyMs, result != null);
+        AppLog.d(T.API, endpoint + " " + statusCode + " in " + latencyMs + " ms - " + stats);
+        return result;
+    }
 
-            HttpResponse httpResponse = httpClient.execute(httpPost);
-            HttpEntity httpEntity = httpResponse.getEntity();
-            is = httpEntity.getContent();
+    private static JSONObject parseObject(HttpEntity entity) throws IOException {
+        String charset = EntityUtils.getContentCharSet(entity);
+        JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(),
+                charset != null ? charset : HTTP.UTF_8));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                AppLog.w(T.API, "expected a JSON object, got " + reader.peek());
+                return null;
+            }
+            return readObject(reader);
+        } catch (JSONException e) {
+            AppLog.e(T.API, "invalid JSON value: " + truncate(e.getMessage()));
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
 
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
         }
+        reader.endObject();
+        return object;
+    }
 
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    is, "iso-8859-1"), 8);
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line + "\n");
+    private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    /*
+     * same types as org.json: Integer or Long when the number fits, Double otherwise
+     */
+    private static Object parseNumber(String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                // too large for a long
             }
-            is.close();
-            json = sb.toString();
-            Log.e("JSON", json);
-        } catch (Exception e) {
-            Log.e("Buffer Error", "Error converting result " + e.toString());
         }
+        return Double.valueOf(number);
+    }
 
-        // try parse the string to a JSON object
-        try {
-            jObj = new JSONObject(json);
-        } catch (JSONException e) {
-            Log.e("JSON Parser", "Error parsing data " + e.toString());
+    private static String truncate(String text) {
+        if (text == null || text.length() <= MAX_LOGGED_CHARS) {
+            return text;
+        }
+        return text.substring(0, MAX_LOGGED_CHARS) + "...";
+    }
+
+    /*
+     * latency metrics
+     */
+    public static class EndpointStats {
+        private int mRequestCount;
+        private int mErrorCount;
+        private long mTotalLatencyMs;
+        private long mMaxLatencyMs;
+
+        public int getRequestCount() {
+            return mRequestCount;
+        }
+
+        public int getErrorCount() {
+            return mErrorCount;
+        }
+
+        public long getAverageLatencyMs() {
+            return mRequestCount == 0 ? 0 : mTotalLatencyMs / mRequestCount;
+        }
+
+        public long getMaxLatencyMs() {
+            return mMaxLatencyMs;
         }
 
-        // return JSON String
-        return jObj;
+        private EndpointStats copy() {
+            EndpointStats copy = new EndpointStats();
+            copy.mRequestCount = mRequestCount;
+            copy.mErrorCount = mErrorCount;
+            copy.mTotalLatencyMs = mTotalLatencyMs;
+            copy.mMaxLatencyMs = mMaxLatencyMs;
+            return copy;
+        }
 
+        @Override
+        public String toString() {
+            return mRequestCount + " calls, " + mErrorCount + " failed, avg " + getAverageLatencyMs() + " ms, max "
+                    + mMaxLatencyMs + " ms";
+        }
     }
 
-}
\ No newline at end of file
+    private static EndpointStats recordLatency(String endpoint, long latencyMs, boolean success) {
+        synchronized (sStats) {
+            EndpointStats stats = sStats.get(endpoint);
+            if (stats == null) {
+                stats = new EndpointStats();
+                sStats.put(endpoint, stats);
+            }
+            stats.mRequestCount++;
+            if (!success) {
+                stats.mErrorCount++;
+            }
+            stats.mTotalLatencyMs += latencyMs;
+            stats.mMaxLatencyMs = Math.max(stats.mMaxLatencyMs, latencyMs);
+            return stats.copy();
+        }
+    }
+
+    /*
+     * returns a snapshot of the stats of the endpoint with this path, e.g. "/send_message/"
+     */
+    public static EndpointStats getStats(String endpoint) {
+        synchronized (sStats) {
+            EndpointStats stats = sStats.get(endpoint);
+            return stats != null ? stats.copy() : new EndpointStats();
+        }
+    }
+
+    public static void resetStats() {
+        synchronized (sStats) {
+            sStats.clear();
+        }
+    }
+}
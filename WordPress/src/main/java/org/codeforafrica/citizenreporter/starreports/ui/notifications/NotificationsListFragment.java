@@ -3,7 +3,10 @@ package org.codeforafrica.citizenreporter.starreports.ui.notifications;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.StringRes;
 import android.support.v7.widget.DefaultItemAnimator;
@@ -56,6 +59,16 @@ public class NotificationsListFragment extends Fragment
 
     private Bucket<Note> mBucket;
 
+    // the list headers (today, yesterday...) are relative to the current day
+    private final BroadcastReceiver mDateChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mNotesAdapter != null) {
+                mNotesAdapter.refreshHeadersIfDayChanged();
+            }
+        }
+    };
+
     public static NotificationsListFragment newInstance() {
         return new NotificationsListFragment();
     }
@@ -96,6 +109,19 @@ public class NotificationsListFragment extends Fragment
                         openNote(getActivity(), noteId, false, true);
                     }
                 });
+                mNotesAdapter.setOnNotesLoadedListener(new NotesAdapter.OnNotesLoadedListener() {
+                    @Override
+                    public void onNotesLoaded() {
+                        if (!isAdded()) return;
+
+                        restoreListScrollPosition();
+                        if (mNotesAdapter.getCount() > 0) {
+                            hideEmptyView();
+                        } else {
+                            showEmptyView(R.string.notifications_empty_list, false);
+                        }
+                    }
+                });
             }
 
             mRecyclerView.setAdapter(mNotesAdapter);
@@ -126,6 +152,11 @@ public class NotificationsListFragment extends Fragment
         super.onResume();
         refreshNotes();
 
+        IntentFilter dateFilter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+        dateFilter.addAction(Intent.ACTION_TIME_CHANGED);
+        dateFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        getActivity().registerReceiver(mDateChangedReceiver, dateFilter);
+
         // start listening to bucket change events
         if (mBucket != null) {
             mBucket.addListener(this);
@@ -147,6 +178,7 @@ public class NotificationsListFragment extends Fragment
         if (mBucket != null) {
             mBucket.removeListener(this);
         }
+        getActivity().unregisterReceiver(mDateChangedReceiver);
         super.onPause();
     }
 
@@ -256,12 +288,6 @@ public class NotificationsListFragment extends Fragment
             @Override
             public void run() {
                 mNotesAdapter.reloadNotes();
-                restoreListScrollPosition();
-                if (mNotesAdapter.getCount() > 0) {
-                    hideEmptyView();
-                } else {
-                    showEmptyView(R.string.notifications_empty_list, false);
-                }
             }
         });
     }
@@ -61,7 +61,15 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
      * closed.
      */
     public void changeCursor(Cursor cursor) {
-        Cursor old = swapCursor(cursor);
+        changeCursor(cursor, true);
+    }
+
+    /**
+     * Same as {@link #changeCursor(Cursor)}, but when notifyChanged is false the adapter isn't
+     * notified so subclasses can report finer grained changes themselves.
+     */
+    protected void changeCursor(Cursor cursor, boolean notifyChanged) {
+        Cursor old = swapCursor(cursor, notifyChanged);
         if (old != null) {
             old.close();
         }
@@ -73,6 +81,10 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
      * closed.
      */
     public Cursor swapCursor(Cursor newCursor) {
+        return swapCursor(newCursor, true);
+    }
+
+    private Cursor swapCursor(Cursor newCursor, boolean notifyChanged) {
         if (newCursor == mCursor) {
             return null;
         }
@@ -87,10 +99,11 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
             }
             mRowIdColumn = newCursor.getColumnIndexOrThrow("_id");
             mDataValid = true;
-            notifyDataSetChanged();
         } else {
             mRowIdColumn = -1;
             mDataValid = false;
+        }
+        if (notifyChanged) {
             notifyDataSetChanged();
         }
         return oldCursor;
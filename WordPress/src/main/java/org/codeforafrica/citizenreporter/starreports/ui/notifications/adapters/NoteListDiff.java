@@ -0,0 +1,86 @@
+package org.codeforafrica.citizenreporter.starreports.ui.notifications.adapters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out the removals, insertions, moves and changes that turn an old list of note ids into a
+ * new one, so the notifications list can animate just the rows that changed instead of rebinding
+ * every row. Changes are reported in the order a RecyclerView adapter expects them, each position
+ * being relative to the list after the previous changes - consecutive removals and insertions are
+ * reported as ranges.
+ */
+class NoteListDiff {
+    interface Callback {
+        // true if the row at oldPosition in the old list shows the same as newPosition in the new one
+        boolean areContentsTheSame(int oldPosition, int newPosition);
+        void onRemoved(int position, int count);
+        void onInserted(int position, int count);
+        void onMoved(int fromPosition, int toPosition);
+        void onChanged(int position);
+    }
+
+    private NoteListDiff() {
+        throw new AssertionError();
+    }
+
+    static void dispatch(List<String> oldIds, List<String> newIds, Callback callback) {
+        Map<String, Integer> oldPositions = new HashMap<>(oldIds.size());
+        for (int i = 0; i < oldIds.size(); i++) {
+            oldPositions.put(oldIds.get(i), i);
+        }
+        Set<String> newIdSet = new HashSet<>(newIds);
+
+        // remove the notes that are gone, from the end so earlier positions don't shift
+        List<String> current = new ArrayList<>(oldIds);
+        int removeEnd = -1;
+        for (int i = current.size() - 1; i >= 0; i--) {
+            if (!newIdSet.contains(current.get(i))) {
+                if (removeEnd == -1) {
+                    removeEnd = i;
+                }
+                current.remove(i);
+            } else if (removeEnd != -1) {
+                callback.onRemoved(i + 1, removeEnd - i);
+                removeEnd = -1;
+            }
+        }
+        if (removeEnd != -1) {
+            callback.onRemoved(0, removeEnd + 1);
+        }
+
+        // then walk the new list, inserting new notes and moving existing ones into place
+        int insertStart = -1;
+        for (int position = 0; position < newIds.size(); position++) {
+            String noteId = newIds.get(position);
+            Integer oldPosition = oldPositions.get(noteId);
+            if (oldPosition == null) {
+                current.add(position, noteId);
+                if (insertStart == -1) {
+                    insertStart = position;
+                }
+                continue;
+            }
+            if (insertStart != -1) {
+                callback.onInserted(insertStart, position - insertStart);
+                insertStart = -1;
+            }
+            if (!noteId.equals(current.get(position))) {
+                int fromPosition = current.indexOf(noteId);
+                current.remove(fromPosition);
+                current.add(position, noteId);
+                callback.onMoved(fromPosition, position);
+            }
+            if (!callback.areContentsTheSame(oldPosition, position)) {
+                callback.onChanged(position);
+            }
+        }
+        if (insertStart != -1) {
+            callback.onInserted(insertStart, newIds.size() - insertStart);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.codeforafrica.citizenreporter.starreports.ui.notifications.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.support.v7.widget.RecyclerView;
 import android.text.Html;
 import android.text.TextUtils;
@@ -27,21 +28,61 @@ import org.codeforafrica.citizenreporter.starreports.widgets.NoticonTextView;
 import org.codeforafrica.citizenreporter.starreports.widgets.WPNetworkImageView;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteViewHolder> {
 
+    // the columns shown in the list, a change to any of them changes the row's revision
+    private static final String[] INDEXED_COLUMNS = {
+            Note.Schema.TIMESTAMP_INDEX,
+            Note.Schema.SUBJECT_INDEX,
+            Note.Schema.SNIPPET_INDEX,
+            Note.Schema.UNREAD_INDEX,
+            Note.Schema.ICON_URL_INDEX,
+            Note.Schema.NOTICON_INDEX,
+            Note.Schema.IS_UNAPPROVED_INDEX,
+            Note.Schema.COMMENT_SUBJECT_NOTICON,
+            Note.Schema.LOCAL_STATUS};
+
     private final int mAvatarSz;
     private final Query mQuery;
     private final Bucket<Note> mNotesBucket;
     private final int mColorRead;
     private final int mColorUnread;
-    private final List<String> mHiddenNoteIds = new ArrayList<String>();
-    private final List<String> mModeratingNoteIds = new ArrayList<String>();
+    private final Set<String> mHiddenNoteIds = new HashSet<String>();
+    private final Set<String> mModeratingNoteIds = new HashSet<String>();
+
+    // the rows of the current cursor, read once when the notes are loaded - the id of each note,
+    // a revision that changes whenever the row's content does, its timestamp, and the time group
+    // of the header shown above it (null if the row has no header)
+    private List<String> mNoteIds = new ArrayList<String>();
+    private long[] mRevisions = new long[0];
+    private long[] mTimestamps = new long[0];
+    private Note.NoteTimeGroup[] mHeaders = new Note.NoteTimeGroup[0];
+    private Map<String, Integer> mNotePositions = new HashMap<String, Integer>();
+    // the headers are relative to the day they were computed on
+    private long mHeadersDay;
+
+    private LoadNotesTask mLoadNotesTask;
+    private boolean mIsReloadPending;
+
+    // subjects already converted from html, keyed by note id and valid for the stored revision
+    private final Map<String, FormattedSubject> mSubjectCache = new HashMap<String, FormattedSubject>();
+    private final String[] mHeaderLabels;
 
     private final Context mContext;
 
     private NotificationsListFragment.OnNoteClickListener mOnNoteClickListener;
+    private OnNotesLoadedListener mOnNotesLoadedListener;
+
+    public interface OnNotesLoadedListener {
+        void onNotesLoaded();
+    }
 
     public NotesAdapter(Context context, Bucket<Note> bucket) {
         super(context, null);
@@ -67,9 +108,19 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
         mAvatarSz = (int) context.getResources().getDimension(R.dimen.avatar_sz_medium);
         mColorRead = context.getResources().getColor(R.color.white);
         mColorUnread = context.getResources().getColor(R.color.grey_light);
+
+        mHeaderLabels = new String[Note.NoteTimeGroup.values().length];
+        mHeaderLabels[Note.NoteTimeGroup.GROUP_TODAY.ordinal()] = context.getString(R.string.stats_timeframe_today).toUpperCase();
+        mHeaderLabels[Note.NoteTimeGroup.GROUP_YESTERDAY.ordinal()] = context.getString(R.string.stats_timeframe_yesterday).toUpperCase();
+        mHeaderLabels[Note.NoteTimeGroup.GROUP_OLDER_TWO_DAYS.ordinal()] = context.getString(R.string.older_two_days).toUpperCase();
+        mHeaderLabels[Note.NoteTimeGroup.GROUP_OLDER_WEEK.ordinal()] = context.getString(R.string.older_last_week).toUpperCase();
+        mHeaderLabels[Note.NoteTimeGroup.GROUP_OLDER_MONTH.ordinal()] = context.getString(R.string.older_month).toUpperCase();
     }
 
     public void closeCursor() {
+        if (mLoadNotesTask != null) {
+            mLoadNotesTask.cancel(false);
+        }
         Cursor cursor = getCursor();
         if (cursor != null) {
             cursor.close();
@@ -95,28 +146,259 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
         return null;
     }
 
+    /*
+     * loads the current notes in the background and swaps them in - the first load rebinds the whole
+     * list, after that only the rows that were added, removed, moved or changed are updated
+     */
     public void reloadNotes() {
-        changeCursor(mQuery.execute());
+        if (mLoadNotesTask != null) {
+            // the running load may have read the bucket before this change, so load again once it's done
+            mIsReloadPending = true;
+            return;
+        }
+        mLoadNotesTask = new LoadNotesTask();
+        mLoadNotesTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private class LoadNotesTask extends AsyncTask<Void, Void, NoteRows> {
+        @Override
+        protected NoteRows doInBackground(Void... params) {
+            return loadRows(mQuery.execute());
+        }
+
+        @Override
+        protected void onCancelled(NoteRows rows) {
+            if (rows != null) {
+                rows.cursor.close();
+            }
+            mLoadNotesTask = null;
+            mIsReloadPending = false;
+        }
+
+        @Override
+        protected void onPostExecute(NoteRows rows) {
+            mLoadNotesTask = null;
+            setRows(rows);
+            if (mOnNotesLoadedListener != null) {
+                mOnNotesLoadedListener.onNotesLoaded();
+            }
+            if (mIsReloadPending) {
+                mIsReloadPending = false;
+                reloadNotes();
+            }
+        }
+    }
+
+    private void setRows(NoteRows rows) {
+        final List<String> oldNoteIds = mNoteIds;
+        final long[] oldRevisions = mRevisions;
+        final Note.NoteTimeGroup[] oldHeaders = mHeaders;
+        boolean isFirstLoad = (getCursor() == null);
+
+        mNoteIds = rows.noteIds;
+        mRevisions = rows.revisions;
+        mTimestamps = rows.timestamps;
+        mHeaders = rows.headers;
+        mHeadersDay = rows.day;
+        mNotePositions = rows.notePositions;
+        mSubjectCache.keySet().retainAll(mNotePositions.keySet());
+
+        changeCursor(rows.cursor, isFirstLoad);
+        if (isFirstLoad) {
+            return;
+        }
+
+        NoteListDiff.dispatch(oldNoteIds, mNoteIds, new NoteListDiff.Callback() {
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldRevisions[oldPosition] == mRevisions[newPosition]
+                        && oldHeaders[oldPosition] == mHeaders[newPosition];
+            }
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+            @Override
+            public void onChanged(int position) {
+                notifyItemChanged(position);
+            }
+        });
+    }
+
+    /*
+     * recomputes the headers if the day has changed since they were computed, and updates the rows
+     * whose header changed with it
+     */
+    public void refreshHeadersIfDayChanged() {
+        long today = getDay();
+        if (today == mHeadersDay) {
+            return;
+        }
+        Note.NoteTimeGroup[] oldHeaders = mHeaders;
+        mHeaders = getHeaders(mTimestamps);
+        mHeadersDay = today;
+        for (int position = 0; position < mHeaders.length; position++) {
+            if (mHeaders[position] != oldHeaders[position]) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    /*
+     * the rows of a cursor as read by loadRows()
+     */
+    private static class NoteRows {
+        private final Bucket.ObjectCursor<Note> cursor;
+        private final List<String> noteIds;
+        private final long[] revisions;
+        private final long[] timestamps;
+        private final Note.NoteTimeGroup[] headers;
+        private final long day;
+        private final Map<String, Integer> notePositions;
+
+        NoteRows(Bucket.ObjectCursor<Note> cursor, List<String> noteIds, long[] revisions, long[] timestamps,
+                 Map<String, Integer> notePositions) {
+            this.cursor = cursor;
+            this.noteIds = noteIds;
+            this.revisions = revisions;
+            this.timestamps = timestamps;
+            this.day = getDay();
+            this.headers = getHeaders(timestamps);
+            this.notePositions = notePositions;
+        }
+    }
+
+    /*
+     * reads the id, revision and timestamp of every row of the passed cursor - called in the background
+     */
+    private static NoteRows loadRows(Bucket.ObjectCursor<Note> cursor) {
+        int count = cursor.getCount();
+        List<String> noteIds = new ArrayList<String>(count);
+        long[] revisions = new long[count];
+        long[] timestamps = new long[count];
+        Map<String, Integer> notePositions = new HashMap<String, Integer>(count);
+
+        int[] columns = new int[INDEXED_COLUMNS.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = cursor.getColumnIndex(INDEXED_COLUMNS[i]);
+        }
+        int timestampColumn = cursor.getColumnIndex(Note.Schema.TIMESTAMP_INDEX);
+
+        for (int position = 0; position < count && cursor.moveToPosition(position); position++) {
+            String noteId = cursor.getSimperiumKey();
+            noteIds.add(noteId);
+            notePositions.put(noteId, position);
+            revisions[position] = getRevision(cursor, columns);
+            timestamps[position] = (timestampColumn != -1 ? cursor.getLong(timestampColumn) : -1);
+        }
+
+        return new NoteRows(cursor, noteIds, revisions, timestamps, notePositions);
+    }
+
+    /*
+     * returns the time group of the header shown above each row, null if the row has no header
+     */
+    private static Note.NoteTimeGroup[] getHeaders(long[] timestamps) {
+        Note.NoteTimeGroup[] headers = new Note.NoteTimeGroup[timestamps.length];
+        Note.NoteTimeGroup previousTimeGroup = null;
+        for (int position = 0; position < timestamps.length; position++) {
+            Note.NoteTimeGroup timeGroup = Note.getTimeGroupForTimestamp(timestamps[position]);
+            headers[position] = (timeGroup != previousTimeGroup ? timeGroup : null);
+            previousTimeGroup = timeGroup;
+        }
+        return headers;
+    }
+
+    private static long getDay() {
+        Calendar calendar = Calendar.getInstance();
+        return calendar.get(Calendar.YEAR) * 1000L + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static long getRevision(Cursor cursor, int[] columns) {
+        long revision = 17;
+        for (int column : columns) {
+            String value = (column != -1 ? cursor.getString(column) : null);
+            long hash = 0;
+            if (value != null) {
+                for (int i = 0; i < value.length(); i++) {
+                    hash = 1000003 * hash + value.charAt(i);
+                }
+                hash = hash * 31 + value.length();
+            }
+            revision = 1000003 * revision + hash;
+        }
+        return revision;
+    }
+
+    /*
+     * returns the subject of the note at the passed position, converted from html only when the
+     * note is new or has changed since its subject was last converted
+     */
+    private CharSequence getFormattedSubject(Cursor cursor, String noteId, int position) {
+        long revision = (position < mRevisions.length ? mRevisions[position] : 0);
+        FormattedSubject cached = (noteId != null ? mSubjectCache.get(noteId) : null);
+        if (cached != null && cached.revision == revision) {
+            return cached.subject;
+        }
+
+        // Subject is stored in db as html to preserve text formatting
+        String noteSubjectHtml = getStringForColumnName(cursor, Note.Schema.SUBJECT_INDEX).trim();
+        CharSequence noteSubjectSpanned = Html.fromHtml(noteSubjectHtml);
+        // Trim the '\n\n' added by Html.fromHtml()
+        noteSubjectSpanned = noteSubjectSpanned.subSequence(0, TextUtils.getTrimmedLength(noteSubjectSpanned));
+        if (noteId != null) {
+            mSubjectCache.put(noteId, new FormattedSubject(revision, noteSubjectSpanned));
+        }
+        return noteSubjectSpanned;
+    }
+
+    private static class FormattedSubject {
+        private final long revision;
+        private final CharSequence subject;
+
+        FormattedSubject(long revision, CharSequence subject) {
+            this.revision = revision;
+            this.subject = subject;
+        }
     }
 
     public void addHiddenNoteId(String noteId) {
-        mHiddenNoteIds.add(noteId);
-        notifyDataSetChanged();
+        if (mHiddenNoteIds.add(noteId)) {
+            notifyNoteChanged(noteId);
+        }
     }
 
     public void removeHiddenNoteId(String noteId) {
-        mHiddenNoteIds.remove(noteId);
-        notifyDataSetChanged();
+        if (mHiddenNoteIds.remove(noteId)) {
+            notifyNoteChanged(noteId);
+        }
     }
 
     public void addModeratingNoteId(String noteId) {
-        mModeratingNoteIds.add(noteId);
-        notifyDataSetChanged();
+        if (mModeratingNoteIds.add(noteId)) {
+            notifyNoteChanged(noteId);
+        }
     }
 
     public void removeModeratingNoteId(String noteId) {
-        mModeratingNoteIds.remove(noteId);
-        notifyDataSetChanged();
+        if (mModeratingNoteIds.remove(noteId)) {
+            notifyNoteChanged(noteId);
+        }
+    }
+
+    private void notifyNoteChanged(String noteId) {
+        int position = getPositionForNote(noteId);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
     }
 
     private String getStringForColumnName(Cursor cursor, String columnName) {
@@ -135,14 +417,6 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
         return cursor.getInt(cursor.getColumnIndex(columnName));
     }
 
-    private long getLongForColumnName(Cursor cursor, String columnName) {
-        if (columnName == null || cursor == null || cursor.getColumnIndex(columnName) == -1) {
-            return -1;
-        }
-
-        return cursor.getLong(cursor.getColumnIndex(columnName));
-    }
-
     public int getCount() {
         if (getCursor() != null) {
             return getCursor().getCount();
@@ -162,35 +436,18 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
     public void onBindViewHolder(NoteViewHolder noteViewHolder, Cursor cursor) {
         final Bucket.ObjectCursor<Note> objectCursor = (Bucket.ObjectCursor<Note>) cursor;
         final String noteId = objectCursor.getSimperiumKey();
+        final int position = objectCursor.getPosition();
 
         // Display group header
-        Note.NoteTimeGroup timeGroup = Note.getTimeGroupForTimestamp(getLongForColumnName(objectCursor, Note.Schema.TIMESTAMP_INDEX));
-
-        Note.NoteTimeGroup previousTimeGroup = null;
-        if (objectCursor.getPosition() > 0 && objectCursor.moveToPrevious()) {
-            previousTimeGroup = Note.getTimeGroupForTimestamp(getLongForColumnName(objectCursor, Note.Schema.TIMESTAMP_INDEX));
-            objectCursor.moveToNext();
-        }
-
-        if (previousTimeGroup != null && previousTimeGroup == timeGroup) {
+        Note.NoteTimeGroup timeGroup = (position < mHeaders.length ? mHeaders[position] : null);
+        if (timeGroup == null) {
             noteViewHolder.headerView.setVisibility(View.GONE);
         } else {
-            if (timeGroup == Note.NoteTimeGroup.GROUP_TODAY) {
-                noteViewHolder.headerText.setText(mContext.getString(R.string.stats_timeframe_today).toUpperCase());
-            } else if (timeGroup == Note.NoteTimeGroup.GROUP_YESTERDAY) {
-                noteViewHolder.headerText.setText(mContext.getString(R.string.stats_timeframe_yesterday).toUpperCase());
-            } else if (timeGroup == Note.NoteTimeGroup.GROUP_OLDER_TWO_DAYS) {
-                noteViewHolder.headerText.setText(mContext.getString(R.string.older_two_days).toUpperCase());
-            } else if (timeGroup == Note.NoteTimeGroup.GROUP_OLDER_WEEK) {
-                noteViewHolder.headerText.setText(mContext.getString(R.string.older_last_week).toUpperCase());
-            } else {
-                noteViewHolder.headerText.setText(mContext.getString(R.string.older_month).toUpperCase());
-            }
-
+            noteViewHolder.headerText.setText(mHeaderLabels[timeGroup.ordinal()]);
             noteViewHolder.headerView.setVisibility(View.VISIBLE);
         }
 
-        if (mHiddenNoteIds.size() > 0 && mHiddenNoteIds.contains(objectCursor.getSimperiumKey())) {
+        if (mHiddenNoteIds.contains(noteId)) {
             noteViewHolder.contentView.setVisibility(View.GONE);
             noteViewHolder.headerView.setVisibility(View.GONE);
         } else {
@@ -207,18 +464,13 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
             commentStatus = CommentStatus.fromString(localStatus);
         }
 
-        if (mModeratingNoteIds.size() > 0 && mModeratingNoteIds.contains(objectCursor.getSimperiumKey())) {
+        if (mModeratingNoteIds.contains(noteId)) {
             noteViewHolder.progressBar.setVisibility(View.VISIBLE);
         } else {
             noteViewHolder.progressBar.setVisibility(View.GONE);
         }
 
-        // Subject is stored in db as html to preserve text formatting
-        String noteSubjectHtml = getStringForColumnName(objectCursor, Note.Schema.SUBJECT_INDEX).trim();
-        CharSequence noteSubjectSpanned = Html.fromHtml(noteSubjectHtml);
-        // Trim the '\n\n' added by Html.fromHtml()
-        noteSubjectSpanned = noteSubjectSpanned.subSequence(0, TextUtils.getTrimmedLength(noteSubjectSpanned));
-        noteViewHolder.txtSubject.setText(noteSubjectSpanned);
+        noteViewHolder.txtSubject.setText(getFormattedSubject(objectCursor, noteId, position));
 
         String noteSubjectNoticon = getStringForColumnName(objectCursor, Note.Schema.COMMENT_SUBJECT_NOTICON);
         if (!TextUtils.isEmpty(noteSubjectNoticon)) {
@@ -276,15 +528,9 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
     }
 
     public int getPositionForNote(String noteId) {
-        Bucket.ObjectCursor<Note> cursor = (Bucket.ObjectCursor<Note>) getCursor();
-        if (cursor != null) {
-            for (int i = 0; i < cursor.getCount(); i++) {
-                cursor.moveToPosition(i);
-                String noteKey = cursor.getSimperiumKey();
-                if (noteKey != null && noteKey.equals(noteId)) {
-                    return i;
-                }
-            }
+        Integer position = (noteId != null ? mNotePositions.get(noteId) : null);
+        if (position != null) {
+            return position;
         }
 
         return RecyclerView.NO_POSITION;
@@ -294,6 +540,10 @@ public class NotesAdapter extends CursorRecyclerViewAdapter<NotesAdapter.NoteVie
         mOnNoteClickListener = mNoteClickListener;
     }
 
+    public void setOnNotesLoadedListener(OnNotesLoadedListener listener) {
+        mOnNotesLoadedListener = listener;
+    }
+
     static class NoteViewHolder extends RecyclerView.ViewHolder {
         private final View headerView;
         private final View contentView;
@@ -0,0 +1,119 @@
+package org.codeforafrica.citizenreporter.starreports.ui.posts;
+
+import android.text.TextUtils;
+
+import org.codeforafrica.citizenreporter.starreports.datasets.UploadCheckpointTable;
+import org.codeforafrica.citizenreporter.starreports.models.UploadCheckpoint;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlrpc.android.ChunkedUploadEndpoint;
+import org.xmlrpc.android.XMLRPCException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Uploads a file in chunks through a {@link ChunkedUploadEndpoint}, saving the offset acknowledged by the
+ * server after each chunk. When a connection drops, the next call to {@link #upload} for the same file
+ * (from a retry or after the app was restarted) continues from the last acknowledged offset.
+ */
+public class ChunkedMediaUploader {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    public interface OnChunkUploadedListener {
+        public void onChunkUploaded(long uploadedBytes, long totalBytes);
+    }
+
+    private final ChunkedUploadEndpoint mEndpoint;
+    private final int mBlogId;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private long mBytesSent;
+    private OnChunkUploadedListener mOnChunkUploadedListener;
+
+    public ChunkedMediaUploader(ChunkedUploadEndpoint endpoint, int localBlogId) {
+        mEndpoint = endpoint;
+        mBlogId = localBlogId;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        mChunkSize = chunkSize;
+    }
+
+    public void setOnChunkUploadedListener(OnChunkUploadedListener listener) {
+        mOnChunkUploadedListener = listener;
+    }
+
+    /**
+     * @return number of file bytes sent by this uploader, including chunks that were sent again
+     */
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * Upload the file, resuming a previous upload of the same file if the server still has it
+     * @return the struct returned by the server, same as wp.uploadFile
+     */
+    public Object upload(File file, String fileName, String mimeType)
+            throws XMLRPCException, IOException, XmlPullParserException {
+        long fileSize = file.length();
+        UploadCheckpoint checkpoint = UploadCheckpointTable.getCheckpoint(mBlogId, file.getPath(), fileSize,
+                file.lastModified());
+
+        long offset = 0;
+        if (checkpoint != null && !TextUtils.isEmpty(checkpoint.getUploadId())) {
+            // the server is the reference, our checkpoint may lag behind if an ack was lost
+            long serverOffset = mEndpoint.getUploadedOffset(checkpoint.getUploadId());
+            if (serverOffset < 0 || serverOffset > fileSize) {
+                AppLog.i(T.POSTS, "chunked upload expired on the server, restarting " + file.getPath());
+                checkpoint = null;
+            } else {
+                offset = serverOffset;
+                AppLog.i(T.POSTS, "resuming chunked upload of " + file.getPath() + " at " + offset + "/" + fileSize);
+            }
+        }
+
+        if (checkpoint == null) {
+            checkpoint = new UploadCheckpoint(mBlogId, file.getPath(), fileSize, file.lastModified());
+            checkpoint.setUploadId(mEndpoint.beginUpload(fileName, mimeType, fileSize));
+        }
+        checkpoint.setChunkSize(mChunkSize);
+        checkpoint.setAckedOffset(offset);
+        UploadCheckpointTable.saveCheckpoint(checkpoint);
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] buffer = new byte[(int) Math.min(mChunkSize, Math.max(fileSize, 1))];
+            while (offset < fileSize) {
+                int length = (int) Math.min(buffer.length, fileSize - offset);
+                byte[] chunk = (length == buffer.length) ? buffer : new byte[length];
+                input.seek(offset);
+                input.readFully(chunk, 0, length);
+
+                mBytesSent += length;
+                long ackedOffset = mEndpoint.uploadChunk(checkpoint.getUploadId(), offset, chunk);
+                if (ackedOffset <= offset || ackedOffset > fileSize) {
+                    throw new XMLRPCException("Unexpected offset acknowledged by the server: " + ackedOffset);
+                }
+                offset = ackedOffset;
+
+                checkpoint.setAckedOffset(offset);
+                UploadCheckpointTable.saveCheckpoint(checkpoint);
+                if (mOnChunkUploadedListener != null) {
+                    mOnChunkUploadedListener.onChunkUploaded(offset, fileSize);
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        Object result = mEndpoint.finishUpload(checkpoint.getUploadId());
+        UploadCheckpointTable.deleteCheckpoint(checkpoint);
+        return result;
+    }
+}
@@ -0,0 +1,216 @@
+package org.codeforafrica.citizenreporter.starreports.ui.posts;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads the media items of a post with a bounded number of concurrent uploads. Each item is prepared
+ * (resized, encoded) and uploaded on its own worker, so the next item is prepared while the previous one
+ * is still on the wire. Results are returned in the order of the items once they're all done, so the post
+ * content can be rewritten in one go.
+ */
+public class MediaUploadPipeline<T> {
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 3;
+
+    public interface ItemUploader<T> {
+        /**
+         * Prepare and upload an item, called on a worker thread
+         * @return the HTML to insert in the post for this item, or the reason the upload failed
+         */
+        public ItemResult upload(T item, ItemProgressListener progressListener);
+    }
+
+    /**
+     * Outcome of a single item, each worker returns its own so failures don't overwrite each other
+     */
+    public static class ItemResult {
+        private final String mOutput;
+        private final String mErrorMessage;
+
+        private ItemResult(String output, String errorMessage) {
+            mOutput = output;
+            mErrorMessage = errorMessage;
+        }
+
+        public static ItemResult success(String output) {
+            return new ItemResult(output, null);
+        }
+
+        public static ItemResult failure(String errorMessage) {
+            return new ItemResult(null, errorMessage == null ? "" : errorMessage);
+        }
+
+        public boolean isSuccess() {
+            return mOutput != null;
+        }
+
+        /**
+         * @return the HTML to insert in the post, null if the upload failed
+         */
+        public String getOutput() {
+            return mOutput;
+        }
+
+        /**
+         * @return why the upload failed, null if it succeeded
+         */
+        public String getErrorMessage() {
+            return mErrorMessage;
+        }
+    }
+
+    public interface ItemProgressListener {
+        public void onItemStarted();
+        public void onItemProgress(float percent);
+    }
+
+    public interface OnProgressListener {
+        /**
+         * @param startedItems number of items started so far
+         * @param percent progress of the whole batch, each item weighs the same
+         */
+        public void onProgress(int startedItems, int totalItems, float percent);
+    }
+
+    private final int mMaxConcurrentUploads;
+    private OnProgressListener mOnProgressListener;
+    private ExecutorService mExecutor;
+    private final List<Future<ItemResult>> mFutures = new ArrayList<Future<ItemResult>>();
+
+    private float[] mItemProgress;
+    private int mStartedItems;
+
+    public MediaUploadPipeline(int maxConcurrentUploads) {
+        mMaxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+    }
+
+    public void setOnProgressListener(OnProgressListener listener) {
+        mOnProgressListener = listener;
+    }
+
+    /**
+     * Upload all the items, blocks until they're all done
+     * @return one result per item, in the same order as items
+     */
+    public List<ItemResult> uploadAll(List<T> items, final ItemUploader<T> uploader) throws InterruptedException {
+        List<ItemResult> results = new ArrayList<ItemResult>(items.size());
+        if (items.isEmpty()) {
+            return results;
+        }
+
+        synchronized (this) {
+            mItemProgress = new float[items.size()];
+            mStartedItems = 0;
+            mExecutor = Executors.newFixedThreadPool(Math.min(mMaxConcurrentUploads, items.size()));
+            mFutures.clear();
+            for (int i = 0; i < items.size(); i++) {
+                final T item = items.get(i);
+                final ItemProgressListener progressListener = new ItemProgressListenerImpl(i, items.size());
+                mFutures.add(mExecutor.submit(new Callable<ItemResult>() {
+                    @Override
+                    public ItemResult call() throws Exception {
+                        ItemResult result = uploader.upload(item, progressListener);
+                        progressListener.onItemProgress(100);
+                        return result;
+                    }
+                }));
+            }
+        }
+
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                Future<ItemResult> future;
+                synchronized (this) {
+                    future = mFutures.get(i);
+                }
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    AppLog.e(T.POSTS, "media upload failed", e.getCause());
+                    results.add(ItemResult.failure(e.getCause().getMessage()));
+                } catch (CancellationException e) {
+                    results.add(ItemResult.failure(null));
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mExecutor.shutdownNow();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the error of the first failed item in item order, null if they all succeeded
+     */
+    public static String getFirstError(List<ItemResult> results) {
+        for (ItemResult result : results) {
+            if (!result.isSuccess()) {
+                return result.getErrorMessage();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Interrupt the uploads in progress and skip the remaining ones
+     */
+    public synchronized void cancel() {
+        for (Future<ItemResult> future : mFutures) {
+            future.cancel(true);
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    private synchronized void onItemStarted(int totalItems) {
+        mStartedItems++;
+        notifyProgress(totalItems);
+    }
+
+    private synchronized void onItemProgress(int index, int totalItems, float percent) {
+        mItemProgress[index] = Math.max(0, Math.min(100, percent));
+        notifyProgress(totalItems);
+    }
+
+    private void notifyProgress(int totalItems) {
+        if (mOnProgressListener == null) {
+            return;
+        }
+        float total = 0;
+        for (float itemProgress : mItemProgress) {
+            total += itemProgress;
+        }
+        mOnProgressListener.onProgress(mStartedItems, totalItems, total / totalItems);
+    }
+
+    private class ItemProgressListenerImpl implements ItemProgressListener {
+        private final int mIndex;
+        private final int mTotalItems;
+
+        ItemProgressListenerImpl(int index, int totalItems) {
+            mIndex = index;
+            mTotalItems = totalItems;
+        }
+
+        @Override
+        public void onItemStarted() {
+            MediaUploadPipeline.this.onItemStarted(mTotalItems);
+        }
+
+        @Override
+        public void onItemProgress(float percent) {
+            MediaUploadPipeline.this.onItemProgress(mIndex, mTotalItems, percent);
+        }
+    }
+}
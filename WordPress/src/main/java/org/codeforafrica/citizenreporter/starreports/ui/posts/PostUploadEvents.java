@@ -13,6 +13,19 @@ public class PostUploadEvents {
         }
     }
 
+    /**
+     * The upload failed but is still queued, the post stays in the uploading state until the retry
+     */
+    public static class PostUploadRetrying {
+        public final int mLocalBlogId;
+        public final long mNextAttemptDate;
+
+        PostUploadRetrying(int localBlogId, long nextAttemptDate) {
+            mLocalBlogId = localBlogId;
+            mNextAttemptDate = nextAttemptDate;
+        }
+    }
+
     public static class PostUploadFailed {
         public final int mLocalId;
 
@@ -1,5 +1,6 @@
 package org.codeforafrica.citizenreporter.starreports.ui.posts;
 
+import android.app.AlarmManager;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -28,36 +29,41 @@ import org.json.JSONObject;
 import org.codeforafrica.citizenreporter.starreports.Constants;
 import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.datasets.PostUploadQueueTable;
 import org.wordpress.android.analytics.AnalyticsTracker;
 import org.codeforafrica.citizenreporter.starreports.models.Blog;
 import org.codeforafrica.citizenreporter.starreports.models.FeatureSet;
 import org.codeforafrica.citizenreporter.starreports.models.Post;
 import org.codeforafrica.citizenreporter.starreports.models.PostLocation;
 import org.codeforafrica.citizenreporter.starreports.models.PostStatus;
+import org.codeforafrica.citizenreporter.starreports.models.PostUploadQueueStats;
 import org.codeforafrica.citizenreporter.starreports.ui.posts.PostUploadEvents.PostUploadFailed;
+import org.codeforafrica.citizenreporter.starreports.ui.posts.PostUploadEvents.PostUploadRetrying;
 import org.codeforafrica.citizenreporter.starreports.ui.posts.PostUploadEvents.PostUploadSucceed;
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.AppLog.T;
 import org.wordpress.android.util.DisplayUtils;
 import org.wordpress.android.util.ImageUtils;
 import org.wordpress.android.util.MediaUtils;
+import org.wordpress.android.util.StringUtils;
 import org.wordpress.android.util.SystemServiceFactory;
 import org.wordpress.android.util.helpers.MediaFile;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlrpc.android.ApiHelper;
+import org.xmlrpc.android.XMLRPCChunkedUploadEndpoint;
 import org.xmlrpc.android.XMLRPCClient;
 import org.xmlrpc.android.XMLRPCClientInterface;
 import org.xmlrpc.android.XMLRPCException;
 import org.xmlrpc.android.XMLRPCFactory;
+import org.xmlrpc.android.XMLRPCFault;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.regex.Matcher;
@@ -67,18 +73,76 @@ import de.greenrobot.event.EventBus;
 
 public class PostUploadService extends Service {
     private static Context mContext;
-    private static final ArrayList<Post> mPostsList = new ArrayList<Post>();
-    private static Post mCurrentUploadingPost = null;
-    private UploadPostTask mCurrentTask = null;
-    private FeatureSet mFeatureSet;
+    // uploads running in this service, keyed by local post id - only accessed from the main thread
+    private final Map<Long, UploadPostTask> mRunningTasks = new HashMap<Long, UploadPostTask>();
+    private boolean mIsDestroyed;
+
+    public static final int DEFAULT_MAX_CONCURRENT_POST_UPLOADS = 2;
+    private static int sMaxConcurrentPostUploads = DEFAULT_MAX_CONCURRENT_POST_UPLOADS;
+
+    // a failed post upload is retried after 30s, 1min, 2min, 4min then given up
+    private static final int MAX_POST_UPLOAD_ATTEMPTS = 5;
+    private static final long POST_UPLOAD_RETRY_BASE_DELAY_MS = 30 * 1000;
+
+    private static final int MAX_CHUNKED_UPLOAD_ATTEMPTS = 3;
+    private static int sChunkSize = ChunkedMediaUploader.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Size of the chunks used for resumable media uploads. Smaller chunks lose less data when a slow
+     * connection drops, larger ones need fewer round trips.
+     */
+    public static void setChunkSize(int chunkSize) {
+        sChunkSize = chunkSize;
+    }
+
+    private static int sMaxConcurrentMediaUploads = MediaUploadPipeline.DEFAULT_MAX_CONCURRENT_UPLOADS;
+
+    /**
+     * Maximum number of media items of a post uploaded at the same time
+     */
+    public static void setMaxConcurrentMediaUploads(int maxConcurrentMediaUploads) {
+        sMaxConcurrentMediaUploads = maxConcurrentMediaUploads;
+    }
 
+    /**
+     * Maximum number of posts uploaded at the same time, takes effect for the next post started
+     */
+    public static void setMaxConcurrentPostUploads(int maxConcurrentPostUploads) {
+        sMaxConcurrentPostUploads = Math.max(1, maxConcurrentPostUploads);
+    }
+
+    /**
+     * Queue the post for upload, posts with a higher priority (see getUploadPriority()) are uploaded
+     * first and failed uploads are retried with a lower one. The queue is persisted, so the upload is
+     * resumed if the app is killed.
+     */
     public static void addPostToUpload(Post currentPost) {
-        synchronized (mPostsList) {
-            mPostsList.add(currentPost);
-            // Enable 'isUploading' flag for post
-            currentPost.setUploading(true);
-            WordPress.wpDB.updatePost(currentPost);
+        // Enable 'isUploading' flag for post
+        currentPost.setUploading(true);
+        WordPress.wpDB.updatePost(currentPost);
+        PostUploadQueueTable.enqueue(currentPost.getLocalTablePostId(), currentPost.getLocalTableBlogId(),
+                getUploadPriority(currentPost));
+    }
+
+    /*
+     * breaking news goes ahead of other stories and assignment responses, lesson submissions go last -
+     * posts have no type of their own for these, so they're told apart by their tags
+     */
+    static int getUploadPriority(Post post) {
+        String tags = StringUtils.notNullStr(post.getKeywords()).toLowerCase(Locale.ROOT);
+        if (tags.contains("breaking")) {
+            return PostUploadQueueTable.PRIORITY_HIGH;
+        } else if (tags.contains("lesson")) {
+            return PostUploadQueueTable.PRIORITY_LOW;
         }
+        return PostUploadQueueTable.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Queue depth, wait times and number of uploads in each state
+     */
+    public static PostUploadQueueStats getQueueStats() {
+        return PostUploadQueueTable.getStats();
     }
 
     @Override
@@ -90,28 +154,35 @@ public class PostUploadService extends Service {
     public void onCreate() {
         super.onCreate();
         mContext = this.getApplicationContext();
+        // uploads that were running when the app was killed are started again
+        int numRequeued = PostUploadQueueTable.requeueAllInFlight();
+        if (numRequeued > 0) {
+            AppLog.i(T.POSTS, "requeued " + numRequeued + " interrupted post uploads");
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        // Cancel current task, it will reset post from "uploading" to "local draft"
-        if (mCurrentTask != null) {
-            AppLog.d(T.POSTS, "cancelling current upload task");
-            mCurrentTask.cancel(true);
+        mIsDestroyed = true;
+        // Cancel running tasks, they will reset posts from "uploading" to "local draft", and put them back
+        // in the queue so they're sent next time the service starts
+        for (UploadPostTask task : mRunningTasks.values()) {
+            AppLog.d(T.POSTS, "cancelling upload task");
+            task.cancel(true);
+            PostUploadQueueTable.requeue(task.mQueuedUpload);
         }
+        mRunningTasks.clear();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        synchronized (mPostsList) {
-            if (mPostsList.size() == 0 || mContext == null) {
-                stopSelf();
-                return START_NOT_STICKY;
-            }
+        if (mContext == null || (mRunningTasks.isEmpty() && !PostUploadQueueTable.hasPendingUploads())) {
+            stopSelf();
+            return START_NOT_STICKY;
         }
 
-        uploadNextPost();
+        uploadNextPosts();
         // We want this service to continue running until it is explicitly stopped, so return sticky.
         return START_STICKY;
     }
@@ -123,76 +194,129 @@ public class PostUploadService extends Service {
         ApiHelper.GetFeatures task = new ApiHelper.GetFeatures();
         List<Object> apiArgs = new ArrayList<Object>();
         apiArgs.add(WordPress.getCurrentBlog());
-        mFeatureSet = task.doSynchronously(apiArgs);
-
-        return mFeatureSet;
+        return task.doSynchronously(apiArgs);
     }
 
-    private void uploadNextPost() {
-        synchronized (mPostsList) {
-            if (mCurrentTask == null) { //make sure nothing is running
-                mCurrentUploadingPost = null;
-                if (mPostsList.size() > 0) {
-                    mCurrentUploadingPost = mPostsList.remove(0);
-                    mCurrentTask = new UploadPostTask();
-                    mCurrentTask.execute(mCurrentUploadingPost);
-                } else {
-                    stopSelf();
-                }
+    /*
+     * starts uploads from the queue until all the workers are busy, stops the service when there's
+     * nothing left to send right now
+     */
+    private void uploadNextPosts() {
+        if (mIsDestroyed) {
+            return;
+        }
+
+        while (mRunningTasks.size() < sMaxConcurrentPostUploads) {
+            PostUploadQueueTable.QueuedUpload upload = PostUploadQueueTable.dequeueNext(mRunningTasks.keySet());
+            if (upload == null) {
+                break;
+            }
+
+            Post post = WordPress.wpDB.getPostForLocalTablePostId(upload.postId, false);
+            if (post == null || post.getLocalTablePostId() != upload.postId) {
+                // post was deleted while it was waiting in the queue
+                PostUploadQueueTable.remove(upload.postId);
+                continue;
             }
+            post.setUploading(true);
+            WordPress.wpDB.updatePost(post);
+
+            UploadPostTask task = new UploadPostTask(upload);
+            mRunningTasks.put(upload.postId, task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, post);
+        }
+
+        if (mRunningTasks.isEmpty()) {
+            scheduleNextAttempt();
+            stopSelf();
         }
     }
 
-    private void postUploaded() {
-        synchronized (mPostsList) {
-            mCurrentTask = null;
-            mCurrentUploadingPost = null;
+    /*
+     * wakes the service up when the next failed upload is due for a retry
+     */
+    private void scheduleNextAttempt() {
+        long nextAttemptDate = PostUploadQueueTable.getNextAttemptDate();
+        if (nextAttemptDate <= 0) {
+            return;
         }
-        uploadNextPost();
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0, new Intent(this, PostUploadService.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        alarmManager.set(AlarmManager.RTC, nextAttemptDate, pendingIntent);
+        AppLog.d(T.POSTS, "next post upload retry in " + (nextAttemptDate - System.currentTimeMillis()) + " ms");
+    }
+
+    private void postUploaded(UploadPostTask task) {
+        mRunningTasks.remove(task.mQueuedUpload.postId);
+        AppLog.i(T.POSTS, "post upload queue: " + PostUploadQueueTable.getStats());
+        uploadNextPosts();
     }
 
     private class UploadPostTask extends AsyncTask<Post, Boolean, Boolean> {
+        private final PostUploadQueueTable.QueuedUpload mQueuedUpload;
         private Post mPost;
         private Blog mBlog;
         private PostUploadNotifier mPostUploadNotifier;
 
-        private String mErrorMessage = "";
-        private boolean mIsMediaError = false;
-        private boolean mErrorUnavailableVideoPress = false;
-        private int featuredImageID = -1;
+        // flags set from the MediaUploadPipeline workers, their error messages come back with their results
+        private volatile String mErrorMessage = "";
+        private volatile boolean mIsMediaError = false;
+        private volatile boolean mErrorUnavailableVideoPress = false;
+        private volatile int featuredImageID = -1;
         private XMLRPCClientInterface mClient;
+        private MediaUploadPipeline<MediaFile> mMediaUploadPipeline;
+        // fetched before the media workers start, they only read it
+        private FeatureSet mFeatureSet;
 
         // Used for analytics
-        private boolean mHasImage, mHasVideo, mHasCategory;
+        private volatile boolean mHasImage, mHasVideo;
+        private boolean mHasCategory;
+
+        UploadPostTask(PostUploadQueueTable.QueuedUpload queuedUpload) {
+            mQueuedUpload = queuedUpload;
+        }
 
         @Override
         protected void onPostExecute(Boolean postUploadedSuccessfully) {
-            // Update the 'isUploading' flag for post
-            mPost.setUploading(false);
+            boolean willRetry = !postUploadedSuccessfully && PostUploadQueueTable.markFailed(mQueuedUpload,
+                    mErrorMessage, MAX_POST_UPLOAD_ATTEMPTS, POST_UPLOAD_RETRY_BASE_DELAY_MS);
+
+            // Update the 'isUploading' flag for post, a post waiting for a retry is still pending
+            mPost.setUploading(willRetry);
             WordPress.wpDB.updatePost(mPost);
 
             if (postUploadedSuccessfully) {
+                PostUploadQueueTable.markDone(mQueuedUpload);
                 EventBus.getDefault().post(new PostUploadSucceed(mPost.getLocalTableBlogId(), mPost.getRemotePostId(),
                                 mPost.isPage()));
                 mPostUploadNotifier.cancelNotification();
                 WordPress.wpDB.deleteMediaFilesForPost(mPost);
+            } else if (willRetry) {
+                AppLog.w(T.POSTS, "post upload failed, will retry: " + mErrorMessage);
+                EventBus.getDefault().post(new PostUploadRetrying(mPost.getLocalTableBlogId(),
+                        PostUploadQueueTable.getNextAttemptDate()));
+                mPostUploadNotifier.cancelNotification();
             } else {
                 EventBus.getDefault().post(new PostUploadFailed(mPost.getLocalTableBlogId()));
                 mPostUploadNotifier.updateNotificationWithError(mErrorMessage, mIsMediaError, mPost.isPage(),
                         mErrorUnavailableVideoPress);
             }
 
-            postUploaded();
+            postUploaded(this);
         }
 
         @Override
         protected void onCancelled(Boolean aBoolean) {
             super.onCancelled(aBoolean);
+            if (mMediaUploadPipeline != null) {
+                mMediaUploadPipeline.cancel();
+            }
             // mPostUploadNotifier and mPost can be null if onCancelled is called before doInBackground
             if (mPostUploadNotifier != null && mPost != null) {
-                mPostUploadNotifier.updateNotificationWithError(mErrorMessage, mIsMediaError, mPost.isPage(),
-                        mErrorUnavailableVideoPress);
-                EventBus.getDefault().post(new PostUploadFailed(mPost.getLocalTableBlogId()));
+                // the service requeued the upload, it's sent again next time the service starts
+                mPostUploadNotifier.cancelNotification();
+                EventBus.getDefault().post(new PostUploadRetrying(mPost.getLocalTableBlogId(), 0));
             }
         }
 
@@ -523,16 +647,13 @@ public class PostUploadService extends Service {
             Pattern pattern = Pattern.compile(imageTagsPattern);
             Matcher matcher = pattern.matcher(postContent);
 
-            int totalMediaItems = 0;
             List<String> imageTags = new ArrayList<String>();
             while (matcher.find()) {
                 imageTags.add(matcher.group());
-                totalMediaItems++;
             }
 
-            mPostUploadNotifier.setTotalMediaItems(totalMediaItems);
-
-            int mediaItemCount = 0;
+            final List<String> mediaTags = new ArrayList<String>();
+            final List<MediaFile> mediaFiles = new ArrayList<MediaFile>();
             for (String tag : imageTags) {
                 Pattern p = Pattern.compile("android-uri=\"([^\"]+)\"");
                 Matcher m = p.matcher(tag);
@@ -541,47 +662,111 @@ public class PostUploadService extends Service {
                     if (!imageUri.equals("")) {
                         MediaFile mediaFile = WordPress.wpDB.getMediaFile(imageUri, mPost);
                         if (mediaFile != null) {
-                            // Get image thumbnail for notification icon
-                            Bitmap imageIcon = ImageUtils.getWPImageSpanThumbnailFromFilePath(
-                                    mContext,
-                                    imageUri,
-                                    DisplayUtils.dpToPx(mContext, 128)
-                            );
-
-                            // Crop the thumbnail to be squared in the center
-                            if (imageIcon != null) {
-                                int squaredSize = DisplayUtils.dpToPx(mContext, 64);
-                                imageIcon = ThumbnailUtils.extractThumbnail(imageIcon, squaredSize, squaredSize);
-                            }
+                            mediaTags.add(tag);
+                            mediaFiles.add(mediaFile);
+                        }
+                    }
+                }
+            }
 
-                            mediaItemCount++;
-                            mPostUploadNotifier.setCurrentMediaItem(mediaItemCount);
-                            mPostUploadNotifier.updateNotificationIcon(imageIcon);
-
-                            String mediaUploadOutput;
-                            if (mediaFile.isVideo()) {
-                                mHasVideo = true;
-                                mediaUploadOutput = uploadVideo(mediaFile);
-                            } else {
-                                mHasImage = true;
-                                mediaUploadOutput = uploadImage(mediaFile);
-                            }
+            mPostUploadNotifier.setTotalMediaItems(mediaFiles.size());
+            if (mediaFiles.isEmpty()) {
+                return postContent;
+            }
+
+            for (MediaFile mediaFile : mediaFiles) {
+                if (mediaFile.isVideo()) {
+                    mFeatureSet = synchronousGetFeatureSet();
+                    break;
+                }
+            }
+
+            mMediaUploadPipeline = new MediaUploadPipeline<MediaFile>(sMaxConcurrentMediaUploads);
+            mMediaUploadPipeline.setOnProgressListener(new MediaUploadPipeline.OnProgressListener() {
+                @Override
+                public void onProgress(int startedItems, int totalItems, float percent) {
+                    mPostUploadNotifier.setCurrentMediaItem(startedItems);
+                    mPostUploadNotifier.updateNotificationProgress(percent);
+                }
+            });
 
-                            if (mediaUploadOutput != null) {
-                                postContent = postContent.replace(tag, mediaUploadOutput);
-                            } else {
-                                postContent = postContent.replace(tag, "");
-                                mIsMediaError = true;
+            List<MediaUploadPipeline.ItemResult> mediaUploadResults;
+            try {
+                mediaUploadResults = mMediaUploadPipeline.uploadAll(mediaFiles,
+                        new MediaUploadPipeline.ItemUploader<MediaFile>() {
+                            @Override
+                            public MediaUploadPipeline.ItemResult upload(MediaFile mediaFile,
+                                                 MediaUploadPipeline.ItemProgressListener progressListener) {
+                                return uploadMediaFile(mediaFile, progressListener);
                             }
-                        }
-                    }
+                        });
+            } catch (InterruptedException e) {
+                AppLog.w(T.POSTS, "media upload interrupted");
+                mMediaUploadPipeline.cancel();
+                mIsMediaError = true;
+                return postContent;
+            }
+
+            // rewrite the content once all the uploads are done
+            for (int i = 0; i < mediaTags.size(); i++) {
+                MediaUploadPipeline.ItemResult mediaUploadResult = mediaUploadResults.get(i);
+                if (mediaUploadResult.isSuccess()) {
+                    postContent = postContent.replace(mediaTags.get(i), mediaUploadResult.getOutput());
+                } else {
+                    postContent = postContent.replace(mediaTags.get(i), "");
+                    mIsMediaError = true;
                 }
             }
 
+            // report the first failed item, not whichever worker failed last
+            String firstError = MediaUploadPipeline.getFirstError(mediaUploadResults);
+            if (firstError != null) {
+                mErrorMessage = firstError;
+            }
+
             return postContent;
         }
 
-        private String uploadImage(MediaFile mediaFile) {
+        /**
+         * Uploads a single media item, called from a MediaUploadPipeline worker thread. Each item gets its own
+         * XML-RPC client since clients can't run several calls at the same time, and its own error.
+         */
+        private MediaUploadPipeline.ItemResult uploadMediaFile(MediaFile mediaFile,
+                MediaUploadPipeline.ItemProgressListener progressListener) {
+            // Get image thumbnail for notification icon
+            Bitmap imageIcon = ImageUtils.getWPImageSpanThumbnailFromFilePath(
+                    mContext,
+                    mediaFile.getFilePath(),
+                    DisplayUtils.dpToPx(mContext, 128)
+            );
+
+            // Crop the thumbnail to be squared in the center
+            if (imageIcon != null) {
+                int squaredSize = DisplayUtils.dpToPx(mContext, 64);
+                imageIcon = ThumbnailUtils.extractThumbnail(imageIcon, squaredSize, squaredSize);
+            }
+
+            progressListener.onItemStarted();
+            mPostUploadNotifier.updateNotificationIcon(imageIcon);
+
+            XMLRPCClientInterface client = XMLRPCFactory.instantiate(mBlog.getUri(), mBlog.getHttpuser(),
+                    mBlog.getHttppassword());
+            MediaItemError error = new MediaItemError();
+            String output;
+            if (mediaFile.isVideo()) {
+                mHasVideo = true;
+                output = uploadVideo(mediaFile, client, progressListener, error);
+            } else {
+                mHasImage = true;
+                output = uploadImage(mediaFile, client, progressListener, error);
+            }
+            return output != null ? MediaUploadPipeline.ItemResult.success(output)
+                    : MediaUploadPipeline.ItemResult.failure(error.message);
+        }
+
+        private String uploadImage(MediaFile mediaFile, XMLRPCClientInterface client,
+                                   MediaUploadPipeline.ItemProgressListener progressListener,
+                                   MediaItemError error) {
             AppLog.d(T.POSTS, "uploadImage: " + mediaFile.getFilePath());
 
             if (mediaFile.getFilePath() == null) {
@@ -614,7 +799,7 @@ public class PostUploadService extends Service {
 
             // check if the file exists
             if (imageFile == null) {
-                mErrorMessage = mContext.getString(R.string.file_not_found);
+                error.message = mContext.getString(R.string.file_not_found);
                 return null;
             }
 
@@ -648,53 +833,53 @@ public class PostUploadService extends Service {
             }
 
             boolean shouldAddImageWidthCSS = false;
+            // the part of the item's progress taken by the resized upload when both versions are uploaded
+            float resizedProgressShare = 0;
 
             if (shouldUploadResizedVersion) {
                 MediaFile resizedMediaFile = new MediaFile(mediaFile);
-                // Create resized image
-                byte[] bytes = ImageUtils.createThumbnailFromUri(mContext, imageUri, resizedMediaFile.getWidth(),
-                        fileExtension, orientation);
+                // Create resized image, the file belongs to the thumbnail cache so it's kept after the upload.
+                // It's pinned so other uploads filling the cache can't evict it while it's being sent.
+                File resizedImageFile = ImageUtils.createPinnedThumbnailFileFromUri(mContext, imageUri,
+                        resizedMediaFile.getWidth(), fileExtension, orientation);
 
-                if (bytes == null) {
+                if (resizedImageFile == null) {
                     // We weren't able to resize the image, so we will upload the full size image with css to resize it
                     shouldUploadResizedVersion = false;
                     shouldAddImageWidthCSS = true;
                 } else {
-                    // Save temp image
-                    String tempFilePath;
-                    File resizedImageFile;
                     try {
-                        resizedImageFile = File.createTempFile("wp-image-", fileExtension);
-                        FileOutputStream out = new FileOutputStream(resizedImageFile);
-                        out.write(bytes);
-                        out.close();
-                        tempFilePath = resizedImageFile.getPath();
-                    } catch (IOException e) {
-                        AppLog.w(T.POSTS, "failed to create image temp file");
-                        mErrorMessage = mContext.getString(R.string.error_media_upload);
-                        return null;
-                    }
-
-                    // upload resized picture
-                    if (!TextUtils.isEmpty(tempFilePath)) {
-                        resizedMediaFile.setFilePath(tempFilePath);
-                        Map<String, Object> parameters = new HashMap<String, Object>();
-
-                        parameters.put("name", fileName);
-                        parameters.put("type", mimeType);
-                        parameters.put("bits", resizedMediaFile);
-                        parameters.put("overwrite", true);
-                        resizedPictureURL = uploadImageFile(parameters, resizedMediaFile, mBlog);
-                        if (resizedPictureURL == null) {
-                            AppLog.w(T.POSTS, "failed to upload resized picture");
+                        String resizedFilePath = resizedImageFile.getPath();
+
+                        // upload resized picture
+                        if (!TextUtils.isEmpty(resizedFilePath)) {
+                            resizedMediaFile.setFilePath(resizedFilePath);
+                            Map<String, Object> parameters = new HashMap<String, Object>();
+
+                            parameters.put("name", fileName);
+                            parameters.put("type", mimeType);
+                            parameters.put("bits", resizedMediaFile);
+                            parameters.put("overwrite", true);
+                            resizedProgressShare = 100;
+                            if (mBlog.isFullSizeImage()) {
+                                // the full size image follows, each upload takes its share of the bytes sent
+                                long resizedBytes = resizedImageFile.length();
+                                long totalBytes = resizedBytes + new File(path).length();
+                                resizedProgressShare = (totalBytes > 0 ? (resizedBytes * 100f) / totalBytes : 50);
+                            }
+                            resizedPictureURL = uploadImageFile(parameters, resizedMediaFile, mBlog, client,
+                                    new PartialProgressListener(progressListener, 0, resizedProgressShare), error);
+                            if (resizedPictureURL == null) {
+                                AppLog.w(T.POSTS, "failed to upload resized picture");
+                                return null;
+                            }
+                        } else {
+                            AppLog.w(T.POSTS, "failed to create resized picture");
+                            error.message = mContext.getString(R.string.out_of_memory);
                             return null;
-                        } else if (resizedImageFile.exists()) {
-                            resizedImageFile.delete();
                         }
-                    } else {
-                        AppLog.w(T.POSTS, "failed to create resized picture");
-                        mErrorMessage = mContext.getString(R.string.out_of_memory);
-                        return null;
+                    } finally {
+                        ImageUtils.releaseThumbnailFile(mContext, resizedImageFile);
                     }
                 }
             }
@@ -709,9 +894,11 @@ public class PostUploadService extends Service {
                 parameters.put("bits", mediaFile);
                 parameters.put("overwrite", true);
 
-                fullSizeUrl = uploadImageFile(parameters, mediaFile, mBlog);
+                fullSizeUrl = uploadImageFile(parameters, mediaFile, mBlog, client,
+                        new PartialProgressListener(progressListener, resizedProgressShare,
+                                100 - resizedProgressShare), error);
                 if (fullSizeUrl == null) {
-                    mErrorMessage = mContext.getString(R.string.error_media_upload);
+                    error.message = mContext.getString(R.string.error_media_upload);
                     return null;
                 }
             }
@@ -719,18 +906,11 @@ public class PostUploadService extends Service {
             return mediaFile.getImageHtmlForUrls(fullSizeUrl, resizedPictureURL, shouldAddImageWidthCSS);
         }
 
-        private String uploadVideo(MediaFile mediaFile) {
-            // create temp file for media upload
-            String tempFileName = "wp-" + System.currentTimeMillis();
-            try {
-                mContext.openFileOutput(tempFileName, Context.MODE_PRIVATE);
-            } catch (FileNotFoundException e) {
-                mErrorMessage = getResources().getString(R.string.file_error_create);
-                return null;
-            }
-
+        private String uploadVideo(MediaFile mediaFile, XMLRPCClientInterface client,
+                                   MediaUploadPipeline.ItemProgressListener progressListener,
+                                   MediaItemError error) {
             if (mediaFile.getFilePath() == null) {
-                mErrorMessage = mContext.getString(R.string.error_media_upload);
+                error.message = mContext.getString(R.string.error_media_upload);
                 return null;
             }
 
@@ -780,7 +960,7 @@ public class PostUploadService extends Service {
             }
 
             if (videoFile == null) {
-                mErrorMessage = mContext.getResources().getString(R.string.error_media_upload);
+                error.message = mContext.getResources().getString(R.string.error_media_upload);
                 return null;
             }
 
@@ -798,20 +978,19 @@ public class PostUploadService extends Service {
 
             Object[] params = {1, mBlog.getUsername(), mBlog.getPassword(), m};
 
-            FeatureSet featureSet = synchronousGetFeatureSet();
             boolean selfHosted = WordPress.currentBlog != null && !WordPress.currentBlog.isDotcomFlag();
-            boolean isVideoEnabled = selfHosted || (featureSet != null && mFeatureSet.isVideopressEnabled());
+            boolean isVideoEnabled = selfHosted || (mFeatureSet != null && mFeatureSet.isVideopressEnabled());
             if (isVideoEnabled) {
                 File tempFile;
                 try {
                     String fileExtension = MimeTypeMap.getFileExtensionFromUrl(videoName);
-                    tempFile = createTempUploadFile(fileExtension);
+                    tempFile = createTempUploadFile(client, fileExtension);
                 } catch (IOException e) {
-                    mErrorMessage = getResources().getString(R.string.file_error_create);
+                    error.message = getResources().getString(R.string.file_error_create);
                     return null;
                 }
 
-                Object result = uploadFileHelper(params, tempFile);
+                Object result = uploadFileHelper(client, params, tempFile, progressListener, error);
                 Map<?, ?> resultMap = (HashMap<?, ?>) result;
                 if (resultMap != null && resultMap.containsKey("url")) {
                     String resultURL = resultMap.get("url").toString();
@@ -825,11 +1004,11 @@ public class PostUploadService extends Service {
 
                     return resultURL;
                 } else {
-                    mErrorMessage = mContext.getResources().getString(R.string.error_media_upload);
+                    error.message = mContext.getResources().getString(R.string.error_media_upload);
                     return null;
                 }
             } else {
-                mErrorMessage = getString(R.string.media_no_video_message);
+                error.message = getString(R.string.media_no_video_message);
                 mErrorUnavailableVideoPress = true;
                 return null;
             }
@@ -844,20 +1023,23 @@ public class PostUploadService extends Service {
             AppLog.e(T.EDITOR, mErrorMessage, e);
         }
 
-        private String uploadImageFile(Map<String, Object> pictureParams, MediaFile mf, Blog blog) {
+        private String uploadImageFile(Map<String, Object> pictureParams, MediaFile mf, Blog blog,
+                                       XMLRPCClientInterface client,
+                                       MediaUploadPipeline.ItemProgressListener progressListener,
+                                       MediaItemError error) {
             // create temporary upload file
             File tempFile;
             try {
                 String fileExtension = MimeTypeMap.getFileExtensionFromUrl(mf.getFileName());
-                tempFile = createTempUploadFile(fileExtension);
+                tempFile = createTempUploadFile(client, fileExtension);
             } catch (IOException e) {
                 mIsMediaError = true;
-                mErrorMessage = mContext.getString(R.string.file_not_found);
+                error.message = mContext.getString(R.string.file_not_found);
                 return null;
             }
 
             Object[] params = {1, blog.getUsername(), blog.getPassword(), pictureParams};
-            Object result = uploadFileHelper(params, tempFile);
+            Object result = uploadFileHelper(client, params, tempFile, progressListener, error);
             if (result == null) {
                 mIsMediaError = true;
                 return null;
@@ -881,35 +1063,41 @@ public class PostUploadService extends Service {
             return pictureURL;
         }
 
-        private Object uploadFileHelper(Object[] params, final File tempFile) {
+        private Object uploadFileHelper(XMLRPCClientInterface client, Object[] params, final File tempFile,
+                                        final MediaUploadPipeline.ItemProgressListener progressListener,
+                                        MediaItemError error) {
             // Create listener for tracking upload progress in the notification
-            if (mClient instanceof XMLRPCClient) {
-                XMLRPCClient xmlrpcClient = (XMLRPCClient) mClient;
+            if (client instanceof XMLRPCClient) {
+                XMLRPCClient xmlrpcClient = (XMLRPCClient) client;
                 xmlrpcClient.setOnBytesUploadedListener(new XMLRPCClient.OnBytesUploadedListener() {
                     @Override
-                    public void onBytesUploaded(long uploadedBytes) {
-                        if (tempFile.length() == 0) {
+                    public void onBytesUploaded(long uploadedBytes, long totalBytes) {
+                        if (totalBytes <= 0) {
                             return;
                         }
-                        float percentage = (uploadedBytes * 100) / tempFile.length();
-                        mPostUploadNotifier.updateNotificationProgress(percentage);
+                        float percentage = (uploadedBytes * 100) / totalBytes;
+                        progressListener.onItemProgress(percentage);
                     }
                 });
             }
 
             try {
-                return mClient.call("wp.uploadFile", params, tempFile);
+                Object result = uploadFileInChunks(client, params, progressListener);
+                if (result != null) {
+                    return result;
+                }
+                return client.call("wp.uploadFile", params, tempFile);
             } catch (XMLRPCException e) {
                 AppLog.e(T.API, e);
-                mErrorMessage = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
+                error.message = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
                 return null;
             } catch (IOException e) {
                 AppLog.e(T.API, e);
-                mErrorMessage = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
+                error.message = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
                 return null;
             } catch (XmlPullParserException e) {
                 AppLog.e(T.API, e);
-                mErrorMessage = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
+                error.message = mContext.getResources().getString(R.string.error_media_upload) + ": " + e.getMessage();
                 return null;
             } finally {
                 // remove the temporary upload file now that we're done with it
@@ -918,9 +1106,102 @@ public class PostUploadService extends Service {
                 }
             }
         }
+
+        /**
+         * Upload the file described by the wp.uploadFile params in resumable chunks, retrying from the last
+         * acknowledged offset when the connection drops.
+         *
+         * @return the wp.uploadFile struct, or null if the blog doesn't support chunked uploads
+         */
+        private Object uploadFileInChunks(XMLRPCClientInterface client, Object[] params,
+                                          final MediaUploadPipeline.ItemProgressListener progressListener)
+                throws XMLRPCException, IOException, XmlPullParserException {
+            int blogId = mBlog.getLocalTableBlogId();
+            if (!mBlog.isChunkedUploadCapable()) {
+                return null;
+            }
+
+            Map<?, ?> fileParams = (Map<?, ?>) params[3];
+            MediaFile mediaFile = (MediaFile) fileParams.get("bits");
+            File file = new File(mediaFile.getFilePath());
+            if (!file.isFile()) {
+                return null;
+            }
+
+            ChunkedMediaUploader uploader = new ChunkedMediaUploader(
+                    new XMLRPCChunkedUploadEndpoint(client, mBlog.getUsername(), mBlog.getPassword()), blogId);
+            uploader.setChunkSize(sChunkSize);
+            uploader.setOnChunkUploadedListener(new ChunkedMediaUploader.OnChunkUploadedListener() {
+                @Override
+                public void onChunkUploaded(long uploadedBytes, long totalBytes) {
+                    if (totalBytes > 0) {
+                        progressListener.onItemProgress((uploadedBytes * 100) / totalBytes);
+                    }
+                }
+            });
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return uploader.upload(file, (String) fileParams.get("name"), (String) fileParams.get("type"));
+                } catch (XMLRPCFault e) {
+                    if (e.getFaultCode() == XMLRPCFault.CODE_METHOD_NOT_FOUND) {
+                        AppLog.i(T.POSTS, "chunked uploads not supported by blog " + blogId);
+                        if (mBlog.bsetChunkedUploadCapable(false)) {
+                            WordPress.wpDB.saveBlog(mBlog);
+                        }
+                        return null;
+                    }
+                    throw e;
+                } catch (IOException e) {
+                    if (attempt >= MAX_CHUNKED_UPLOAD_ATTEMPTS || isCancelled()) {
+                        throw e;
+                    }
+                    AppLog.w(T.POSTS, "chunked upload interrupted, resuming - attempt " + (attempt + 1));
+                }
+            }
+        }
     }
 
-    private File createTempUploadFile(String fileExtension) throws IOException {
+    /*
+     * reports the progress of one of the uploads of a media item as its share of the item's progress, so the
+     * item's progress doesn't go back to zero when a resized and a full size image are both uploaded
+     */
+    private static class PartialProgressListener implements MediaUploadPipeline.ItemProgressListener {
+        private final MediaUploadPipeline.ItemProgressListener mListener;
+        private final float mStart;
+        private final float mShare;
+
+        PartialProgressListener(MediaUploadPipeline.ItemProgressListener listener, float start, float share) {
+            mListener = listener;
+            mStart = start;
+            mShare = share;
+        }
+
+        @Override
+        public void onItemStarted() {
+            mListener.onItemStarted();
+        }
+
+        @Override
+        public void onItemProgress(float percent) {
+            mListener.onItemProgress(mStart + (percent * mShare) / 100);
+        }
+    }
+
+    /**
+     * Error of a single media item, each MediaUploadPipeline worker fills its own
+     */
+    private static class MediaItemError {
+        String message = "";
+    }
+
+    /*
+     * returns null if the client streams uploads, since the temp file would never be written
+     */
+    private File createTempUploadFile(XMLRPCClientInterface client, String fileExtension) throws IOException {
+        if (client instanceof XMLRPCClient && ((XMLRPCClient) client).isStreamUploads()) {
+            return null;
+        }
         return File.createTempFile("wp-", fileExtension, mContext.getCacheDir());
     }
 
@@ -933,7 +1214,6 @@ public class PostUploadService extends Service {
         private int mNotificationErrorId = 0;
         private int mTotalMediaItems;
         private int mCurrentMediaItem;
-        private float mItemProgressSize;
 
         public PostUploadNotifier(Post post) {
             // add the uploader to the notification bar
@@ -961,7 +1241,7 @@ public class PostUploadService extends Service {
         }
 
 
-        public void updateNotificationMessage(String title, String message) {
+        public synchronized void updateNotificationMessage(String title, String message) {
             if (title != null) {
                 mNotificationBuilder.setContentTitle(title);
             }
@@ -973,7 +1253,7 @@ public class PostUploadService extends Service {
             mNotificationManager.notify(mNotificationId, mNotificationBuilder.build());
         }
 
-        public void updateNotificationIcon(Bitmap icon) {
+        public synchronized void updateNotificationIcon(Bitmap icon) {
             if (icon != null) {
                 mNotificationBuilder.setLargeIcon(icon);
             }
@@ -1027,33 +1307,27 @@ public class PostUploadService extends Service {
             mNotificationManager.notify(mNotificationErrorId, notificationBuilder.build());
         }
 
-        public void updateNotificationProgress(float progress) {
+        /**
+         * @param progress progress of all the media items of the post, aggregated by MediaUploadPipeline
+         */
+        public synchronized void updateNotificationProgress(float progress) {
             if (mTotalMediaItems == 0) {
                 return;
             }
 
-            // Simple way to show progress of entire post upload
-            // Would be better if we could get total bytes for all media items.
-            double currentChunkProgress = (mItemProgressSize * progress) / 100;
-
-            if (mCurrentMediaItem > 1) {
-                currentChunkProgress += mItemProgressSize * (mCurrentMediaItem - 1);
-            }
-
-            mNotificationBuilder.setProgress(100, (int)Math.ceil(currentChunkProgress), false);
+            mNotificationBuilder.setProgress(100, (int)Math.ceil(progress), false);
             mNotificationManager.notify(mNotificationId, mNotificationBuilder.build());
         }
 
-        public void setTotalMediaItems(int totalMediaItems) {
+        public synchronized void setTotalMediaItems(int totalMediaItems) {
             if (totalMediaItems <= 0) {
                 totalMediaItems = 1;
             }
 
             mTotalMediaItems = totalMediaItems;
-            mItemProgressSize = 100.0f / mTotalMediaItems;
         }
 
-        public void setCurrentMediaItem(int currentItem) {
+        public synchronized void setCurrentMediaItem(int currentItem) {
             mCurrentMediaItem = currentItem;
 
             mNotificationBuilder.setContentText(String.format(getString(R.string.uploading_total), mCurrentMediaItem,
@@ -4,6 +4,7 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
+import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.WordPress;
 import org.codeforafrica.citizenreporter.starreports.models.ReaderTag;
 import org.codeforafrica.citizenreporter.starreports.models.ReaderTagType;
@@ -184,4 +185,12 @@ public class AppPrefs {
     public static void setMainTabIndex(int index) {
         setInt(PrefKey.MAIN_TAB_INDEX, index);
     }
+
+    /*
+     * set in the app settings, a CheckBoxPreference so it's stored as a boolean under its own key
+     */
+    public static boolean isReaderDataSaverEnabled() {
+        String key = WordPress.getContext().getString(R.string.pref_key_reader_data_saver);
+        return prefs().getBoolean(key, false);
+    }
 }
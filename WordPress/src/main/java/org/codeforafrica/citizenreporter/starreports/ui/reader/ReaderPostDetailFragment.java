@@ -853,6 +853,7 @@ public class ReaderPostDetailFragment extends Fragment
         }
 
         if (url != null && url.equals("about:blank")) {
+            ReaderPostPrefetcher.onPostPainted(mBlogId, mPostId);
             // brief delay before showing comments/likes to give page time to render
             view.postDelayed(new Runnable() {
                 @Override
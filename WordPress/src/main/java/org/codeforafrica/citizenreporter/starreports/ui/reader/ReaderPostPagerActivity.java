@@ -66,6 +66,8 @@ public class ReaderPostPagerActivity extends ActionBarActivity
     private boolean mIsRequestingMorePosts;
     private boolean mIsSinglePostView;
 
+    private ReaderPostPrefetcher mPrefetcher;
+
     private static final String ARG_IS_SINGLE_POST = "is_single_post";
 
     @Override
@@ -86,6 +88,7 @@ public class ReaderPostPagerActivity extends ActionBarActivity
 
         mViewPager = (WPMainViewPager) findViewById(R.id.viewpager);
         mProgress = (ProgressBar) findViewById(R.id.progress_loading);
+        mPrefetcher = new ReaderPostPrefetcher(this);
 
         final String title;
         if (savedInstanceState != null) {
@@ -126,6 +129,10 @@ public class ReaderPostPagerActivity extends ActionBarActivity
                 super.onPageSelected(position);
                 AnalyticsTracker.track(AnalyticsTracker.Stat.READER_OPENED_ARTICLE);
                 onShowHideToolbar(true);
+                ReaderBlogIdPostId id = getPagerAdapter().getBlogIdPostIdAtPosition(position);
+                if (id != null) {
+                    ReaderPostPrefetcher.onPostSelected(id.getBlogId(), id.getPostId());
+                }
             }
 
             @Override
@@ -138,6 +145,10 @@ public class ReaderPostPagerActivity extends ActionBarActivity
                     if (fragment != null) {
                         fragment.pauseWebView();
                     }
+                    // the posts around the current one are likely to change, so drop the prefetch
+                    mPrefetcher.cancel();
+                } else if (state == ViewPager.SCROLL_STATE_IDLE) {
+                    prefetchAdjacentPosts();
                 }
             }
         });
@@ -161,6 +172,12 @@ public class ReaderPostPagerActivity extends ActionBarActivity
         EventBus.getDefault().unregister(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        mPrefetcher.shutdown();
+        super.onDestroy();
+    }
+
     @Override
     public void finish() {
         super.finish();
@@ -256,12 +273,23 @@ public class ReaderPostPagerActivity extends ActionBarActivity
                         } else if (adapter.isValidPosition(currentPosition)) {
                             mViewPager.setCurrentItem(currentPosition);
                         }
+                        prefetchAdjacentPosts();
                     }
                 });
             }
         }.start();
     }
 
+    /*
+     * renders the posts around the current one in the background and downloads their first
+     * images, so they show immediately when the user swipes to them
+     */
+    private void prefetchAdjacentPosts() {
+        if (hasPagerAdapter()) {
+            mPrefetcher.prefetchAround(getPagerAdapter().mIdList, mViewPager.getCurrentItem());
+        }
+    }
+
     private ReaderTag getCurrentTag() {
         return mCurrentTag;
     }
@@ -568,7 +596,10 @@ public class ReaderPostPagerActivity extends ActionBarActivity
         }
 
         private ReaderBlogIdPostId getCurrentBlogIdPostId() {
-            int position = mViewPager.getCurrentItem();
+            return getBlogIdPostIdAtPosition(mViewPager.getCurrentItem());
+        }
+
+        private ReaderBlogIdPostId getBlogIdPostIdAtPosition(int position) {
             if (isValidPosition(position)) {
                 return mIdList.get(position);
             } else {
@@ -0,0 +1,295 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.webkit.WebResourceResponse;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderPostTable;
+import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
+import org.codeforafrica.citizenreporter.starreports.ui.prefs.AppPrefs;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.models.ReaderBlogIdPostId;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.models.ReaderBlogIdPostIdList;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderHtmlUtils;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderImageScanner;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.NetworkUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares the posts next to the one being read in ReaderPostPagerActivity - the posts are read from
+ * ReaderPostTable and rendered off the main thread so their html is cached, and the images at the top
+ * of each post (including the featured image) are downloaded into Volley's disk cache, which the
+ * reader's WebView reads them from. Work is delayed until the pager settles so flinging through
+ * posts doesn't start work for every page passed along the way, and any work still pending is
+ * dropped when the user moves to another post.
+ */
+public class ReaderPostPrefetcher {
+    // order in which the posts around the current one are prepared
+    private static final int[] OFFSETS = {1, -1, 2, -2};
+    // number of images at the top of each post to download
+    private static final int FIRST_SCREEN_IMAGE_COUNT = 3;
+    // wait this long after the pager settles before starting, a fling settles several times
+    private static final long SETTLE_DELAY_MS = 250;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // incremented on each cancel, work started for an older generation stops at the next step
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private Runnable mPendingPrefetch;
+
+    ReaderPostPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /*
+     * prepares the posts around the passed position once the pager has been still for a moment,
+     * replacing any prefetch that hasn't completed - must be called from the main thread
+     */
+    void prefetchAround(final ReaderBlogIdPostIdList ids, final int position) {
+        cancel();
+        if (ids == null || ids.size() <= 1) {
+            return;
+        }
+
+        final ReaderBlogIdPostIdList adjacentIds = new ReaderBlogIdPostIdList();
+        for (int offset : OFFSETS) {
+            int adjacent = position + offset;
+            if (adjacent >= 0 && adjacent < ids.size()) {
+                adjacentIds.add(ids.get(adjacent));
+            }
+        }
+
+        final int generation = mGeneration.get();
+        mPendingPrefetch = new Runnable() {
+            @Override
+            public void run() {
+                mPendingPrefetch = null;
+                final boolean canPrefetchImages = canPrefetchImages();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetchPosts(adjacentIds, generation, canPrefetchImages);
+                    }
+                });
+            }
+        };
+        mHandler.postDelayed(mPendingPrefetch, SETTLE_DELAY_MS);
+    }
+
+    /*
+     * drops the pending prefetch and any image downloads that haven't started - must be called
+     * from the main thread
+     */
+    void cancel() {
+        mGeneration.incrementAndGet();
+        if (mPendingPrefetch != null) {
+            mHandler.removeCallbacks(mPendingPrefetch);
+            mPendingPrefetch = null;
+        }
+        if (WordPress.requestQueue != null) {
+            WordPress.requestQueue.cancelAll(this);
+        }
+    }
+
+    void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    private boolean canPrefetchImages() {
+        if (!NetworkUtils.isNetworkAvailable(mContext)) {
+            return false;
+        }
+        return !AppPrefs.isReaderDataSaverEnabled() || !NetworkUtils.isActiveNetworkMetered(mContext);
+    }
+
+    private void prefetchPosts(ReaderBlogIdPostIdList ids, int generation, boolean canPrefetchImages) {
+        // the html is still prerendered when the request queue isn't there to fetch the images
+        RequestQueue requestQueue = WordPress.requestQueue;
+        if (requestQueue == null) {
+            canPrefetchImages = false;
+        }
+        int numRendered = 0;
+        int numImages = 0;
+        for (ReaderBlogIdPostId id : ids) {
+            if (mGeneration.get() != generation) {
+                AppLog.d(T.READER, "reader prefetch > cancelled");
+                return;
+            }
+            ReaderPost post = ReaderPostTable.getPost(id.getBlogId(), id.getPostId(), false);
+            if (post == null) {
+                continue;
+            }
+            String html = ReaderPostRenderer.prerender(mContext, post);
+            numRendered++;
+
+            // images in private posts require authentication, the WebView requests those itself
+            if (canPrefetchImages && !post.isPrivate && mGeneration.get() == generation) {
+                for (String imageUrl : getFirstImageUrls(html, FIRST_SCREEN_IMAGE_COUNT)) {
+                    if (requestQueue.getCache().get(imageUrl) == null) {
+                        requestQueue.add(new ImagePrefetchRequest(imageUrl, this));
+                        numImages++;
+                    }
+                }
+            }
+        }
+        AppLog.d(T.READER, "reader prefetch > " + numRendered + " posts rendered, " + numImages + " images requested");
+    }
+
+    /*
+     * returns the urls of the first images in the rendered html, as the WebView will request them
+     */
+    static List<String> getFirstImageUrls(String html, final int maxImages) {
+        final List<String> urls = new ArrayList<>();
+        if (TextUtils.isEmpty(html)) {
+            return urls;
+        }
+        new ReaderImageScanner(html, false).beginScan(new ReaderHtmlUtils.HtmlScannerListener() {
+            @Override
+            public void onTagFound(String tag, String src, int start, int end) {
+                if (urls.size() < maxImages && src.startsWith("http")) {
+                    urls.add(src.replace("&#038;", "&").replace("&amp;", "&"));
+                }
+            }
+            @Override
+            public void onScanCompleted() {
+                // nop
+            }
+        });
+        return urls;
+    }
+
+    /*
+     * called by ReaderWebView for each image it loads, returns the prefetched image if Volley
+     * has a fresh copy of it, otherwise null so the WebView requests it
+     */
+    public static WebResourceResponse getPrefetchedImage(String url) {
+        if (WordPress.requestQueue == null || TextUtils.isEmpty(url)) {
+            return null;
+        }
+        Cache.Entry entry = WordPress.requestQueue.getCache().get(url);
+        if (entry == null || entry.data == null || entry.isExpired()) {
+            return null;
+        }
+        String contentType = (entry.responseHeaders != null ? entry.responseHeaders.get("Content-Type") : null);
+        return new WebResourceResponse(getMimeType(contentType), null, new ByteArrayInputStream(entry.data));
+    }
+
+    /*
+     * WebResourceResponse expects the bare mime type, parameters such as "; charset=..." are dropped
+     */
+    static String getMimeType(String contentType) {
+        if (contentType == null) {
+            return "image/*";
+        }
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+        return mimeType.isEmpty() ? "image/*" : mimeType;
+    }
+
+    /*
+     * downloads an image into Volley's disk cache without decoding it
+     */
+    private static class ImagePrefetchRequest extends Request<Void> {
+        ImagePrefetchRequest(String url, Object tag) {
+            super(Method.GET, url, null);
+            setTag(tag);
+            setShouldCache(true);
+        }
+
+        @Override
+        public Priority getPriority() {
+            return Priority.LOW;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(null, HttpHeaderParser.parseCacheHeaders(response));
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+            // nop
+        }
+    }
+
+    /*
+     * time to first paint - the time between a post being selected in the pager and its
+     * content being shown, zero when it was already shown before the user swiped to it
+     */
+    private static final int MAX_PAINTED_POSTS = 10;
+    private static final LinkedHashSet<String> sPaintedPosts = new LinkedHashSet<>();
+    private static String sSelectedPost;
+    private static long sSelectedTime;
+    private static int sSwipeCount;
+    private static long sTotalTimeToFirstPaintMs;
+
+    static void onPostSelected(long blogId, long postId) {
+        String key = blogId + ":" + postId;
+        synchronized (sPaintedPosts) {
+            if (sPaintedPosts.contains(key)) {
+                recordTimeToFirstPaint(key, 0);
+                sSelectedPost = null;
+            } else {
+                sSelectedPost = key;
+                sSelectedTime = SystemClock.elapsedRealtime();
+            }
+        }
+    }
+
+    static void onPostPainted(long blogId, long postId) {
+        String key = blogId + ":" + postId;
+        synchronized (sPaintedPosts) {
+            sPaintedPosts.remove(key);
+            sPaintedPosts.add(key);
+            if (sPaintedPosts.size() > MAX_PAINTED_POSTS) {
+                sPaintedPosts.remove(sPaintedPosts.iterator().next());
+            }
+            if (key.equals(sSelectedPost)) {
+                recordTimeToFirstPaint(key, SystemClock.elapsedRealtime() - sSelectedTime);
+                sSelectedPost = null;
+            }
+        }
+    }
+
+    private static void recordTimeToFirstPaint(String key, long elapsedMs) {
+        sSwipeCount++;
+        sTotalTimeToFirstPaintMs += elapsedMs;
+        AppLog.d(T.READER, "reader prefetch > post " + key + " painted " + elapsedMs + " ms after swipe, avg "
+                + (sTotalTimeToFirstPaintMs / sSwipeCount) + " ms over " + sSwipeCount + " swipes");
+    }
+
+    static long getAverageTimeToFirstPaintMs() {
+        synchronized (sPaintedPosts) {
+            return sSwipeCount == 0 ? 0 : sTotalTimeToFirstPaintMs / sSwipeCount;
+        }
+    }
+
+    static void resetCounters() {
+        synchronized (sPaintedPosts) {
+            sPaintedPosts.clear();
+            sSelectedPost = null;
+            sSwipeCount = 0;
+            sTotalTimeToFirstPaintMs = 0;
+        }
+    }
+}
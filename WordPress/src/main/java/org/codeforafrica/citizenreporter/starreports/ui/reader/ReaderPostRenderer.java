@@ -1,16 +1,17 @@
 package org.codeforafrica.citizenreporter.starreports.ui.reader;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
 
 import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderRenderedHtmlTable;
 import org.codeforafrica.citizenreporter.starreports.models.ReaderPost;
 import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ImageSizeMap;
 import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ImageSizeMap.ImageSize;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderHtmlRewriter;
 import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderHtmlUtils;
-import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderIframeScanner;
-import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderImageScanner;
 import org.codeforafrica.citizenreporter.starreports.ui.reader.utils.ReaderUtils;
 import org.codeforafrica.citizenreporter.starreports.ui.reader.views.ReaderWebView;
 import org.wordpress.android.util.AppLog;
@@ -30,50 +31,84 @@ import java.lang.ref.WeakReference;
  * http://developer.android.com/guide/webapps/targeting.html
  */
 class ReaderPostRenderer {
+    // bump this whenever a change here alters the generated html, so html cached by an older version
+    // isn't shown
+    static final int RENDERER_VERSION = 1;
 
     private final ReaderResourceVars mResourceVars;
     private final ReaderPost mPost;
     private final int mMinFullSizeWidthDp;
     private final int mMinMidSizeWidthDp;
     private final WeakReference<ReaderWebView> mWeakWebView;
+    private final ReaderRenderedHtmlCache.Key mCacheKey;
 
-    private StringBuilder mRenderBuilder;
     private String mRenderedHtml;
     private ImageSizeMap mAttachmentSizes;
 
     @SuppressLint("SetJavaScriptEnabled")
     ReaderPostRenderer(ReaderWebView webView, ReaderPost post) {
-        if (webView == null) {
-            throw new IllegalArgumentException("ReaderPostRenderer requires a webView");
-        }
+        this(getWebViewContext(webView), webView, post);
+
+        // enable JavaScript in the webView if it's safe to do so, otherwise videos
+        // and other embedded content won't work
+        webView.getSettings().setJavaScriptEnabled(canEnableJavaScript());
+    }
+
+    /*
+     * webView is null when the post is rendered ahead of time, before it's shown
+     */
+    private ReaderPostRenderer(Context context, ReaderWebView webView, ReaderPost post) {
         if (post == null) {
             throw new IllegalArgumentException("ReaderPostRenderer requires a post");
         }
 
         mPost = post;
         mWeakWebView = new WeakReference<>(webView);
-        mResourceVars = new ReaderResourceVars(webView.getContext());
+        mResourceVars = new ReaderResourceVars(context);
 
         mMinFullSizeWidthDp = pxToDp(mResourceVars.fullSizeImageWidthPx / 3);
         mMinMidSizeWidthDp = mMinFullSizeWidthDp / 2;
 
-        // enable JavaScript in the webView if it's safe to do so, otherwise videos
-        // and other embedded content won't work
-        webView.getSettings().setJavaScriptEnabled(canEnableJavaScript());
+        mCacheKey = new ReaderRenderedHtmlCache.Key(
+                post.blogId,
+                post.postId,
+                ReaderRenderedHtmlTable.getContentHash(post),
+                RENDERER_VERSION,
+                mResourceVars.displayWidthPx,
+                canEnableJavaScript());
+    }
+
+    private static Context getWebViewContext(ReaderWebView webView) {
+        if (webView == null) {
+            throw new IllegalArgumentException("ReaderPostRenderer requires a webView");
+        }
+        return webView.getContext();
+    }
+
+    /*
+     * renders the passed post and caches the result so it shows immediately when the user
+     * navigates to it, returns the rendered html - must be called from a background thread
+     */
+    static String prerender(Context context, ReaderPost post) {
+        if (context == null || post == null) {
+            return null;
+        }
+        return new ReaderPostRenderer(context, null, post).getHtml();
     }
 
     void beginRender() {
-        final Handler handler = new Handler();
-        mRenderBuilder = new StringBuilder(getPostContent());
+        // posts the user has already viewed are usually still in memory
+        String cachedHtml = ReaderRenderedHtmlCache.getFromMemory(mCacheKey);
+        if (cachedHtml != null) {
+            renderHtmlContent(cachedHtml);
+            return;
+        }
 
+        final Handler handler = new Handler();
         new Thread() {
             @Override
             public void run() {
-                resizeImages();
-                resizeIframes();
-
-                final String htmlContent = formatPostContentForWebView(mRenderBuilder.toString());
-                mRenderBuilder = null;
+                final String htmlContent = getHtml();
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -85,39 +120,31 @@ class ReaderPostRenderer {
     }
 
     /*
-     * scan the content for images and make sure they're correctly sized for the device
+     * returns the cached html for this post, rendering and caching it if it isn't cached
      */
-    void resizeImages() {
-        ReaderHtmlUtils.HtmlScannerListener imageListener = new ReaderHtmlUtils.HtmlScannerListener() {
-            @Override
-            public void onTagFound(String imageTag, String imageUrl, int start, int end) {
-                replaceImageTag(imageTag, imageUrl);
-            }
-            @Override
-            public void onScanCompleted() {
-                // nop
-            }
-        };
-        ReaderImageScanner scanner = new ReaderImageScanner(mRenderBuilder.toString(), mPost.isPrivate);
-        scanner.beginScan(imageListener);
+    private String getHtml() {
+        String html = ReaderRenderedHtmlCache.get(mCacheKey);
+        if (html == null) {
+            html = formatPostContentForWebView(resizeImagesAndIframes(getPostContent()));
+            ReaderRenderedHtmlCache.put(mCacheKey, html);
+        }
+        return html;
     }
 
     /*
-     * scan the content for iframes and make sure they're correctly sized for the device
+     * make sure the images and iframes in the content are correctly sized for the device
      */
-    void resizeIframes() {
-        ReaderHtmlUtils.HtmlScannerListener iframeListener = new ReaderHtmlUtils.HtmlScannerListener() {
+    String resizeImagesAndIframes(final String content) {
+        return ReaderHtmlRewriter.rewrite(content, new ReaderHtmlRewriter.TagRewriter() {
             @Override
-            public void onTagFound(String tag, String src, int start, int end) {
-                replaceIframeTag(tag, src);
+            public String rewriteImageTag(String tag, String src) {
+                return makeResizedImageTag(tag, src);
             }
             @Override
-            public void onScanCompleted() {
-                // nop
+            public String rewriteIframeTag(String tag, String src) {
+                return makeResizedIframeTag(tag, src);
             }
-        };
-        ReaderIframeScanner scanner = new ReaderIframeScanner(mRenderBuilder.toString());
-        scanner.beginScan(iframeListener);
+        });
     }
 
     /*
@@ -141,11 +168,10 @@ class ReaderPostRenderer {
     }
 
     /*
-     * called when image scanner finds an image, tries to replace the image tag with one that
-     * has height & width attributes set correctly for the current display, if that fails
-     * replaces it with one that has our 'size-none' class
+     * returns an image tag that has height & width attributes set correctly for the current
+     * display, if that fails returns one that has our 'size-none' class
      */
-    private void replaceImageTag(final String imageTag, final String imageUrl) {
+    private String makeResizedImageTag(final String imageTag, final String imageUrl) {
         ImageSize origSize = getImageSize(imageTag, imageUrl);
         boolean hasWidth = (origSize != null && origSize.width > 0);
         boolean isFullSize = hasWidth && (origSize.width >= mMinFullSizeWidthDp);
@@ -153,24 +179,15 @@ class ReaderPostRenderer {
                 && (origSize.width >= mMinMidSizeWidthDp)
                 && (origSize.width < mMinFullSizeWidthDp);
 
-        final String newImageTag;
         if (isFullSize) {
-            newImageTag = makeFullSizeImageTag(imageUrl, origSize.width, origSize.height);
+            return makeFullSizeImageTag(imageUrl, origSize.width, origSize.height);
         } else if (isMidSize) {
-            newImageTag = makeImageTag(imageUrl, origSize.width, origSize.height, "size-medium");
+            return makeImageTag(imageUrl, origSize.width, origSize.height, "size-medium");
         } else if (hasWidth) {
-            newImageTag = makeImageTag(imageUrl, origSize.width, origSize.height, "size-none");
+            return makeImageTag(imageUrl, origSize.width, origSize.height, "size-none");
         } else {
-            newImageTag = "<img class='size-none' src='" + imageUrl + "' />";
-        }
-
-        int start = mRenderBuilder.indexOf(imageTag);
-        if (start == -1) {
-            AppLog.w(AppLog.T.READER, "reader renderer > image not found in builder");
-            return;
+            return "<img class='size-none' src='" + imageUrl + "' />";
         }
-
-        mRenderBuilder.replace(start, start + imageTag.length(), newImageTag);
     }
 
     private String makeImageTag(final String imageUrl, int width, int height, final String imageClass) {
@@ -255,9 +272,9 @@ class ReaderPostRenderer {
     }
 
     /*
-     * replace the passed iframe tag with one that's correctly sized for the device
+     * returns an iframe tag with the src of the passed one that's correctly sized for the device
      */
-    private void replaceIframeTag(final String tag, final String src) {
+    private String makeResizedIframeTag(final String tag, final String src) {
         int width = ReaderHtmlUtils.getWidthAttrValue(tag);
         int height = ReaderHtmlUtils.getHeightAttrValue(tag);
 
@@ -272,19 +289,11 @@ class ReaderPostRenderer {
             newHeight = mResourceVars.videoHeightPx;
         }
 
-        String newTag = new StringBuilder("<iframe src='").append(src).append("'")
+        return new StringBuilder("<iframe src='").append(src).append("'")
                 .append(" frameborder='0' allowfullscreen='true' allowtransparency='true'")
                 .append(" width='").append(pxToDp(newWidth)).append("'")
                 .append(" height='").append(pxToDp(newHeight)).append("' />")
                 .toString();
-
-        int start = mRenderBuilder.indexOf(tag);
-        if (start == -1) {
-            AppLog.w(AppLog.T.READER, "reader renderer > iframe not found in builder");
-            return;
-        }
-
-        mRenderBuilder.replace(start, start + tag.length(), newTag);
     }
 
     /*
@@ -0,0 +1,163 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader;
+
+import android.support.v4.util.LruCache;
+
+import org.codeforafrica.citizenreporter.starreports.datasets.ReaderRenderedHtmlTable;
+
+/**
+ * In-memory cache of the HTML generated by ReaderPostRenderer, in front of ReaderRenderedHtmlTable so
+ * swiping back to a post doesn't even have to read it from the DB. Keys include a hash of the post's
+ * content and the renderer version, so HTML rendered from an older version of a post, or by an older
+ * version of the renderer, is never returned - those entries simply age out of the cache.
+ */
+class ReaderRenderedHtmlCache {
+    // the cache is sized by the number of chars it holds
+    private static final int MAX_CHARS = 1024 * 1024;
+
+    private static final LruCache<Key, String> sCache = new LruCache<Key, String>(MAX_CHARS) {
+        @Override
+        protected int sizeOf(Key key, String html) {
+            return html.length();
+        }
+    };
+
+    private static int sMemoryHitCount;
+    private static int sDiskHitCount;
+    private static int sMissCount;
+
+    static class Key {
+        final long mBlogId;
+        final long mPostId;
+        final long mContentHash;
+        final int mRendererVersion;
+        final int mDisplayWidth;
+        final boolean mIsJsEnabled;
+
+        Key(long blogId, long postId, long contentHash, int rendererVersion, int displayWidth,
+            boolean isJsEnabled) {
+            mBlogId = blogId;
+            mPostId = postId;
+            mContentHash = contentHash;
+            mRendererVersion = rendererVersion;
+            mDisplayWidth = displayWidth;
+            mIsJsEnabled = isJsEnabled;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mBlogId == other.mBlogId
+                    && mPostId == other.mPostId
+                    && mContentHash == other.mContentHash
+                    && mRendererVersion == other.mRendererVersion
+                    && mDisplayWidth == other.mDisplayWidth
+                    && mIsJsEnabled == other.mIsJsEnabled;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mBlogId ^ (mBlogId >>> 32));
+            result = 31 * result + (int) (mPostId ^ (mPostId >>> 32));
+            result = 31 * result + (int) (mContentHash ^ (mContentHash >>> 32));
+            result = 31 * result + mRendererVersion;
+            result = 31 * result + mDisplayWidth;
+            result = 31 * result + (mIsJsEnabled ? 1 : 0);
+            return result;
+        }
+    }
+
+    /*
+     * returns the html from memory if it's there - doesn't touch the DB, so it's safe to call
+     * from the main thread
+     */
+    static String getFromMemory(Key key) {
+        synchronized (sCache) {
+            String html = sCache.get(key);
+            if (html != null) {
+                sMemoryHitCount++;
+            }
+            return html;
+        }
+    }
+
+    /*
+     * returns the html from memory or from the DB, or null if this post hasn't been rendered
+     * with this key - must be called from a background thread
+     */
+    static String get(Key key) {
+        String html = getFromMemory(key);
+        if (html != null) {
+            return html;
+        }
+
+        html = ReaderRenderedHtmlTable.getHtml(key.mBlogId, key.mPostId, key.mContentHash, key.mRendererVersion,
+                key.mDisplayWidth, key.mIsJsEnabled);
+        synchronized (sCache) {
+            if (html != null) {
+                sDiskHitCount++;
+                sCache.put(key, html);
+            } else {
+                sMissCount++;
+            }
+        }
+        return html;
+    }
+
+    /*
+     * must be called from a background thread
+     */
+    static void put(Key key, String html) {
+        if (html == null) {
+            return;
+        }
+        synchronized (sCache) {
+            sCache.put(key, html);
+        }
+        ReaderRenderedHtmlTable.setHtml(key.mBlogId, key.mPostId, key.mContentHash, key.mRendererVersion,
+                key.mDisplayWidth, key.mIsJsEnabled, html);
+    }
+
+    static boolean isInMemory(Key key) {
+        synchronized (sCache) {
+            return sCache.get(key) != null;
+        }
+    }
+
+    static void clearMemory() {
+        synchronized (sCache) {
+            sCache.evictAll();
+        }
+    }
+
+    static int getMemoryHitCount() {
+        synchronized (sCache) {
+            return sMemoryHitCount;
+        }
+    }
+
+    static int getDiskHitCount() {
+        synchronized (sCache) {
+            return sDiskHitCount;
+        }
+    }
+
+    static int getMissCount() {
+        synchronized (sCache) {
+            return sMissCount;
+        }
+    }
+
+    static void resetCounters() {
+        synchronized (sCache) {
+            sMemoryHitCount = 0;
+            sDiskHitCount = 0;
+            sMissCount = 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.codeforafrica.citizenreporter.starreports.ui.reader.utils;
+
+import android.text.TextUtils;
+
+/**
+ * rewrites the img and iframe tags in post content in a single forward pass - the content is copied
+ * once into the output, and each tag is replaced as it's reached rather than searched for again
+ * and spliced into the middle of the content
+ */
+public class ReaderHtmlRewriter {
+
+    public interface TagRewriter {
+        /*
+         * return the tag to use in place of the passed one, or null to leave it unchanged
+         */
+        public String rewriteImageTag(String tag, String src);
+        public String rewriteIframeTag(String tag, String src);
+    }
+
+    private static final String IMG = "img";
+    private static final String IFRAME = "iframe";
+
+    public static String rewrite(final String content, TagRewriter rewriter) {
+        if (rewriter == null) {
+            throw new IllegalArgumentException("TagRewriter is required");
+        }
+        if (content == null) {
+            return null;
+        }
+
+        int length = content.length();
+        // rewritten tags are usually a little longer than the originals
+        StringBuilder output = new StringBuilder(length + (length >> 3));
+        int copiedUpTo = 0;
+        int pos = content.indexOf('<');
+        while (pos != -1 && pos < length) {
+            boolean isImage = isTagStart(content, pos, IMG);
+            if (!isImage && !isTagStart(content, pos, IFRAME)) {
+                pos = content.indexOf('<', pos + 1);
+                continue;
+            }
+
+            int end = findTagEnd(content, pos + 1);
+            if (end == -1) {
+                break;
+            }
+
+            String tag = content.substring(pos, end + 1);
+            String src = ReaderHtmlUtils.getSrcAttrValue(tag);
+            String newTag = null;
+            if (!TextUtils.isEmpty(src)) {
+                newTag = isImage ? rewriter.rewriteImageTag(tag, src) : rewriter.rewriteIframeTag(tag, src);
+            }
+            if (newTag != null) {
+                output.append(content, copiedUpTo, pos).append(newTag);
+                copiedUpTo = end + 1;
+            }
+
+            pos = content.indexOf('<', end + 1);
+        }
+
+        if (copiedUpTo == 0) {
+            return content;
+        }
+        output.append(content, copiedUpTo, length);
+        return output.toString();
+    }
+
+    /*
+     * returns true if the tag starting at pos has the passed name followed by whitespace, ignoring case
+     */
+    private static boolean isTagStart(final String content, int pos, final String name) {
+        int nameEnd = pos + 1 + name.length();
+        return nameEnd < content.length()
+                && content.regionMatches(true, pos + 1, name, 0, name.length())
+                && Character.isWhitespace(content.charAt(nameEnd));
+    }
+
+    /*
+     * returns the position of the '>' that closes the tag, skipping any inside quoted attribute values,
+     * or -1 if the tag isn't closed - only quotes that follow an '=' start a value, so a stray
+     * apostrophe in an unquoted value doesn't swallow the rest of the content
+     */
+    private static int findTagEnd(final String content, int from) {
+        char quote = 0;
+        char prev = 0;
+        for (int i = from; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if ((c == '"' || c == '\'') && prev == '=') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+            if (!Character.isWhitespace(c)) {
+                prev = c;
+            }
+        }
+        return -1;
+    }
+}
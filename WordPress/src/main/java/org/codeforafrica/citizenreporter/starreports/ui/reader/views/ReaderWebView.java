@@ -16,6 +16,7 @@ import android.webkit.WebViewClient;
 
 import org.codeforafrica.citizenreporter.starreports.WordPress;
 import org.codeforafrica.citizenreporter.starreports.models.AccountHelper;
+import org.codeforafrica.citizenreporter.starreports.ui.reader.ReaderPostPrefetcher;
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.UrlUtils;
 import org.wordpress.android.util.WPRestClient;
@@ -226,6 +227,13 @@ public class ReaderWebView extends WebView {
                 } catch (IOException e) {
                     AppLog.e(AppLog.T.READER, e);
                 }
+            } else if (UrlUtils.isImageUrl(url)) {
+                // images of posts near the one being read may already have been downloaded
+                // by ReaderPostPrefetcher
+                WebResourceResponse prefetched = ReaderPostPrefetcher.getPrefetchedImage(url);
+                if (prefetched != null) {
+                    return prefetched;
+                }
             }
 
             return super.shouldInterceptRequest(view, url);
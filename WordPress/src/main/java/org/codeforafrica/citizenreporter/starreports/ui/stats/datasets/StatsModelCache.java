@@ -0,0 +1,172 @@
+package org.codeforafrica.citizenreporter.starreports.ui.stats.datasets;
+
+import android.support.v4.util.LruCache;
+
+import org.codeforafrica.citizenreporter.starreports.ui.stats.StatsTimeframe;
+import org.codeforafrica.citizenreporter.starreports.ui.stats.service.StatsService.StatsEndpointsEnum;
+
+import java.io.Serializable;
+
+/**
+ * In-memory cache of parsed stats models, in front of StatsTable so a section that was loaded recently
+ * doesn't have to be read from the DB and parsed again. Entries expire after StatsTable.CACHE_TTL_MINUTES,
+ * same as the rows of StatsTable.
+ */
+public class StatsModelCache {
+    private static final int MAX_ENTRIES = 100;
+
+    private static final LruCache<Key, Entry> sCache = new LruCache<>(MAX_ENTRIES);
+
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sCoalescedCount;
+
+    public static class Key {
+        final int mLocalBlogId;
+        final StatsEndpointsEnum mSection;
+        final StatsTimeframe mTimeframe;
+        final String mDate;
+        final int mPage;
+        final int mMaxResults;
+
+        public Key(int localBlogId, StatsEndpointsEnum section, StatsTimeframe timeframe, String date, int page,
+                   int maxResults) {
+            mLocalBlogId = localBlogId;
+            mSection = section;
+            mTimeframe = timeframe;
+            mDate = date;
+            mPage = page;
+            mMaxResults = maxResults;
+        }
+
+        public int getLocalBlogId() {
+            return mLocalBlogId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mLocalBlogId == other.mLocalBlogId
+                    && mSection == other.mSection
+                    && mTimeframe == other.mTimeframe
+                    && (mDate == null ? other.mDate == null : mDate.equals(other.mDate))
+                    && mPage == other.mPage
+                    && mMaxResults == other.mMaxResults;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mLocalBlogId;
+            result = 31 * result + (mSection != null ? mSection.hashCode() : 0);
+            result = 31 * result + (mTimeframe != null ? mTimeframe.hashCode() : 0);
+            result = 31 * result + (mDate != null ? mDate.hashCode() : 0);
+            result = 31 * result + mPage;
+            result = 31 * result + mMaxResults;
+            return result;
+        }
+    }
+
+    private static class Entry {
+        final Serializable mModel;
+        final long mTimestamp;
+
+        Entry(Serializable model, long timestamp) {
+            mModel = model;
+            mTimestamp = timestamp;
+        }
+    }
+
+    /*
+     * returns the parsed model for this key, or null if it's not cached or has expired
+     */
+    public static Serializable get(Key key) {
+        synchronized (sCache) {
+            Entry entry = sCache.get(key);
+            if (entry != null && isExpired(entry.mTimestamp)) {
+                sCache.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                sMissCount++;
+                return null;
+            }
+            sHitCount++;
+            return entry.mModel;
+        }
+    }
+
+    /*
+     * responseTimestamp is the time the model was received from the server, not the time it was parsed
+     */
+    public static void put(Key key, Serializable model, long responseTimestamp) {
+        if (model == null || isExpired(responseTimestamp)) {
+            return;
+        }
+        synchronized (sCache) {
+            sCache.put(key, new Entry(model, responseTimestamp));
+        }
+    }
+
+    public static void removeBlog(int localBlogId) {
+        synchronized (sCache) {
+            for (Key key : sCache.snapshot().keySet()) {
+                if (key.mLocalBlogId == localBlogId) {
+                    sCache.remove(key);
+                }
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (sCache) {
+            sCache.evictAll();
+        }
+    }
+
+    /*
+     * called when a request was merged with an identical one already waiting for the server
+     */
+    public static void onRequestCoalesced() {
+        synchronized (sCache) {
+            sCoalescedCount++;
+        }
+    }
+
+    public static int getHitCount() {
+        synchronized (sCache) {
+            return sHitCount;
+        }
+    }
+
+    public static int getMissCount() {
+        synchronized (sCache) {
+            return sMissCount;
+        }
+    }
+
+    public static int getCoalescedCount() {
+        synchronized (sCache) {
+            return sCoalescedCount;
+        }
+    }
+
+    public static void resetCounters() {
+        synchronized (sCache) {
+            sHitCount = 0;
+            sMissCount = 0;
+            sCoalescedCount = 0;
+        }
+    }
+
+    private static boolean isExpired(long timestamp) {
+        long deltaMS = System.currentTimeMillis() - timestamp;
+        // same rule as StatsTable.getStats
+        return deltaMS < 0 || (deltaMS / 1000 / 60) > StatsTable.CACHE_TTL_MINUTES;
+    }
+}
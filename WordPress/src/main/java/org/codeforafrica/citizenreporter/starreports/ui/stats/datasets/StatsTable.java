@@ -10,6 +10,9 @@ import org.codeforafrica.citizenreporter.starreports.ui.stats.service.StatsServi
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.SqlUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class StatsTable {
 
     private static final String TABLE_NAME = "tbl_stats";
@@ -40,8 +43,29 @@ public class StatsTable {
     }
 
 
+    /**
+     * A fresh stats response read from the DB, along with the time it was received
+     */
+    public static class CachedStats {
+        public final String jsonData;
+        public final long timestamp;
+
+        CachedStats(String jsonData, long timestamp) {
+            this.jsonData = jsonData;
+            this.timestamp = timestamp;
+        }
+    }
+
     public static String getStats(final Context ctx, final int blogId, final StatsTimeframe timeframe, final String date,
                                   final StatsEndpointsEnum sectionToUpdate, final int maxResultsRequested, final int pageRequested) {
+        CachedStats cachedStats = getCachedStats(ctx, blogId, timeframe, date, sectionToUpdate, maxResultsRequested,
+                pageRequested);
+        return cachedStats != null ? cachedStats.jsonData : null;
+    }
+
+    public static CachedStats getCachedStats(final Context ctx, final int blogId, final StatsTimeframe timeframe,
+                                             final String date, final StatsEndpointsEnum sectionToUpdate,
+                                             final int maxResultsRequested, final int pageRequested) {
         if (ctx == null) {
             AppLog.e(AppLog.T.STATS, "Cannot insert a null stats since the passed context is null. Context is required " +
                     "to access the DB.");
@@ -84,7 +108,7 @@ public class StatsTable {
                     return null; // cache is expired
                 }
 
-                return cursor.getString(cursor.getColumnIndex("jsonData"));
+                return new CachedStats(cursor.getString(cursor.getColumnIndex("jsonData")), timestamp);
             } else {
                 return null;
             }
@@ -97,30 +121,71 @@ public class StatsTable {
         return null;
     }
 
+    /**
+     * A stats response waiting to be written to the DB
+     */
+    public static class StatsResponse {
+        final int blogId;
+        final StatsTimeframe timeframe;
+        final String date;
+        final StatsEndpointsEnum section;
+        final int maxResultsRequested;
+        final int pageRequested;
+        final String jsonResponse;
+        final long responseTimestamp;
+
+        public StatsResponse(final int blogId, final StatsTimeframe timeframe, final String date,
+                             final StatsEndpointsEnum section, final int maxResultsRequested, final int pageRequested,
+                             final String jsonResponse, final long responseTimestamp) {
+            this.blogId = blogId;
+            this.timeframe = timeframe;
+            this.date = date;
+            this.section = section;
+            this.maxResultsRequested = maxResultsRequested;
+            this.pageRequested = pageRequested;
+            this.jsonResponse = jsonResponse;
+            this.responseTimestamp = responseTimestamp;
+        }
+    }
+
     public static void insertStats(final Context ctx, final int blogId, final StatsTimeframe timeframe, final String date,
                                    final StatsEndpointsEnum sectionToUpdate, final int maxResultsRequested, final int pageRequested,
                                    final String jsonResponse, final long responseTimestamp) {
+        List<StatsResponse> responses = new ArrayList<>(1);
+        responses.add(new StatsResponse(blogId, timeframe, date, sectionToUpdate, maxResultsRequested, pageRequested,
+                jsonResponse, responseTimestamp));
+        insertStats(ctx, responses);
+    }
 
+    /**
+     * Insert several responses in a single transaction
+     */
+    public static void insertStats(final Context ctx, final List<StatsResponse> responses) {
         if (ctx == null) {
             AppLog.e(AppLog.T.STATS, "Cannot insert a null stats since the passed context is null. Context is required " +
                     "to access the DB.");
             return;
         }
+        if (responses == null || responses.size() == 0) {
+            return;
+        }
 
         SQLiteDatabase db = StatsDatabaseHelper.getWritableDb(ctx);
         db.beginTransaction();
         SQLiteStatement stmt = db.compileStatement("INSERT INTO " + TABLE_NAME + " (blogID, type, timeframe, date, " +
                 "jsonData, maxResult, page, timestamp) VALUES (?1,?2,?3,?4,?5,?6,?7,?8)");
         try {
-            stmt.bindLong(1, blogId);
-            stmt.bindLong(2, sectionToUpdate.ordinal());
-            stmt.bindLong(3, timeframe.ordinal());
-            stmt.bindString(4, date);
-            stmt.bindString(5, jsonResponse);
-            stmt.bindLong(6, maxResultsRequested);
-            stmt.bindLong(7, pageRequested);
-            stmt.bindLong(8, responseTimestamp);
-            stmt.execute();
+            for (StatsResponse response : responses) {
+                stmt.bindLong(1, response.blogId);
+                stmt.bindLong(2, response.section.ordinal());
+                stmt.bindLong(3, response.timeframe.ordinal());
+                stmt.bindString(4, response.date);
+                stmt.bindString(5, response.jsonResponse);
+                stmt.bindLong(6, response.maxResultsRequested);
+                stmt.bindLong(7, response.pageRequested);
+                stmt.bindLong(8, response.responseTimestamp);
+                stmt.execute();
+            }
 
             db.setTransactionSuccessful();
         } finally {
@@ -163,6 +228,7 @@ public class StatsTable {
             db.beginTransaction();
             int rowDeleted = db.delete(TABLE_NAME, "blogID=?", new String[] {Integer.toString(blogId)});
             db.setTransactionSuccessful();
+            StatsModelCache.removeBlog(blogId);
             AppLog.d(AppLog.T.STATS, "Stats deleted for localBlogID " + blogId);
             return rowDeleted > 1;
         } finally {
@@ -181,6 +247,7 @@ public class StatsTable {
         try {
             db.execSQL("DELETE FROM " + TABLE_NAME);
             db.setTransactionSuccessful();
+            StatsModelCache.clear();
         } finally {
             db.endTransaction();
         }
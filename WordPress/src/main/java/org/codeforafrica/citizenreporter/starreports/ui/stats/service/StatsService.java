@@ -3,6 +3,7 @@ package org.codeforafrica.citizenreporter.starreports.ui.stats.service;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.volley.NetworkResponse;
@@ -18,21 +19,30 @@ import org.codeforafrica.citizenreporter.starreports.networking.RestClientUtils;
 import org.codeforafrica.citizenreporter.starreports.ui.stats.StatsEvents;
 import org.codeforafrica.citizenreporter.starreports.ui.stats.StatsTimeframe;
 import org.codeforafrica.citizenreporter.starreports.ui.stats.StatsUtils;
+import org.codeforafrica.citizenreporter.starreports.ui.stats.datasets.StatsModelCache;
 import org.codeforafrica.citizenreporter.starreports.ui.stats.datasets.StatsTable;
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.AppLog.T;
 
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import de.greenrobot.event.EventBus;
 
 /**
  * Background service to retrieve Stats.
- * Parsing of response(s) and submission of new network calls are done by using a ThreadPoolExecutor with a single thread.
+ * Submission of new network calls and delivery of results are done by using a ThreadPoolExecutor with a single thread,
+ * so sections are delivered in the order their responses arrive. Responses are parsed in parallel on a pool sized to
+ * the number of cores, and written to the DB in one transaction once all the requests of a refresh are done.
  */
 
 public class StatsService extends Service {
@@ -111,7 +121,26 @@ public class StatsService extends Service {
 
     private int mServiceStartId;
     private final LinkedList<Request<JSONObject>> mStatsNetworkRequests = new LinkedList<>();
+    // requests waiting for the server, identical requests are merged with these
+    private final HashMap<StatsModelCache.Key, Request<JSONObject>> mInFlightRequests = new HashMap<>();
     private final ThreadPoolExecutor singleThreadNetworkHandler = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+    private static final ExecutorService sParseExecutor =
+            Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    // responses of the current refresh, written to the DB when it's done - only accessed from singleThreadNetworkHandler
+    private final List<StatsTable.StatsResponse> mPendingStatsResponses = new ArrayList<>();
+
+    // time between the first request of a refresh and the delivery of its last section
+    private long mRefreshStartTime;
+    private int mRefreshSectionCount;
+    private static volatile long sLastRefreshLatencyMs = -1;
+
+    /**
+     * Time it took for the last refresh to deliver all of its sections, -1 if there was no refresh yet
+     */
+    public static long getLastRefreshLatencyMs() {
+        return sLastRefreshLatencyMs;
+    }
 
     @Override
     public void onCreate() {
@@ -122,6 +151,12 @@ public class StatsService extends Service {
     @Override
     public void onDestroy() {
         stopRefresh();
+        singleThreadNetworkHandler.submit(new Runnable() {
+            @Override
+            public void run() {
+                flushPendingStats();
+            }
+        });
         AppLog.i(T.STATS, "service destroyed");
         super.onDestroy();
     }
@@ -196,6 +231,7 @@ public class StatsService extends Service {
                 }
             }
             mStatsNetworkRequests.clear();
+            mInFlightRequests.clear();
         }
     }
 
@@ -205,35 +241,48 @@ public class StatsService extends Service {
         return true;
     }
 
-    // Check if we already have Stats
-    private String getCachedStats(final String blogId, final StatsTimeframe timeframe, final String date, final StatsEndpointsEnum sectionToUpdate,
-                                  final int maxResultsRequested, final int pageRequested) {
+    // Check if we already have Stats, parsed in memory or in the DB
+    private Serializable getCachedStats(final StatsModelCache.Key cacheKey, final String blogId, final StatsTimeframe timeframe,
+                                        final String date, final StatsEndpointsEnum sectionToUpdate,
+                                        final int maxResultsRequested, final int pageRequested) {
         if (!isCacheEnabled()) {
             return null;
         }
 
-        int parsedBlogID = Integer.parseInt(blogId);
-        int localTableBlogId = WordPress.wpDB.getLocalTableBlogIdForRemoteBlogId(parsedBlogID);
-        return StatsTable.getStats(this, localTableBlogId, timeframe, date, sectionToUpdate, maxResultsRequested, pageRequested);
+        Serializable model = StatsModelCache.get(cacheKey);
+        if (model != null) {
+            return model;
+        }
+
+        StatsTable.CachedStats cachedStats = StatsTable.getCachedStats(this, cacheKey.getLocalBlogId(), timeframe, date,
+                sectionToUpdate, maxResultsRequested, pageRequested);
+        if (cachedStats == null) {
+            return null;
+        }
+        try {
+            model = StatsUtils.parseResponse(sectionToUpdate, blogId, new JSONObject(cachedStats.jsonData));
+            StatsModelCache.put(cacheKey, model, cachedStats.timestamp);
+            return model;
+        } catch (JSONException e) {
+            AppLog.e(AppLog.T.STATS, e);
+            return null;
+        }
     }
 
     private void startTasks(final String blogId, final StatsTimeframe timeframe, final String date, final StatsEndpointsEnum sectionToUpdate,
                             final int maxResultsRequested, final int pageRequested) {
 
-        String cachedStats = getCachedStats(blogId, timeframe, date, sectionToUpdate, maxResultsRequested, pageRequested);
-
-        if (cachedStats != null) {
-            Serializable mResponseObjectModel;
-                try {
-                    JSONObject response = new JSONObject(cachedStats);
-                    mResponseObjectModel = StatsUtils.parseResponse(sectionToUpdate, blogId, response);
-                    EventBus.getDefault().post(new StatsEvents.SectionUpdated(sectionToUpdate, blogId, timeframe, date,
-                            maxResultsRequested, pageRequested, mResponseObjectModel));
-                    checkAllRequestsFinished(null);
-                    return;
-                } catch (JSONException e) {
-                    AppLog.e(AppLog.T.STATS, e);
-                }
+        int localTableBlogId = WordPress.wpDB.getLocalTableBlogIdForRemoteBlogId(Integer.parseInt(blogId));
+        StatsModelCache.Key cacheKey = new StatsModelCache.Key(localTableBlogId, sectionToUpdate, timeframe, date,
+                pageRequested, maxResultsRequested);
+
+        Serializable cachedModel = getCachedStats(cacheKey, blogId, timeframe, date, sectionToUpdate,
+                maxResultsRequested, pageRequested);
+        if (cachedModel != null) {
+            EventBus.getDefault().post(new StatsEvents.SectionUpdated(sectionToUpdate, blogId, timeframe, date,
+                    maxResultsRequested, pageRequested, cachedModel));
+            checkAllRequestsFinished(null);
+            return;
         }
 
         final RestClientUtils restClientUtils = WordPress.getRestClientUtilsV1_1();
@@ -244,7 +293,8 @@ public class StatsService extends Service {
 */
         EventBus.getDefault().post(new StatsEvents.UpdateStatusChanged(true));
 
-        RestListener vListener = new RestListener(sectionToUpdate, blogId, timeframe, date, maxResultsRequested, pageRequested);
+        RestListener vListener = new RestListener(cacheKey, sectionToUpdate, blogId, timeframe, date, maxResultsRequested,
+                pageRequested);
 
         final String periodDateMaxPlaceholder =  "?period=%s&date=%s&max=%s";
 
@@ -305,58 +355,41 @@ public class StatsService extends Service {
                     return;
             }
 
-            // We need to check if we already have the same request in the queue
-            if (checkIfRequestShouldBeEnqueued(restClientUtils, path)) {
+            // An identical request waiting for the server will post the SectionUpdated event for this one too
+            Request<JSONObject> inFlightRequest = mInFlightRequests.get(cacheKey);
+            if (inFlightRequest == null || inFlightRequest.hasHadResponseDelivered() || inFlightRequest.isCanceled()) {
                 AppLog.d(AppLog.T.STATS, "Enqueuing the following Stats request " + path);
+                if (mStatsNetworkRequests.isEmpty()) {
+                    mRefreshStartTime = SystemClock.elapsedRealtime();
+                    mRefreshSectionCount = 0;
+                }
+                mRefreshSectionCount++;
                 Request<JSONObject> currentRequest = restClientUtils.get(path, vListener, vListener);
                 vListener.currentRequest = currentRequest;
                 currentRequest.setTag("StatsCall");
                 mStatsNetworkRequests.add(currentRequest);
+                mInFlightRequests.put(cacheKey, currentRequest);
             } else {
                 AppLog.d(AppLog.T.STATS, "Stats request is already in the queue:" + path);
+                StatsModelCache.onRequestCoalesced();
             }
         }
     }
 
-    /**
-     *  This method checks if we already have the same request in the Queue. No need to re-enqueue a new request
-     *  if one with the same parameters is there.
-     *
-     *  This method is a kind of tricky, since it does the comparison by checking the origin URL of requests.
-     *  To do that we had to get the fullURL of the new request by calling a method of the REST client `getAbsoluteURL`.
-     *  That's good for now, but could lead to errors if the RestClient changes the way the URL is constructed internally,
-     *  by calling `getAbsoluteURL`.
-     *
-     *  - Another approach would involve the get of the requests ErrorListener and the check Listener's parameters.
-     *  - Cleanest approach is for sure to create a new class that extends Request<JSONObject> and stores parameters for later comparison,
-     *  unfortunately we have to change the REST Client and RestClientUtils a lot if we want follow this way...
-     *
-     */
-    private boolean checkIfRequestShouldBeEnqueued(final RestClientUtils restClientUtils, String path) {
-        String absoluteRequestPath = restClientUtils.getRestClient().getAbsoluteURL(path);
-        Iterator<Request<JSONObject>> it = mStatsNetworkRequests.iterator();
-        while (it.hasNext()) {
-            Request<JSONObject> req = it.next();
-            if (!req.hasHadResponseDelivered() && !req.isCanceled() &&
-                    absoluteRequestPath.equals(req.getOriginUrl())) {
-                return false;
-            }
-        }
-
-        return true;
-    }
-
     private class RestListener implements RestRequest.Listener, RestRequest.ErrorListener {
+        private final StatsModelCache.Key mCacheKey;
         final String mRequestBlogId;
         private final StatsTimeframe mTimeframe;
         Serializable mResponseObjectModel;
         final StatsEndpointsEnum mEndpointName;
         private final String mDate;
+        private volatile String mResponseJson;
         private Request<JSONObject> currentRequest;
         private final int mMaxResultsRequested, mPageRequested;
 
-        public RestListener(StatsEndpointsEnum endpointName, String blogId, StatsTimeframe timeframe, String date,
-                            final int maxResultsRequested, final int pageRequested) {
+        public RestListener(StatsModelCache.Key cacheKey, StatsEndpointsEnum endpointName, String blogId,
+                            StatsTimeframe timeframe, String date, final int maxResultsRequested, final int pageRequested) {
+            mCacheKey = cacheKey;
             mRequestBlogId = blogId;
             mTimeframe = timeframe;
             mEndpointName = endpointName;
@@ -367,23 +400,35 @@ public class StatsService extends Service {
 
         @Override
         public void onResponse(final JSONObject response) {
+            // parse in parallel with the other responses, the result is delivered from the network handler thread
+            final Future<Serializable> parsedResponse = sParseExecutor.submit(new Callable<Serializable>() {
+                @Override
+                public Serializable call() throws JSONException {
+                    if (response == null) {
+                        return null;
+                    }
+                    mResponseJson = response.toString();
+                    return StatsUtils.parseResponse(mEndpointName, mRequestBlogId, response);
+                }
+            });
+
             singleThreadNetworkHandler.submit(new Thread() {
                 @Override
                 public void run() {
-                    // do other stuff here
                     if (response != null) {
                         try {
-                            //AppLog.d(T.STATS, response.toString());
-                            mResponseObjectModel = StatsUtils.parseResponse(mEndpointName, mRequestBlogId, response);
+                            mResponseObjectModel = parsedResponse.get();
                             if (isCacheEnabled()) {
-                                int parsedBlogID = Integer.parseInt(mRequestBlogId);
-                                int localTableBlogId = WordPress.wpDB.getLocalTableBlogIdForRemoteBlogId(parsedBlogID);
-                                StatsTable.insertStats(StatsService.this, localTableBlogId, mTimeframe, mDate, mEndpointName,
-                                        mMaxResultsRequested, mPageRequested,
-                                        response.toString(), System.currentTimeMillis());
+                                long responseTimestamp = System.currentTimeMillis();
+                                StatsModelCache.put(mCacheKey, mResponseObjectModel, responseTimestamp);
+                                mPendingStatsResponses.add(new StatsTable.StatsResponse(mCacheKey.getLocalBlogId(),
+                                        mTimeframe, mDate, mEndpointName, mMaxResultsRequested, mPageRequested,
+                                        mResponseJson, responseTimestamp));
                             }
-                        } catch (JSONException e) {
-                            AppLog.e(AppLog.T.STATS, e);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (ExecutionException e) {
+                            AppLog.e(AppLog.T.STATS, e.getCause());
                         }
                     }
                     EventBus.getDefault().post(new StatsEvents.SectionUpdated(mEndpointName, mRequestBlogId, mTimeframe, mDate,
@@ -438,12 +483,29 @@ public class StatsService extends Service {
 
 
     private void checkAllRequestsFinished(Request<JSONObject> req) {
+        boolean isStillWorking;
         synchronized (mStatsNetworkRequests) {
             if (req != null) {
                 mStatsNetworkRequests.remove(req);
+                mInFlightRequests.values().remove(req);
             }
-            boolean isStillWorking = mStatsNetworkRequests.size() > 0 ;
+            isStillWorking = mStatsNetworkRequests.size() > 0 ;
             EventBus.getDefault().post(new StatsEvents.UpdateStatusChanged(isStillWorking));
         }
+
+        if (!isStillWorking && req != null) {
+            sLastRefreshLatencyMs = SystemClock.elapsedRealtime() - mRefreshStartTime;
+            AppLog.i(T.STATS, "stats refresh of " + mRefreshSectionCount + " sections delivered in "
+                    + sLastRefreshLatencyMs + " ms");
+            flushPendingStats();
+        }
+    }
+
+    private void flushPendingStats() {
+        if (mPendingStatsResponses.isEmpty()) {
+            return;
+        }
+        StatsTable.insertStats(this, mPendingStatsResponses);
+        mPendingStatsResponses.clear();
     }
 }
\ No newline at end of file
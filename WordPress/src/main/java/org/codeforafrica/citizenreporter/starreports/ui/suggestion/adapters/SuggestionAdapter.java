@@ -11,10 +11,10 @@ import android.widget.TextView;
 
 import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.models.Suggestion;
+import org.codeforafrica.citizenreporter.starreports.ui.suggestion.util.SuggestionIndex;
 import org.wordpress.android.util.GravatarUtils;
 import org.codeforafrica.citizenreporter.starreports.widgets.WPNetworkImageView;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class SuggestionAdapter extends BaseAdapter implements Filterable {
@@ -22,6 +22,7 @@ public class SuggestionAdapter extends BaseAdapter implements Filterable {
     private Filter mSuggestionFilter;
     private List<Suggestion> mSuggestionList;
     private List<Suggestion> mOrigSuggestionList;
+    private SuggestionIndex<Suggestion> mSuggestionIndex;
     private int mAvatarSz;
 
     public SuggestionAdapter(Context context) {
@@ -29,8 +30,19 @@ public class SuggestionAdapter extends BaseAdapter implements Filterable {
         mInflater = LayoutInflater.from(context);
     }
 
-    public void setSuggestionList(List<Suggestion> suggestionList) {
+    public synchronized void setSuggestionList(List<Suggestion> suggestionList) {
         mOrigSuggestionList = suggestionList;
+        mSuggestionIndex = null;
+    }
+
+    /*
+     * the index is built on the filter's worker thread the first time the list is filtered
+     */
+    private synchronized SuggestionIndex<Suggestion> getSuggestionIndex() {
+        if (mSuggestionIndex == null && mOrigSuggestionList != null) {
+            mSuggestionIndex = SuggestionIndex.forSuggestions(mOrigSuggestionList);
+        }
+        return mSuggestionIndex;
     }
 
     @Override
@@ -103,26 +115,14 @@ public class SuggestionAdapter extends BaseAdapter implements Filterable {
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
             FilterResults results = new FilterResults();
+            SuggestionIndex<Suggestion> suggestionIndex = getSuggestionIndex();
 
-            if (mOrigSuggestionList == null) {
+            if (suggestionIndex == null) {
                 results.values = null;
                 results.count = 0;
             }
-            else if (constraint == null || constraint.length() == 0) {
-                results.values = mOrigSuggestionList;
-                results.count = mOrigSuggestionList.size();
-            }
             else {
-                List<Suggestion> nSuggestionList = new ArrayList<Suggestion>();
-
-                for (Suggestion suggestion : mOrigSuggestionList) {
-                    String lowerCaseConstraint = constraint.toString().toLowerCase();
-                    if (suggestion.getUserLogin().toLowerCase().startsWith(lowerCaseConstraint)
-                            || suggestion.getDisplayName().toLowerCase().startsWith(lowerCaseConstraint)
-                            || suggestion.getDisplayName().toLowerCase().contains(" " + lowerCaseConstraint))
-                        nSuggestionList.add(suggestion);
-                }
-
+                List<Suggestion> nSuggestionList = suggestionIndex.find(constraint);
                 results.values = nSuggestionList;
                 results.count = nSuggestionList.size();
             }
@@ -11,8 +11,8 @@ import android.widget.TextView;
 
 import org.codeforafrica.citizenreporter.starreports.R;
 import org.codeforafrica.citizenreporter.starreports.models.Tag;
+import org.codeforafrica.citizenreporter.starreports.ui.suggestion.util.SuggestionIndex;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class TagSuggestionAdapter extends BaseAdapter implements Filterable {
@@ -20,13 +20,25 @@ public class TagSuggestionAdapter extends BaseAdapter implements Filterable {
     private Filter mTagFilter;
     private List<Tag> mTagList;
     private List<Tag> mOrigTagList;
+    private SuggestionIndex<Tag> mTagIndex;
 
     public TagSuggestionAdapter(Context context) {
         mInflater = LayoutInflater.from(context);
     }
 
-    public void setTagList(List<Tag> tagList) {
+    public synchronized void setTagList(List<Tag> tagList) {
         mOrigTagList = tagList;
+        mTagIndex = null;
+    }
+
+    /*
+     * the index is built on the filter's worker thread the first time the list is filtered
+     */
+    private synchronized SuggestionIndex<Tag> getTagIndex() {
+        if (mTagIndex == null && mOrigTagList != null) {
+            mTagIndex = SuggestionIndex.forTags(mOrigTagList);
+        }
+        return mTagIndex;
     }
 
     @Override
@@ -92,25 +104,14 @@ public class TagSuggestionAdapter extends BaseAdapter implements Filterable {
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
             FilterResults results = new FilterResults();
+            SuggestionIndex<Tag> tagIndex = getTagIndex();
 
-            if (mOrigTagList == null) {
+            if (tagIndex == null) {
                 results.values = null;
                 results.count = 0;
             }
-            else if (constraint == null || constraint.length() == 0) {
-                results.values = mOrigTagList;
-                results.count = mOrigTagList.size();
-            }
             else {
-                List<Tag> nTagList = new ArrayList<Tag>();
-
-                for (Tag tag : mOrigTagList) {
-                    String lowerCaseConstraint = constraint.toString().toLowerCase();
-                    if (tag.getTag().toLowerCase().startsWith(lowerCaseConstraint)
-                            || tag.getTag().toLowerCase().contains(" " + lowerCaseConstraint))
-                        nTagList.add(tag);
-                }
-
+                List<Tag> nTagList = tagIndex.find(constraint);
                 results.values = nTagList;
                 results.count = nTagList.size();
             }
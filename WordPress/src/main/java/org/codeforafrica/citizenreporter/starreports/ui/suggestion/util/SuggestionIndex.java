@@ -0,0 +1,210 @@
+package org.codeforafrica.citizenreporter.starreports.ui.suggestion.util;
+
+import org.codeforafrica.citizenreporter.starreports.models.Suggestion;
+import org.codeforafrica.citizenreporter.starreports.models.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix index of the names of a site's suggestions or tags, so the suggestion adapters can filter
+ * thousands of entries on each key press without lowercasing and scanning every name. The lowercase
+ * names are kept once, and the index is an array of the positions where a name or one of its words
+ * starts, sorted by the text that follows - the entries starting with the typed text are found with a
+ * binary search. An item matches when its name starts with the typed text or, as before, when a word
+ * after a space in its display name (or tag) does.
+ */
+public class SuggestionIndex<T> {
+    // rank of a match, lower ranks are listed first
+    private static final int RANK_EXACT = 0;
+    private static final int RANK_NAME = 1;
+    private static final int RANK_DISPLAY_NAME = 2;
+    private static final int RANK_WORD = 3;
+
+    private final List<T> mItems;
+    // two lowercase names per item, the name at 2n and the display name (if any) at 2n+1
+    private final String[] mTexts;
+    // the sorted entries, each a position in one of the names
+    private final int[] mEntryText;
+    private final int[] mEntryOffset;
+
+    public static SuggestionIndex<Suggestion> forSuggestions(List<Suggestion> suggestions) {
+        String[] texts = new String[suggestions.size() * 2];
+        for (int i = 0; i < suggestions.size(); i++) {
+            texts[i * 2] = suggestions.get(i).getUserLogin().toLowerCase();
+            texts[i * 2 + 1] = suggestions.get(i).getDisplayName().toLowerCase();
+        }
+        return new SuggestionIndex<>(suggestions, texts, false);
+    }
+
+    public static SuggestionIndex<Tag> forTags(List<Tag> tags) {
+        String[] texts = new String[tags.size() * 2];
+        for (int i = 0; i < tags.size(); i++) {
+            texts[i * 2] = tags.get(i).getTag().toLowerCase();
+        }
+        return new SuggestionIndex<>(tags, texts, true);
+    }
+
+    private SuggestionIndex(List<T> items, String[] texts, boolean indexNameWords) {
+        mItems = items;
+        mTexts = texts;
+
+        int numEntries = 0;
+        for (int text = 0; text < texts.length; text++) {
+            if (texts[text] != null) {
+                numEntries += 1 + (indexNameWords || text % 2 == 1 ? countWords(texts[text]) : 0);
+            }
+        }
+
+        Integer[] entries = new Integer[numEntries];
+        final int[] entryText = new int[numEntries];
+        final int[] entryOffset = new int[numEntries];
+        int entry = 0;
+        for (int text = 0; text < texts.length; text++) {
+            String name = texts[text];
+            if (name == null) {
+                continue;
+            }
+            boolean indexWords = indexNameWords || text % 2 == 1;
+            for (int offset = 0; offset < name.length() || offset == 0; offset++) {
+                if (offset == 0 || (indexWords && name.charAt(offset - 1) == ' ')) {
+                    entries[entry] = entry;
+                    entryText[entry] = text;
+                    entryOffset[entry] = offset;
+                    entry++;
+                }
+            }
+        }
+
+        Arrays.sort(entries, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareSuffixes(mTexts[entryText[lhs]], entryOffset[lhs],
+                        mTexts[entryText[rhs]], entryOffset[rhs]);
+            }
+        });
+
+        mEntryText = new int[numEntries];
+        mEntryOffset = new int[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            mEntryText[i] = entryText[entries[i]];
+            mEntryOffset[i] = entryOffset[entries[i]];
+        }
+    }
+
+    /*
+     * number of words after the first one, ie: positions that follow a space
+     */
+    private static int countWords(String name) {
+        int count = 0;
+        for (int i = 1; i < name.length(); i++) {
+            if (name.charAt(i - 1) == ' ') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int compareSuffixes(String lhs, int lhsOffset, String rhs, int rhsOffset) {
+        int lhsLength = lhs.length() - lhsOffset;
+        int rhsLength = rhs.length() - rhsOffset;
+        int length = Math.min(lhsLength, rhsLength);
+        for (int i = 0; i < length; i++) {
+            char lhsChar = lhs.charAt(lhsOffset + i);
+            char rhsChar = rhs.charAt(rhsOffset + i);
+            if (lhsChar != rhsChar) {
+                return lhsChar - rhsChar;
+            }
+        }
+        return lhsLength - rhsLength;
+    }
+
+    /*
+     * compares the start of the entry with the passed prefix, zero when the entry starts with it
+     */
+    private int compareEntry(int entry, String prefix) {
+        String text = mTexts[mEntryText[entry]];
+        int offset = mEntryOffset[entry];
+        int length = Math.min(text.length() - offset, prefix.length());
+        for (int i = 0; i < length; i++) {
+            char textChar = text.charAt(offset + i);
+            char prefixChar = prefix.charAt(i);
+            if (textChar != prefixChar) {
+                return textChar - prefixChar;
+            }
+        }
+        return text.length() - offset < prefix.length() ? -1 : 0;
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    /*
+     * returns the items matching the passed text - exact matches first, then items whose name starts
+     * with it, then those whose display name does and finally those with a word starting with it,
+     * keeping the order of the indexed list within each group
+     */
+    public List<T> find(CharSequence constraint) {
+        if (constraint == null || constraint.length() == 0) {
+            return mItems;
+        }
+        String prefix = constraint.toString().toLowerCase();
+
+        // binary search for the first entry starting with the prefix
+        int low = 0;
+        int high = mEntryText.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareEntry(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        // each match is packed as item and rank so sorting groups an item's matches, best first
+        long[] matches = new long[16];
+        int numMatches = 0;
+        for (int entry = low; entry < mEntryText.length && compareEntry(entry, prefix) == 0; entry++) {
+            if (numMatches == matches.length) {
+                matches = Arrays.copyOf(matches, numMatches * 2);
+            }
+            matches[numMatches++] = ((long) (mEntryText[entry] / 2) << 2) | getRank(entry, prefix);
+        }
+        if (numMatches == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(matches, 0, numMatches);
+
+        // keep the best match of each item, then order them by rank
+        int numItems = 0;
+        for (int i = 0; i < numMatches; i++) {
+            long item = matches[i] >> 2;
+            if (numItems == 0 || (matches[numItems - 1] & 0xFFFFFFFFL) != item) {
+                matches[numItems++] = ((matches[i] & 3) << 32) | item;
+            }
+        }
+        Arrays.sort(matches, 0, numItems);
+
+        List<T> results = new ArrayList<>(numItems);
+        for (int i = 0; i < numItems; i++) {
+            results.add(mItems.get((int) (matches[i] & 0xFFFFFFFFL)));
+        }
+        return results;
+    }
+
+    private int getRank(int entry, String prefix) {
+        if (mEntryOffset[entry] > 0) {
+            return RANK_WORD;
+        }
+        int text = mEntryText[entry];
+        if (mTexts[text].length() == prefix.length()) {
+            return RANK_EXACT;
+        }
+        return text % 2 == 0 ? RANK_NAME : RANK_DISPLAY_NAME;
+    }
+}
@@ -7,6 +7,7 @@ import android.util.Xml;
 import com.google.gson.Gson;
 
 import org.codeforafrica.citizenreporter.starreports.WordPress;
+import org.codeforafrica.citizenreporter.starreports.WordPressDB;
 import org.codeforafrica.citizenreporter.starreports.chat.Message;
 import org.codeforafrica.citizenreporter.starreports.datasets.CommentTable;
 import org.codeforafrica.citizenreporter.starreports.models.Blog;
@@ -14,14 +15,12 @@ import org.codeforafrica.citizenreporter.starreports.models.BlogIdentifier;
 import org.codeforafrica.citizenreporter.starreports.models.Comment;
 import org.codeforafrica.citizenreporter.starreports.models.CommentList;
 import org.codeforafrica.citizenreporter.starreports.models.FeatureSet;
-import org.codeforafrica.citizenreporter.starreports.ui.main.AssignmentsListFragment;
 import org.codeforafrica.citizenreporter.starreports.ui.media.MediaGridFragment.Filter;
-import org.codeforafrica.citizenreporter.starreports.ui.posts.LessonsListFragment;
-import org.codeforafrica.citizenreporter.starreports.ui.posts.PostsListFragment;
 import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.AppLog.T;
 import org.wordpress.android.util.DateTimeUtils;
 import org.wordpress.android.util.MapUtils;
+import org.wordpress.android.util.StringUtils;
 import org.wordpress.android.util.helpers.MediaFile;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -36,6 +35,7 @@ import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -118,15 +118,19 @@ public class ApiHelper {
         }
 
         protected void onPostExecute(Object result) {
-            if (result != null && result instanceof HashMap) {
-                Map<?, ?> postFormats = (HashMap<?, ?>) result;
-                if (postFormats.size() > 0) {
-                    Gson gson = new Gson();
-                    String postFormatsJson = gson.toJson(postFormats);
-                    if (postFormatsJson != null) {
-                        if (mBlog.bsetPostFormats(postFormatsJson)) {
-                            WordPress.wpDB.saveBlog(mBlog);
-                        }
+            updatePostFormats(mBlog, result);
+        }
+    }
+
+    private static void updatePostFormats(Blog blog, Object result) {
+        if (result != null && result instanceof HashMap) {
+            Map<?, ?> postFormats = (HashMap<?, ?>) result;
+            if (postFormats.size() > 0) {
+                Gson gson = new Gson();
+                String postFormatsJson = gson.toJson(postFormats);
+                if (postFormatsJson != null) {
+                    if (blog.bsetPostFormats(postFormatsJson)) {
+                        WordPress.wpDB.saveBlog(blog);
                     }
                 }
             }
@@ -136,7 +140,15 @@ public class ApiHelper {
     public static synchronized void updateBlogOptions(Blog currentBlog, Map<?, ?> blogOptions) {
         boolean isModified = false;
         Gson gson = new Gson();
-        String blogOptionsJson = gson.toJson(blogOptions);
+        // the chunked uploads flag isn't a server option, it's kept by adding it to the fetched options
+        // before they're compared with the stored ones - unchanged options then don't re-save the blog
+        Map<Object, Object> options = new HashMap<Object, Object>(blogOptions);
+        if (!currentBlog.isChunkedUploadCapable()) {
+            Map<String, String> unsupported = new HashMap<String, String>();
+            unsupported.put("value", "1");
+            options.put(Blog.OPTION_CHUNKED_UPLOADS_UNSUPPORTED, unsupported);
+        }
+        String blogOptionsJson = gson.toJson(options);
         if (blogOptionsJson != null) {
             isModified |= currentBlog.bsetBlogOptions(blogOptionsJson);
         }
@@ -174,6 +186,32 @@ public class ApiHelper {
         }
     }
 
+    /*
+     * keeps the result or error of each call of a multicall by id, so they can be applied in a chosen order
+     */
+    private static class MulticallResults implements XMLRPCCallback {
+        private final Map<Long, Object> mResults = new HashMap<Long, Object>();
+        private final Map<Long, Exception> mErrors = new HashMap<Long, Exception>();
+
+        @Override
+        public void onSuccess(long id, Object result) {
+            mResults.put(id, result);
+        }
+
+        @Override
+        public void onFailure(long id, Exception error) {
+            mErrors.put(id, error);
+        }
+
+        Object getResult(long id) {
+            return mResults.get(id);
+        }
+
+        Exception getError(long id) {
+            return mErrors.get(id);
+        }
+    }
+
     /**
      * Task to refresh blog level information (WP version number) and stuff
      * related to the active theme (available post types, recent comments, etc).
@@ -223,6 +261,12 @@ public class ApiHelper {
             XMLRPCClientInterface client = XMLRPCFactory.instantiate(mBlog.getUri(), mBlog.getHttpuser(),
                     mBlog.getHttppassword());
 
+            // these calls don't depend on each other, they're sent in a single request
+            XMLRPCMulticall multicall = new XMLRPCMulticall(client, mBlog.getUrl());
+            MulticallResults results = new MulticallResults();
+            long optionsId = -1;
+            long postFormatsId = -1;
+
             if (!commentsOnly) {
                 // check the WP number if self-hosted
                 Map<String, String> hPost = ApiHelper.blogOptionsXMLRPCParameters;
@@ -231,55 +275,79 @@ public class ApiHelper {
                                     mBlog.getUsername(),
                                     mBlog.getPassword(),
                                     hPost};
-                Object versionResult = null;
-                try {
-                    versionResult = client.call("wp.getOptions", vParams);
-                } catch (ClassCastException cce) {
-                    setError(ErrorType.INVALID_RESULT, cce.getMessage(), cce);
-                    return false;
-                } catch (Exception e) {
-                    setError(ErrorType.NETWORK_XMLRPC, e.getMessage(), e);
-                    return false;
-                }
-
-                if (versionResult != null) {
-                    Map<?, ?> blogOptions = (HashMap<?, ?>) versionResult;
-                    ApiHelper.updateBlogOptions(mBlog, blogOptions);
-                }
+                optionsId = multicall.add("wp.getOptions", vParams, results);
 
                 // get theme post formats
-                new GetPostFormatsTask().execute(mBlog);
+                Object[] postFormatsParams = {mBlog.getRemoteBlogId(), mBlog.getUsername(),
+                        mBlog.getPassword(), "show-supported"};
+                postFormatsId = multicall.add("wp.getPostFormats", postFormatsParams, results);
             }
 
             // Check if user is an admin
             Object[] userParams = {mBlog.getRemoteBlogId(), mBlog.getUsername(), mBlog.getPassword()};
-            try {
-                Map<String, Object> userInfos = (HashMap<String, Object>) client.call("wp.getProfile", userParams);
-                updateBlogAdmin(userInfos);
-            } catch (ClassCastException cce) {
-                setError(ErrorType.INVALID_RESULT, cce.getMessage(), cce);
-                return false;
-            } catch (XMLRPCException e) {
-                setError(ErrorType.NETWORK_XMLRPC, e.getMessage(), e);
-            } catch (IOException e) {
-                setError(ErrorType.NETWORK_XMLRPC, e.getMessage(), e);
-            } catch (XmlPullParserException e) {
-                setError(ErrorType.NETWORK_XMLRPC, e.getMessage(), e);
-            }
+            long profileId = multicall.add("wp.getProfile", userParams, results);
 
             // refresh the comments
             Map<String, Object> hPost = new HashMap<String, Object>();
             hPost.put("number", 30);
             Object[] commentParams = {mBlog.getRemoteBlogId(), mBlog.getUsername(),
                     mBlog.getPassword(), hPost};
+            long commentsId = multicall.add("wp.getComments", commentParams, results);
+
+            multicall.execute();
+
+            // nothing else is applied if the options couldn't be fetched
+            if (!commentsOnly) {
+                Exception optionsError = results.getError(optionsId);
+                if (optionsError != null) {
+                    setError(ErrorType.NETWORK_XMLRPC, optionsError.getMessage(), optionsError);
+                    return false;
+                }
+                try {
+                    Object versionResult = results.getResult(optionsId);
+                    if (versionResult != null) {
+                        Map<?, ?> blogOptions = (HashMap<?, ?>) versionResult;
+                        ApiHelper.updateBlogOptions(mBlog, blogOptions);
+                    }
+                } catch (ClassCastException cce) {
+                    setError(ErrorType.INVALID_RESULT, cce.getMessage(), cce);
+                    return false;
+                }
+
+                Exception postFormatsError = results.getError(postFormatsId);
+                if (postFormatsError != null) {
+                    AppLog.w(T.API, "wp.getPostFormats failed: " + postFormatsError.getMessage());
+                } else {
+                    updatePostFormats(mBlog, results.getResult(postFormatsId));
+                }
+            }
+
+            boolean success = true;
+            Exception profileError = results.getError(profileId);
+            if (profileError != null) {
+                setError(ErrorType.NETWORK_XMLRPC, profileError.getMessage(), profileError);
+            } else {
+                try {
+                    Map<String, Object> userInfos = (HashMap<String, Object>) results.getResult(profileId);
+                    updateBlogAdmin(userInfos);
+                } catch (ClassCastException cce) {
+                    setError(ErrorType.INVALID_RESULT, cce.getMessage(), cce);
+                    success = false;
+                }
+            }
+
+            Exception commentsError = results.getError(commentsId);
+            if (commentsError != null) {
+                setError(ErrorType.NETWORK_XMLRPC, commentsError.getMessage(), commentsError);
+                return false;
+            }
             try {
-                ApiHelper.refreshComments(mBlog, commentParams);
+                ApiHelper.saveComments(mBlog, (Object[]) results.getResult(commentsId));
             } catch (Exception e) {
                 setError(ErrorType.NETWORK_XMLRPC, e.getMessage(), e);
                 return false;
             }
-
-            return true;
+            return success;
         }
 
         @Override
@@ -354,7 +422,13 @@ public class ApiHelper {
                 blog.getHttppassword());
         Object[] result;
         result = (Object[]) client.call("wp.getComments", commentParams);
+        return saveComments(blog, result);
+    }
 
+    /*
+     * saves the comments returned by wp.getComments, returns null if there aren't any
+     */
+    private static CommentList saveComments(Blog blog, Object[] result) {
         if (result.length == 0) {
             return null;
         }
@@ -428,36 +502,20 @@ public class ApiHelper {
             XMLRPCClientInterface client = XMLRPCFactory.instantiate(blog.getUri(), blog.getHttpuser(),
                     blog.getHttppassword());
 
-            Object[] result;
             Object[] xmlrpcParams = { blog.getRemoteBlogId(),
                     blog.getUsername(),
                     blog.getPassword(), recordCount };
+            WordPressDB.PostsSync sync = WordPress.wpDB.beginPostsSync(blog.getLocalTableBlogId(), isPage, true,
+                    !loadMore, false);
             try {
-                result = (Object[]) client.call((isPage) ? "wp.getPages"
-                        : "metaWeblog.getRecentAssignments", xmlrpcParams);
-                if (result != null && result.length > 0) {
-                    mAssignmentsCount = result.length;
-                    List<Map<?, ?>> postsList = new ArrayList<Map<?, ?>>();
-
-                    if (!loadMore) {
-                        WordPress.wpDB.deleteUploadedAssignments(
-                                blog.getLocalTableBlogId());
-                    }
-
-                    // If we're loading more posts, only save the posts at the end of the array.
-                    // NOTE: Switching to wp.getPosts wouldn't require janky solutions like this
-                    // since it allows for an offset parameter.
-                    int startPosition = 0;
-                    if (loadMore && result.length > AssignmentsListFragment.POSTS_REQUEST_COUNT) {
-                        startPosition = result.length - AssignmentsListFragment.POSTS_REQUEST_COUNT;
-                    }
-
-                    for (int ctr = startPosition; ctr < result.length; ctr++) {
-                        Map<?, ?> postMap = (Map<?, ?>) result[ctr];
-                        postsList.add(postMap);
-                    }
-
-                    WordPress.wpDB.savePosts(postsList, blog.getLocalTableBlogId(), isPage, true, !loadMore, false);
+                // Each item is saved as soon as it's parsed. The server only returns the most recent items, so
+                // loading more re-requests the ones we already have, but unchanged items aren't saved again and
+                // only the items missing from the dates covered by the response are deleted.
+                mAssignmentsCount = client.callStreaming((isPage) ? "wp.getPages"
+                        : "metaWeblog.getRecentAssignments", xmlrpcParams, sync);
+                if (mAssignmentsCount > 0) {
+                    // fewer items than requested means the server has no older ones
+                    sync.finish(mAssignmentsCount < recordCount);
                 }
                 return true;
             } catch (XMLRPCFault e) {
@@ -475,6 +533,9 @@ public class ApiHelper {
             } catch (XmlPullParserException e) {
                 mErrorType = ErrorType.INVALID_RESULT;
                 mErrorMessage = e.getMessage();
+            } finally {
+                // no-op if the sync was finished
+                sync.abort();
             }
 
             return false;
@@ -524,36 +585,20 @@ public class ApiHelper {
             XMLRPCClientInterface client = XMLRPCFactory.instantiate(blog.getUri(), blog.getHttpuser(),
                     blog.getHttppassword());
 
-            Object[] result;
             Object[] xmlrpcParams = { blog.getRemoteBlogId(),
                     blog.getUsername(),
                     blog.getPassword(), recordCount };
+            WordPressDB.PostsSync sync = WordPress.wpDB.beginPostsSync(blog.getLocalTableBlogId(), isPage, false,
+                    !loadMore, false);
             try {
-                result = (Object[]) client.call((isPage) ? "wp.getPages"
-                        : "metaWeblog.getRecentPosts", xmlrpcParams);
-                if (result != null && result.length > 0) {
-                    mPostCount = result.length;
-                    List<Map<?, ?>> postsList = new ArrayList<Map<?, ?>>();
-
-                    if (!loadMore) {
-                        WordPress.wpDB.deleteUploadedPosts(
-                                blog.getLocalTableBlogId(), isPage);
-                    }
-
-                    // If we're loading more posts, only save the posts at the end of the array.
-                    // NOTE: Switching to wp.getPosts wouldn't require janky solutions like this
-                    // since it allows for an offset parameter.
-                    int startPosition = 0;
-                    if (loadMore && result.length > PostsListFragment.POSTS_REQUEST_COUNT) {
-                        startPosition = result.length - PostsListFragment.POSTS_REQUEST_COUNT;
-                    }
-
-                    for (int ctr = startPosition; ctr < result.length; ctr++) {
-                        Map<?, ?> postMap = (Map<?, ?>) result[ctr];
-                        postsList.add(postMap);
-                    }
-
-                    WordPress.wpDB.savePosts(postsList, blog.getLocalTableBlogId(), isPage, false, !loadMore, false);
+                // Each item is saved as soon as it's parsed. The server only returns the most recent items, so
+                // loading more re-requests the ones we already have, but unchanged items aren't saved again and
+                // only the items missing from the dates covered by the response are deleted.
+                mPostCount = client.callStreaming((isPage) ? "wp.getPages"
+                        : "metaWeblog.getRecentPosts", xmlrpcParams, sync);
+                if (mPostCount > 0) {
+                    // fewer items than requested means the server has no older ones
+                    sync.finish(mPostCount < recordCount);
                 }
                 return true;
             } catch (XMLRPCFault e) {
@@ -571,6 +616,9 @@ public class ApiHelper {
             } catch (XmlPullParserException e) {
                 mErrorType = ErrorType.INVALID_RESULT;
                 mErrorMessage = e.getMessage();
+            } finally {
+                // no-op if the sync was finished
+                sync.abort();
             }
 
             return false;
@@ -623,36 +671,20 @@ public class ApiHelper {
             XMLRPCClientInterface client = XMLRPCFactory.instantiate(blog.getUri(), blog.getHttpuser(),
                     blog.getHttppassword());
 
-            Object[] result;
             Object[] xmlrpcParams = { blog.getRemoteBlogId(),
                     blog.getUsername(),
                     blog.getPassword(), recordCount };
+            WordPressDB.PostsSync sync = WordPress.wpDB.beginPostsSync(blog.getLocalTableBlogId(), isPage, false,
+                    !loadMore, true);
             try {
-                result = (Object[]) client.call((isPage) ? "wp.getPages"
-                        : "metaWeblog.getLessons", xmlrpcParams);
-                if (result != null && result.length > 0) {
-                    mLessonsCount = result.length;
-                    List<Map<?, ?>> postsList = new ArrayList<Map<?, ?>>();
-
-                    if (!loadMore) {
-                        WordPress.wpDB.deleteUploadedLessons(
-                                blog.getLocalTableBlogId());
-                    }
-
-                    // If we're loading more posts, only save the posts at the end of the array.
-                    // NOTE: Switching to wp.getPosts wouldn't require janky solutions like this
-                    // since it allows for an offset parameter.
-                    int startPosition = 0;
-                    if (loadMore && result.length > LessonsListFragment.POSTS_REQUEST_COUNT) {
-                        startPosition = result.length - LessonsListFragment.POSTS_REQUEST_COUNT;
-                    }
-
-                    for (int ctr = startPosition; ctr < result.length; ctr++) {
-                        Map<?, ?> postMap = (Map<?, ?>) result[ctr];
-                        postsList.add(postMap);
-                    }
-                    boolean isLessons = true;
-                    WordPress.wpDB.savePosts(postsList, blog.getLocalTableBlogId(), isPage, false, !loadMore, isLessons);
+                // Each item is saved as soon as it's parsed. The server only returns the most recent items, so
+                // loading more re-requests the ones we already have, but unchanged items aren't saved again and
+                // only the items missing from the dates covered by the response are deleted.
+                mLessonsCount = client.callStreaming((isPage) ? "wp.getPages"
+                        : "metaWeblog.getLessons", xmlrpcParams, sync);
+                if (mLessonsCount > 0) {
+                    // fewer items than requested means the server has no older ones
+                    sync.finish(mLessonsCount < recordCount);
                 }
                 return true;
             } catch (XMLRPCFault e) {
@@ -670,6 +702,9 @@ public class ApiHelper {
             } catch (XmlPullParserException e) {
                 mErrorType = ErrorType.INVALID_RESULT;
                 mErrorMessage = e.getMessage();
+            } finally {
+                // no-op if the sync was finished
+                sync.abort();
             }
 
             return false;
@@ -723,27 +758,44 @@ public class ApiHelper {
             XMLRPCClientInterface client = XMLRPCFactory.instantiate(blog.getUri(), blog.getHttpuser(),
                     blog.getHttppassword());
 
+            // only the messages newer than the last one we received are requested, servers that don't
+            // support the since-id return their most recent messages, which are de-duplicated by remote id
+            long sinceId = loadMore ? 0 : WordPress.wpDB.getMessagesSinceId(blog.getLocalTableBlogId());
             Object[] result;
             Object[] xmlrpcParams = { blog.getRemoteBlogId(),
                     blog.getUsername(),
-                    blog.getPassword(), recordCount };
+                    blog.getPassword(), recordCount, sinceId };
             try {
                 result = (Object[]) client.call((isPage) ? "wp.getPages"
                         : "metaWeblog.getMessages", xmlrpcParams);
                 if (result != null && result.length > 0) {
-                    mMessagesCount = result.length;
-
-                    int startPosition = 0;
-
-                    for (int ctr = startPosition; ctr < result.length; ctr++) {
-                        Map<?, ?> postMap = (Map<?, ?>) result[ctr];
+                    List<Message> messages = new ArrayList<Message>(result.length);
+                    long maxRemoteId = sinceId;
+                    for (Object item : result) {
+                        Map<?, ?> postMap = (Map<?, ?>) item;
 
                         Message chat = new Message();
                         chat.setMessage(MapUtils.getMapStr(postMap, "message"));
                         chat.setIsMine("2");
                         chat.setUser("admin");
-                        WordPress.wpDB.addMessage(chat);
-
+                        Date dateCreated = MapUtils.getMapDate(postMap, "date_created_gmt");
+                        if (dateCreated != null) {
+                            chat.setDateCreated(dateCreated.getTime());
+                        }
+                        long remoteId = MapUtils.getMapLong(postMap, "id");
+                        if (remoteId > 0) {
+                            chat.setRemoteId(Long.toString(remoteId));
+                            maxRemoteId = Math.max(maxRemoteId, remoteId);
+                        } else {
+                            // no id, the content and date identify the message
+                            chat.setRemoteId(StringUtils.getMd5Hash(chat.getMessage() + "|"
+                                    + MapUtils.getMapStr(postMap, "date_created_gmt")));
+                        }
+                        messages.add(chat);
+                    }
+                    mMessagesCount = WordPress.wpDB.addRemoteMessages(messages);
+                    if (maxRemoteId > sinceId) {
+                        WordPress.wpDB.setMessagesSinceId(blog.getLocalTableBlogId(), maxRemoteId);
                     }
                 }
                 return true;
@@ -1084,19 +1136,14 @@ public class ApiHelper {
                 return 0;
             }
 
-            Map<?, ?> resultMap;
-            // results returned, so mark everything existing to deleted
-            // since offset is 0, we are doing a full refresh
-            if (mOffset == 0) {
-                WordPress.wpDB.setMediaFilesMarkedForDeleted(blogId);
-            }
+            boolean isDotCom = blog.isDotcomFlag();
+            List<MediaFile> mediaFiles = new ArrayList<MediaFile>(results.length);
             for (Object result : results) {
-                resultMap = (Map<?, ?>) result;
-                boolean isDotCom = (WordPress.getCurrentBlog() != null && WordPress.getCurrentBlog().isDotcomFlag());
-                MediaFile mediaFile = new MediaFile(blogId, resultMap, isDotCom);
-                WordPress.wpDB.saveMediaFile(mediaFile);
+                mediaFiles.add(new MediaFile(blogId, (Map<?, ?>) result, isDotCom));
             }
-            WordPress.wpDB.deleteFilesMarkedForDeleted(blogId);
+            // results returned and the offset is 0, so this is a full refresh - everything existing is
+            // marked as deleted and whatever this page doesn't include is removed
+            WordPress.wpDB.saveMediaLibraryPage(blogId, mediaFiles, mOffset == 0);
             return results.length;
         }
 
@@ -1302,7 +1349,7 @@ public class ApiHelper {
 
             Map<?, ?> resultMap;
             try {
-                resultMap = (HashMap<?, ?>) client.call("wp.uploadFile", apiParams, getTempFile(mContext));
+                resultMap = (HashMap<?, ?>) client.call("wp.uploadFile", apiParams, getTempFile(mContext, client));
             } catch (ClassCastException cce) {
                 setError(ErrorType.INVALID_RESULT, cce.getMessage(), cce);
                 return null;
@@ -1326,8 +1373,11 @@ public class ApiHelper {
             return null;
         }
 
-        // Create a temp file for media upload
-        private File getTempFile(Context context) {
+        // Create a temp file for media upload, none if the client streams uploads and wouldn't use it
+        private File getTempFile(Context context, XMLRPCClientInterface client) {
+            if (client instanceof XMLRPCClient && ((XMLRPCClient) client).isStreamUploads()) {
+                return null;
+            }
             String tempFileName = "wp-" + System.currentTimeMillis();
             try {
                 context.openFileOutput(tempFileName, Context.MODE_PRIVATE);
@@ -0,0 +1,36 @@
+package org.xmlrpc.android;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Server side of a resumable, chunked media upload. The default implementation is
+ * {@link XMLRPCChunkedUploadEndpoint}, tests can plug in a local stub.
+ */
+public interface ChunkedUploadEndpoint {
+    /**
+     * Start a new upload session
+     * @return the id of the upload session
+     */
+    public String beginUpload(String fileName, String mimeType, long fileSize)
+            throws XMLRPCException, IOException, XmlPullParserException;
+
+    /**
+     * @return number of bytes of the upload the server has stored, or -1 if the session is unknown (expired)
+     */
+    public long getUploadedOffset(String uploadId) throws XMLRPCException, IOException, XmlPullParserException;
+
+    /**
+     * Send a chunk of the file starting at offset
+     * @return number of bytes of the upload the server has stored once the chunk is written
+     */
+    public long uploadChunk(String uploadId, long offset, byte[] chunk)
+            throws XMLRPCException, IOException, XmlPullParserException;
+
+    /**
+     * Complete the upload once all the bytes have been acknowledged
+     * @return the same struct as a wp.uploadFile call (id, file, url, type)
+     */
+    public Object finishUpload(String uploadId) throws XMLRPCException, IOException, XmlPullParserException;
+}
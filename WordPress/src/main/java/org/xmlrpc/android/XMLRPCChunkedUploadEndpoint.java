@@ -0,0 +1,76 @@
+package org.xmlrpc.android;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chunked uploads over XML-RPC. Servers that don't provide the wp.*ChunkedUpload methods reply with a
+ * {@link XMLRPCFault#CODE_METHOD_NOT_FOUND} fault, callers should then fall back to wp.uploadFile.
+ */
+public class XMLRPCChunkedUploadEndpoint implements ChunkedUploadEndpoint {
+    private static final String METHOD_BEGIN = "wp.beginChunkedUpload";
+    private static final String METHOD_GET_OFFSET = "wp.getChunkedUploadOffset";
+    private static final String METHOD_UPLOAD_CHUNK = "wp.uploadFileChunk";
+    private static final String METHOD_FINISH = "wp.finishChunkedUpload";
+
+    private final XMLRPCClientInterface mClient;
+    private final String mUsername;
+    private final String mPassword;
+
+    public XMLRPCChunkedUploadEndpoint(XMLRPCClientInterface client, String username, String password) {
+        mClient = client;
+        mUsername = username;
+        mPassword = password;
+    }
+
+    @Override
+    public String beginUpload(String fileName, String mimeType, long fileSize)
+            throws XMLRPCException, IOException, XmlPullParserException {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("name", fileName);
+        data.put("type", mimeType);
+        data.put("size", String.valueOf(fileSize));
+        data.put("overwrite", true);
+        Object result = mClient.call(METHOD_BEGIN, new Object[]{1, mUsername, mPassword, data});
+        if (result == null) {
+            throw new XMLRPCException("No upload id returned by " + METHOD_BEGIN);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public long getUploadedOffset(String uploadId) throws XMLRPCException, IOException, XmlPullParserException {
+        Object result = mClient.call(METHOD_GET_OFFSET, new Object[]{1, mUsername, mPassword, uploadId});
+        return parseOffset(result);
+    }
+
+    @Override
+    public long uploadChunk(String uploadId, long offset, byte[] chunk)
+            throws XMLRPCException, IOException, XmlPullParserException {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("upload_id", uploadId);
+        data.put("offset", String.valueOf(offset));
+        data.put("bits", chunk);
+        Object result = mClient.call(METHOD_UPLOAD_CHUNK, new Object[]{1, mUsername, mPassword, data});
+        return parseOffset(result);
+    }
+
+    @Override
+    public Object finishUpload(String uploadId) throws XMLRPCException, IOException, XmlPullParserException {
+        return mClient.call(METHOD_FINISH, new Object[]{1, mUsername, mPassword, uploadId});
+    }
+
+    private static long parseOffset(Object result) throws XMLRPCException {
+        if (result == null) {
+            throw new XMLRPCException("No offset returned by the server");
+        }
+        try {
+            return Long.parseLong(result.toString());
+        } catch (NumberFormatException e) {
+            throw new XMLRPCException("Invalid offset returned by the server: " + result);
+        }
+    }
+}
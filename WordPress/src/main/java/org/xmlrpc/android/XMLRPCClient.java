@@ -7,15 +7,11 @@ import android.util.Xml;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.util.EntityUtils;
@@ -25,6 +21,7 @@ import org.wordpress.android.util.AppLog;
 import org.wordpress.android.util.AppLog.T;
 import org.wordpress.android.util.CoreEvents;
 import org.wordpress.android.util.StringUtils;
+import org.wordpress.android.util.helpers.MediaFile;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -39,12 +36,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.SequenceInputStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URL;
-import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -62,7 +60,7 @@ import de.greenrobot.event.EventBus;
 public class XMLRPCClient implements XMLRPCClientInterface {
 
     public interface OnBytesUploadedListener {
-        public void onBytesUploaded(long uploadedBytes);
+        public void onBytesUploaded(long uploadedBytes, long totalBytes);
     }
 
     private static final String TAG_METHOD_CALL = "methodCall";
@@ -73,8 +71,6 @@ public class XMLRPCClient implements XMLRPCClientInterface {
     private static final String TAG_FAULT = "fault";
     private static final String TAG_FAULT_CODE = "faultCode";
     private static final String TAG_FAULT_STRING = "faultString";
-    private static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
-    private static final int DEFAULT_SOCKET_TIMEOUT = 60000;
 
     private Map<Long,Caller> backgroundCalls = new HashMap<Long, Caller>();
 
@@ -86,6 +82,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
     private LoggedInputStream mLoggedInputStream;
 
     private boolean mIsWpcom;
+    private boolean mStreamUploads = true;
 
     /**
      * XMLRPCClient constructor. Creates new instance based on server URI
@@ -117,55 +114,18 @@ public class XMLRPCClient implements XMLRPCClientInterface {
         return mLoggedInputStream.getResponseDocument();
     }
 
-    private class ConnectionClient extends DefaultHttpClient {
-        public ConnectionClient(int port) throws IOException, GeneralSecurityException {
-            super();
-            TrustUserSSLCertsSocketFactory tasslf = new TrustUserSSLCertsSocketFactory();
-            Scheme scheme = new Scheme("https", tasslf, port);
-            getConnectionManager().getSchemeRegistry().register(scheme);
-        }
-    }
-
+    /*
+     * the client is shared by all the XMLRPCClient instances talking to the same host with the same credentials,
+     * so its connections are kept alive between calls
+     */
     private DefaultHttpClient instantiateClientForUri(URI uri, UsernamePasswordCredentials usernamePasswordCredentials) {
-        DefaultHttpClient client = null;
         if (uri != null && uri.getHost() != null && uri.getHost().endsWith("wordpress.com")) {
             mIsWpcom = true;
         }
-        if (mIsWpcom || (uri == null || uri.getScheme() == null || uri.getScheme().equals("http"))) {
-            //wpcom blog or self-hosted blog on plain HTTP
-            client = new DefaultHttpClient();
-        } else {
-            int port = uri.getPort();
-            if (port == -1) {
-                port = 443;
-            }
-
-            try {
-                client = new ConnectionClient(port);
-            } catch (GeneralSecurityException e) {
-                AppLog.e(T.API, "Cannot create the DefaultHttpClient object with our TrustAllSSLSocketFactory", e);
-                client = null;
-            } catch (IOException e) {
-                AppLog.e(T.API, "Cannot create the DefaultHttpClient object with our TrustAllSSLSocketFactory", e);
-                client = null;
-            }
-
-            if (client == null) {
-                client = new DefaultHttpClient();
-            }
-        }
-
-        HttpConnectionParams.setConnectionTimeout(client.getParams(), DEFAULT_CONNECTION_TIMEOUT);
-        HttpConnectionParams.setSoTimeout(client.getParams(), DEFAULT_SOCKET_TIMEOUT);
-
-        // Setup HTTP Basic Auth if necessary
-        if (usernamePasswordCredentials != null) {
-            BasicCredentialsProvider cP = new BasicCredentialsProvider();
-            cP.setCredentials(AuthScope.ANY, usernamePasswordCredentials);
-            client.setCredentialsProvider(cP);
-        }
-
-        return client;
+        //wpcom blog or self-hosted blog on plain HTTP don't need the certificates trusted by the user
+        boolean useUserCerts = !(mIsWpcom || (uri == null || uri.getScheme() == null
+                || uri.getScheme().equals("http")));
+        return XMLRPCConnectionPool.getClient(uri, usernamePasswordCredentials, useUserCerts);
     }
 
     public void addQuickPostHeader(String type) {
@@ -226,7 +186,17 @@ public class XMLRPCClient implements XMLRPCClientInterface {
 
 
     public Object call(String method, Object[] params, File tempFile) throws XMLRPCException, IOException, XmlPullParserException {
-        return new Caller().callXMLRPC(method, params, tempFile);
+        return new Caller().callXMLRPC(method, params, tempFile, null);
+    }
+
+    /**
+     * Call a method returning an array of structs, each struct is passed to the handler as soon as it's parsed
+     *
+     * @return the number of elements in the response
+     */
+    public int callStreaming(String method, Object[] params, XMLRPCStructHandler handler)
+            throws XMLRPCException, IOException, XmlPullParserException {
+        return (Integer) new Caller().callXMLRPC(method, params, null, handler);
     }
 
     /**
@@ -253,9 +223,35 @@ public class XMLRPCClient implements XMLRPCClientInterface {
         return id;
     }
 
-    @SuppressWarnings("unchecked")
     public static Object parseXMLRPCResponse(InputStream is, HttpEntity entity)
             throws XMLRPCException, IOException, XmlPullParserException, NumberFormatException {
+        XmlPullParser pullParser = startParsingResponse(is, entity);
+        // deserialize result
+        Object obj = XMLRPCSerializer.deserialize(pullParser);
+        consumeHttpEntity(entity);
+        return obj;
+    }
+
+    /**
+     * Same as parseXMLRPCResponse but each struct of an array response is passed to the handler as soon as it's
+     * parsed, instead of building the whole array in memory
+     *
+     * @return the number of elements in the response
+     */
+    public static int parseXMLRPCResponse(InputStream is, HttpEntity entity, XMLRPCStructHandler handler)
+            throws XMLRPCException, IOException, XmlPullParserException, NumberFormatException {
+        XmlPullParser pullParser = startParsingResponse(is, entity);
+        int count = XMLRPCSerializer.deserializeStructs(pullParser, handler);
+        consumeHttpEntity(entity);
+        return count;
+    }
+
+    /*
+     * returns a parser on the <value> of the response, or throws the fault returned by the server
+     */
+    @SuppressWarnings("unchecked")
+    private static XmlPullParser startParsingResponse(InputStream is, HttpEntity entity)
+            throws XMLRPCException, IOException, XmlPullParserException, NumberFormatException {
         // setup pull parser
         XmlPullParser pullParser = XmlPullParserFactory.newInstance().newPullParser();
 
@@ -299,11 +295,8 @@ public class XMLRPCClient implements XMLRPCClientInterface {
             pullParser.nextTag(); // TAG_PARAM (<param>)
             pullParser.require(XmlPullParser.START_TAG, null, TAG_PARAM);
             pullParser.nextTag(); // TAG_VALUE (<value>)
-            // no parser.require() here since its called in XMLRPCSerializer.deserialize() below
-            // deserialize result
-            Object obj = XMLRPCSerializer.deserialize(pullParser);
-            consumeHttpEntity(entity);
-            return obj;
+            // no parser.require() here since its called when the value is deserialized
+            return pullParser;
         } else if (tag.equals(TAG_FAULT)) {
             // fault response
             pullParser.nextTag(); // TAG_VALUE (<value>)
@@ -337,31 +330,27 @@ public class XMLRPCClient implements XMLRPCClientInterface {
 
     public void preparePostMethod(String method, Object[] params, File tempFile) throws IOException, XMLRPCException, IllegalArgumentException, IllegalStateException {
         // prepare POST body
-        if (method.equals("wp.uploadFile")) {
+        if (method.equals("wp.uploadFile") && mStreamUploads) {
+            // media is base64 encoded straight to the socket, nothing is staged in tempFile
+            StringWriter bodyWriter = new StringWriter();
+            Map<String, MediaFile> streamedMediaFiles = new LinkedHashMap<String, MediaFile>();
+            serializeMethodCall(bodyWriter, method, params, streamedMediaFiles);
+
+            XMLRPCStreamingEntity sEntity = new XMLRPCStreamingEntity(bodyWriter.toString(), streamedMediaFiles) {
+                // Hook in a CountingOutputStream to keep track of bytes uploaded
+                @Override
+                public void writeTo(final OutputStream outstream) throws IOException {
+                    super.writeTo(new CountingOutputStream(outstream, getContentLength()));
+                }
+            };
+            mPostMethod.setEntity(sEntity);
+        } else if (method.equals("wp.uploadFile")) {
             if (!tempFile.exists() && !tempFile.mkdirs()) {
                 throw new XMLRPCException("Path to file could not be created.");
             }
 
             FileWriter fileWriter = new FileWriter(tempFile);
-            mSerializer.setOutput(fileWriter);
-
-            mSerializer.startDocument(null, null);
-            mSerializer.startTag(null, TAG_METHOD_CALL);
-            // set method name
-            mSerializer.startTag(null, TAG_METHOD_NAME).text(method).endTag(null, TAG_METHOD_NAME);
-            if (params != null && params.length != 0) {
-                // set method params
-                mSerializer.startTag(null, TAG_PARAMS);
-                for (int i = 0; i < params.length; i++) {
-                    mSerializer.startTag(null, TAG_PARAM).startTag(null, XMLRPCSerializer.TAG_VALUE);
-                    XMLRPCSerializer.serialize(mSerializer, params[i]);
-                    mSerializer.endTag(null, XMLRPCSerializer.TAG_VALUE).endTag(null, TAG_PARAM);
-                }
-                mSerializer.endTag(null, TAG_PARAMS);
-            }
-            mSerializer.endTag(null, TAG_METHOD_CALL);
-            mSerializer.endDocument();
-
+            serializeMethodCall(fileWriter, method, params, null);
             fileWriter.flush();
             fileWriter.close();
 
@@ -369,7 +358,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
                 // Hook in a CountingOutputStream to keep track of bytes uploaded
                 @Override
                 public void writeTo(final OutputStream outstream) throws IOException {
-                    super.writeTo(new CountingOutputStream(outstream));
+                    super.writeTo(new CountingOutputStream(outstream, getContentLength()));
                 }
             };
 
@@ -377,34 +366,54 @@ public class XMLRPCClient implements XMLRPCClientInterface {
             mPostMethod.setEntity(fEntity);
         } else {
             StringWriter bodyWriter = new StringWriter();
-            mSerializer.setOutput(bodyWriter);
-
-            mSerializer.startDocument(null, null);
-            mSerializer.startTag(null, TAG_METHOD_CALL);
-            // set method name
-            mSerializer.startTag(null, TAG_METHOD_NAME).text(method).endTag(null, TAG_METHOD_NAME);
-            if (params != null && params.length != 0) {
-                // set method params
-                mSerializer.startTag(null, TAG_PARAMS);
-                for (int i = 0; i < params.length; i++) {
-                    mSerializer.startTag(null, TAG_PARAM).startTag(null, XMLRPCSerializer.TAG_VALUE);
-                    if (method.equals("metaWeblog.editPost") || method.equals("metaWeblog.newPost")) {
-                        XMLRPCSerializer.serialize(mSerializer, params[i]);
-                    } else {
-                        XMLRPCSerializer.serialize(mSerializer, params[i]);
-                    }
-                    mSerializer.endTag(null, XMLRPCSerializer.TAG_VALUE).endTag(null, TAG_PARAM);
-                }
-                mSerializer.endTag(null, TAG_PARAMS);
-            }
-            mSerializer.endTag(null, TAG_METHOD_CALL);
-            mSerializer.endDocument();
+            serializeMethodCall(bodyWriter, method, params, null);
 
             HttpEntity entity = new StringEntity(bodyWriter.toString());
             mPostMethod.setEntity(entity);
         }
     }
 
+    private void serializeMethodCall(Writer writer, String method, Object[] params,
+                                     Map<String, MediaFile> streamedMediaFiles) throws IOException {
+        mSerializer.setOutput(writer);
+
+        mSerializer.startDocument(null, null);
+        mSerializer.startTag(null, TAG_METHOD_CALL);
+        // set method name
+        mSerializer.startTag(null, TAG_METHOD_NAME).text(method).endTag(null, TAG_METHOD_NAME);
+        if (params != null && params.length != 0) {
+            // set method params
+            mSerializer.startTag(null, TAG_PARAMS);
+            for (int i = 0; i < params.length; i++) {
+                mSerializer.startTag(null, TAG_PARAM).startTag(null, XMLRPCSerializer.TAG_VALUE);
+                XMLRPCSerializer.serialize(mSerializer, params[i], streamedMediaFiles);
+                mSerializer.endTag(null, XMLRPCSerializer.TAG_VALUE).endTag(null, TAG_PARAM);
+            }
+            mSerializer.endTag(null, TAG_PARAMS);
+        }
+        mSerializer.endTag(null, TAG_METHOD_CALL);
+        mSerializer.endDocument();
+    }
+
+    /**
+     * Enable or disable streaming of wp.uploadFile request bodies. When disabled, the request is serialized to the
+     * temp file passed to {@link #call(String, Object[], File)} before being sent. Enabled by default.
+     */
+    public void setStreamUploads(boolean streamUploads) {
+        mStreamUploads = streamUploads;
+    }
+
+    /**
+     * When true, wp.uploadFile calls don't use the temp file and callers needn't create one.
+     */
+    public boolean isStreamUploads() {
+        return mStreamUploads;
+    }
+
+    HttpEntity getPreparedEntity() {
+        return mPostMethod.getEntity();
+    }
+
     /**
      * The Caller class is used to make asynchronous calls to the server.
      * For synchronous calls the Thread function of this class isn't used.
@@ -452,7 +461,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
 
             try {
                 backgroundCalls.put(threadId, this);
-                Object o = this.callXMLRPC(methodName, params, tempFile);
+                Object o = this.callXMLRPC(methodName, params, tempFile, null);
                 listener.onSuccess(threadId, o);
             } catch(CancelException ex) {
                 // Don't notify the listener, if the call has been canceled.
@@ -469,12 +478,15 @@ public class XMLRPCClient implements XMLRPCClientInterface {
          *
          * @param method name of method to call
          * @param params parameters to pass to method (may be null if method has no parameters)
-         * @return deserialized method return value
+         * @param structHandler if not null, receives the structs of the response as they're parsed
+         * @return deserialized method return value, or the number of elements passed to structHandler
          * @throws XMLRPCException
          */
-        private Object callXMLRPC(String method, Object[] params, File tempFile)
+        private Object callXMLRPC(String method, Object[] params, File tempFile, XMLRPCStructHandler structHandler)
                 throws XMLRPCException, IOException, XmlPullParserException {
             mLoggedInputStream = null;
+            HttpEntity entity = null;
+            long startTime = System.currentTimeMillis();
             try {
                 preparePostMethod(method, params, tempFile);
 
@@ -485,7 +497,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
                     throw new XMLRPCException( "HTTP Status code is missing!" );
 
                 int statusCode = response.getStatusLine().getStatusCode();
-                HttpEntity entity = response.getEntity();
+                entity = response.getEntity();
 
                 if (entity == null) {
                     //This is an error since the parser will fail here.
@@ -494,6 +506,9 @@ public class XMLRPCClient implements XMLRPCClientInterface {
 
                 if (statusCode == HttpStatus.SC_OK) {
                     mLoggedInputStream = new LoggedInputStream(entity.getContent());
+                    if (structHandler != null) {
+                        return XMLRPCClient.parseXMLRPCResponse(mLoggedInputStream, entity, structHandler);
+                    }
                     return XMLRPCClient.parseXMLRPCResponse(mLoggedInputStream, entity);
                 }
 
@@ -591,6 +606,15 @@ public class XMLRPCClient implements XMLRPCClientInterface {
                     }
                 } catch (Exception e) {
                 }
+                // release the connection to the pool, a response that wasn't read until the end would keep it
+                // leased forever
+                try {
+                    if (entity != null) {
+                        entity.consumeContent();
+                    }
+                } catch (Exception e) {
+                }
+                XMLRPCConnectionPool.onRequestCompleted(method, System.currentTimeMillis() - startTime);
             }
         }
     }
@@ -652,9 +676,11 @@ public class XMLRPCClient implements XMLRPCClientInterface {
     private class CountingOutputStream extends FilterOutputStream {
 
         private long mTotalBytes;
+        private final long mContentLength;
 
-        CountingOutputStream(final OutputStream out) {
+        CountingOutputStream(final OutputStream out, long contentLength) {
             super(out);
+            mContentLength = contentLength;
         }
 
         @Override
@@ -668,7 +694,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
             mTotalBytes += b.length;
 
             if (mOnBytesUploadedListener != null) {
-                mOnBytesUploadedListener.onBytesUploaded(mTotalBytes);
+                mOnBytesUploadedListener.onBytesUploaded(mTotalBytes, mContentLength);
             }
         }
 
@@ -678,7 +704,7 @@ public class XMLRPCClient implements XMLRPCClientInterface {
             mTotalBytes += len;
 
             if (mOnBytesUploadedListener != null) {
-                mOnBytesUploadedListener.onBytesUploaded(mTotalBytes);
+                mOnBytesUploadedListener.onBytesUploaded(mTotalBytes, mContentLength);
             }
         }
     }
@@ -11,6 +11,7 @@ public interface XMLRPCClientInterface {
     public Object call(String method, Object[] params) throws XMLRPCException, IOException, XmlPullParserException;
     public Object call(String method) throws XMLRPCException, IOException, XmlPullParserException;
     public Object call(String method, Object[] params, File tempFile) throws XMLRPCException, IOException, XmlPullParserException;
+    public int callStreaming(String method, Object[] params, XMLRPCStructHandler handler) throws XMLRPCException, IOException, XmlPullParserException;
     public long callAsync(XMLRPCCallback listener, String methodName, Object[] params);
     public long callAsync(XMLRPCCallback listener, String methodName, Object[] params, File tempFile);
     public String getResponse();
@@ -0,0 +1,280 @@
+package org.xmlrpc.android;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+import org.wordpress.android.util.StringUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide pool of the HTTP clients used by XMLRPCClient. Each XMLRPCClient used to create its own
+ * DefaultHttpClient, so every call opened a new connection and paid a full TCP + TLS handshake. Clients are now
+ * shared by all the XMLRPCClient instances talking to the same host with the same credentials, and keep their
+ * connections alive between calls.
+ */
+public class XMLRPCConnectionPool {
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+    public static final int MAX_CONNECTIONS_TOTAL = 8;
+    public static final long IDLE_TIMEOUT_MS = 30 * 1000;
+    private static final int MAX_CLIENTS = 16;
+    private static final int CONNECTION_TIMEOUT = 30000;
+    private static final int SOCKET_TIMEOUT = 60000;
+    // how long a call waits for a free connection of its route
+    private static final long CONNECTION_REQUEST_TIMEOUT = 60000;
+
+    // key -> client, least recently used first
+    private static final LinkedHashMap<String, DefaultHttpClient> sClients =
+            new LinkedHashMap<String, DefaultHttpClient>(16, 0.75f, true);
+    private static long sLastEvictionTime;
+
+    private static int sHandshakeCount;
+    private static int sRequestCount;
+    private static long sTotalLatencyMs;
+
+    /*
+     * returns the shared client for this host and credentials, useUserCerts is false for wpcom, which doesn't
+     * need the self-signed certificates trusted by the user
+     */
+    public static DefaultHttpClient getClient(URI uri, UsernamePasswordCredentials credentials,
+                                              boolean useUserCerts) {
+        String key = getKey(uri, credentials, useUserCerts);
+        synchronized (sClients) {
+            evictIdleConnectionsIfNeeded();
+            DefaultHttpClient client = sClients.get(key);
+            if (client == null) {
+                client = createClient(credentials, useUserCerts);
+                sClients.put(key, client);
+                trimToSize();
+            }
+            return client;
+        }
+    }
+
+    private static String getKey(URI uri, UsernamePasswordCredentials credentials, boolean useUserCerts) {
+        StringBuilder key = new StringBuilder();
+        if (uri != null) {
+            key.append(uri.getScheme()).append("://").append(uri.getHost()).append(":").append(uri.getPort());
+        }
+        key.append("|").append(useUserCerts);
+        if (credentials != null) {
+            // don't keep the password around as plain text
+            key.append("|").append(StringUtils.getMd5Hash(credentials.getUserName() + ":"
+                    + credentials.getPassword()));
+        }
+        return key.toString();
+    }
+
+    private static DefaultHttpClient createClient(UsernamePasswordCredentials credentials, boolean useUserCerts) {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", getSSLSocketFactory(useUserCerts), 443));
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS_TOTAL);
+        ConnManagerParams.setTimeout(params, CONNECTION_REQUEST_TIMEOUT);
+
+        DefaultHttpClient client = new DefaultHttpClient(new CountingConnManager(params, registry), params);
+
+        // Setup HTTP Basic Auth if necessary
+        if (credentials != null) {
+            BasicCredentialsProvider cP = new BasicCredentialsProvider();
+            cP.setCredentials(AuthScope.ANY, credentials);
+            client.setCredentialsProvider(cP);
+        }
+        return client;
+    }
+
+    private static SocketFactory getSSLSocketFactory(boolean useUserCerts) {
+        if (useUserCerts) {
+            try {
+                return new TrustUserSSLCertsSocketFactory();
+            } catch (GeneralSecurityException e) {
+                AppLog.e(T.API, "Cannot create the DefaultHttpClient object with our TrustAllSSLSocketFactory", e);
+            } catch (IOException e) {
+                AppLog.e(T.API, "Cannot create the DefaultHttpClient object with our TrustAllSSLSocketFactory", e);
+            }
+        }
+        return SSLSocketFactory.getSocketFactory();
+    }
+
+    /*
+     * the least recently used clients are dropped once there are more than MAX_CLIENTS, their idle connections
+     * are closed, connections still in use are closed when they're released
+     */
+    private static void trimToSize() {
+        Iterator<Map.Entry<String, DefaultHttpClient>> iterator = sClients.entrySet().iterator();
+        while (sClients.size() > MAX_CLIENTS && iterator.hasNext()) {
+            DefaultHttpClient client = iterator.next().getValue();
+            iterator.remove();
+            closeConnections(client);
+        }
+    }
+
+    private static void evictIdleConnectionsIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - sLastEvictionTime < IDLE_TIMEOUT_MS) {
+            return;
+        }
+        sLastEvictionTime = now;
+        evictIdleConnections(IDLE_TIMEOUT_MS);
+    }
+
+    /*
+     * closes the connections that have been idle for longer than idleTimeMs, and the ones the server
+     * said it would close
+     */
+    public static void evictIdleConnections(long idleTimeMs) {
+        synchronized (sClients) {
+            for (DefaultHttpClient client : sClients.values()) {
+                client.getConnectionManager().closeExpiredConnections();
+                client.getConnectionManager().closeIdleConnections(idleTimeMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /*
+     * drops all the clients, called when the trusted certificates change since the SSL socket factories
+     * of the pooled clients were created with the previous ones
+     */
+    public static void reset() {
+        synchronized (sClients) {
+            for (DefaultHttpClient client : sClients.values()) {
+                closeConnections(client);
+            }
+            sClients.clear();
+        }
+    }
+
+    private static void closeConnections(DefaultHttpClient client) {
+        // not shutdown(), another thread may still be using this client
+        ((CountingConnManager) client.getConnectionManager()).mIsDropped = true;
+        client.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * called by XMLRPCClient when a call completes, whether it succeeded or not
+     */
+    static void onRequestCompleted(String method, long latencyMs) {
+        int handshakeCount;
+        int requestCount;
+        synchronized (sClients) {
+            sRequestCount++;
+            sTotalLatencyMs += latencyMs;
+            handshakeCount = sHandshakeCount;
+            requestCount = sRequestCount;
+        }
+        AppLog.d(T.API, method + " completed in " + latencyMs + " ms - " + handshakeCount + " connections opened for "
+                + requestCount + " calls");
+    }
+
+    private static void onConnectionOpened() {
+        synchronized (sClients) {
+            sHandshakeCount++;
+        }
+    }
+
+    /*
+     * number of new connections (TCP + TLS handshakes for https) opened since the counters were reset
+     */
+    public static int getHandshakeCount() {
+        synchronized (sClients) {
+            return sHandshakeCount;
+        }
+    }
+
+    public static int getRequestCount() {
+        synchronized (sClients) {
+            return sRequestCount;
+        }
+    }
+
+    /*
+     * share of the calls that reused an open connection, between 0 and 1
+     */
+    public static float getReuseRatio() {
+        synchronized (sClients) {
+            if (sRequestCount == 0) {
+                return 0;
+            }
+            return Math.max(0, sRequestCount - sHandshakeCount) / (float) sRequestCount;
+        }
+    }
+
+    public static long getAverageLatencyMs() {
+        synchronized (sClients) {
+            return sRequestCount == 0 ? 0 : sTotalLatencyMs / sRequestCount;
+        }
+    }
+
+    public static void resetCounters() {
+        synchronized (sClients) {
+            sHandshakeCount = 0;
+            sRequestCount = 0;
+            sTotalLatencyMs = 0;
+        }
+    }
+
+    /*
+     * counts the connections opened by the pool, connections taken from the pool aren't opened again
+     */
+    private static class CountingConnManager extends ThreadSafeClientConnManager {
+        private volatile boolean mIsDropped;
+
+        CountingConnManager(HttpParams params, SchemeRegistry registry) {
+            super(params, registry);
+        }
+
+        @Override
+        protected ClientConnectionOperator createConnectionOperator(SchemeRegistry registry) {
+            return new DefaultClientConnectionOperator(registry) {
+                @Override
+                public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+                                           HttpContext context, HttpParams params) throws IOException {
+                    onConnectionOpened();
+                    super.openConnection(conn, target, local, context, params);
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+            if (mIsDropped) {
+                // this client isn't in the pool anymore, don't keep the connection alive
+                conn.unmarkReusable();
+            }
+            super.releaseConnection(conn, validDuration, timeUnit);
+        }
+    }
+}
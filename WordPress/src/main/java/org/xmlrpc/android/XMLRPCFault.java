@@ -5,6 +5,10 @@ public class XMLRPCFault extends XMLRPCException {
      *
      */
     private static final long serialVersionUID = 5676562456612956519L;
+
+    // returned by the server when the requested method doesn't exist (XML-RPC spec for fault codes interoperability)
+    public static final int CODE_METHOD_NOT_FOUND = -32601;
+
     private String faultString;
     private int faultCode;
 
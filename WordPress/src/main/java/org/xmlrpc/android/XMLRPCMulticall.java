@@ -0,0 +1,181 @@
+package org.xmlrpc.android;
+
+import org.wordpress.android.util.AppLog;
+import org.wordpress.android.util.AppLog.T;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects independent XML-RPC calls and sends them as a single system.multicall request, so they share one
+ * HTTP round trip. The result or fault of each call is passed to its own callback, in the order the calls were
+ * added, with the id returned by add(). Endpoints that answer system.multicall with a method not found fault get
+ * the calls one by one.
+ */
+public class XMLRPCMulticall {
+    public static final String METHOD_MULTICALL = "system.multicall";
+
+    // endpoints that refused system.multicall, the calls are sent one by one to them from now on
+    private static final Set<String> sUnsupportedEndpoints = Collections.synchronizedSet(new HashSet<String>());
+
+    private final XMLRPCClientInterface mClient;
+    private final String mEndpoint;
+    private final List<Call> mCalls = new ArrayList<Call>();
+    private int mRoundTripCount;
+
+    private static class Call {
+        final String mMethod;
+        final Object[] mParams;
+        final XMLRPCCallback mCallback;
+
+        Call(String method, Object[] params, XMLRPCCallback callback) {
+            mMethod = method;
+            mParams = params;
+            mCallback = callback;
+        }
+    }
+
+    /**
+     * @param client client used to send the calls
+     * @param endpoint identifies the server, used to remember whether it supports system.multicall
+     */
+    public XMLRPCMulticall(XMLRPCClientInterface client, String endpoint) {
+        mClient = client;
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * Add a call to the batch, nothing is sent until execute() is called
+     * @return the id passed to the callback
+     */
+    public long add(String method, Object[] params, XMLRPCCallback callback) {
+        mCalls.add(new Call(method, params, callback));
+        return mCalls.size() - 1;
+    }
+
+    /**
+     * Send the calls and pass their results to their callbacks, on the calling thread. If the request itself
+     * fails, every callback receives the error.
+     */
+    public void execute() {
+        if (mCalls.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        if (mCalls.size() == 1 || !isSupported(mEndpoint)) {
+            executeOneByOne();
+        } else {
+            executeMulticall();
+        }
+        AppLog.d(T.API, mCalls.size() + " calls completed in " + mRoundTripCount + " round trips, "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private void executeMulticall() {
+        Object[] calls = new Object[mCalls.size()];
+        for (int i = 0; i < calls.length; i++) {
+            Call call = mCalls.get(i);
+            Map<String, Object> struct = new HashMap<String, Object>();
+            struct.put("methodName", call.mMethod);
+            struct.put("params", call.mParams != null ? call.mParams : new Object[0]);
+            calls[i] = struct;
+        }
+
+        Object result;
+        try {
+            mRoundTripCount++;
+            result = mClient.call(METHOD_MULTICALL, new Object[]{calls});
+        } catch (XMLRPCFault e) {
+            if (e.getFaultCode() != XMLRPCFault.CODE_METHOD_NOT_FOUND) {
+                // e.g. an auth or server error, the separate calls would fail the same way
+                failAll(e);
+                return;
+            }
+            AppLog.w(T.API, METHOD_MULTICALL + " not supported, falling back to separate calls - " + e.getMessage());
+            sUnsupportedEndpoints.add(mEndpoint);
+            executeOneByOne();
+            return;
+        } catch (Exception e) {
+            failAll(e);
+            return;
+        }
+
+        if (!(result instanceof Object[]) || ((Object[]) result).length != mCalls.size()) {
+            // only a missing method marks the endpoint as unsupported, the next batch tries multicall again
+            AppLog.w(T.API, "unexpected " + METHOD_MULTICALL + " response, falling back to separate calls");
+            executeOneByOne();
+            return;
+        }
+
+        Object[] results = (Object[]) result;
+        for (int i = 0; i < results.length; i++) {
+            XMLRPCCallback callback = mCalls.get(i).mCallback;
+            // each result is wrapped in a one-element array, faults are structs
+            if (results[i] instanceof Object[] && ((Object[]) results[i]).length == 1) {
+                callback.onSuccess(i, ((Object[]) results[i])[0]);
+            } else if (results[i] instanceof Map && ((Map<?, ?>) results[i]).containsKey("faultCode")) {
+                Map<?, ?> fault = (Map<?, ?>) results[i];
+                callback.onFailure(i, new XMLRPCFault(String.valueOf(fault.get("faultString")),
+                        getFaultCode(fault.get("faultCode"))));
+            } else {
+                callback.onFailure(i, new XMLRPCException("Invalid " + METHOD_MULTICALL + " response for "
+                        + mCalls.get(i).mMethod));
+            }
+        }
+    }
+
+    private void failAll(Exception error) {
+        for (int i = 0; i < mCalls.size(); i++) {
+            mCalls.get(i).mCallback.onFailure(i, error);
+        }
+    }
+
+    private void executeOneByOne() {
+        for (int i = 0; i < mCalls.size(); i++) {
+            Call call = mCalls.get(i);
+            Object result;
+            try {
+                mRoundTripCount++;
+                result = mClient.call(call.mMethod, call.mParams);
+            } catch (Exception e) {
+                call.mCallback.onFailure(i, e);
+                continue;
+            }
+            call.mCallback.onSuccess(i, result);
+        }
+    }
+
+    private static int getFaultCode(Object faultCode) {
+        if (faultCode instanceof Integer) {
+            return (Integer) faultCode;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(faultCode));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * number of HTTP requests sent by execute()
+     */
+    public int getRoundTripCount() {
+        return mRoundTripCount;
+    }
+
+    public static boolean isSupported(String endpoint) {
+        return !sUnsupportedEndpoints.contains(endpoint);
+    }
+
+    /*
+     * forget the endpoints that didn't support multicall, they'll be tried again
+     */
+    public static void resetUnsupportedEndpoints() {
+        sUnsupportedEndpoints.clear();
+    }
+}
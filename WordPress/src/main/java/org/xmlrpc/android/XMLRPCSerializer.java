@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SimpleTimeZone;
+import java.util.UUID;
 
 class XMLRPCSerializer {
     static final String TAG_NAME = "name";
@@ -47,6 +48,8 @@ class XMLRPCSerializer {
     static final String TYPE_ARRAY = "array";
     static final String TYPE_STRUCT = "struct";
 
+    private static final String MEDIA_PLACEHOLDER_PREFIX = "wpStreamedMediaFile";
+
     static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss");
     static Calendar cal = Calendar.getInstance(new SimpleTimeZone(0, "GMT"));
 
@@ -65,8 +68,18 @@ class XMLRPCSerializer {
         }
     }
 
-    @SuppressWarnings("unchecked")
     static void serialize(XmlSerializer serializer, Object object) throws IOException {
+        serialize(serializer, object, null);
+    }
+
+    /**
+     * Serialize an object. When streamedMediaFiles is not null, MediaFile content is not encoded in the document:
+     * a unique placeholder is written instead and recorded in streamedMediaFiles, so the caller can stream the
+     * encoded file later (see XMLRPCStreamingEntity).
+     */
+    @SuppressWarnings("unchecked")
+    static void serialize(XmlSerializer serializer, Object object, Map<String, MediaFile> streamedMediaFiles)
+            throws IOException {
         // check for scalar types:
         if (object instanceof Integer || object instanceof Short || object instanceof Byte) {
             serializer.startTag(null, TYPE_I4).text(object.toString()).endTag(null, TYPE_I4);
@@ -104,6 +117,11 @@ class XMLRPCSerializer {
                 throw new IOException("Out of memory");
             }
         }
+        else if (object instanceof MediaFile && streamedMediaFiles != null) {
+            String placeholder = MEDIA_PLACEHOLDER_PREFIX + UUID.randomUUID().toString().replace("-", "");
+            streamedMediaFiles.put(placeholder, (MediaFile) object);
+            serializer.startTag(null, TYPE_BASE64).text(placeholder).endTag(null, TYPE_BASE64);
+        }
         else if( object instanceof MediaFile ) {
             //convert media file binary to base64
             serializer.startTag( null, "base64" );
@@ -126,7 +144,7 @@ class XMLRPCSerializer {
             while (iter.hasNext()) {
                 Object o = iter.next();
                 serializer.startTag(null, TAG_VALUE);
-                serialize(serializer, o);
+                serialize(serializer, o, streamedMediaFiles);
                 serializer.endTag(null, TAG_VALUE);
             }
             serializer.endTag(null, TAG_DATA).endTag(null, TYPE_ARRAY);
@@ -137,7 +155,7 @@ class XMLRPCSerializer {
             for (int i=0; i<objects.length; i++) {
                 Object o = objects[i];
                 serializer.startTag(null, TAG_VALUE);
-                serialize(serializer, o);
+                serialize(serializer, o, streamedMediaFiles);
                 serializer.endTag(null, TAG_VALUE);
             }
             serializer.endTag(null, TAG_DATA).endTag(null, TYPE_ARRAY);
@@ -154,7 +172,7 @@ class XMLRPCSerializer {
                 serializer.startTag(null, TAG_MEMBER);
                 serializer.startTag(null, TAG_NAME).text(key).endTag(null, TAG_NAME);
                 serializer.startTag(null, TAG_VALUE);
-                serialize(serializer, value);
+                serialize(serializer, value, streamedMediaFiles);
                 serializer.endTag(null, TAG_VALUE);
                 serializer.endTag(null, TAG_MEMBER);
             }
@@ -200,6 +218,59 @@ class XMLRPCSerializer {
         parser.require(XmlPullParser.START_TAG, null, TAG_VALUE);
 
         parser.nextTag();
+        Object obj = deserializeType(parser);
+        parser.nextTag(); // TAG_VALUE (</value>)
+        parser.require(XmlPullParser.END_TAG, null, TAG_VALUE);
+        return obj;
+    }
+
+    /*
+     * Streaming alternative to deserialize() for a value made of an array of structs: each struct is passed to
+     * the handler as soon as it's parsed instead of being added to an array, so the whole response is never in
+     * memory. A value that isn't an array is passed to the handler if it's a struct.
+     * returns the number of elements in the array
+     */
+    static int deserializeStructs(XmlPullParser parser, XMLRPCStructHandler handler)
+            throws XmlPullParserException, IOException, NumberFormatException {
+        parser.require(XmlPullParser.START_TAG, null, TAG_VALUE);
+
+        parser.nextTag();
+        int count = 0;
+        if (parser.getName().equals(TYPE_ARRAY)) {
+            parser.nextTag(); // TAG_DATA (<data>)
+            parser.require(XmlPullParser.START_TAG, null, TAG_DATA);
+
+            parser.nextTag();
+            while (parser.getName().equals(TAG_VALUE)) {
+                deliverStruct(deserialize(parser), handler);
+                count++;
+                parser.nextTag();
+            }
+            parser.require(XmlPullParser.END_TAG, null, TAG_DATA);
+            parser.nextTag(); // TAG_ARRAY (</array>)
+            parser.require(XmlPullParser.END_TAG, null, TYPE_ARRAY);
+        } else {
+            deliverStruct(deserializeType(parser), handler);
+            count++;
+        }
+        parser.nextTag(); // TAG_VALUE (</value>)
+        parser.require(XmlPullParser.END_TAG, null, TAG_VALUE);
+        return count;
+    }
+
+    private static void deliverStruct(Object obj, XMLRPCStructHandler handler) {
+        if (obj instanceof Map) {
+            handler.onStruct((Map<?, ?>) obj);
+        } else {
+            AppLog.w(T.API, "Skipping a response element that isn't a struct");
+        }
+    }
+
+    /*
+     * deserializes the content of a <value>, the parser is on the type tag
+     */
+    private static Object deserializeType(XmlPullParser parser)
+            throws XmlPullParserException, IOException, NumberFormatException {
         String typeNodeName = parser.getName();
 
         Object obj;
@@ -291,8 +362,6 @@ class XMLRPCSerializer {
         } else {
             throw new IOException("Cannot deserialize " + parser.getName());
         }
-        parser.nextTag(); // TAG_VALUE (</value>)
-        parser.require(XmlPullParser.END_TAG, null, TAG_VALUE);
         return obj;
     }
 }
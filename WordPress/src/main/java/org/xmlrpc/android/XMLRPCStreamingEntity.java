@@ -0,0 +1,250 @@
+package org.xmlrpc.android;
+
+import android.util.Base64;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.wordpress.android.util.helpers.MediaFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An HttpEntity for XML-RPC calls carrying {@link MediaFile}s (wp.uploadFile).
+ *
+ * The XML document is serialized up front with a placeholder in place of each media file's base64 content, then
+ * the media bytes are base64 encoded on the fly in {@link #writeTo(OutputStream)}. Nothing is staged on disk and
+ * only one encoding buffer is held in memory, whatever the size of the file.
+ *
+ * Media content is encoded without line breaks, so the Content-Length is known before the first byte is sent.
+ * {@link #getContent()} returns the same bytes as a stream, for the HttpClient code paths that read the entity
+ * rather than writing it.
+ */
+public class XMLRPCStreamingEntity extends AbstractHttpEntity {
+    // must be a multiple of 3 so that consecutive chunks form a single base64 stream without padding in between
+    private static final int ENCODE_CHUNK_SIZE = 3 * 1200;
+
+    private final List<byte[]> mXmlParts = new ArrayList<byte[]>();
+    private final List<File> mMediaFiles = new ArrayList<File>();
+    private final long mContentLength;
+
+    /**
+     * @param xmlBody the serialized XML-RPC document, containing each key of mediaFiles exactly once
+     * @param mediaFiles placeholders mapped to the media file whose base64 content replaces them, in document order
+     */
+    public XMLRPCStreamingEntity(String xmlBody, Map<String, MediaFile> mediaFiles) throws IOException {
+        long contentLength = 0;
+        int start = 0;
+        for (Map.Entry<String, MediaFile> entry : mediaFiles.entrySet()) {
+            int index = xmlBody.indexOf(entry.getKey(), start);
+            if (index == -1) {
+                throw new IOException("Media placeholder missing from the XML-RPC document");
+            }
+            File file = new File(entry.getValue().getFilePath());
+            if (!file.isFile()) {
+                throw new IOException("Media file not found: " + file.getPath());
+            }
+            byte[] part = xmlBody.substring(start, index).getBytes("UTF-8");
+            mXmlParts.add(part);
+            mMediaFiles.add(file);
+            contentLength += part.length + getEncodedLength(file.length());
+            start = index + entry.getKey().length();
+        }
+        byte[] lastPart = xmlBody.substring(start).getBytes("UTF-8");
+        mXmlParts.add(lastPart);
+        mContentLength = contentLength + lastPart.length;
+        setContentType("text/xml; charset=\"UTF-8\"");
+    }
+
+    /**
+     * Length of the base64 (no wrap) encoding of the given number of bytes
+     */
+    static long getEncodedLength(long length) {
+        return 4 * ((length + 2) / 3);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    /**
+     * Returns the XML parts and the encoded media files in document order, each media file being opened only
+     * when the stream reaches it
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            // even parts are XML, odd parts are media files
+            private int mNextPart = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return mNextPart < mXmlParts.size() + mMediaFiles.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                int part = mNextPart++;
+                if (part % 2 == 0) {
+                    return new ByteArrayInputStream(mXmlParts.get(part / 2));
+                }
+                try {
+                    return new EncodedFileInputStream(mMediaFiles.get(part / 2));
+                } catch (IOException e) {
+                    // SequenceInputStream only lets IOExceptions through from read()
+                    return new FailedInputStream(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        byte[] buffer = new byte[ENCODE_CHUNK_SIZE];
+        for (int i = 0; i < mMediaFiles.size(); i++) {
+            outstream.write(mXmlParts.get(i));
+            writeEncodedFile(mMediaFiles.get(i), buffer, outstream);
+        }
+        outstream.write(mXmlParts.get(mXmlParts.size() - 1));
+        outstream.flush();
+    }
+
+    private static void writeEncodedFile(File file, byte[] buffer, OutputStream outstream) throws IOException {
+        long expectedLength = file.length();
+        long totalRead = 0;
+        InputStream inStream = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = fillBuffer(inStream, buffer)) > 0) {
+                outstream.write(Base64.encode(buffer, 0, length, Base64.NO_WRAP));
+                totalRead += length;
+            }
+        } finally {
+            inStream.close();
+        }
+        if (totalRead != expectedLength) {
+            // the Content-Length header has already been sent, the request can't be completed
+            throw new IOException("Media file changed while uploading: " + file.getPath());
+        }
+    }
+
+    /**
+     * Base64 (no wrap) encoding of a file, read one chunk at a time
+     */
+    private static class EncodedFileInputStream extends InputStream {
+        private final File mFile;
+        private final InputStream mInStream;
+        private final byte[] mBuffer = new byte[ENCODE_CHUNK_SIZE];
+        private byte[] mEncoded = new byte[0];
+        private int mPosition;
+        private long mTotalRead;
+        private boolean mIsDone;
+
+        EncodedFileInputStream(File file) throws IOException {
+            mFile = file;
+            mInStream = new FileInputStream(file);
+        }
+
+        private boolean fillEncoded() throws IOException {
+            if (mPosition < mEncoded.length) {
+                return true;
+            }
+            if (mIsDone) {
+                return false;
+            }
+            int length = fillBuffer(mInStream, mBuffer);
+            if (length == 0) {
+                mIsDone = true;
+                if (mTotalRead != mFile.length()) {
+                    throw new IOException("Media file changed while uploading: " + mFile.getPath());
+                }
+                return false;
+            }
+            mTotalRead += length;
+            mEncoded = Base64.encode(mBuffer, 0, length, Base64.NO_WRAP);
+            mPosition = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillEncoded()) {
+                return -1;
+            }
+            return mEncoded[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fillEncoded()) {
+                return -1;
+            }
+            int count = Math.min(length, mEncoded.length - mPosition);
+            System.arraycopy(mEncoded, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInStream.close();
+        }
+    }
+
+    /**
+     * Stream whose reads fail with the error that prevented a media file from being opened
+     */
+    private static class FailedInputStream extends InputStream {
+        private final IOException mError;
+
+        FailedInputStream(IOException error) {
+            mError = error;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw mError;
+        }
+    }
+
+    /**
+     * Read until the buffer is full or the stream ends, a short chunk in the middle of the file would corrupt
+     * the base64 stream with padding
+     */
+    private static int fillBuffer(InputStream inStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inStream.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
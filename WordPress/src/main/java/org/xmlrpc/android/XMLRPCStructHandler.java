@@ -0,0 +1,15 @@
+package org.xmlrpc.android;
+
+import java.util.Map;
+
+/**
+ * Receives the structs of an array response one at a time while the response is being parsed, see
+ * {@link XMLRPCClientInterface#callStreaming(String, Object[], XMLRPCStructHandler)}. The struct isn't referenced
+ * by the parser once the handler returns, so it can be garbage collected before the rest of the response is read.
+ */
+public interface XMLRPCStructHandler {
+    /**
+     * Called on the thread making the call, in the order of the array
+     */
+    public void onStruct(Map<?, ?> struct);
+}
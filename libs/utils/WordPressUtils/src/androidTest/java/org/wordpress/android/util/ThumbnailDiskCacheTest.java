@@ -0,0 +1,171 @@
+package org.wordpress.android.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class ThumbnailDiskCacheTest extends InstrumentationTestCase {
+    private static final int MAX_WIDTH = 600;
+    private static final int ITERATIONS = 5;
+
+    private Context mContext;
+    private File mImageFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        ThumbnailDiskCache.getInstance(mContext).clear();
+
+        Bitmap bitmap = Bitmap.createBitmap(3264, 2448, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        mImageFile = new File(mContext.getCacheDir(), "thumbnail-test.jpg");
+        FileOutputStream out = new FileOutputStream(mImageFile);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        out.close();
+        bitmap.recycle();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ThumbnailDiskCache.getInstance(mContext).clear();
+        mImageFile.delete();
+        super.tearDown();
+    }
+
+    public void testCachedThumbnailMatchesUncached() {
+        Uri uri = Uri.fromFile(mImageFile);
+        byte[] uncached = ImageUtils.createThumbnailBytes(mImageFile.getPath(), MAX_WIDTH,
+                Bitmap.CompressFormat.JPEG, 0);
+        byte[] first = ImageUtils.createThumbnailFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+        byte[] second = ImageUtils.createThumbnailFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+
+        assertNotNull(first);
+        assertTrue(Arrays.equals(uncached, first));
+        assertTrue(Arrays.equals(first, second));
+    }
+
+    public void testModifiedSourceIsNotServedFromCache() {
+        Uri uri = Uri.fromFile(mImageFile);
+        File first = ImageUtils.createThumbnailFileFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+        mImageFile.setLastModified(mImageFile.lastModified() - 60 * 1000);
+        File second = ImageUtils.createThumbnailFileFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+        File otherWidth = ImageUtils.createThumbnailFileFromUri(mContext, uri, MAX_WIDTH / 2, "jpg", 0);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertFalse(first.getName().equals(second.getName()));
+        assertFalse(second.getName().equals(otherWidth.getName()));
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        File dir = new File(mContext.getCacheDir(), "thumbnail-cache-test");
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(dir, 3 * 1024);
+        cache.clear();
+        try {
+            cache.put("a", new FixedSizeWriter(1024));
+            cache.put("b", new FixedSizeWriter(1024));
+            cache.put("c", new FixedSizeWriter(1024));
+            // "a" becomes the most recently used, so "b" is evicted by "d"
+            assertNotNull(cache.get("a"));
+            cache.put("d", new FixedSizeWriter(1024));
+
+            assertNotNull(cache.get("a"));
+            assertNull(cache.get("b"));
+            assertNotNull(cache.get("c"));
+            assertNotNull(cache.get("d"));
+            assertTrue(cache.getSizeBytes() <= 3 * 1024);
+
+            // a failed write doesn't replace or add anything
+            assertNull(cache.put("e", new ThumbnailDiskCache.EntryWriter() {
+                @Override
+                public boolean write(OutputStream out) throws IOException {
+                    out.write(new byte[512]);
+                    return false;
+                }
+            }));
+            assertNull(cache.get("e"));
+        } finally {
+            cache.clear();
+            dir.delete();
+        }
+    }
+
+    public void testPinnedEntriesAreNotEvicted() throws IOException {
+        File dir = new File(mContext.getCacheDir(), "thumbnail-cache-test");
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(dir, 1024);
+        cache.clear();
+        try {
+            // "a" is being uploaded while "b" is added, the cache stays over its size until "a" is released
+            File pinned = cache.put("a", new FixedSizeWriter(1024), true);
+            cache.put("b", new FixedSizeWriter(1024));
+            assertTrue(pinned.exists());
+            assertEquals(2 * 1024, cache.getSizeBytes());
+
+            cache.unpin(pinned);
+            assertFalse(pinned.exists());
+            assertNull(cache.get("a"));
+            assertNotNull(cache.get("b"));
+
+            // a new instance loads the existing entries in the background
+            ThumbnailDiskCache reopened = new ThumbnailDiskCache(dir, 1024);
+            assertNotNull(reopened.get("b"));
+            assertEquals(1024, reopened.getSizeBytes());
+        } finally {
+            cache.clear();
+            dir.delete();
+        }
+    }
+
+    public void testBenchmarkWithAndWithoutCache() {
+        Uri uri = Uri.fromFile(mImageFile);
+        // warm up, and fill the cache
+        ImageUtils.createThumbnailFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ImageUtils.createThumbnailBytes(mImageFile.getPath(), MAX_WIDTH, Bitmap.CompressFormat.JPEG, 0);
+        }
+        long uncachedTime = System.currentTimeMillis() - start;
+        long uncachedAlloc = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocSize();
+        start = System.currentTimeMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ImageUtils.createThumbnailFileFromUri(mContext, uri, MAX_WIDTH, "jpg", 0);
+        }
+        long cachedTime = System.currentTimeMillis() - start;
+        long cachedAlloc = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        AppLog.i(AppLog.T.TESTS, ITERATIONS + " thumbnails of " + mImageFile.length() + " bytes - decode+encode: "
+                + uncachedTime + " ms, " + uncachedAlloc / ITERATIONS + " bytes allocated per call; cached: "
+                + cachedTime + " ms, " + cachedAlloc / ITERATIONS + " bytes allocated per call");
+        assertTrue(cachedTime < uncachedTime);
+    }
+
+    private static class FixedSizeWriter implements ThumbnailDiskCache.EntryWriter {
+        private final int mSize;
+
+        FixedSizeWriter(int size) {
+            mSize = size;
+        }
+
+        @Override
+        public boolean write(OutputStream out) throws IOException {
+            out.write(new byte[mSize]);
+            return true;
+        }
+    }
+}
@@ -29,10 +29,12 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 
 public class ImageUtils {
@@ -353,11 +355,11 @@ public class ImageUtils {
         } else {
             // Create resized bitmap
             int rotation = getImageOrientation(context, filePath);
-            byte[] bytes = createThumbnailFromUri(context, curUri, targetWidth, null, rotation);
+            File thumbnailFile = createThumbnailFileFromUri(context, curUri, targetWidth, null, rotation);
 
-            if (bytes != null && bytes.length > 0) {
+            if (thumbnailFile != null && thumbnailFile.length() > 0) {
                 try {
-                    Bitmap resizedBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+                    Bitmap resizedBitmap = BitmapFactory.decodeFile(thumbnailFile.getPath());
                     if (resizedBitmap != null) {
                         return getScaledBitmapAtLongestSide(resizedBitmap, targetWidth);
                     }
@@ -408,29 +410,94 @@ public class ImageUtils {
         if (context == null || imageUri == null || maxWidth <= 0)
             return null;
 
-        String filePath = null;
-        if (imageUri.toString().contains("content:")) {
-            String[] projection = new String[] { MediaStore.Images.Media.DATA };
-            Cursor cur = null;
-            try {
-                cur = context.getContentResolver().query(imageUri, projection, null, null, null);
-                if (cur != null && cur.moveToFirst()) {
-                    int dataColumn = cur.getColumnIndex(MediaStore.Images.Media.DATA);
-                    filePath = cur.getString(dataColumn);
-                }
-            } catch (IllegalStateException stateException) {
-                Log.d(ImageUtils.class.getName(), "IllegalStateException querying content:" + imageUri);
-            } finally {
-                SqlUtils.closeCursor(cur);
+        File cachedFile = createThumbnailFileFromUri(context, imageUri, maxWidth, fileExtension, rotation);
+        if (cachedFile != null) {
+            byte[] bytes = readFile(cachedFile);
+            if (bytes != null) {
+                return bytes;
             }
         }
 
-        if (TextUtils.isEmpty(filePath)) {
-            //access the file directly
-            filePath = imageUri.toString().replace("content://media", "");
-            filePath = filePath.replace("file://", "");
+        String filePath = getFilePathFromUri(context, imageUri);
+        return createThumbnailBytes(filePath, maxWidth, getCompressFormat(fileExtension), rotation);
+    }
+
+    /**
+     * Same as createThumbnailFromUri, but returns the resized image from the thumbnail disk cache instead of
+     * holding it in memory. The file belongs to the cache, callers mustn't modify or delete it.
+     *
+     * @return the resized image, or null if it couldn't be created
+     */
+    public static File createThumbnailFileFromUri(Context context,
+                                                  Uri imageUri,
+                                                  int maxWidth,
+                                                  String fileExtension,
+                                                  int rotation) {
+        return createThumbnailFileFromUri(context, imageUri, maxWidth, fileExtension, rotation, false);
+    }
+
+    /**
+     * Same as createThumbnailFileFromUri, but the file is pinned in the cache so it can't be evicted while
+     * it's being read, e.g. during an upload. Callers must pass it to releaseThumbnailFile when they're done.
+     */
+    public static File createPinnedThumbnailFileFromUri(Context context,
+                                                        Uri imageUri,
+                                                        int maxWidth,
+                                                        String fileExtension,
+                                                        int rotation) {
+        return createThumbnailFileFromUri(context, imageUri, maxWidth, fileExtension, rotation, true);
+    }
+
+    public static void releaseThumbnailFile(Context context, File thumbnailFile) {
+        if (context != null && thumbnailFile != null) {
+            ThumbnailDiskCache.getInstance(context).unpin(thumbnailFile);
         }
+    }
+
+    private static File createThumbnailFileFromUri(Context context,
+                                                   Uri imageUri,
+                                                   final int maxWidth,
+                                                   String fileExtension,
+                                                   final int rotation,
+                                                   boolean pin) {
+        if (context == null || imageUri == null || maxWidth <= 0)
+            return null;
 
+        final String filePath = getFilePathFromUri(context, imageUri);
+        File sourceFile = new File(filePath);
+        if (!sourceFile.exists()) {
+            return null;
+        }
+
+        final Bitmap.CompressFormat fmt = getCompressFormat(fileExtension);
+        ThumbnailDiskCache cache = ThumbnailDiskCache.getInstance(context);
+        String key = ThumbnailDiskCache.getKey(filePath, sourceFile.lastModified(), maxWidth, rotation, fmt);
+        File cachedFile = cache.get(key, pin);
+        if (cachedFile != null) {
+            return cachedFile;
+        }
+
+        return cache.put(key, new ThumbnailDiskCache.EntryWriter() {
+            @Override
+            public boolean write(OutputStream out) throws IOException {
+                return writeThumbnail(filePath, maxWidth, fmt, rotation, out);
+            }
+        }, pin);
+    }
+
+    /*
+     * decodes, resizes and encodes the image without going through the thumbnail cache
+     */
+    static byte[] createThumbnailBytes(String filePath, int maxWidth, Bitmap.CompressFormat fmt, int rotation) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        if (!writeThumbnail(filePath, maxWidth, fmt, rotation, stream)) {
+            return null;
+        }
+        return stream.toByteArray();
+    }
+
+    private static boolean writeThumbnail(String filePath, int maxWidth, Bitmap.CompressFormat fmt, int rotation,
+                                          OutputStream stream) {
         // get just the image bounds
         BitmapFactory.Options optBounds = new BitmapFactory.Options();
         optBounds.inJustDecodeBounds = true;
@@ -439,7 +506,7 @@ public class ImageUtils {
             BitmapFactory.decodeFile(filePath, optBounds);
         } catch (OutOfMemoryError e) {
             AppLog.e(AppLog.T.UTILS, "OutOfMemoryError Error in setting image: " + e);
-            return null;
+            return false;
         }
 
         // determine correct scale value (should be power of 2)
@@ -459,15 +526,13 @@ public class ImageUtils {
             bmpResized = BitmapFactory.decodeFile(filePath, optActual);
         } catch (OutOfMemoryError e) {
             AppLog.e(AppLog.T.UTILS, "OutOfMemoryError Error in setting image: " + e);
-            return null;
+            return false;
         }
 
         if (bmpResized == null) {
-            return null;
+            return false;
         }
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-
         // Now calculate exact scale in order to resize accurately
         float percentage = (float) maxWidth / bmpResized.getWidth();
         float proportionateHeight = bmpResized.getHeight() * percentage;
@@ -487,37 +552,88 @@ public class ImageUtils {
             matrix.setRotate(rotation);
         }
 
-        Bitmap.CompressFormat fmt;
-        if (fileExtension != null && fileExtension.equalsIgnoreCase("png")) {
-            fmt = Bitmap.CompressFormat.PNG;
-        } else {
-            fmt = Bitmap.CompressFormat.JPEG;
-        }
-
         final Bitmap bmpRotated;
         try {
             bmpRotated = Bitmap.createBitmap(bmpResized, 0, 0, bmpResized.getWidth(), bmpResized.getHeight(), matrix,
                     true);
         } catch (OutOfMemoryError e) {
             AppLog.e(AppLog.T.UTILS, "OutOfMemoryError Error in setting image: " + e);
-            return null;
+            return false;
         } catch (NullPointerException e) {
             // See: https://github.com/wordpress-mobile/WordPress-Android/issues/1844
             AppLog.e(AppLog.T.UTILS, "Bitmap.createBitmap has thrown a NPE internally. This should never happen: " + e);
-            return null;
+            return false;
         }
 
         if (bmpRotated == null) {
             // Fix an issue where bmpRotated is null even if the documentation doesn't say Bitmap.createBitmap can return null.
             // See: https://github.com/wordpress-mobile/WordPress-Android/issues/1848
-            return null;
+            return false;
         }
 
-        bmpRotated.compress(fmt, 100, stream);
+        boolean success = bmpRotated.compress(fmt, 100, stream);
         bmpResized.recycle();
         bmpRotated.recycle();
 
-        return stream.toByteArray();
+        return success;
+    }
+
+    private static Bitmap.CompressFormat getCompressFormat(String fileExtension) {
+        if (fileExtension != null && fileExtension.equalsIgnoreCase("png")) {
+            return Bitmap.CompressFormat.PNG;
+        } else {
+            return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    private static String getFilePathFromUri(Context context, Uri imageUri) {
+        String filePath = null;
+        if (imageUri.toString().contains("content:")) {
+            String[] projection = new String[] { MediaStore.Images.Media.DATA };
+            Cursor cur = null;
+            try {
+                cur = context.getContentResolver().query(imageUri, projection, null, null, null);
+                if (cur != null && cur.moveToFirst()) {
+                    int dataColumn = cur.getColumnIndex(MediaStore.Images.Media.DATA);
+                    filePath = cur.getString(dataColumn);
+                }
+            } catch (IllegalStateException stateException) {
+                Log.d(ImageUtils.class.getName(), "IllegalStateException querying content:" + imageUri);
+            } finally {
+                SqlUtils.closeCursor(cur);
+            }
+        }
+
+        if (TextUtils.isEmpty(filePath)) {
+            //access the file directly
+            filePath = imageUri.toString().replace("content://media", "");
+            filePath = filePath.replace("file://", "");
+        }
+        return filePath;
+    }
+
+    private static byte[] readFile(File file) {
+        DataInputStream in = null;
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            in = new DataInputStream(new FileInputStream(file));
+            in.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            AppLog.e(AppLog.T.UTILS, "unable to read cached thumbnail", e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            AppLog.e(AppLog.T.UTILS, "OutOfMemoryError Error in reading cached thumbnail: " + e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nop
+                }
+            }
+        }
     }
 
     public static Bitmap getCircularBitmap(final Bitmap bitmap) {
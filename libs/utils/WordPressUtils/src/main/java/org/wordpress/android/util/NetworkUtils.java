@@ -57,6 +57,22 @@ public class NetworkUtils {
         return (getActiveNetworkType(context) == ConnectivityManager.TYPE_WIFI);
     }
 
+    /**
+     * returns true if the active connection may cost the user money (mobile data, or a
+     * WiFi hotspot the system flagged as metered)
+     */
+    @TargetApi(VERSION_CODES.JELLY_BEAN)
+    public static boolean isActiveNetworkMetered(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return !isWiFiConnected(context);
+        }
+        if (context == null) {
+            return true;
+        }
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return cm == null || cm.isActiveNetworkMetered();
+    }
+
     /**
      * returns true if airplane mode has been enabled
      */
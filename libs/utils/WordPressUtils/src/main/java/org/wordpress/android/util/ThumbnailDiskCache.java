@@ -0,0 +1,294 @@
+package org.wordpress.android.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Size-bounded disk cache of the resized images created by ImageUtils, so the same photo isn't decoded, scaled
+ * and encoded again each time it's shown in the editor or uploaded. Entries are keyed by the source file path and
+ * modification date, so an edited photo gets a new entry, and the least recently used entries are deleted once
+ * the cache grows over its maximum size. Entries that are pinned, e.g. while they're being uploaded, are never
+ * evicted.
+ */
+public class ThumbnailDiskCache {
+    public static final long DEFAULT_MAX_SIZE_BYTES = 20 * 1024 * 1024;
+    private static final String CACHE_DIR_NAME = "thumbnails";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static ThumbnailDiskCache sInstance;
+
+    private final File mDir;
+    private final long mMaxSizeBytes;
+    // file name -> file size, least recently used first
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    // file name -> number of callers using the file
+    private final Map<String, Integer> mPinCounts = new HashMap<String, Integer>();
+    // opened once the existing entries have been read from disk, every public method waits for it - load()
+    // doesn't take the lock, so waiting while holding it is fine
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private long mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+
+    public interface EntryWriter {
+        /**
+         * Write the content of a new entry, called outside of the cache lock
+         * @return false if the entry couldn't be created and shouldn't be added to the cache
+         */
+        public boolean write(OutputStream out) throws IOException;
+    }
+
+    public static synchronized ThumbnailDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+            sInstance = new ThumbnailDiskCache(dir, DEFAULT_MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    public ThumbnailDiskCache(File dir, long maxSizeBytes) {
+        mDir = dir;
+        mMaxSizeBytes = maxSizeBytes;
+        // listing and sorting a full cache directory is slow, so it's not done on the thread asking
+        // for the cache, which may be the UI thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    mLoaded.countDown();
+                }
+            }
+        }, "ThumbnailDiskCache").start();
+    }
+
+    /*
+     * rebuilds the LRU order from the file dates, get() touches the files it returns - runs before any
+     * other method can touch the entries, so it doesn't need the lock
+     */
+    private void load() {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            AppLog.w(AppLog.T.UTILS, "unable to create thumbnail cache directory");
+            return;
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsDate = lhs.lastModified();
+                long rhsDate = rhs.lastModified();
+                return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // left over by a write that was interrupted
+                file.delete();
+            } else {
+                mEntries.put(file.getName(), file.length());
+                mSizeBytes += file.length();
+            }
+        }
+        trimToSize(null);
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoaded.await();
+                break;
+            } catch (InterruptedException e) {
+                // the entries can't be touched before they're loaded, keep waiting
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String getKey(String filePath, long lastModified, int maxWidth, int rotation,
+                                Bitmap.CompressFormat format) {
+        return StringUtils.getMd5Hash(filePath + "|" + lastModified + "|" + maxWidth + "|" + rotation + "|"
+                + format.name());
+    }
+
+    /*
+     * returns the cached file for this key, or null if it's not cached
+     */
+    public File get(String key) {
+        return get(key, false);
+    }
+
+    /*
+     * same as get(key), a pinned file isn't evicted until it's passed to unpin()
+     */
+    public synchronized File get(String key, boolean pin) {
+        awaitLoaded();
+        Long size = mEntries.get(key);
+        if (size == null) {
+            mMissCount++;
+            return null;
+        }
+        File file = new File(mDir, key);
+        if (!file.exists()) {
+            mEntries.remove(key);
+            mSizeBytes -= size;
+            mMissCount++;
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        mHitCount++;
+        if (pin) {
+            pinLocked(key);
+        }
+        return file;
+    }
+
+    /*
+     * streams a new entry to disk, the entry only replaces the current one once it's been written completely
+     * returns the cached file, or null if it couldn't be written
+     */
+    public File put(String key, EntryWriter writer) {
+        return put(key, writer, false);
+    }
+
+    /*
+     * same as put(key, writer), a pinned file isn't evicted until it's passed to unpin()
+     */
+    public File put(String key, EntryWriter writer, boolean pin) {
+        awaitLoaded();
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return null;
+        }
+        File tmpFile = new File(mDir, key + "-" + Thread.currentThread().getId() + TMP_SUFFIX);
+        boolean success = false;
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE);
+            success = writer.write(out);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            AppLog.e(AppLog.T.UTILS, "unable to write thumbnail to cache", e);
+            success = false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nop
+                }
+            }
+        }
+        if (!success) {
+            tmpFile.delete();
+            return null;
+        }
+
+        synchronized (this) {
+            File file = new File(mDir, key);
+            Long oldSize = mEntries.remove(key);
+            if (oldSize != null) {
+                mSizeBytes -= oldSize;
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                return null;
+            }
+            mEntries.put(key, file.length());
+            mSizeBytes += file.length();
+            if (pin) {
+                pinLocked(key);
+            }
+            trimToSize(key);
+            return file;
+        }
+    }
+
+    private void pinLocked(String key) {
+        Integer count = mPinCounts.get(key);
+        mPinCounts.put(key, count == null ? 1 : count + 1);
+    }
+
+    /*
+     * releases a file returned by get() or put() with pin=true, it can be evicted again once every
+     * caller that pinned it has released it
+     */
+    public synchronized void unpin(File file) {
+        awaitLoaded();
+        String key = file.getName();
+        Integer count = mPinCounts.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mPinCounts.put(key, count - 1);
+        } else {
+            mPinCounts.remove(key);
+            // evictions skipped while the file was pinned
+            trimToSize(null);
+        }
+    }
+
+    /*
+     * deletes the least recently used entries until the cache fits in its maximum size, the entry
+     * that was just added and the pinned ones are always kept
+     */
+    private void trimToSize(String keyToKeep) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keyToKeep) || mPinCounts.containsKey(entry.getKey())) {
+                continue;
+            }
+            new File(mDir, entry.getKey()).delete();
+            mSizeBytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        awaitLoaded();
+        for (String key : mEntries.keySet()) {
+            new File(mDir, key).delete();
+        }
+        mEntries.clear();
+        mPinCounts.clear();
+        mSizeBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        awaitLoaded();
+        return mSizeBytes;
+    }
+
+    public synchronized int getHitCount() {
+        awaitLoaded();
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        awaitLoaded();
+        return mMissCount;
+    }
+}